@@ -10750,6 +10750,9 @@ public class SConverter {
 		result.setAverageMs(input.getAverageMs());
 		result.setShortestMs(input.getShortestMs());
 		result.setLongestMs(input.getLongestMs());
+		result.setP50Ms(input.getP50Ms());
+		result.setP99Ms(input.getP99Ms());
+		result.setP999Ms(input.getP999Ms());
 		return result;
 	}
 
@@ -10778,6 +10781,9 @@ public class SConverter {
 		result.setAverageMs(input.getAverageMs());
 		result.setShortestMs(input.getShortestMs());
 		result.setLongestMs(input.getLongestMs());
+		result.setP50Ms(input.getP50Ms());
+		result.setP99Ms(input.getP99Ms());
+		result.setP999Ms(input.getP999Ms());
 		return result;
 	}
 
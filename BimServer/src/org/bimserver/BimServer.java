@@ -34,8 +34,10 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import javax.crypto.spec.SecretKeySpec;
@@ -57,6 +59,7 @@ import org.bimserver.database.OldQuery;
 import org.bimserver.database.OperationType;
 import org.bimserver.database.Record;
 import org.bimserver.database.RecordIterator;
+import org.bimserver.database.actions.CheckinTimings;
 import org.bimserver.database.berkeley.BerkeleyKeyValueStore;
 import org.bimserver.database.berkeley.DatabaseInitException;
 import org.bimserver.database.migrations.InconsistentModelsException;
@@ -70,12 +73,14 @@ import org.bimserver.emf.IfcModelInterface;
 import org.bimserver.emf.MetaDataManager;
 import org.bimserver.emf.PackageMetaData;
 import org.bimserver.endpoints.EndPointManager;
+import org.bimserver.geometry.GeometryScheduler;
 import org.bimserver.geometry.accellerator.GeometryAccellerator;
 import org.bimserver.interfaces.SConverter;
 import org.bimserver.interfaces.objects.SInternalServicePluginConfiguration;
 import org.bimserver.interfaces.objects.SPluginBundleVersion;
 import org.bimserver.interfaces.objects.SPluginInformation;
 import org.bimserver.interfaces.objects.SVersion;
+import org.bimserver.longaction.CheckinLockManager;
 import org.bimserver.longaction.LongActionManager;
 import org.bimserver.mail.MailSystem;
 import org.bimserver.models.ifc2x3tc1.Ifc2x3tc1Package;
@@ -147,6 +152,7 @@ import org.bimserver.shared.pb.ProtocolBuffersMetaData;
 import org.bimserver.shared.reflector.RealtimeReflectorFactoryBuilder;
 import org.bimserver.shared.reflector.ReflectorFactory;
 import org.bimserver.templating.TemplateEngine;
+import org.bimserver.utils.ByteBufferPool;
 import org.bimserver.utils.Formatters;
 import org.bimserver.utils.StringUtils;
 import org.bimserver.version.VersionChecker;
@@ -196,12 +202,18 @@ public class BimServer implements BasicServerInfoProvider {
 	private final EndPointManager endPointManager = new EndPointManager();
 	private final SConverter sConverter = new SConverter();
 	private final LongTransactionManager longTransactionManager = new LongTransactionManager();
+	private final CheckinLockManager checkinLockManager = new CheckinLockManager();
 	private JsonSocketReflectorFactory jsonSocketReflectorFactory;
 	private SecretKeySpec encryptionkey;
 	private BimServerClientFactory bimServerClientFactory;
 	private Map<String, WebModulePlugin> webModules = new HashMap<String, WebModulePlugin>();
 	private WebModulePlugin defaultWebModule;
 	private ExecutorService executorService = Executors.newCachedThreadPool();
+	// Direct buffers of 64KB up to 16MB for streaming binary data to websockets, at most 256MB is kept for reuse
+	private final ByteBufferPool byteBufferPool = new ByteBufferPool(64 * 1024, 16 * 1024 * 1024, 256L * 1024 * 1024);
+	// Only used to read type tables ahead for queries. Both the threads and the waiting scans are bounded, a scan that is rejected is read by the query itself
+	private final ThreadPoolExecutor typeScanExecutor = new ThreadPoolExecutor(Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(), 1L, TimeUnit.MINUTES, new ArrayBlockingQueue<Runnable>(Runtime.getRuntime().availableProcessors() * 2));
+	private GeometryScheduler geometryScheduler;
 	private InternalServicesManager internalServicesManager;
 	private MetaDataManager metaDataManager;
 	private SchemaConverterManager schemaConverterManager = new SchemaConverterManager();
@@ -222,6 +234,7 @@ public class BimServer implements BasicServerInfoProvider {
 	public BimServer(BimServerConfig config) {
 		System.setProperty("org.eclipse.emf.common.util.ReferenceClearingQueue", "false");
 		this.config = config;
+		typeScanExecutor.allowCoreThreadTimeOut(true);
 		try {
 			if (config.getHomeDir() != null) {
 				initHomeDir(config);
@@ -777,7 +790,7 @@ public class BimServer implements BasicServerInfoProvider {
 			mailSystem = new MailSystem(this);
 
 			diskCacheManager = new DiskCacheManager(this, config.getHomeDir().resolve("cache"));
-			newDiskCacheManager = new NewDiskCacheManager(this, config.getHomeDir().resolve("cache"));
+			newDiskCacheManager = new NewDiskCacheManager(this, config.getHomeDir().resolve("cache"), config.getCacheMaxBytes());
 
 			mergerFactory = new MergerFactory(this);
 
@@ -1127,9 +1140,10 @@ public class BimServer implements BasicServerInfoProvider {
 			}
 
 			int renderEngineProcesses = getServerSettingsCache().getServerSettings().getRenderEngineProcesses();
-			RenderEnginePoolFactory renderEnginePoolFactory = new CommonsPoolingRenderEnginePoolFactory(renderEngineProcesses);
+			RenderEnginePoolFactory renderEnginePoolFactory = new CommonsPoolingRenderEnginePoolFactory(renderEngineProcesses, config.getRenderEngineWarmEngines(), config.getRenderEngineMaxUses(), config.getRenderEngineMaxMemoryBytes());
 
 			renderEnginePools = new RenderEnginePools(this, renderEnginePoolFactory);
+			geometryScheduler = new GeometryScheduler(Math.max(1, config.getGeometryThreads()), Math.max(1, config.getGeometryJobQueueSize()));
 			
 			session = bimDatabase.createSession(OperationType.POSSIBLY_WRITE);
 //			createDatabaseObjects(session);
@@ -1216,6 +1230,9 @@ public class BimServer implements BasicServerInfoProvider {
 				if (jsonSchema == null) {
 					jsonSchema = createExtendedDataSchema(databaseSession, "GEOMETRY_GENERATION_REPORT_JSON_1_1", "application/json");
 				}
+				if (databaseSession.querySingle(StorePackage.eINSTANCE.getExtendedDataSchema_Name(), CheckinTimings.SCHEMA_NAME) == null) {
+					createExtendedDataSchema(databaseSession, CheckinTimings.SCHEMA_NAME, "application/json");
+				}
 				databaseSession.commit();
 			} catch (ServiceException e) {
 				LOGGER.error("", e);
@@ -1427,6 +1444,16 @@ public class BimServer implements BasicServerInfoProvider {
 	public void stop() {
 		LOGGER.info("Stopping BIMserver");
 		executorService.shutdown();
+		typeScanExecutor.shutdownNow();
+		if (jsonHandler != null) {
+			jsonHandler.shutdown();
+		}
+		if (geometryScheduler != null) {
+			geometryScheduler.stop();
+		}
+		if (renderEnginePools != null) {
+			renderEnginePools.close();
+		}
 		if (bimDatabase != null) {
 			try {
 				bimDatabase.close();
@@ -1560,10 +1587,26 @@ public class BimServer implements BasicServerInfoProvider {
 		return longTransactionManager;
 	}
 
+	public CheckinLockManager getCheckinLockManager() {
+		return checkinLockManager;
+	}
+
 	public ExecutorService getExecutorService() {
 		return executorService;
 	}
 
+	public ByteBufferPool getByteBufferPool() {
+		return byteBufferPool;
+	}
+
+	public ThreadPoolExecutor getTypeScanExecutor() {
+		return typeScanExecutor;
+	}
+
+	public GeometryScheduler getGeometryScheduler() {
+		return geometryScheduler;
+	}
+
 	public MetaDataManager getMetaDataManager() {
 		return metaDataManager;
 	}
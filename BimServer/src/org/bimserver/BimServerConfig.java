@@ -34,6 +34,12 @@ public class BimServerConfig {
 	private Environment environment;
 	private String resourceBase;
 	private Properties bdbEnvironmentProperties = null;
+	private int renderEngineMaxUses = 100;
+	private long renderEngineMaxMemoryBytes = -1;
+	private int renderEngineWarmEngines = 1;
+	private int geometryThreads = Runtime.getRuntime().availableProcessors();
+	private int geometryJobQueueSize = 100;
+	private long cacheMaxBytes = 10L * 1024 * 1024 * 1024;
 	
 	public boolean isStartEmbeddedWebServer() {
 		return startEmbeddedWebServer;
@@ -146,4 +152,70 @@ public class BimServerConfig {
 	public String getResourcebase() {
 		return resourceBase;
 	}
+
+	public int getRenderEngineMaxUses() {
+		return renderEngineMaxUses;
+	}
+
+	/**
+	 * @param renderEngineMaxUses The number of models a pooled render engine opens before it is replaced by a new one, 1 starts a new render engine for every model
+	 */
+	public void setRenderEngineMaxUses(int renderEngineMaxUses) {
+		this.renderEngineMaxUses = renderEngineMaxUses;
+	}
+
+	public long getRenderEngineMaxMemoryBytes() {
+		return renderEngineMaxMemoryBytes;
+	}
+
+	/**
+	 * @param renderEngineMaxMemoryBytes Pooled render engines that report (through their metrics) to have used more memory than this are replaced by a new one, -1 for no limit
+	 */
+	public void setRenderEngineMaxMemoryBytes(long renderEngineMaxMemoryBytes) {
+		this.renderEngineMaxMemoryBytes = renderEngineMaxMemoryBytes;
+	}
+
+	public int getRenderEngineWarmEngines() {
+		return renderEngineWarmEngines;
+	}
+
+	/**
+	 * @param renderEngineWarmEngines The number of initialized render engines each render engine pool tries to keep available
+	 */
+	public void setRenderEngineWarmEngines(int renderEngineWarmEngines) {
+		this.renderEngineWarmEngines = renderEngineWarmEngines;
+	}
+
+	public int getGeometryThreads() {
+		return geometryThreads;
+	}
+
+	/**
+	 * @param geometryThreads The number of threads that generate geometry for all checkins together, a single checkin never uses more threads than the number of render engine processes
+	 */
+	public void setGeometryThreads(int geometryThreads) {
+		this.geometryThreads = geometryThreads;
+	}
+
+	public int getGeometryJobQueueSize() {
+		return geometryJobQueueSize;
+	}
+
+	/**
+	 * @param geometryJobQueueSize The number of geometry jobs a checkin can have waiting, before preparing the next job waits until one has been started
+	 */
+	public void setGeometryJobQueueSize(int geometryJobQueueSize) {
+		this.geometryJobQueueSize = geometryJobQueueSize;
+	}
+
+	public long getCacheMaxBytes() {
+		return cacheMaxBytes;
+	}
+
+	/**
+	 * @param cacheMaxBytes The maximum size of the cached downloads on disk, the least recently used downloads are removed when it is exceeded, 0 or less for no maximum
+	 */
+	public void setCacheMaxBytes(long cacheMaxBytes) {
+		this.cacheMaxBytes = cacheMaxBytes;
+	}
 }
\ No newline at end of file
@@ -230,4 +230,26 @@ public class GenerateGeometryResult {
 	public List<Density> getDensities() {
 		return densities;
 	}
+
+	/**
+	 * Extends the bounds of this result so they also contain the given bounds (for example of geometry that has been generated before)
+	 */
+	public void extendBounds(Bounds bounds, Bounds boundsUntransformed) {
+		if (bounds != null) {
+			setMinX(Math.min(getMinX(), bounds.getMin().getX()));
+			setMinY(Math.min(getMinY(), bounds.getMin().getY()));
+			setMinZ(Math.min(getMinZ(), bounds.getMin().getZ()));
+			setMaxX(Math.max(getMaxX(), bounds.getMax().getX()));
+			setMaxY(Math.max(getMaxY(), bounds.getMax().getY()));
+			setMaxZ(Math.max(getMaxZ(), bounds.getMax().getZ()));
+		}
+		if (boundsUntransformed != null) {
+			setUntranslatedMinX(Math.min(getUntranslatedMinX(), boundsUntransformed.getMin().getX()));
+			setUntranslatedMinY(Math.min(getUntranslatedMinY(), boundsUntransformed.getMin().getY()));
+			setUntranslatedMinZ(Math.min(getUntranslatedMinZ(), boundsUntransformed.getMin().getZ()));
+			setUntranslatedMaxX(Math.max(getUntranslatedMaxX(), boundsUntransformed.getMax().getX()));
+			setUntranslatedMaxY(Math.max(getUntranslatedMaxY(), boundsUntransformed.getMax().getY()));
+			setUntranslatedMaxZ(Math.max(getUntranslatedMaxZ(), boundsUntransformed.getMax().getZ()));
+		}
+	}
 }
\ No newline at end of file
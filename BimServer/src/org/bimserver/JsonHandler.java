@@ -19,6 +19,14 @@ package org.bimserver;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -33,6 +41,7 @@ import org.bimserver.shared.exceptions.ServiceException;
 import org.bimserver.shared.exceptions.UserException;
 import org.bimserver.shared.interfaces.PublicInterface;
 import org.bimserver.shared.json.JsonConverter;
+import org.bimserver.shared.json.StreamingJsonConverter;
 import org.bimserver.shared.meta.SMethod;
 import org.bimserver.shared.meta.SParameter;
 import org.bimserver.shared.meta.SService;
@@ -42,21 +51,34 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerationException;
 import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonStreamContext;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+/**
+ * Executes JSON API messages. The requests of a message with a "requests" array are executed one after the other, or concurrently on a bounded pool
+ * when the message has "concurrent": true, the responses are always written in the order of the requests. Results are streamed to the output, no JSON
+ * tree of a result is built. When writing a result fails halfway, the part that has been written is closed and an "exception" is added to the response.
+ */
 public class JsonHandler {
 	private static final Logger LOGGER = LoggerFactory.getLogger(JsonHandler.class);
 	private final BimServer bimServer;
 	private final JsonConverter converter;
-	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+	private final StreamingJsonConverter streamingConverter = new StreamingJsonConverter();
+	private final ThreadPoolExecutor batchExecutor;
 
 	public JsonHandler(BimServer bimServer) {
 		this.bimServer = bimServer;
 		this.converter = new JsonConverter(bimServer.getServicesMap());
+		int nrThreads = Runtime.getRuntime().availableProcessors() * 2;
+		this.batchExecutor = new ThreadPoolExecutor(nrThreads, nrThreads, 1L, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>());
+		this.batchExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	public void shutdown() {
+		batchExecutor.shutdownNow();
 	}
 
 	public void execute(ObjectNode incomingMessage, HttpServletRequest httpRequest, Writer out) {
@@ -76,7 +98,8 @@ public class JsonHandler {
 				writer.writeFieldName("response");
 				processSingleRequest((ObjectNode) incomingMessage.get("request"), token, oAuthCode, httpRequest, writer);
 			} else if (incomingMessage.has("requests")) {
-				processMultiRequest((ArrayNode) incomingMessage.get("requests"), token, oAuthCode, httpRequest, writer);
+				boolean concurrent = incomingMessage.has("concurrent") && incomingMessage.get("concurrent").asBoolean();
+				processMultiRequest((ArrayNode) incomingMessage.get("requests"), concurrent, token, oAuthCode, httpRequest, writer);
 			}
 		} catch (Throwable throwable) {
 			if (throwable instanceof UserException) {
@@ -97,20 +120,93 @@ public class JsonHandler {
 		}
 	}
 
-	private void processMultiRequest(ArrayNode requests, String jsonToken, String oAuthCode, HttpServletRequest httpRequest, JsonGenerator out) throws Exception {
+	private void processMultiRequest(ArrayNode requests, boolean concurrent, String jsonToken, String oAuthCode, HttpServletRequest httpRequest, JsonGenerator out) throws Exception {
 		out.writeFieldName("responses");
 		out.writeStartArray();
-		for (int r = 0; r < requests.size(); r++) {
-			try {
-				processSingleRequest((ObjectNode) requests.get(r), jsonToken, oAuthCode, httpRequest, out);
-			} catch (Exception e) {
-				handleThrowable(out, e);
+		if (!concurrent || requests.size() < 2) {
+			for (int r = 0; r < requests.size(); r++) {
+				try {
+					processSingleRequest((ObjectNode) requests.get(r), jsonToken, oAuthCode, httpRequest, out);
+				} catch (Exception e) {
+					handleThrowable(out, e);
+				}
+			}
+		} else {
+			List<Future<Object>> futures = new ArrayList<>(requests.size());
+			for (int r = 0; r < requests.size(); r++) {
+				final ObjectNode request = (ObjectNode) requests.get(r);
+				futures.add(batchExecutor.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						return invoke(request, jsonToken, oAuthCode, httpRequest);
+					}
+				}));
+			}
+			// Each response is written as soon as it and all responses before it are available
+			for (int r = 0; r < futures.size(); r++) {
+				try {
+					writeResult(futures.get(r).get(), out);
+				} catch (ExecutionException e) {
+					handleThrowable(out, e.getCause());
+				} catch (InterruptedException e) {
+					for (int i = r; i < futures.size(); i++) {
+						futures.get(i).cancel(true);
+					}
+					throw e;
+				}
 			}
 		}
 		out.writeEndArray();
 	}
 
 	private void processSingleRequest(ObjectNode request, String jsonToken, String oAuthCode, HttpServletRequest httpRequest, JsonGenerator writer) throws Exception {
+		writeResult(invoke(request, jsonToken, oAuthCode, httpRequest), writer);
+	}
+
+	private void writeResult(Object result, JsonGenerator writer) throws IOException {
+		writer.writeStartObject();
+		JsonStreamContext responseContext = writer.getOutputContext();
+		writer.writeFieldName("result");
+		try {
+			if (result == null) {
+				writer.writeStartObject();
+				writer.writeEndObject();
+			} else {
+				streamingConverter.toJson(result, writer);
+			}
+		} catch (IOException | RuntimeException e) {
+			LOGGER.error("", e);
+			closeUntil(writer, responseContext);
+			writeException(writer, e);
+		}
+		writer.writeEndObject();
+	}
+
+	/**
+	 * Closes all arrays and objects that have been opened after the given context, so the output stays valid JSON
+	 */
+	private void closeUntil(JsonGenerator writer, JsonStreamContext context) throws IOException {
+		while (writer.getOutputContext() != context) {
+			if (writer.getOutputContext().inArray()) {
+				writer.writeEndArray();
+			} else {
+				writeMissingValue(writer);
+				writer.writeEndObject();
+			}
+		}
+		writeMissingValue(writer);
+	}
+
+	private void writeMissingValue(JsonGenerator writer) throws IOException {
+		try {
+			// Only possible when a field name has been written without a value
+			writer.writeNull();
+		} catch (JsonGenerationException e) {
+			// No field name without a value
+		}
+	}
+
+	private Object invoke(ObjectNode request, String jsonToken, String oAuthCode, HttpServletRequest httpRequest) throws Exception {
 		long s = System.nanoTime();
 		if (!request.has("interface")) {
 			throw new UserException("No \"interface\" parameter found in request");
@@ -169,28 +265,9 @@ public class JsonHandler {
 				recording.finish();
 			}
 
-			// When we have managed to get here, no exceptions have been thrown.
-			// We
-			// can safely assume further serialization to JSON won't fail. So
-			// now we
-			// can start streaming
-			if (writer != null) {
-				if (result == null) {
-					writer.writeStartObject();
-					writer.writeFieldName("result");
-					writer.writeStartObject();
-					writer.writeEndObject();
-					writer.writeEndObject();
-				} else {
-					writer.writeStartObject();
-					writer.writeFieldName("result");
-					JsonNode jsonResult = converter.toJson(result);
-					OBJECT_MAPPER.writeValue(writer, jsonResult);
-					writer.writeEndObject();
-				}
-			}
 			long e = System.nanoTime();
 			LOGGER.debug(interfaceName + "." + methodName + " " + ((e - s) / 1000000) + "ms");
+			return result;
 		} finally {
 			Thread.currentThread().setName(oldThreadName);
 		}
@@ -206,28 +283,32 @@ public class JsonHandler {
 		}
 		try {
 			writer.writeStartObject();
-			writer.writeFieldName("exception");
-			writer.writeStartObject();
-			writer.writeFieldName("__type");
-			writer.writeString(throwable.getClass().getSimpleName());
-			writer.writeFieldName("message");
-			writer.writeString(throwable.getMessage() == null ? throwable.toString() : throwable.getMessage());
-			if (throwable instanceof ServiceException) {
-				ServiceException serviceException = (ServiceException) throwable;
-				if (serviceException.getErrorCode() != null) {
-					writer.writeFieldName("errorType");
-					writer.writeString(serviceException.getErrorCode().getClass().getSimpleName());
-					writer.writeFieldName("errorCode");
-					writer.writeNumber(serviceException.getErrorCode().getCode());
-				}
-			}
-			writer.writeEndObject();
+			writeException(writer, throwable);
 			writer.writeEndObject();
 		} catch (IOException e) {
 			LOGGER.error("", e);
 		}
 	}
 
+	private void writeException(JsonGenerator writer, Throwable throwable) throws IOException {
+		writer.writeFieldName("exception");
+		writer.writeStartObject();
+		writer.writeFieldName("__type");
+		writer.writeString(throwable.getClass().getSimpleName());
+		writer.writeFieldName("message");
+		writer.writeString(throwable.getMessage() == null ? throwable.toString() : throwable.getMessage());
+		if (throwable instanceof ServiceException) {
+			ServiceException serviceException = (ServiceException) throwable;
+			if (serviceException.getErrorCode() != null) {
+				writer.writeFieldName("errorType");
+				writer.writeString(serviceException.getErrorCode().getClass().getSimpleName());
+				writer.writeFieldName("errorCode");
+				writer.writeNumber(serviceException.getErrorCode().getCode());
+			}
+		}
+		writer.writeEndObject();
+	}
+
 	private ServiceMap getServiceMap(HttpServletRequest httpRequest, BimServer bimServer, String methodName, String token, String oAuthCode) throws UserException {
 		if (token == null) {
 			token = httpRequest == null ? null : (String) httpRequest.getSession().getAttribute("token");
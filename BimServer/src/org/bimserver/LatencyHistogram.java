@@ -0,0 +1,88 @@
+package org.bimserver;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in microseconds, with buckets of which the width grows with the value (like HdrHistogram), so the relative error of a
+ * percentile is at most about 3%, with a fixed amount of memory. Recording only increments an atomic counter and never blocks.
+ *
+ * Values up to 64 microseconds have their own bucket, above that every power of two is divided into 32 buckets. Values above MAX_MICROS (about 38
+ * hours) are counted as MAX_MICROS.
+ */
+public class LatencyHistogram {
+	private static final int LINEAR_BUCKETS = 64;
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_EXPONENT = 36;
+	public static final long MAX_MICROS = (1L << (MAX_EXPONENT + 1)) - 1;
+
+	// The exponent of the first logarithmic bucket, log2(LINEAR_BUCKETS)
+	private static final int FIRST_EXPONENT = 6;
+	private final AtomicLongArray counts = new AtomicLongArray(LINEAR_BUCKETS + (MAX_EXPONENT - FIRST_EXPONENT + 1) * SUB_BUCKETS);
+
+	public void record(long micros) {
+		counts.incrementAndGet(getIndex(Math.max(0, Math.min(micros, MAX_MICROS))));
+	}
+
+	/**
+	 * @param percentile Between 0 and 100, for example 99.9
+	 * @return The highest value that is equivalent to the value at the given percentile, or 0 when nothing has been recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		// Recording is not stopped while reading, so the total is taken from the same copy that is walked
+		long[] snapshot = new long[counts.length()];
+		long total = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(total * Math.min(100, percentile) / 100));
+		long seen = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			seen += snapshot[i];
+			if (seen >= target) {
+				return getHighestValue(i);
+			}
+		}
+		return MAX_MICROS;
+	}
+
+	private static int getIndex(long micros) {
+		if (micros < LINEAR_BUCKETS) {
+			return (int) micros;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+		return LINEAR_BUCKETS + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long getHighestValue(int index) {
+		if (index < LINEAR_BUCKETS) {
+			return index;
+		}
+		int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + FIRST_EXPONENT;
+		int subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+		int shift = exponent - SUB_BUCKET_BITS;
+		return ((long) (SUB_BUCKETS + subBucket) << shift) + (1L << shift) - 1;
+	}
+}
@@ -22,23 +22,65 @@ import java.util.concurrent.atomic.AtomicLong;
 import org.bimserver.shared.meta.SMethod;
 import org.bimserver.shared.meta.SService;
 
+/**
+ * Statistics of the calls of one method. All counters are updated without locking, so recording does not make concurrent calls wait for each other.
+ */
 public class MethodStats {
 	private final AtomicLong nrCalls = new AtomicLong();
 	private final AtomicLong totalNanoSeconds = new AtomicLong();
+	private final AtomicLong shortestNanoSeconds = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong longestNanoSeconds = new AtomicLong();
+	private final LatencyHistogram histogram = new LatencyHistogram();
+	private volatile long lastCall;
 
 	public MethodStats(SService sService, SMethod sMethod) {
 	}
 
 	public void add(Recording recording) {
+		long totalTime = recording.getTotalTime();
 		nrCalls.incrementAndGet();
-		totalNanoSeconds.addAndGet(recording.getTotalTime());
+		totalNanoSeconds.addAndGet(totalTime);
+		histogram.record(totalTime / 1000);
+		lastCall = System.currentTimeMillis();
+		long shortest = shortestNanoSeconds.get();
+		while (totalTime < shortest && !shortestNanoSeconds.compareAndSet(shortest, totalTime)) {
+			shortest = shortestNanoSeconds.get();
+		}
+		long longest = longestNanoSeconds.get();
+		while (totalTime > longest && !longestNanoSeconds.compareAndSet(longest, totalTime)) {
+			longest = longestNanoSeconds.get();
+		}
 	}
 	
 	public long getAverageNanoSecondsPerCall() {
-		return totalNanoSeconds.get() / nrCalls.get();
+		long calls = nrCalls.get();
+		return calls == 0 ? 0 : totalNanoSeconds.get() / calls;
 	}
 
 	public long getNrCalls() {
 		return nrCalls.get();
 	}
+
+	public long getShortestNanoSeconds() {
+		long shortest = shortestNanoSeconds.get();
+		return shortest == Long.MAX_VALUE ? 0 : shortest;
+	}
+
+	public long getLongestNanoSeconds() {
+		return longestNanoSeconds.get();
+	}
+
+	/**
+	 * @return The time of the last finished call in milliseconds since the epoch, or 0
+	 */
+	public long getLastCall() {
+		return lastCall;
+	}
+
+	/**
+	 * @param percentile Between 0 and 100, for example 99.9
+	 */
+	public long getMicrosAtPercentile(double percentile) {
+		return histogram.getValueAtPercentile(percentile);
+	}
 }
\ No newline at end of file
@@ -17,8 +17,10 @@ package org.bimserver;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
-import java.util.HashMap;
+import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.bimserver.interfaces.objects.SInterfaceMetric;
 import org.bimserver.interfaces.objects.SMethodMetric;
@@ -28,42 +30,56 @@ import org.bimserver.shared.meta.SService;
 
 public class MetricsRegistry {
 
-	private final Map<SService, Map<SMethod, MethodStats>> methodStats = new HashMap<>();
+	private final ConcurrentMap<SService, ConcurrentMap<SMethod, MethodStats>> methodStats = new ConcurrentHashMap<>();
 	
 	public Recording startRecording(SService sService, SMethod method) {
 		return new Recording(this, sService, method);
 	}
 	
-	public synchronized MethodStats getMethodStats(SMethod sMethod) {
-		Map<SMethod, MethodStats> map = this.methodStats.get(sMethod.getService());
+	public MethodStats getMethodStats(SMethod sMethod) {
+		ConcurrentMap<SMethod, MethodStats> map = this.methodStats.get(sMethod.getService());
 		if (map == null) {
-			map = new HashMap<SMethod, MethodStats>();
-			this.methodStats.put(sMethod.getService(), map);
+			map = new ConcurrentHashMap<SMethod, MethodStats>();
+			ConcurrentMap<SMethod, MethodStats> existing = this.methodStats.putIfAbsent(sMethod.getService(), map);
+			if (existing != null) {
+				map = existing;
+			}
 		}
 		MethodStats methodStats = map.get(sMethod);
 		if (methodStats == null) {
 			methodStats = new MethodStats(sMethod.getService(), sMethod);
-			map.put(sMethod, methodStats);
+			MethodStats existing = map.putIfAbsent(sMethod, methodStats);
+			if (existing != null) {
+				methodStats = existing;
+			}
 		}
 		return methodStats;
 	}
 	
-	public synchronized SMetrics getMetrics() {
+	public SMetrics getMetrics() {
 		SMetrics sMetrics = new SMetrics();
-		for (SService sService : methodStats.keySet()) {
+		for (Map.Entry<SService, ConcurrentMap<SMethod, MethodStats>> serviceEntry : methodStats.entrySet()) {
 			SInterfaceMetric interfaceMetric = new SInterfaceMetric();
-			interfaceMetric.setName(sService.getSimpleName());
+			interfaceMetric.setName(serviceEntry.getKey().getSimpleName());
 			
 			sMetrics.getInterfaces().add(interfaceMetric);
-			for (SMethod sMethod : methodStats.get(sService).keySet()) {
+			for (Map.Entry<SMethod, MethodStats> methodEntry : serviceEntry.getValue().entrySet()) {
 				SMethodMetric sMethodMetric = new SMethodMetric();
-				sMethodMetric.setName(sMethod.getName());
+				sMethodMetric.setName(methodEntry.getKey().getName());
 				
 				interfaceMetric.getMethods().add(sMethodMetric);
 				
-				MethodStats methodStats = getMethodStats(sMethod);
+				MethodStats methodStats = methodEntry.getValue();
 				sMethodMetric.setNrCalls(methodStats.getNrCalls());
 				sMethodMetric.setAverageMs(methodStats.getAverageNanoSecondsPerCall() / 1000000);
+				sMethodMetric.setShortestMs(methodStats.getShortestNanoSeconds() / 1000000);
+				sMethodMetric.setLongestMs(methodStats.getLongestNanoSeconds() / 1000000);
+				if (methodStats.getLastCall() != 0) {
+					sMethodMetric.setLastCall(new Date(methodStats.getLastCall()));
+				}
+				sMethodMetric.setP50Ms(methodStats.getMicrosAtPercentile(50) / 1000);
+				sMethodMetric.setP99Ms(methodStats.getMicrosAtPercentile(99) / 1000);
+				sMethodMetric.setP999Ms(methodStats.getMicrosAtPercentile(99.9) / 1000);
 			}
 		}
 		return sMetrics;
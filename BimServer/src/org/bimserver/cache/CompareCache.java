@@ -17,10 +17,22 @@ package org.bimserver.cache;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.database.BimDatabase;
+import org.bimserver.database.CompareResultStore;
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.OperationType;
 import org.bimserver.models.store.CompareResult;
 import org.bimserver.models.store.CompareType;
+import org.bimserver.shared.exceptions.ServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Compare results that have been used recently are kept in memory, all compare results are also stored in the database by {@link CompareResultStore}
+ */
 public class CompareCache extends GenericCache<CompareCache.CompareKey, CompareCache.CompareValue> {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CompareCache.class);
 	private static final int MAX_UNACCESSED_TIME_MS = 1000 * 60 * 30; // 30 minutes
 
 	public static class CompareKey extends GenericCacheKey {
@@ -97,4 +109,31 @@ public class CompareCache extends GenericCache<CompareCache.CompareKey, CompareC
 	public void storeResults(long roid1, long roid2, CompareType sCompareType, CompareResult compareResults) {
 		store(new CompareKey(roid1, roid2, sCompareType), new CompareValue(compareResults));
 	}
+
+	/**
+	 * @return The results from memory, or from the database when they have been stored by an earlier compare, or null
+	 */
+	public CompareResult getCompareResults(DatabaseSession databaseSession, long roid1, long roid2, CompareType sCompareType) throws BimserverDatabaseException {
+		CompareResult compareResults = getCompareResults(roid1, roid2, sCompareType);
+		if (compareResults == null) {
+			compareResults = CompareResultStore.get(databaseSession, roid1, roid2, sCompareType);
+			if (compareResults != null) {
+				storeResults(roid1, roid2, sCompareType, compareResults);
+			}
+		}
+		return compareResults;
+	}
+
+	/**
+	 * Stores the results in memory and in the database, failing to store them in the database is only logged
+	 */
+	public void storeResults(BimDatabase database, long roid1, long roid2, CompareType sCompareType, CompareResult compareResults) {
+		storeResults(roid1, roid2, sCompareType, compareResults);
+		try (DatabaseSession databaseSession = database.createSession(OperationType.POSSIBLY_WRITE)) {
+			CompareResultStore.store(databaseSession, roid1, roid2, sCompareType, compareResults);
+			databaseSession.commit();
+		} catch (BimserverDatabaseException | ServiceException e) {
+			LOGGER.error("", e);
+		}
+	}
 }
\ No newline at end of file
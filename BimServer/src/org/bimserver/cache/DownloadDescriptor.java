@@ -19,6 +19,7 @@ package org.bimserver.cache;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.Collections;
 import java.util.Set;
 
 import org.bimserver.database.queries.om.JsonQueryObjectModelConverter;
@@ -45,6 +46,7 @@ public class DownloadDescriptor {
 	private String fileNameWithoutExtension;
 	private PackageMetaData packageMetaData;
 	private String jsonQuery;
+	private Set<Long> poids = Collections.emptySet();
 
 	public long getSerializerOid() {
 		return serializerOid;
@@ -95,4 +97,15 @@ public class DownloadDescriptor {
 	public String getFileNameWithoutExtension() {
 		return fileNameWithoutExtension;
 	}
+
+	/**
+	 * @return The projects the download contains data of, the cached download is removed when a new revision is added to one of them
+	 */
+	public Set<Long> getPoids() {
+		return poids;
+	}
+
+	public void setPoids(Set<Long> poids) {
+		this.poids = poids;
+	}
 }
@@ -30,11 +30,11 @@ import org.bimserver.plugins.serializers.ProgressReporter;
 import org.bimserver.plugins.serializers.SerializerException;
 import org.bimserver.plugins.serializers.Writer;
 import org.bimserver.servlets.ReusableLittleEndianDataOutputStream;
-import org.bimserver.utils.GrowingByteBuffer;
 
 import com.google.common.io.ByteStreams;
 
 public class FileCacheReadingWriter implements Writer, Closeable {
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
 
 	private Path file;
 	private DataInputStream inputStream;
@@ -56,10 +56,23 @@ public class FileCacheReadingWriter implements Writer, Closeable {
 		if (outputStream instanceof ReusableLittleEndianDataOutputStream) {
 			ReusableLittleEndianDataOutputStream reusableLittleEndianDataOutputStream = (ReusableLittleEndianDataOutputStream)outputStream;
 			reusableLittleEndianDataOutputStream.ensureExtraCapacity(nextSize);
-			GrowingByteBuffer growingByteBuffer = reusableLittleEndianDataOutputStream.getGrowingByteBuffer();
-			ByteBuffer targetBuffer = growingByteBuffer.getByteBuffer();
-			inputStream.readFully(targetBuffer.array(), targetBuffer.position(), nextSize);
-			targetBuffer.position(targetBuffer.position() + nextSize);
+			ByteBuffer targetBuffer = reusableLittleEndianDataOutputStream.getByteBuffer();
+			if (targetBuffer.hasArray()) {
+				inputStream.readFully(targetBuffer.array(), targetBuffer.arrayOffset() + targetBuffer.position(), nextSize);
+				targetBuffer.position(targetBuffer.position() + nextSize);
+			} else {
+				// Direct buffer from the pool, copy through a small buffer
+				if (buffer == null) {
+					buffer = new byte[COPY_BUFFER_SIZE];
+				}
+				int remaining = nextSize;
+				while (remaining > 0) {
+					int length = Math.min(remaining, buffer.length);
+					inputStream.readFully(buffer, 0, length);
+					targetBuffer.put(buffer, 0, length);
+					remaining -= length;
+				}
+			}
 			nextSize = inputStream.readInt();
 			return nextSize != -1;
 		} else {
@@ -29,6 +29,8 @@ import org.bimserver.plugins.serializers.ExtendedDataSource;
 import org.bimserver.plugins.serializers.ProgressReporter;
 import org.bimserver.plugins.serializers.SerializerException;
 
+import com.google.common.io.ByteStreams;
+
 public class FileInputStreamDataSource extends ExtendedDataSource {
 
 	private final Path file;
@@ -69,6 +71,17 @@ public class FileInputStreamDataSource extends ExtendedDataSource {
 		this.name = name;
 	}
 
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Has to be called when the data is not written with one of the write methods, for example because the client already has it
+	 */
+	public void done() {
+		doneListener.done();
+	}
+
 	public long size() {
 		try {
 			return Files.size(file);
@@ -83,6 +96,17 @@ public class FileInputStreamDataSource extends ExtendedDataSource {
 		copy(getInputStream(), outputStream, progressReporter, Files.size(file));
 		doneListener.done();
 	}
+
+	/**
+	 * Writes length bytes, starting at offset
+	 */
+	public void writeRangeToOutputStream(OutputStream outputStream, long offset, long length, ProgressReporter progressReporter) throws IOException {
+		try (InputStream input = getInputStream()) {
+			ByteStreams.skipFully(input, offset);
+			copy(ByteStreams.limit(input, length), outputStream, progressReporter, length);
+		}
+		doneListener.done();
+	}
 	
 	private long copy(InputStream input, OutputStream output, ProgressReporter progressReporter, long totalSize) throws IOException {
 		byte[] buffer = new byte[4096];
@@ -32,11 +32,11 @@ public abstract class GenericCache<K extends GenericCacheKey, V extends GenericC
 		
 	}
 	
-	protected void store(K key, V value) {
+	protected synchronized void store(K key, V value) {
 		cache.put(key, value);
 	}
 	
-	protected V getValue(K key) {
+	protected synchronized V getValue(K key) {
 		return cache.get(key);
 	}
 	
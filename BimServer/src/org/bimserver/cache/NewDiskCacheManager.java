@@ -21,10 +21,18 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.bimserver.BimServer;
 import org.bimserver.plugins.serializers.MessagingStreamingSerializer;
@@ -32,17 +40,59 @@ import org.bimserver.utils.PathUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Disk cache of serialized downloads, bounded to a maximum amount of bytes. When a new file makes the cache exceed that amount, the least recently
+ * used files are removed until the cache is at 90% of the maximum. The last access time is also stored as the modification time of the files, so the
+ * order survives restarts.
+ *
+ * Files are also removed when a new revision is added to a project they contain data of, see {@link #invalidateProject(long)}.
+ *
+ * Compressed variants of a file (gzip or zip) are stored next to it as key.gz and key.zip, they are created the first time a client asks for them
+ * and are removed together with the file.
+ */
 public class NewDiskCacheManager {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(NewDiskCacheManager.class);
+	// Files that have been accessed less than this long ago are not evicted, so a file that has just been returned by get() can still be opened
+	private static final long EVICTION_GRACE_MILLIS = 60 * 1000;
+	// The directory is shared with DiskCacheManager, whose files are left alone
+	private static final Pattern CACHE_KEY_PATTERN = Pattern.compile("[0-9a-f]{32}");
+	public static final String GZIP_VARIANT = "gz";
+	public static final String ZIP_VARIANT = "zip";
+	private static final Pattern VARIANT_PATTERN = Pattern.compile("([0-9a-f]{32})\\.(" + GZIP_VARIANT + "|" + ZIP_VARIANT + ")");
 	private final Path cacheDir;
 	private final BimServer bimServer;
-	private final Set<String> cachedFileNames = new HashSet<>();
-	private final Map<String, DiskCacheItem> busyCaching = new HashMap<>();
+	private final long maxBytes;
+	private final ConcurrentHashMap<String, CacheEntry> entries = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, DiskCacheItem> busyCaching = new ConcurrentHashMap<>();
+	// Variants (key.variant) that are being written
+	private final Set<String> busyVariants = ConcurrentHashMap.newKeySet();
+	private final AtomicLong totalBytes = new AtomicLong();
+	private final Object evictionLock = new Object();
 
-	public NewDiskCacheManager(BimServer bimServer, Path cacheDir) {
+	private static class CacheEntry {
+		private final String cacheKey;
+		private final long size;
+		private final Set<Long> poids;
+		// Variant -> size
+		private final ConcurrentHashMap<String, Long> variants = new ConcurrentHashMap<>();
+		private volatile long lastAccess;
+
+		public CacheEntry(String cacheKey, long size, Set<Long> poids, long lastAccess) {
+			this.cacheKey = cacheKey;
+			this.size = size;
+			this.poids = poids;
+			this.lastAccess = lastAccess;
+		}
+	}
+
+	/**
+	 * @param maxBytes The maximum size of all cached files together, 0 or less for no maximum
+	 */
+	public NewDiskCacheManager(BimServer bimServer, Path cacheDir, long maxBytes) {
 		this.bimServer = bimServer;
 		this.cacheDir = cacheDir;
+		this.maxBytes = maxBytes;
 		try {
 			if (!Files.exists(cacheDir)) {
 				Files.createDirectory(cacheDir);
@@ -50,26 +100,37 @@ public class NewDiskCacheManager {
 			for (Path file : PathUtils.list(this.cacheDir)) {
 				if (file.getFileName().toString().endsWith(".__tmp")) {
 					Files.delete(file);
-				} else {
-					cachedFileNames.add(file.getFileName().toString());
+				} else if (CACHE_KEY_PATTERN.matcher(file.getFileName().toString()).matches()) {
+					// Which projects the file contains data of is not known anymore, it will only be removed when it has not been used for a while
+					CacheEntry cacheEntry = new CacheEntry(file.getFileName().toString(), Files.size(file), Collections.<Long>emptySet(), Files.getLastModifiedTime(file).toMillis());
+					entries.put(cacheEntry.cacheKey, cacheEntry);
+					totalBytes.addAndGet(cacheEntry.size);
+				}
+			}
+			for (Path file : PathUtils.list(this.cacheDir)) {
+				Matcher matcher = VARIANT_PATTERN.matcher(file.getFileName().toString());
+				if (matcher.matches()) {
+					CacheEntry cacheEntry = entries.get(matcher.group(1));
+					if (cacheEntry == null) {
+						Files.delete(file);
+					} else {
+						long size = Files.size(file);
+						cacheEntry.variants.put(matcher.group(2), size);
+						totalBytes.addAndGet(size);
+					}
 				}
 			}
 		} catch (IOException e) {
 			LOGGER.error("", e);
 		}
+		LOGGER.info("Disk cache contains " + entries.size() + " files, " + totalBytes.get() + " bytes");
+		evictIfNeeded();
 	}
 	
 	public boolean contains(DownloadDescriptor downloadDescriptor) {
 		if (isEnabled()) {
 			String cacheKey = downloadDescriptor.getCacheKey();
-			synchronized (busyCaching) {
-				if (busyCaching.containsKey(cacheKey)) {
-					return true;
-				}
-			}
-			synchronized (cachedFileNames) {
-				return cachedFileNames.contains(cacheKey);
-			}
+			return busyCaching.containsKey(cacheKey) || entries.containsKey(cacheKey);
 		} else {
 			return false;
 		}
@@ -82,10 +143,7 @@ public class NewDiskCacheManager {
 	public Path get(DownloadDescriptor downloadDescriptor) {
 		if (isEnabled()) {
 			String cacheKey = downloadDescriptor.getCacheKey();
-			DiskCacheItem diskCacheItem = null;
-			synchronized (busyCaching) {
-				diskCacheItem = busyCaching.get(cacheKey);
-			}
+			DiskCacheItem diskCacheItem = busyCaching.get(cacheKey);
 			if (diskCacheItem != null) {
 				try {
 					LOGGER.info("Waiting for " + cacheKey);
@@ -97,11 +155,15 @@ public class NewDiskCacheManager {
 			Path file = cacheDir.resolve(cacheKey);
 			if (!Files.exists(file)) {
 				// This is an inconsistency that can only happen when users remove cached files manually while BIMserver is running
-				cachedFileNames.remove(file.getFileName().toString());
-				busyCaching.remove(downloadDescriptor.getCacheKey());
+				removeEntry(cacheKey);
+				busyCaching.remove(cacheKey);
 				LOGGER.error("File " + file.getFileName().toString() + " not found in cache");
 			} else {
 //				LOGGER.info("Reading from cache " + cacheKey);
+				CacheEntry cacheEntry = entries.get(cacheKey);
+				if (cacheEntry != null) {
+					touch(cacheEntry, file);
+				}
 				return file;
 			}
 		}
@@ -113,9 +175,7 @@ public class NewDiskCacheManager {
 			String cacheKey = downloadDescriptor.getCacheKey();
 //			LOGGER.info("Start caching " + cacheKey);
 			NewDiskCacheWriter out = new NewDiskCacheWriter(this, cacheDir.resolve(cacheKey), downloadDescriptor, messagingStreamingSerializer);
-			synchronized (busyCaching) {
-				busyCaching.put(cacheKey, out);
-			}
+			busyCaching.put(cacheKey, out);
 			return out;
 		} catch (FileNotFoundException e) {
 			LOGGER.error("", e);
@@ -126,6 +186,7 @@ public class NewDiskCacheManager {
 	public NewDiskCacheOutputStream startCaching(DownloadDescriptor downloadDescriptor) throws Exception {
 		try {
 			String cacheKey = downloadDescriptor.getCacheKey();
+			// Only checking and claiming a key is synchronized, the temporary file of a key that is already being cached must not be opened again
 			synchronized (busyCaching) {
 				if (busyCaching.containsKey(cacheKey)) {
 					throw new Exception("This key is already being cached");
@@ -141,39 +202,232 @@ public class NewDiskCacheManager {
 		return null;
 	}
 
-	public synchronized Integer cleanup() {
+	public Integer cleanup() {
 		int removed = 0;
+		synchronized (evictionLock) {
+			try {
+				for (Path file : PathUtils.list(cacheDir)) {
+					try {
+						Files.delete(file);
+						removed++;
+					} catch (IOException e) {
+						LOGGER.error("", e);
+					}
+				}
+			} catch (IOException e) {
+				LOGGER.error("", e);
+			}
+			entries.clear();
+			totalBytes.set(0);
+		}
+		return removed;
+	}
+
+	/**
+	 * Removes the cached files that contain data of the given project, called when a new revision has been added to the project
+	 *
+	 * @return The number of removed files
+	 */
+	public int invalidateProject(long poid) {
+		int removed = 0;
+		for (CacheEntry cacheEntry : entries.values()) {
+			if (cacheEntry.poids.contains(poid) && evict(cacheEntry)) {
+				removed++;
+			}
+		}
+		if (removed > 0) {
+			LOGGER.debug("Removed " + removed + " cached files of project " + poid);
+		}
+		return removed;
+	}
+
+	/**
+	 * @return The given variant of the given cached file, or null when it has not been created (yet)
+	 */
+	public Path getVariant(Path file, String variant) {
+		CacheEntry cacheEntry = entries.get(file.getFileName().toString());
+		if (cacheEntry == null || !cacheEntry.variants.containsKey(variant)) {
+			return null;
+		}
+		Path variantFile = getVariantPath(cacheEntry.cacheKey, variant);
+		if (!Files.exists(variantFile)) {
+			Long size = cacheEntry.variants.remove(variant);
+			if (size != null) {
+				totalBytes.addAndGet(-size);
+			}
+			return null;
+		}
+		touch(cacheEntry, file);
+		return variantFile;
+	}
+
+	/**
+	 * @return A stream to write the given variant of the given cached file to, or null when the file is not in the cache or the variant is already
+	 *         being written. Either commit() or abort() has to be called on the stream
+	 */
+	public NewDiskCacheVariantOutputStream startVariant(Path file, String variant) {
+		String cacheKey = file.getFileName().toString();
+		if (!entries.containsKey(cacheKey) || !busyVariants.add(cacheKey + "." + variant)) {
+			return null;
+		}
 		try {
-			for (Path file : PathUtils.list(cacheDir)) {
+			return new NewDiskCacheVariantOutputStream(this, cacheKey, variant, cacheDir.resolve(cacheKey + "." + variant + ".__tmp"));
+		} catch (IOException e) {
+			busyVariants.remove(cacheKey + "." + variant);
+			LOGGER.error("", e);
+			return null;
+		}
+	}
+
+	void variantDone(String cacheKey, String variant, Path tempFile) {
+		try {
+			CacheEntry cacheEntry = entries.get(cacheKey);
+			if (cacheEntry == null) {
+				// Removed while the variant was being written
+				Files.deleteIfExists(tempFile);
+				return;
+			}
+			Path variantFile = getVariantPath(cacheKey, variant);
+			Files.move(tempFile, variantFile, StandardCopyOption.REPLACE_EXISTING);
+			long size = Files.size(variantFile);
+			Long previous = cacheEntry.variants.put(variant, size);
+			totalBytes.addAndGet(previous == null ? size : size - previous);
+			if (entries.get(cacheKey) != cacheEntry) {
+				// Removed in the meantime, evict() did not see this variant
+				deleteVariants(cacheEntry);
+			}
+		} catch (IOException e) {
+			LOGGER.error("", e);
+		} finally {
+			busyVariants.remove(cacheKey + "." + variant);
+		}
+		evictIfNeeded();
+	}
+
+	void variantFailed(String cacheKey, String variant, Path tempFile) {
+		try {
+			Files.deleteIfExists(tempFile);
+		} catch (IOException e) {
+			LOGGER.error("", e);
+		} finally {
+			busyVariants.remove(cacheKey + "." + variant);
+		}
+	}
+
+	private Path getVariantPath(String cacheKey, String variant) {
+		return cacheDir.resolve(cacheKey + "." + variant);
+	}
+
+	private void deleteVariants(CacheEntry cacheEntry) {
+		for (Map.Entry<String, Long> variant : cacheEntry.variants.entrySet()) {
+			if (cacheEntry.variants.remove(variant.getKey(), variant.getValue())) {
 				try {
-					Files.delete(file);
-					removed++;
+					Files.deleteIfExists(getVariantPath(cacheEntry.cacheKey, variant.getKey()));
+					totalBytes.addAndGet(-variant.getValue());
 				} catch (IOException e) {
 					LOGGER.error("", e);
+					// The file is still there, keep counting it so a later eviction can retry
+					cacheEntry.variants.putIfAbsent(variant.getKey(), variant.getValue());
 				}
 			}
-		} catch (IOException e) {
-			LOGGER.error("", e);
 		}
-		cachedFileNames.clear();
-		return removed;
+	}
+
+	public long getTotalBytes() {
+		return totalBytes.get();
 	}
 
 	public void doneGenerating(DiskCacheItem diskCacheItem) {
-		synchronized (busyCaching) {
-			String cacheKey = diskCacheItem.getDownloadDescriptor().getCacheKey();
-//			LOGGER.info("Done caching " + cacheKey);
-			busyCaching.remove(cacheKey);
-			cachedFileNames.add(cacheKey);
+		DownloadDescriptor downloadDescriptor = diskCacheItem.getDownloadDescriptor();
+		String cacheKey = downloadDescriptor.getCacheKey();
+//		LOGGER.info("Done caching " + cacheKey);
+		try {
+			CacheEntry cacheEntry = new CacheEntry(cacheKey, Files.size(cacheDir.resolve(cacheKey)), downloadDescriptor.getPoids(), System.currentTimeMillis());
+			CacheEntry previous = entries.put(cacheKey, cacheEntry);
+			totalBytes.addAndGet(previous == null ? cacheEntry.size : cacheEntry.size - previous.size);
+			if (previous != null) {
+				// The variants were created from the previous file
+				deleteVariants(previous);
+			}
+		} catch (IOException e) {
+			LOGGER.error("", e);
 		}
+		busyCaching.remove(cacheKey);
+		evictIfNeeded();
 	}
 
 	public void remove(NewDiskCacheOutputStream diskCacheOutputStream) {
 		String cacheKey = diskCacheOutputStream.getDownloadDescriptor().getCacheKey();
 //		LOGGER.info("Removing cache " + cacheKey);
-		cachedFileNames.remove(cacheKey);
-		synchronized (busyCaching) {
-			busyCaching.remove(cacheKey);
+		removeEntry(cacheKey);
+		busyCaching.remove(cacheKey);
+	}
+
+	private void removeEntry(String cacheKey) {
+		CacheEntry cacheEntry = entries.remove(cacheKey);
+		if (cacheEntry != null) {
+			totalBytes.addAndGet(-cacheEntry.size);
+			deleteVariants(cacheEntry);
+		}
+	}
+
+	private void touch(CacheEntry cacheEntry, Path file) {
+		long now = System.currentTimeMillis();
+		cacheEntry.lastAccess = now;
+		try {
+			Files.setLastModifiedTime(file, FileTime.fromMillis(now));
+		} catch (IOException e) {
+			// Only used to restore the order after a restart
+		}
+	}
+
+	/**
+	 * @return Whether the entry was still in the cache and its file has been removed
+	 */
+	private boolean evict(CacheEntry cacheEntry) {
+		if (!entries.remove(cacheEntry.cacheKey, cacheEntry)) {
+			return false;
+		}
+		try {
+			Files.deleteIfExists(cacheDir.resolve(cacheEntry.cacheKey));
+		} catch (IOException e) {
+			LOGGER.error("", e);
+			// The file is still on disk and still counts towards the maximum, the next eviction will try again
+			entries.putIfAbsent(cacheEntry.cacheKey, cacheEntry);
+			return false;
+		}
+		totalBytes.addAndGet(-cacheEntry.size);
+		deleteVariants(cacheEntry);
+		return true;
+	}
+
+	private void evictIfNeeded() {
+		if (maxBytes <= 0 || totalBytes.get() <= maxBytes) {
+			return;
+		}
+		synchronized (evictionLock) {
+			if (totalBytes.get() <= maxBytes) {
+				return;
+			}
+			List<CacheEntry> leastRecentlyUsed = new ArrayList<>(entries.values());
+			Collections.sort(leastRecentlyUsed, new Comparator<CacheEntry>() {
+				@Override
+				public int compare(CacheEntry o1, CacheEntry o2) {
+					return Long.compare(o1.lastAccess, o2.lastAccess);
+				}
+			});
+			long target = maxBytes / 10 * 9;
+			long now = System.currentTimeMillis();
+			int removed = 0;
+			for (CacheEntry cacheEntry : leastRecentlyUsed) {
+				if (totalBytes.get() <= target) {
+					break;
+				}
+				if (now - cacheEntry.lastAccess >= EVICTION_GRACE_MILLIS && evict(cacheEntry)) {
+					removed++;
+				}
+			}
+			LOGGER.info("Removed " + removed + " least recently used files from disk cache, " + totalBytes.get() + " of " + maxBytes + " bytes used");
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,129 @@
+package org.bimserver.cache;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes a compressed variant of a cached file to a temporary file, which is only added to the cache by {@link #commit()}. The variant is written
+ * next to a download, so a failure to write it does not throw, it only causes the variant to be dropped.
+ */
+public class NewDiskCacheVariantOutputStream extends FilterOutputStream {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(NewDiskCacheVariantOutputStream.class);
+	private final NewDiskCacheManager diskCacheManager;
+	private final String cacheKey;
+	private final String variant;
+	private final Path tempFile;
+	private boolean finished;
+
+	public NewDiskCacheVariantOutputStream(NewDiskCacheManager diskCacheManager, String cacheKey, String variant, Path tempFile) throws IOException {
+		super(new BufferedOutputStream(Files.newOutputStream(tempFile)));
+		this.diskCacheManager = diskCacheManager;
+		this.cacheKey = cacheKey;
+		this.variant = variant;
+		this.tempFile = tempFile;
+	}
+
+	@Override
+	public void write(int b) {
+		if (finished) {
+			return;
+		}
+		try {
+			out.write(b);
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		if (finished) {
+			return;
+		}
+		try {
+			out.write(b, off, len);
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	@Override
+	public void flush() {
+		if (finished) {
+			return;
+		}
+		try {
+			out.flush();
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	@Override
+	public void close() {
+		abort();
+	}
+
+	/**
+	 * Adds the variant to the cache, unless writing it failed
+	 */
+	public void commit() {
+		if (finished) {
+			return;
+		}
+		finished = true;
+		try {
+			out.close();
+		} catch (IOException e) {
+			LOGGER.error("", e);
+			diskCacheManager.variantFailed(cacheKey, variant, tempFile);
+			return;
+		}
+		diskCacheManager.variantDone(cacheKey, variant, tempFile);
+	}
+
+	private void fail(IOException e) {
+		LOGGER.error("", e);
+		abort();
+	}
+
+	/**
+	 * Removes the temporary file, does nothing after {@link #commit()}
+	 */
+	public void abort() {
+		if (finished) {
+			return;
+		}
+		finished = true;
+		try {
+			out.close();
+		} catch (IOException e) {
+			LOGGER.error("", e);
+		}
+		diskCacheManager.variantFailed(cacheKey, variant, tempFile);
+	}
+}
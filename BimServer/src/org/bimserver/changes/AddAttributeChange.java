@@ -44,6 +44,18 @@ public class AddAttributeChange implements Change {
 		this.value = value;
 	}
 
+	public long getOid() {
+		return oid;
+	}
+
+	public String getAttributeName() {
+		return attributeName;
+	}
+
+	public Object getValue() {
+		return value;
+	}
+
 	@Override
 	public void execute(Transaction transaction) throws UserException, BimserverLockConflictException, BimserverDatabaseException, IOException, QueryException {
 		PackageMetaData packageMetaData = transaction.getDatabaseSession().getMetaDataManager().getPackageMetaData(transaction.getProject().getSchema());
@@ -0,0 +1,41 @@
+package org.bimserver.changes;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.util.List;
+
+/**
+ * The changes of one LowLevelInterface.applyChanges call, with the id the client gave the batch (null when it did not give one)
+ */
+public class ChangeBatch {
+	private final String batchId;
+	private final List<Change> changes;
+
+	public ChangeBatch(String batchId, List<Change> changes) {
+		this.batchId = batchId;
+		this.changes = changes;
+	}
+
+	public String getBatchId() {
+		return batchId;
+	}
+
+	public List<Change> getChanges() {
+		return changes;
+	}
+}
@@ -0,0 +1,165 @@
+package org.bimserver.changes;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import org.bimserver.shared.exceptions.UserException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reads the changes given to LowLevelInterface.applyChanges, see the documentation of that method for the format
+ */
+public class JsonChangeReader {
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+	public List<Change> read(String json) throws UserException {
+		return readBatch(json).getChanges();
+	}
+
+	/**
+	 * Reads either a plain array of changes, or an object with a "batchId" and the array of "changes"
+	 */
+	public ChangeBatch readBatch(String json) throws UserException {
+		JsonNode rootNode;
+		try {
+			rootNode = OBJECT_MAPPER.readTree(json);
+		} catch (IOException e) {
+			throw new UserException("Invalid JSON: " + e.getMessage());
+		}
+		String batchId = null;
+		JsonNode changesNode = rootNode;
+		if (rootNode != null && rootNode.isObject()) {
+			if (rootNode.has("batchId")) {
+				batchId = getText(rootNode, "batchId");
+			}
+			changesNode = rootNode.get("changes");
+		}
+		if (changesNode == null || !changesNode.isArray()) {
+			throw new UserException("Changes must be a JSON array");
+		}
+		List<Change> changes = new ArrayList<>(changesNode.size());
+		for (int i = 0; i < changesNode.size(); i++) {
+			try {
+				changes.add(readChange(changesNode.get(i)));
+			} catch (UserException | IllegalArgumentException e) {
+				throw new UserException("Change " + i + ": " + e.getMessage());
+			}
+		}
+		return new ChangeBatch(batchId, changes);
+	}
+
+	private Change readChange(JsonNode changeNode) throws UserException {
+		String type = getText(changeNode, "type");
+		long oid = getLong(changeNode, "oid");
+		switch (type) {
+		case "addAttribute":
+			return new AddAttributeChange(oid, getText(changeNode, "name"), readValue(changeNode));
+		case "setAttribute":
+			return new SetAttributeChange(oid, getText(changeNode, "name"), readValue(changeNode));
+		case "setAttributeAtIndex":
+			return new SetAttributeChangeAtIndex(oid, getText(changeNode, "name"), getInt(changeNode, "index"), readValue(changeNode));
+		case "setWrappedAttribute":
+			return new SetWrappedAttributeChange(oid, getText(changeNode, "name"), getText(changeNode, "wrappedType"), readValue(changeNode));
+		case "removeAttribute":
+			return new RemoveAttributeChange(oid, getText(changeNode, "name"), getInt(changeNode, "index"));
+		case "addReference":
+			return new AddReferenceChange(oid, getText(changeNode, "name"), getLong(changeNode, "referencedOid"));
+		case "setReference":
+			return new SetReferenceChange(oid, getText(changeNode, "name"), getLong(changeNode, "referencedOid"));
+		case "removeReference":
+			return new RemoveReferenceChange(oid, getText(changeNode, "name"), getInt(changeNode, "index"));
+		case "removeReferenceByOid":
+			return new RemoveReferenceChange(oid, getText(changeNode, "name"), getLong(changeNode, "referencedOid"));
+		case "removeObject":
+			return new RemoveObjectChange(oid);
+		default:
+			throw new UserException("Unknown change type \"" + type + "\"");
+		}
+	}
+
+	private Object readValue(JsonNode changeNode) throws UserException {
+		String valueType = getText(changeNode, "valueType");
+		JsonNode valueNode = changeNode.get("value");
+		if (valueNode != null && valueNode.isArray()) {
+			List<Object> list = new ArrayList<>(valueNode.size());
+			for (JsonNode itemNode : valueNode) {
+				list.add(convert(valueType, itemNode));
+			}
+			return list;
+		}
+		return convert(valueType, valueNode);
+	}
+
+	private Object convert(String valueType, JsonNode valueNode) throws UserException {
+		if (valueNode == null || valueNode.isNull()) {
+			return null;
+		}
+		switch (valueType) {
+		case "string":
+		case "enum":
+			return valueNode.asText();
+		case "integer":
+			return valueNode.asInt();
+		case "long":
+			return valueNode.asLong();
+		case "double":
+			return valueNode.asDouble();
+		case "boolean":
+			return valueNode.asBoolean();
+		case "bytes":
+			byte[] bytes = Base64.getDecoder().decode(valueNode.asText());
+			Byte[] result = new Byte[bytes.length];
+			for (int i = 0; i < bytes.length; i++) {
+				result[i] = bytes[i];
+			}
+			return result;
+		default:
+			throw new UserException("Unknown value type \"" + valueType + "\"");
+		}
+	}
+
+	private String getText(JsonNode changeNode, String fieldName) throws UserException {
+		JsonNode node = changeNode.get(fieldName);
+		if (node == null || !node.isTextual()) {
+			throw new UserException("Field \"" + fieldName + "\" is missing or invalid");
+		}
+		return node.asText();
+	}
+
+	private long getLong(JsonNode changeNode, String fieldName) throws UserException {
+		JsonNode node = changeNode.get(fieldName);
+		if (node == null || !node.canConvertToLong()) {
+			throw new UserException("Field \"" + fieldName + "\" is missing or invalid");
+		}
+		return node.asLong();
+	}
+
+	private int getInt(JsonNode changeNode, String fieldName) throws UserException {
+		JsonNode node = changeNode.get(fieldName);
+		if (node == null || !node.canConvertToInt()) {
+			throw new UserException("Field \"" + fieldName + "\" is missing or invalid");
+		}
+		return node.asInt();
+	}
+}
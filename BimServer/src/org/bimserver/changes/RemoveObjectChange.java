@@ -46,6 +46,10 @@ public class RemoveObjectChange implements Change {
 		this.oid = oid;
 	}
 
+	public long getOid() {
+		return oid;
+	}
+
 	@Override
 	public void execute(Transaction transaction) throws UserException, BimserverLockConflictException, BimserverDatabaseException, IOException, QueryException {
 		PackageMetaData packageMetaData = transaction.getDatabaseSession().getMetaDataManager().getPackageMetaData(transaction.getProject().getSchema());
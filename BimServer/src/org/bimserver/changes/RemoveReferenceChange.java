@@ -72,6 +72,22 @@ public class RemoveReferenceChange implements Change {
 		this.index = -1;
 	}
 	
+	public long getOid() {
+		return oid;
+	}
+
+	public String getReferenceName() {
+		return referenceName;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public long getReferencedOid() {
+		return referencedOid;
+	}
+
 	@SuppressWarnings("rawtypes")
 	@Override
 	public void execute(Transaction transaction) throws UserException, BimserverLockConflictException, BimserverDatabaseException, IOException, QueryException {
@@ -69,6 +69,18 @@ public class SetAttributeChange implements Change {
 	}
 
 	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public long getOid() {
+		return oid;
+	}
+
+	public String getAttributeName() {
+		return attributeName;
+	}
+
+	public Object getValue() {
+		return value;
+	}
+
 	@Override
 	public void execute(Transaction transaction) throws UserException, BimserverLockConflictException, BimserverDatabaseException, IOException, QueryException {
 		PackageMetaData packageMetaData = transaction.getDatabaseSession().getMetaDataManager().getPackageMetaData(transaction.getProject().getSchema());
@@ -44,6 +44,18 @@ public class SetReferenceChange implements Change {
 		this.referenceOid = referenceOid;
 	}
 
+	public long getOid() {
+		return oid;
+	}
+
+	public String getReferenceName() {
+		return referenceName;
+	}
+
+	public long getReferenceOid() {
+		return referenceOid;
+	}
+
 	@Override
 	public void execute(Transaction transaction) throws UserException, BimserverLockConflictException, BimserverDatabaseException, IOException, QueryException {
 		PackageMetaData packageMetaData = transaction.getDatabaseSession().getMetaDataManager().getPackageMetaData(transaction.getProject().getSchema());
@@ -53,6 +53,22 @@ public class SetWrappedAttributeChange implements Change {
 	}
 
 	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public Long getOid() {
+		return oid;
+	}
+
+	public String getAttributeName() {
+		return attributeName;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public Object getValue() {
+		return value;
+	}
+
 	@Override
 	public void execute(Transaction transaction) throws UserException, BimserverLockConflictException,
 			BimserverDatabaseException, IOException, QueryException {
@@ -25,6 +25,11 @@ public interface BimTransaction {
 	void close();
 	void rollback();
 	void commit() throws BimserverLockConflictException, BimserverDatabaseException;
+	
+	/**
+	 * Commits without waiting for the commit to be written to disk, the commit is durable after the next {@link KeyValueStore#sync()}
+	 */
+	void commitNoSync() throws BimserverLockConflictException, BimserverDatabaseException;
 	long getId();
 	long updates();
 	void incUpdates(long updates);
@@ -0,0 +1,171 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.emf.IdEObjectImpl;
+import org.bimserver.models.store.CompareContainer;
+import org.bimserver.models.store.CompareItem;
+import org.bimserver.models.store.CompareResult;
+import org.bimserver.models.store.CompareType;
+import org.bimserver.models.store.DataObject;
+import org.bimserver.models.store.ObjectAdded;
+import org.bimserver.models.store.ObjectModified;
+import org.bimserver.models.store.ObjectRemoved;
+import org.bimserver.models.store.StoreFactory;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Persisted compare results, keyed by (roid1, roid2, compare type). Revisions do not change after they have been created, so stored results stay valid.
+ */
+public class CompareResultStore {
+	public static final String COMPARE_RESULTS_TABLE = "INT-CompareResults";
+
+	private static final byte VERSION = 1;
+	private static final byte ADDED = 0;
+	private static final byte REMOVED = 1;
+	private static final byte MODIFIED = 2;
+
+	public static CompareResult get(DatabaseSession databaseSession, long roid1, long roid2, CompareType compareType) throws BimserverDatabaseException {
+		byte[] value = databaseSession.getKeyValueStore().get(COMPARE_RESULTS_TABLE, createKey(roid1, roid2, compareType), databaseSession);
+		if (value == null) {
+			return null;
+		}
+		try {
+			return read(value);
+		} catch (IOException e) {
+			throw new BimserverDatabaseException(e);
+		}
+	}
+
+	public static void store(DatabaseSession databaseSession, long roid1, long roid2, CompareType compareType, CompareResult compareResult) throws BimserverDatabaseException {
+		try {
+			databaseSession.getKeyValueStore().store(COMPARE_RESULTS_TABLE, createKey(roid1, roid2, compareType), write(compareResult), databaseSession);
+		} catch (IOException e) {
+			throw new BimserverDatabaseException(e);
+		}
+	}
+
+	private static byte[] createKey(long roid1, long roid2, CompareType compareType) {
+		ByteBuffer key = ByteBuffer.allocate(20);
+		key.putLong(roid1);
+		key.putLong(roid2);
+		key.putInt(compareType.getValue());
+		return key.array();
+	}
+
+	private static byte[] write(CompareResult compareResult) throws IOException {
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(byteArrayOutputStream);
+		out.writeByte(VERSION);
+		out.writeInt(compareResult.getItems().size());
+		for (CompareContainer compareContainer : compareResult.getItems()) {
+			writeString(out, compareContainer.getType());
+			out.writeInt(compareContainer.getItems().size());
+			for (CompareItem compareItem : compareContainer.getItems()) {
+				if (compareItem instanceof ObjectAdded) {
+					out.writeByte(ADDED);
+				} else if (compareItem instanceof ObjectRemoved) {
+					out.writeByte(REMOVED);
+				} else {
+					out.writeByte(MODIFIED);
+				}
+				DataObject dataObject = compareItem.getDataObject();
+				out.writeLong(dataObject.getOid());
+				writeString(out, dataObject.getType());
+				writeString(out, dataObject.getGuid());
+				writeString(out, dataObject.getName());
+				if (compareItem instanceof ObjectModified) {
+					ObjectModified objectModified = (ObjectModified) compareItem;
+					writeString(out, objectModified.getFieldName());
+					writeString(out, objectModified.getOldValue());
+					writeString(out, objectModified.getNewValue());
+				}
+			}
+		}
+		out.flush();
+		return byteArrayOutputStream.toByteArray();
+	}
+
+	private static CompareResult read(byte[] value) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+		byte version = in.readByte();
+		if (version != VERSION) {
+			throw new IOException("Unsupported compare result version " + version);
+		}
+		CompareResult compareResult = StoreFactory.eINSTANCE.createCompareResult();
+		int nrContainers = in.readInt();
+		for (int i = 0; i < nrContainers; i++) {
+			CompareContainer compareContainer = StoreFactory.eINSTANCE.createCompareContainer();
+			compareContainer.setType(readString(in));
+			int nrItems = in.readInt();
+			for (int j = 0; j < nrItems; j++) {
+				byte kind = in.readByte();
+				DataObject dataObject = StoreFactory.eINSTANCE.createDataObject();
+				((IdEObjectImpl) dataObject).setOid(in.readLong());
+				dataObject.setType(readString(in));
+				dataObject.setGuid(readString(in));
+				dataObject.setName(readString(in));
+				CompareItem compareItem;
+				if (kind == ADDED) {
+					compareItem = StoreFactory.eINSTANCE.createObjectAdded();
+				} else if (kind == REMOVED) {
+					compareItem = StoreFactory.eINSTANCE.createObjectRemoved();
+				} else {
+					ObjectModified objectModified = StoreFactory.eINSTANCE.createObjectModified();
+					objectModified.setFieldName(readString(in));
+					objectModified.setOldValue(readString(in));
+					objectModified.setNewValue(readString(in));
+					compareItem = objectModified;
+				}
+				compareItem.setDataObject(dataObject);
+				compareContainer.getItems().add(compareItem);
+			}
+			compareResult.getItems().add(compareContainer);
+		}
+		return compareResult;
+	}
+
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		if (string == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = string.getBytes(Charsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length == -1) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, Charsets.UTF_8);
+	}
+}
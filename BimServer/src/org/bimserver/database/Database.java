@@ -77,6 +77,8 @@ public class Database implements BimDatabase {
 	private final KeyValueStore keyValueStore;
 	private final EClass[] cidToEclass;
 	private final Map<EClass, Short> eClassToCid = new HashMap<EClass, Short>();
+	private final Map<EClass, TableHandle> tableHandles = new ConcurrentHashMap<>();
+	private final Map<EClass, Map<EStructuralFeature, TableHandle>> indexTableHandles = new ConcurrentHashMap<>();
 	private final List<String> realClasses = new ArrayList<String>();
 	private final Map<EClass, AtomicLong> oidCounters = new HashMap<EClass, AtomicLong>();
 	private final AtomicInteger pidCounter = new AtomicInteger(1);
@@ -137,6 +139,9 @@ public class Database implements BimDatabase {
 				keyValueStore.createTable(CLASS_LOOKUP_TABLE, null, true);
 				keyValueStore.createTable(Database.STORE_PROJECT_NAME, null, true);
 				keyValueStore.createTable(Registry.REGISTRY_TABLE, null, true);
+				keyValueStore.createTable(SpatialIndex.SPATIAL_INDEX_TABLE, null, true);
+				keyValueStore.createTable(GeometryDataIndex.GEOMETRY_DATA_INDEX_TABLE, null, true);
+				keyValueStore.createTable(CompareResultStore.COMPARE_RESULTS_TABLE, null, true);
 				setDatabaseVersion(-1, databaseSession);
 				created = new Date();
 				registry.save(DATE_CREATED, created, databaseSession);
@@ -146,6 +151,24 @@ public class Database implements BimDatabase {
 				keyValueStore.openTable(databaseSession, CLASS_LOOKUP_TABLE, true);
 				keyValueStore.openTable(databaseSession, Database.STORE_PROJECT_NAME, true);
 				keyValueStore.openTable(databaseSession, Registry.REGISTRY_TABLE, true);
+				if (keyValueStore.containsTable(SpatialIndex.SPATIAL_INDEX_TABLE)) {
+					keyValueStore.openTable(databaseSession, SpatialIndex.SPATIAL_INDEX_TABLE, true);
+				} else {
+					// Databases created before spatial indexing was introduced
+					keyValueStore.createTable(SpatialIndex.SPATIAL_INDEX_TABLE, null, true);
+				}
+				if (keyValueStore.containsTable(GeometryDataIndex.GEOMETRY_DATA_INDEX_TABLE)) {
+					keyValueStore.openTable(databaseSession, GeometryDataIndex.GEOMETRY_DATA_INDEX_TABLE, true);
+				} else {
+					// Databases created before geometry was reused across revisions
+					keyValueStore.createTable(GeometryDataIndex.GEOMETRY_DATA_INDEX_TABLE, null, true);
+				}
+				if (keyValueStore.containsTable(CompareResultStore.COMPARE_RESULTS_TABLE)) {
+					keyValueStore.openTable(databaseSession, CompareResultStore.COMPARE_RESULTS_TABLE, true);
+				} else {
+					// Databases created before compare results were stored
+					keyValueStore.createTable(CompareResultStore.COMPARE_RESULTS_TABLE, null, true);
+				}
 				created = registry.readDate(DATE_CREATED, databaseSession);
 				uuid = UUID.fromString(registry.readString(SERVER_UUID, databaseSession));
 				if (created == null) {
@@ -466,6 +489,45 @@ public class Database implements BimDatabase {
 	public String getTableName(EClass eClass) {
 		return eClass.getEPackage().getName() + "_" + eClass.getName();
 	}
+
+	/**
+	 * @return The handle of the table of the given class, resolved on first use
+	 */
+	public TableHandle getTableHandle(EClass eClass) throws BimserverDatabaseException {
+		TableHandle tableHandle = tableHandles.get(eClass);
+		if (tableHandle == null) {
+			tableHandle = keyValueStore.getTableHandle(getTableName(eClass));
+			tableHandles.put(eClass, tableHandle);
+		}
+		return tableHandle;
+	}
+
+	/**
+	 * @return The handles of the index tables of all features of the given class with a "singleindex" annotation, empty when the class has no indices
+	 */
+	public Map<EStructuralFeature, TableHandle> getIndexTableHandles(EClass eClass) throws BimserverDatabaseException {
+		Map<EStructuralFeature, TableHandle> result = indexTableHandles.get(eClass);
+		if (result == null) {
+			result = new LinkedHashMap<>();
+			boolean complete = true;
+			for (EStructuralFeature eStructuralFeature : eClass.getEAllStructuralFeatures()) {
+				if (eStructuralFeature.getEAnnotation("singleindex") != null) {
+					String indexTableName = getTableName(eClass) + "_" + eStructuralFeature.getName();
+					if (keyValueStore.containsTable(indexTableName)) {
+						result.put(eStructuralFeature, keyValueStore.getTableHandle(indexTableName));
+					} else {
+						// Index tables that do not exist in the database are also skipped by initInternalStructure, not cached because the table can still be created
+						complete = false;
+					}
+				}
+			}
+			result = Collections.unmodifiableMap(result);
+			if (complete) {
+				indexTableHandles.put(eClass, result);
+			}
+		}
+		return result;
+	}
 	
 	public UUID getUuid() {
 		return uuid;
@@ -35,6 +35,7 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.bimserver.BimserverDatabaseException;
 import org.bimserver.ServerIfcModel;
@@ -112,7 +113,12 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 	private CleanupListener cleanupListener;
 	private final Set<ServerIfcModel> serverModels = new HashSet<>();
 	private long reads;
+	// Geometry generation saves objects from multiple threads
+	private final AtomicLong bytesWritten = new AtomicLong();
 	private long createdAt;
+	
+	// Only set between startBatchedWrites and endBatchedWrites
+	private WriteBatch batchedWrites;
 
 	public enum SessionState {
 		OPEN, CLOSED
@@ -203,13 +209,18 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 			if (progressHandler != null) {
 				progressHandler.progress(0, objectsToCommit == null ? 0 : objectsToCommit.size());
 			}
+			endBatchedWrites();
 			int current = 0;
 			long writes = 0;
 			ByteBuffer keyBuffer = ByteBuffer.wrap(new byte[16]);
+			// All writes of this commit are collected and written sorted per table, in batches of limited size
+			WriteBatch writeBatch = new WriteBatch();
 			if (objectsToDelete != null) {
+				byte[] deleted = new byte[] { -1 };
 				for (RecordIdentifierPlusType recordIdentifier : objectsToDelete) {
 					fillKeyBuffer(keyBuffer, recordIdentifier);
-					database.getKeyValueStore().storeNoOverwrite(recordIdentifier.getPackageName() + "_" + recordIdentifier.getClassName(), keyBuffer.array(), new byte[] { -1 }, this);
+					writeBatch.storeNoOverwrite(database.getKeyValueStore().getTableHandle(recordIdentifier.getPackageName() + "_" + recordIdentifier.getClassName()), keyBuffer.array(), deleted, 0, deleted.length);
+					writeIfFull(writeBatch);
 					writes++;
 				}
 			}
@@ -226,27 +237,28 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 					}
 					ByteBuffer valueBuffer = convertObjectToByteArray(object, reusableBuffer, getMetaDataManager().getPackageMetaData(object.eClass().getEPackage().getName()));
 					int valueBufferPosition = valueBuffer.position();
-					processPossibleIndices(keyBuffer, object.getPid(), object.getRid(), object.getOid(), object.eClass(), valueBuffer);
+					processPossibleIndices(writeBatch, keyBuffer, object.getPid(), object.getRid(), object.getOid(), object.eClass(), valueBuffer);
 					if (object.eClass().getEAnnotation("nolazyload") == null && !overwriteEnabled) {
-						try {
-							database.getKeyValueStore().storeNoOverwrite(object.eClass().getEPackage().getName() + "_" + object.eClass().getName(), keyBuffer.array(), valueBuffer.array(), 0, valueBufferPosition, this);
-						} catch (BimserverConcurrentModificationDatabaseException e) {
-							throw e;
-						}
+						writeBatch.storeNoOverwrite(database.getTableHandle(object.eClass()), keyBuffer.array(), valueBuffer.array(), 0, valueBufferPosition);
 					} else {
-						database.getKeyValueStore().store(object.eClass().getEPackage().getName() + "_" + object.eClass().getName(), keyBuffer.array(),
-								valueBuffer.array(), 0, valueBuffer.position(), this);
+						writeBatch.store(database.getTableHandle(object.eClass()), keyBuffer.array(), valueBuffer.array(), 0, valueBuffer.position());
 					}
+					writeIfFull(writeBatch);
 					if (progressHandler != null) {
 						progressHandler.progress(++current, objectsToCommit.size());
 					}
 					writes++;
+					bytesWritten.addAndGet(keyBuffer.capacity() + valueBufferPosition);
 					reusableBuffer = valueBuffer; // bimServerClient may have increased the size of the buffer by creating a new one, we keep using it for other objects
 					reusableBuffer.position(0);
 				}
 			}
+			if (!writeBatch.isEmpty()) {
+				database.getKeyValueStore().write(writeBatch, this);
+			}
 			if (bimTransaction != null) {
-				bimTransaction.commit();
+				// The sync is shared with the sessions that commit at the same time, the commit is durable once it returns
+				bimTransaction.commitNoSync();
 				database.getKeyValueStore().sync();
 			}
 			database.incrementCommittedWrites(writes);
@@ -267,15 +279,45 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 		}
 	}
 
-	private void processPossibleIndices(ByteBuffer keyBuffer, int pid, int rid, long oid, EClass eClass, ByteBuffer valueBuffer) throws BimserverLockConflictException, BimserverDatabaseException {
-		boolean hasAtLeastOneIndex = false;
-		for (EStructuralFeature eStructuralFeature : eClass.getEAllStructuralFeatures()) {
-			if (eStructuralFeature.getEAnnotation("singleindex") != null) {
-				hasAtLeastOneIndex = true;
-				break;
-			}
+	private void writeIfFull(WriteBatch writeBatch) throws BimserverLockConflictException, BimserverDatabaseException {
+		if (writeBatch.isFull()) {
+			database.getKeyValueStore().write(writeBatch, this);
+			writeBatch.clear();
 		}
-		if (hasAtLeastOneIndex) {
+	}
+
+	/**
+	 * From now on, until {@link #endBatchedWrites()} is called, the writes of {@link #save(VirtualObject)} and {@link #saveOverwrite(VirtualObject)} are collected and written sorted per table, in batches.
+	 * Objects saved this way can only be read back through {@link #get(String, byte[])} and {@link #getDuplicates(String, byte[])} (which write the pending batch first) until batching has ended,
+	 * this is meant for bulk loading by a single thread (like the streaming deserializer).
+	 */
+	public void startBatchedWrites() {
+		if (batchedWrites == null) {
+			batchedWrites = new WriteBatch();
+		}
+	}
+
+	/**
+	 * Writes the remaining batched writes, and stops batching writes
+	 */
+	public void endBatchedWrites() throws BimserverLockConflictException, BimserverDatabaseException {
+		writeBatchedWrites();
+		batchedWrites = null;
+	}
+
+	private void writeBatchedWrites() throws BimserverLockConflictException, BimserverDatabaseException {
+		if (batchedWrites != null && !batchedWrites.isEmpty()) {
+			database.getKeyValueStore().write(batchedWrites, this);
+			batchedWrites.clear();
+		}
+	}
+
+	/**
+	 * @param writeBatch The batch to add the index writes to, or null to write them directly
+	 */
+	private void processPossibleIndices(WriteBatch writeBatch, ByteBuffer keyBuffer, int pid, int rid, long oid, EClass eClass, ByteBuffer valueBuffer) throws BimserverLockConflictException, BimserverDatabaseException {
+		Map<EStructuralFeature, TableHandle> indexTableHandles = database.getIndexTableHandles(eClass);
+		if (!indexTableHandles.isEmpty()) {
 			byte[] oldData = null;
 			ByteBuffer oldKeyBuffer = null;
 			boolean perRecordVersioning = perRecordVersioning(eClass);
@@ -284,38 +326,50 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 				oldKeyBuffer.putInt(pid);
 				oldKeyBuffer.putLong(oid);
 				oldKeyBuffer.putInt(-(rid - 1));
-				oldData = database.getKeyValueStore().get(eClass.getEPackage().getName() + "_" + eClass.getName(), oldKeyBuffer.array(), this);
+				TableHandle tableHandle = database.getTableHandle(eClass);
+				if (writeBatch != null && writeBatch.contains(tableHandle, oldKeyBuffer.array())) {
+					// The previous version is still in the batch, while the read and the delete of the old index entries below go to the store directly
+					database.getKeyValueStore().write(writeBatch, this);
+					writeBatch.clear();
+				}
+				oldData = database.getKeyValueStore().get(tableHandle, oldKeyBuffer.array(), this);
 			}
+			// Shared by the index writes of this object, the batch does not need a copy per index
+			byte[] recordKey = writeBatch == null ? null : keyBuffer.array().clone();
 			
-			for (EStructuralFeature eStructuralFeature : eClass.getEAllStructuralFeatures()) {
-				if (eStructuralFeature.getEAnnotation("singleindex") != null) {
-					String indexTableName = eClass.getEPackage().getName() + "_" + eClass.getName() + "_" + eStructuralFeature.getName();
-					if (perRecordVersioning && oldData != null) {
-						ByteBuffer oldValue = ByteBuffer.wrap(oldData);
-						
-						byte[] featureBytesOldIndex = extractFeatureBytes(this, oldValue, eClass, eStructuralFeature);
-						
-						if (!perRecordVersioning) {
-							ByteBuffer oldFeatureBuffer = ByteBuffer.allocate(featureBytesOldIndex.length + 8);
-							oldFeatureBuffer.putInt(pid);
-							oldFeatureBuffer.putInt(-(rid - 1));
-							oldFeatureBuffer.put(featureBytesOldIndex);
-							featureBytesOldIndex = oldFeatureBuffer.array();
-						}
-						
-						database.getKeyValueStore().delete(indexTableName, featureBytesOldIndex, oldKeyBuffer.array(), this);
+			for (Map.Entry<EStructuralFeature, TableHandle> indexEntry : indexTableHandles.entrySet()) {
+				EStructuralFeature eStructuralFeature = indexEntry.getKey();
+				TableHandle indexTableHandle = indexEntry.getValue();
+				if (perRecordVersioning && oldData != null) {
+					ByteBuffer oldValue = ByteBuffer.wrap(oldData);
+					
+					byte[] featureBytesOldIndex = extractFeatureBytes(this, oldValue, eClass, eStructuralFeature);
+					
+					if (!perRecordVersioning) {
+						ByteBuffer oldFeatureBuffer = ByteBuffer.allocate(featureBytesOldIndex.length + 8);
+						oldFeatureBuffer.putInt(pid);
+						oldFeatureBuffer.putInt(-(rid - 1));
+						oldFeatureBuffer.put(featureBytesOldIndex);
+						featureBytesOldIndex = oldFeatureBuffer.array();
 					}
 					
-					byte[] featureBytes = extractFeatureBytes(this, valueBuffer, eClass, eStructuralFeature);
-					if (featureBytes != null) {
-						if (!perRecordVersioning) {
-							ByteBuffer featureBuffer = ByteBuffer.allocate(featureBytes.length + 8);
-							featureBuffer.putInt(pid);
-							featureBuffer.putInt(-rid);
-							featureBuffer.put(featureBytes);
-							featureBytes = featureBuffer.array();
-						}
-						database.getKeyValueStore().store(indexTableName, featureBytes, keyBuffer.array(), this);
+					database.getKeyValueStore().delete(indexTableHandle, featureBytesOldIndex, oldKeyBuffer.array(), this);
+				}
+				
+				byte[] featureBytes = extractFeatureBytes(this, valueBuffer, eClass, eStructuralFeature);
+				if (featureBytes != null) {
+					if (!perRecordVersioning) {
+						ByteBuffer featureBuffer = ByteBuffer.allocate(featureBytes.length + 8);
+						featureBuffer.putInt(pid);
+						featureBuffer.putInt(-rid);
+						featureBuffer.put(featureBytes);
+						featureBytes = featureBuffer.array();
+					}
+					if (writeBatch == null) {
+						database.getKeyValueStore().store(indexTableHandle, featureBytes, keyBuffer.array(), 0, keyBuffer.array().length, this);
+					} else {
+						// featureBytes is a new array for every index
+						writeBatch.storeNoCopy(indexTableHandle, featureBytes, recordKey);
 					}
 				}
 			}
@@ -947,7 +1001,7 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 		startSearchWith.putLong(oid);
 		startSearchWith.putInt(-query.getRid());
 
-		SearchingRecordIterator recordIterator = database.getKeyValueStore().getRecordIterator(eClass.getEPackage().getName() + "_" + eClass.getName(), mustStartWith.array(),
+		SearchingRecordIterator recordIterator = database.getKeyValueStore().getRecordIterator(database.getTableHandle(eClass), mustStartWith.array(),
 				startSearchWith.array(), this);
 		try {
 			Record record = recordIterator.next();
@@ -1054,7 +1108,7 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 		// TODO, only need to fetch the first byte of the value to be able to do the null-check, needs change in keyvaluestore layer
 		checkOpen();
 		int count = 0;
-		SearchingRecordIterator recordIterator = database.getKeyValueStore().getRecordIterator(eClass.getEPackage().getName() + "_" + eClass.getName(),
+		SearchingRecordIterator recordIterator = database.getKeyValueStore().getReusableRecordIterator(database.getTableHandle(eClass),
 				BinUtils.intToByteArray(pid), BinUtils.intToByteArray(pid), this);
 		try {
 			Record record = recordIterator.next();
@@ -1062,7 +1116,7 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 			byte[] nullReference = new byte[] { -1 };
 			while (record != null) {
 				reads++;
-				ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
+				ByteBuffer keyBuffer = record.getKeyBuffer();
 				int keyPid = keyBuffer.getInt();
 				long oid = keyBuffer.getLong();
 				int keyRid = -keyBuffer.getInt();
@@ -1232,7 +1286,7 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 	public void getMap(EClass eClass, IfcModelInterface ifcModel, QueryInterface query, TodoList todoList) throws BimserverDatabaseException {
 		checkOpen();
 		SearchingRecordIterator recordIterator = null;
-		String tableName = eClass.getEPackage().getName() + "_" + eClass.getName();
+		TableHandle tableHandle = database.getTableHandle(eClass);
 		if (query.getOidCounters() != null) {
 			if (!query.getOidCounters().containsKey(eClass)) {
 				return;
@@ -1241,10 +1295,10 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 			ByteBuffer tmp = ByteBuffer.allocate(12);
 			tmp.putInt(query.getPid());
 			tmp.putLong(startOid + 1);
-			recordIterator = database.getKeyValueStore().getRecordIterator(tableName, BinUtils.intToByteArray(query.getPid()), tmp.array(), this);
+			recordIterator = database.getKeyValueStore().getReusableRecordIterator(tableHandle, BinUtils.intToByteArray(query.getPid()), tmp.array(), this);
 		} else {
 //			LOGGER.warn("Potential too-many-reads");
-			recordIterator = database.getKeyValueStore().getRecordIterator(tableName, BinUtils.intToByteArray(query.getPid()), BinUtils.intToByteArray(query.getPid()), this);
+			recordIterator = database.getKeyValueStore().getReusableRecordIterator(tableHandle, BinUtils.intToByteArray(query.getPid()), BinUtils.intToByteArray(query.getPid()), this);
 		}
 		try {
 			Record record = recordIterator.next();
@@ -1254,11 +1308,11 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 					throw new BimserverThreadInterruptedException("Thread interrupted");
 				}
 				reads++;
-				ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
+				ByteBuffer keyBuffer = record.getKeyBuffer();
 				int keyPid = keyBuffer.getInt();
 				long keyOid = keyBuffer.getLong();
 				int keyRid = -keyBuffer.getInt();
-				ByteBuffer valueBuffer = ByteBuffer.wrap(record.getValue());
+				ByteBuffer valueBuffer = record.getValueBuffer();
 				GetResult map = getMap(eClass, eClass, ifcModel, valueBuffer, keyPid, keyOid, keyRid, query, todoList);
 				if (map == GetResult.CONTINUE_WITH_NEXT_OID) {
 					nextKeyStart.position(0);
@@ -1314,7 +1368,7 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 		TodoList todoList = new TodoList();
 		ByteBuffer mustStartWith = createKeyBuffer(query.getPid(), oid);
 		ByteBuffer key = createKeyBuffer(query.getPid(), oid, -query.getStopRid());
-		SearchingRecordIterator recordIterator = database.getKeyValueStore().getRecordIterator(eClass.getEPackage().getName() + "_" + eClass.getName(), mustStartWith.array(),
+		SearchingRecordIterator recordIterator = database.getKeyValueStore().getRecordIterator(database.getTableHandle(eClass), mustStartWith.array(),
 				key.array(), this);
 		checkOpen();
 		try {
@@ -1386,39 +1440,99 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 	public ObjectIdentifier getOidOfGuid(String schema, String guid, int pid, int rid) throws BimserverDatabaseException {
 		PackageMetaData packageMetaData = getMetaDataManager().getPackageMetaData(schema);
 		for (EClass eClass : packageMetaData.getAllSubClasses(packageMetaData.getEClass("IfcRoot"))) {
-			RecordIterator recordIterator = database.getKeyValueStore().getRecordIterator(eClass.getEPackage().getName() + "_" + eClass.getName(), BinUtils.intToByteArray(pid),
-					BinUtils.intToByteArray(pid), this);
-			try {
-				Record record = recordIterator.next();
-				while (record != null) {
-					reads++;
-					ByteBuffer buffer = ByteBuffer.wrap(record.getKey());
-					int pidOfRecord = buffer.getInt();
-					long oid = buffer.getLong();
-					int ridOfRecord = -buffer.getInt();
-					if (ridOfRecord == rid && pid == pidOfRecord) {
-						ByteBuffer value = ByteBuffer.wrap(record.getValue());
+			EAttribute globalIdFeature = (EAttribute) eClass.getEStructuralFeature("GlobalId");
+			ObjectIdentifier objectIdentifier = null;
+			if (globalIdFeature != null && hasIndexTable(eClass, globalIdFeature)) {
+				objectIdentifier = getOidFromIndex(eClass, globalIdFeature, guid, pid, rid);
+			} else {
+				objectIdentifier = getOidOfGuidByScan(packageMetaData, eClass, guid, pid, rid);
+			}
+			if (objectIdentifier != null) {
+				return objectIdentifier;
+			}
+		}
+		return null;
+	}
 
-						// Skip the unsettable part
-						value.position(value.position() + packageMetaData.getUnsettedLength(eClass) + 16); // 16 is the UUID
+	/**
+	 * @return Whether the given feature of the given class has an index table. Databases created before an index was added to the schema do not have its
+	 * table, lookups then have to fall back to reading the table of the class.
+	 */
+	public boolean hasIndexTable(EClass eClass, EStructuralFeature feature) throws BimserverDatabaseException {
+		return database.getIndexTableHandles(eClass).containsKey(feature);
+	}
 
-						if (value.capacity() > 1) {
-							int stringLength = value.getInt();
-							if (stringLength == -1) {
-								return null;
-							} else {
-								String s = BinUtils.readString(value, stringLength);
-								if (s.equals(guid)) {
-									return new ObjectIdentifier(oid, getCid(eClass));
-								}
+	/**
+	 * Looks up the object of the given class that has the given value for an attribute with a "singleindex" annotation, in revision rid
+	 * 
+	 * @return The object, or null when there is no such object
+	 * @throws BimserverDatabaseException When there is no index table for the attribute, see {@link #hasIndexTable(EClass, EStructuralFeature)}
+	 */
+	public ObjectIdentifier getOidFromIndex(EClass eClass, EAttribute attribute, Object value, int pid, int rid) throws BimserverDatabaseException {
+		TableHandle tableHandle = database.getIndexTableHandles(eClass).get(attribute);
+		if (tableHandle == null) {
+			throw new BimserverDatabaseException("No index table for " + eClass.getName() + "." + attribute.getName());
+		}
+		byte[] valueBytes = null;
+		if (value instanceof String) {
+			valueBytes = ((String) value).getBytes(Charsets.UTF_8);
+		} else if (value instanceof Integer) {
+			valueBytes = BinUtils.intToByteArray((Integer) value);
+		} else {
+			throw new BimserverDatabaseException("Unsupported type " + value);
+		}
+		// Index key is (pid, -rid, value), see processPossibleIndices
+		ByteBuffer queryBuffer = ByteBuffer.allocate(valueBytes.length + 8);
+		queryBuffer.putInt(pid);
+		queryBuffer.putInt(-rid);
+		queryBuffer.put(valueBytes);
+		reads++;
+		byte[] indexValue = database.getKeyValueStore().get(tableHandle, queryBuffer.array(), this);
+		if (indexValue != null) {
+			ByteBuffer buffer = ByteBuffer.wrap(indexValue);
+			buffer.getInt(); // pid
+			long oid = buffer.getLong();
+			return new ObjectIdentifier(oid, getCid(eClass));
+		}
+		return null;
+	}
+
+	/**
+	 * Looks up the object of the given class with the given GlobalId by reading the whole table of the class, for classes without a GlobalId index table
+	 */
+	public ObjectIdentifier getOidOfGuidByScan(PackageMetaData packageMetaData, EClass eClass, String guid, int pid, int rid) throws BimserverDatabaseException {
+		RecordIterator recordIterator = database.getKeyValueStore().getRecordIterator(database.getTableHandle(eClass), BinUtils.intToByteArray(pid),
+				BinUtils.intToByteArray(pid), this);
+		try {
+			Record record = recordIterator.next();
+			while (record != null) {
+				reads++;
+				ByteBuffer buffer = ByteBuffer.wrap(record.getKey());
+				int pidOfRecord = buffer.getInt();
+				long oid = buffer.getLong();
+				int ridOfRecord = -buffer.getInt();
+				if (ridOfRecord == rid && pid == pidOfRecord) {
+					ByteBuffer value = ByteBuffer.wrap(record.getValue());
+
+					// Skip the unsettable part
+					value.position(value.position() + packageMetaData.getUnsettedLength(eClass) + 16); // 16 is the UUID
+
+					if (value.capacity() > 1) {
+						int stringLength = value.getInt();
+						if (stringLength == -1) {
+							return null;
+						} else {
+							String s = BinUtils.readString(value, stringLength);
+							if (s.equals(guid)) {
+								return new ObjectIdentifier(oid, getCid(eClass));
 							}
 						}
 					}
-					record = recordIterator.next();
 				}
-			} finally {
-				recordIterator.close();
+				record = recordIterator.next();
 			}
+		} finally {
+			recordIterator.close();
 		}
 		return null;
 	}
@@ -2100,8 +2214,8 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 			ByteBuffer valueBuffer = convertObjectToByteArray(wrappedValue, ByteBuffer.allocate(getExactSize(wrappedValue, packageMetaData, true)), packageMetaData);
 			ByteBuffer keyBuffer = createKeyBuffer(pid, wrappedValue.getOid(), rid);
 			try {
-				database.getKeyValueStore().storeNoOverwrite(eClass.getEPackage().getName() + "_" + eClass.getName(),
-						keyBuffer.array(), valueBuffer.array(), this);
+				database.getKeyValueStore().storeNoOverwrite(database.getTableHandle(eClass),
+						keyBuffer.array(), valueBuffer.array(), 0, valueBuffer.array().length, this);
 				database.incrementCommittedWrites(1);
 				if (bimTransaction != null) {
 					bimTransaction.incUpdates(1);
@@ -2320,14 +2434,22 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 		ByteBuffer valueBuffer = object.write();
 		EClass eClass = object.eClass();
 		ByteBuffer keyBuffer = createKeyBuffer(object.getPid(), object.getOid(), newRid);
-		database.getKeyValueStore().storeNoOverwrite(eClass.getEPackage().getName() + "_" + eClass.getName(), keyBuffer.array(), valueBuffer.array(), 0, valueBuffer.position(), this);
+		if (batchedWrites == null) {
+			database.getKeyValueStore().storeNoOverwrite(database.getTableHandle(eClass), keyBuffer.array(), valueBuffer.array(), 0, valueBuffer.position(), this);
+		} else {
+			batchedWrites.storeNoOverwrite(database.getTableHandle(eClass), keyBuffer.array(), valueBuffer.array(), 0, valueBuffer.position());
+		}
 		
-		processPossibleIndices(keyBuffer, object.getPid(), object.getRid(), object.getOid(), object.eClass(), valueBuffer);
+		processPossibleIndices(batchedWrites, keyBuffer, object.getPid(), object.getRid(), object.getOid(), object.eClass(), valueBuffer);
+		if (batchedWrites != null) {
+			writeIfFull(batchedWrites);
+		}
 		
 		if (bimTransaction != null) {
 			bimTransaction.incUpdates(1);
 		}
 		database.incrementCommittedWrites(1);
+		bytesWritten.addAndGet(keyBuffer.capacity() + valueBuffer.position());
 		return valueBuffer.position();
 	}
 	
@@ -2336,29 +2458,50 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 		ByteBuffer valueBuffer = object.write();
 		EClass eClass = object.eClass();
 		ByteBuffer keyBuffer = createKeyBuffer(object.getPid(), object.getOid(), object.getRid());
-		database.getKeyValueStore().store(eClass.getEPackage().getName() + "_" + eClass.getName(), keyBuffer.array(), valueBuffer.array(), 0, valueBuffer.position(), this);
+		if (batchedWrites == null) {
+			database.getKeyValueStore().store(database.getTableHandle(eClass), keyBuffer.array(), valueBuffer.array(), 0, valueBuffer.position(), this);
+		} else {
+			batchedWrites.store(database.getTableHandle(eClass), keyBuffer.array(), valueBuffer.array(), 0, valueBuffer.position());
+		}
 
-		processPossibleIndices(keyBuffer, object.getPid(), object.getRid(), object.getOid(), object.eClass(), valueBuffer);
+		processPossibleIndices(batchedWrites, keyBuffer, object.getPid(), object.getRid(), object.getOid(), object.eClass(), valueBuffer);
+		if (batchedWrites != null) {
+			writeIfFull(batchedWrites);
+		}
 
 		database.incrementCommittedWrites(1);
 		if (bimTransaction != null) {
 			bimTransaction.incUpdates(1);
 		}
+		bytesWritten.addAndGet(keyBuffer.capacity() + valueBuffer.position());
 		
 		return valueBuffer.position();
 	}
 
+	/**
+	 * @return The number of key and value bytes of the objects this session has saved or committed, index entries are not included
+	 */
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
 	public KeyValueStore getKeyValueStore() {
 		return database.getKeyValueStore();
 	}
 
+	public TableHandle getTableHandle(EClass eClass) throws BimserverDatabaseException {
+		return database.getTableHandle(eClass);
+	}
+
 	@Override
 	public byte[] get(String tableName, byte[] key) throws BimserverLockConflictException, BimserverDatabaseException {
+		writeBatchedWrites();
 		return database.getKeyValueStore().get(tableName, key, this);
 	}
 
 	@Override
 	public List<byte[]> getDuplicates(String tableName, byte[] key) throws BimserverLockConflictException, BimserverDatabaseException {
+		writeBatchedWrites();
 		return database.getKeyValueStore().getDuplicates(tableName, key, this);
 	}
 
@@ -2396,8 +2539,7 @@ public class DatabaseSession implements LazyLoader, OidProvider, DatabaseInterfa
 		ByteBuffer keyBuffer = ByteBuffer.allocate(16);
 		fillKeyBuffer(keyBuffer, object.getPid(), object.getOid(), newRid);
 		EClass eClass = object.eClass();
-		String tableName = eClass.getEPackage().getName() + "_" + eClass.getName();
-		database.getKeyValueStore().storeNoOverwrite(tableName, keyBuffer.array(), new byte[] { -1 }, this);
+		database.getKeyValueStore().storeNoOverwrite(database.getTableHandle(eClass), keyBuffer.array(), new byte[] { -1 }, 0, 1, this);
 		if (bimTransaction != null) {
 			bimTransaction.incUpdates(1);
 		}
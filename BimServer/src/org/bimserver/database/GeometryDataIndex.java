@@ -0,0 +1,362 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.geometry.GeometryDependencies;
+import org.bimserver.shared.HashMapVirtualObject;
+import org.bimserver.shared.WrappedVirtualObject;
+import org.bimserver.utils.BinUtils;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Persisted, per project, lookup of generated geometry. Revisions of the same project can reuse the geometry generated for an earlier revision:
+ * <ul>
+ * <li>By a hash of the input of the render engine for a product, the GeometryInfo of the earlier product is copied and the render engine is not called at all</li>
+ * <li>By a hash of the output of the render engine, the buffers stored for the earlier geometry are referenced instead of storing identical ones again</li>
+ * </ul>
+ *
+ * Entries found during geometry generation are kept in memory and only written by {@link #write()}, so a failed generation does not leave entries
+ * behind that point to buffers of a revision that was never committed. Every entry records the concrete revision it points into, so
+ * {@link #delete(DatabaseSession, int, long)} can remove the entries of a revision that is removed.
+ */
+public class GeometryDataIndex {
+	public static final String GEOMETRY_DATA_INDEX_TABLE = "INT-GeometryDataIndex";
+
+	// 7 oids, the number of line indices and the croid
+	private static final int VALUE_SIZE = 7 * 8 + 4 + 8;
+	// roid, the oid of the GeometryInfo and the croid
+	private static final int PRODUCT_VALUE_SIZE = 3 * 8;
+	// Keys of products have this byte between the pid and the hash, keys of buffers do not
+	private static final byte PRODUCT_KEY_MARKER = 1;
+
+	private final DatabaseSession databaseSession;
+	private final int pid;
+	private final long roid;
+	private final long croid;
+	private final Map<ByteBuffer, StoredGeometryData> added = new ConcurrentHashMap<>();
+	private final Map<ByteBuffer, StoredProductGeometry> addedProducts = new ConcurrentHashMap<>();
+
+	public static class StoredProductGeometry {
+		private final long roid;
+		private final long geometryInfo;
+
+		public StoredProductGeometry(long roid, long geometryInfo) {
+			this.roid = roid;
+			this.geometryInfo = geometryInfo;
+		}
+
+		public long getRoid() {
+			return roid;
+		}
+
+		public long getGeometryInfo() {
+			return geometryInfo;
+		}
+	}
+
+	public static class StoredGeometryData {
+		private final long indices;
+		private final long vertices;
+		private final long normals;
+		private final long normalsQuantized;
+		private final long lineIndices;
+		private final int nrLineIndices;
+		private final long colorPack;
+		private final long colorsQuantized;
+
+		public StoredGeometryData(long indices, long vertices, long normals, long normalsQuantized, long lineIndices, int nrLineIndices, long colorPack, long colorsQuantized) {
+			this.indices = indices;
+			this.vertices = vertices;
+			this.normals = normals;
+			this.normalsQuantized = normalsQuantized;
+			this.lineIndices = lineIndices;
+			this.nrLineIndices = nrLineIndices;
+			this.colorPack = colorPack;
+			this.colorsQuantized = colorsQuantized;
+		}
+
+		public long getIndices() {
+			return indices;
+		}
+
+		public long getVertices() {
+			return vertices;
+		}
+
+		public long getNormals() {
+			return normals;
+		}
+
+		public long getNormalsQuantized() {
+			return normalsQuantized;
+		}
+
+		public long getLineIndices() {
+			return lineIndices;
+		}
+
+		public int getNrLineIndices() {
+			return nrLineIndices;
+		}
+
+		/**
+		 * @return The oid of the color pack, or -1 when there is none
+		 */
+		public long getColorPack() {
+			return colorPack;
+		}
+
+		/**
+		 * @return The oid of the quantized colors, or -1 when there are none
+		 */
+		public long getColorsQuantized() {
+			return colorsQuantized;
+		}
+	}
+
+	/**
+	 * @param roid The revision geometry is generated for
+	 * @param croid The concrete revision the buffers and GeometryInfo objects are stored in
+	 */
+	public GeometryDataIndex(DatabaseSession databaseSession, int pid, long roid, long croid) {
+		this.databaseSession = databaseSession;
+		this.pid = pid;
+		this.roid = roid;
+		this.croid = croid;
+	}
+
+	/**
+	 * @return A 128 bit hash of the given buffers, null buffers are allowed. The buffers are not modified.
+	 */
+	public static byte[] hash(ByteBuffer... buffers) {
+		Hasher hasher = Hashing.murmur3_128().newHasher();
+		for (ByteBuffer buffer : buffers) {
+			if (buffer == null) {
+				hasher.putInt(-1);
+				continue;
+			}
+			ByteBuffer duplicate = buffer.duplicate();
+			duplicate.clear();
+			hasher.putInt(duplicate.remaining());
+			if (duplicate.hasArray()) {
+				hasher.putBytes(duplicate.array(), duplicate.arrayOffset(), duplicate.remaining());
+			} else {
+				byte[] bytes = new byte[duplicate.remaining()];
+				duplicate.get(bytes);
+				hasher.putBytes(bytes);
+			}
+		}
+		return hasher.hash().asBytes();
+	}
+
+	/**
+	 * @return A 128 bit hash of the objects the geometry of the given product depends on (its representation, placement chain, openings, materials and
+	 *         styles, see {@link GeometryDependencies#getInputFeatures}). Other objects of the batch are not part of the hash, and neither are oids, so
+	 *         the same product in a later revision gets the same hash when nothing its geometry depends on has changed.
+	 * @param objects The objects sent to the render engine, the objects the product depends on are looked up in it
+	 * @param context Anything else the output of the render engine depends on
+	 */
+	public static byte[] hashInput(HashMapVirtualObject product, Map<Long, HashMapVirtualObject> objects, GeometryDependencies geometryDependencies, byte[] context) {
+		Hasher hasher = Hashing.murmur3_128().newHasher();
+		hasher.putBytes(context);
+		hashObject(hasher, product, objects, geometryDependencies, new HashMap<Long, Integer>());
+		return hasher.hash().asBytes();
+	}
+
+	private static void hashObject(Hasher hasher, HashMapVirtualObject object, Map<Long, HashMapVirtualObject> objects, GeometryDependencies geometryDependencies, Map<Long, Integer> visited) {
+		Integer position = visited.get(object.getOid());
+		if (position != null) {
+			// Objects that have been hashed already are referred to by the order in which they were visited
+			hasher.putInt(-2);
+			hasher.putInt(position);
+			return;
+		}
+		visited.put(object.getOid(), visited.size());
+		hasher.putUnencodedChars(object.eClass().getName());
+		for (EStructuralFeature feature : geometryDependencies.getInputFeatures(object.eClass())) {
+			hashValue(hasher, feature, object.eGet(feature), objects, geometryDependencies, visited);
+		}
+	}
+
+	private static void hashValue(Hasher hasher, EStructuralFeature feature, Object value, Map<Long, HashMapVirtualObject> objects, GeometryDependencies geometryDependencies, Map<Long, Integer> visited) {
+		if (value == null) {
+			hasher.putInt(-1);
+		} else if (value instanceof List) {
+			List<?> list = (List<?>) value;
+			hasher.putInt(list.size());
+			for (Object item : list) {
+				hashValue(hasher, feature, item, objects, geometryDependencies, visited);
+			}
+		} else if (value instanceof HashMapVirtualObject) {
+			hashObject(hasher, (HashMapVirtualObject) value, objects, geometryDependencies, visited);
+		} else if (value instanceof WrappedVirtualObject) {
+			WrappedVirtualObject wrappedVirtualObject = (WrappedVirtualObject) value;
+			hasher.putUnencodedChars(wrappedVirtualObject.eClass().getName());
+			for (EStructuralFeature wrappedFeature : wrappedVirtualObject.eClass().getEAllStructuralFeatures()) {
+				hashValue(hasher, wrappedFeature, wrappedVirtualObject.eGet(wrappedFeature), objects, geometryDependencies, visited);
+			}
+		} else if (feature instanceof EReference && value instanceof Long) {
+			HashMapVirtualObject referenced = objects.get(value);
+			if (referenced == null) {
+				// Not sent to the render engine
+				hasher.putInt(-3);
+			} else {
+				hashObject(hasher, referenced, objects, geometryDependencies, visited);
+			}
+		} else if (value instanceof byte[]) {
+			hasher.putBytes((byte[]) value);
+		} else {
+			hasher.putUnencodedChars(value.toString());
+		}
+	}
+
+	/**
+	 * @return The buffers stored earlier for geometry with the given hash, by an earlier revision of this project or earlier during this generation, or null
+	 */
+	public StoredGeometryData get(byte[] hash) throws BimserverLockConflictException, BimserverDatabaseException {
+		StoredGeometryData storedGeometryData = added.get(ByteBuffer.wrap(hash));
+		if (storedGeometryData != null) {
+			return storedGeometryData;
+		}
+		byte[] value = databaseSession.getKeyValueStore().get(GEOMETRY_DATA_INDEX_TABLE, createKey(hash), databaseSession);
+		if (value == null || value.length != VALUE_SIZE) {
+			return null;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(value);
+		long indices = buffer.getLong();
+		long vertices = buffer.getLong();
+		long normals = buffer.getLong();
+		long normalsQuantized = buffer.getLong();
+		long lineIndices = buffer.getLong();
+		int nrLineIndices = buffer.getInt();
+		long colorPack = buffer.getLong();
+		long colorsQuantized = buffer.getLong();
+		return new StoredGeometryData(indices, vertices, normals, normalsQuantized, lineIndices, nrLineIndices, colorPack, colorsQuantized);
+	}
+
+	/**
+	 * Registers newly stored buffers, when multiple threads register buffers for the same hash the first one is kept
+	 */
+	public void add(byte[] hash, StoredGeometryData storedGeometryData) {
+		added.putIfAbsent(ByteBuffer.wrap(hash), storedGeometryData);
+	}
+
+	/**
+	 * @return The GeometryInfo stored by an earlier revision of this project for a product with the same render engine input, or null
+	 */
+	public StoredProductGeometry getProduct(byte[] inputHash) throws BimserverLockConflictException, BimserverDatabaseException {
+		byte[] value = databaseSession.getKeyValueStore().get(GEOMETRY_DATA_INDEX_TABLE, createProductKey(inputHash), databaseSession);
+		if (value == null || value.length != PRODUCT_VALUE_SIZE) {
+			return null;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(value);
+		long roid = buffer.getLong();
+		long geometryInfo = buffer.getLong();
+		return new StoredProductGeometry(roid, geometryInfo);
+	}
+
+	/**
+	 * Registers the GeometryInfo generated in this revision for a product with the given render engine input
+	 */
+	public void addProduct(byte[] inputHash, long geometryInfoOid) {
+		addedProducts.put(ByteBuffer.wrap(inputHash), new StoredProductGeometry(roid, geometryInfoOid));
+	}
+
+	public int getNrAdded() {
+		return added.size() + addedProducts.size();
+	}
+
+	public void write() throws BimserverLockConflictException, BimserverDatabaseException {
+		KeyValueStore keyValueStore = databaseSession.getKeyValueStore();
+		for (Map.Entry<ByteBuffer, StoredGeometryData> entry : added.entrySet()) {
+			StoredGeometryData storedGeometryData = entry.getValue();
+			ByteBuffer value = ByteBuffer.allocate(VALUE_SIZE);
+			value.putLong(storedGeometryData.getIndices());
+			value.putLong(storedGeometryData.getVertices());
+			value.putLong(storedGeometryData.getNormals());
+			value.putLong(storedGeometryData.getNormalsQuantized());
+			value.putLong(storedGeometryData.getLineIndices());
+			value.putInt(storedGeometryData.getNrLineIndices());
+			value.putLong(storedGeometryData.getColorPack());
+			value.putLong(storedGeometryData.getColorsQuantized());
+			value.putLong(croid);
+			keyValueStore.store(GEOMETRY_DATA_INDEX_TABLE, createKey(entry.getKey().array()), value.array(), databaseSession);
+		}
+		added.clear();
+		for (Map.Entry<ByteBuffer, StoredProductGeometry> entry : addedProducts.entrySet()) {
+			ByteBuffer value = ByteBuffer.allocate(PRODUCT_VALUE_SIZE);
+			value.putLong(entry.getValue().getRoid());
+			value.putLong(entry.getValue().getGeometryInfo());
+			value.putLong(croid);
+			keyValueStore.store(GEOMETRY_DATA_INDEX_TABLE, createProductKey(entry.getKey().array()), value.array(), databaseSession);
+		}
+		addedProducts.clear();
+	}
+
+	/**
+	 * Removes the entries of the given project that point to geometry stored in the given concrete revision
+	 * 
+	 * @return The amount of removed records
+	 */
+	public static int delete(DatabaseSession databaseSession, int pid, long croid) throws BimserverLockConflictException, BimserverDatabaseException {
+		byte[] prefix = BinUtils.intToByteArray(pid);
+		List<byte[]> keys = new ArrayList<>();
+		try (RecordIterator recordIterator = databaseSession.getKeyValueStore().getRecordIterator(GEOMETRY_DATA_INDEX_TABLE, prefix, prefix, databaseSession)) {
+			Record record = recordIterator.next();
+			while (record != null) {
+				byte[] value = record.getValue();
+				// The croid is stored last, entries written before the croid was stored cannot be attributed to a revision and are removed as well
+				if (value.length < 8 || ByteBuffer.wrap(value, value.length - 8, 8).getLong() == croid || (value.length != VALUE_SIZE && value.length != PRODUCT_VALUE_SIZE)) {
+					keys.add(record.getKey());
+				}
+				record = recordIterator.next();
+			}
+		}
+		for (byte[] key : keys) {
+			databaseSession.getKeyValueStore().delete(GEOMETRY_DATA_INDEX_TABLE, key, databaseSession);
+		}
+		return keys.size();
+	}
+
+	private byte[] createKey(byte[] hash) {
+		ByteBuffer key = ByteBuffer.allocate(4 + hash.length);
+		key.putInt(pid);
+		key.put(hash);
+		return key.array();
+	}
+
+	private byte[] createProductKey(byte[] inputHash) {
+		ByteBuffer key = ByteBuffer.allocate(4 + 1 + inputHash.length);
+		key.putInt(pid);
+		key.put(PRODUCT_KEY_MARKER);
+		key.put(inputHash);
+		return key.array();
+	}
+}
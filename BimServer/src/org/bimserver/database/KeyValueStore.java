@@ -89,4 +89,36 @@ public interface KeyValueStore {
 	boolean isTransactional(DatabaseSession databaseSession, String tableName) throws BimserverDatabaseException;
 
 	SearchingRecordIterator getRecordIterator(String tableName, byte[] mustStartWith, byte[] startSearchingAt, DatabaseSession databaseSession, boolean keysOnly) throws BimserverLockConflictException, BimserverDatabaseException;
+
+	/**
+	 * Same as {@link #getRecordIterator(String, byte[], byte[], DatabaseSession)}, but the returned iterator reuses its cursor entries and returns the same {@link Record} instance on every call.
+	 * A returned record is therefore only valid until the next call on the iterator, use {@link Record#getKeyBuffer()} and {@link Record#getValueBuffer()} to read it without copying.
+	 */
+	SearchingRecordIterator getReusableRecordIterator(String tableName, byte[] mustStartWith, byte[] startSearchingAt, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException;
+
+	/**
+	 * @return A handle to an already created or opened table, to be used with the {@link TableHandle} variants of the operations of this store
+	 */
+	TableHandle getTableHandle(String tableName) throws BimserverDatabaseException;
+
+	byte[] get(TableHandle tableHandle, byte[] key, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException;
+
+	List<byte[]> getDuplicates(TableHandle tableHandle, byte[] keyBytes, DatabaseSession databaseSession) throws BimserverDatabaseException;
+
+	SearchingRecordIterator getRecordIterator(TableHandle tableHandle, byte[] mustStartWith, byte[] startSearchingAt, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException;
+
+	SearchingRecordIterator getReusableRecordIterator(TableHandle tableHandle, byte[] mustStartWith, byte[] startSearchingAt, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException;
+
+	void store(TableHandle tableHandle, byte[] key, byte[] value, int offset, int length, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException;
+
+	void storeNoOverwrite(TableHandle tableHandle, byte[] key, byte[] value, int offset, int length, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException;
+
+	void delete(TableHandle tableHandle, byte[] key, DatabaseSession databaseSession) throws BimserverLockConflictException;
+
+	void delete(TableHandle indexTableHandle, byte[] featureBytesOldIndex, byte[] array, DatabaseSession databaseSession) throws BimserverLockConflictException;
+
+	/**
+	 * Writes all writes of the given batch, per table and in key order. A failing no-overwrite write throws the same exception as {@link #storeNoOverwrite(TableHandle, byte[], byte[], int, int, DatabaseSession)}.
+	 */
+	void write(WriteBatch writeBatch, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException;
 }
\ No newline at end of file
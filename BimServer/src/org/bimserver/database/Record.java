@@ -17,8 +17,20 @@ package org.bimserver.database;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
+import java.nio.ByteBuffer;
+
 public interface Record {
 
 	byte[] getKey();
 	byte[] getValue();
+	
+	/**
+	 * @return The key as a buffer with position 0 and capacity equal to the size of the key, without copying
+	 */
+	ByteBuffer getKeyBuffer();
+	
+	/**
+	 * @return The value as a buffer with position 0 and capacity equal to the size of the value, without copying
+	 */
+	ByteBuffer getValueBuffer();
 }
@@ -0,0 +1,267 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.unimi.dsi.fastutil.Arrays;
+import it.unimi.dsi.fastutil.Swapper;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+
+/**
+ * Sorts references (referenced oid, referencing oid, reference index) by referenced oid, using a bounded amount of memory. References with the same
+ * referenced oid are returned in the order in which they were added.
+ *
+ * When the in-memory buffer is full it is sorted and written to a temporary file, reading merges all those files, so the amount of references is only
+ * limited by disk space. The temporary files are removed by {@link #close()}.
+ */
+public class ReferenceSorter implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ReferenceSorter.class);
+	public static final int DEFAULT_MAX_REFERENCES_IN_MEMORY = 1 << 20;
+
+	// Per reference: the referenced oid, the referencing oid and (sequence number << 16 | reference index)
+	private static final int LONGS_PER_REFERENCE = 3;
+	private static final int MAX_REFERENCE_INDEX = 0xFFFF;
+	private static final int FILE_BUFFER_SIZE = 64 * 1024;
+	private static final int INITIAL_BUFFERED_REFERENCES = 1024;
+
+	private final Path tmpDir;
+	private final int maxReferencesInMemory;
+	private long[] buffer;
+	private final List<Path> runs = new ArrayList<>();
+	private final List<DataInputStream> openRuns = new ArrayList<>();
+	private int nrBuffered;
+	private long nrReferences;
+	private boolean reading;
+
+	/**
+	 * @param tmpDir Directory for the temporary files, or null for the default temporary directory
+	 */
+	public ReferenceSorter(Path tmpDir, int maxReferencesInMemory) {
+		this.tmpDir = tmpDir;
+		this.maxReferencesInMemory = maxReferencesInMemory;
+		// Most checkins have far fewer references than the maximum, so the buffer grows on demand
+		this.buffer = new long[Math.min(maxReferencesInMemory, INITIAL_BUFFERED_REFERENCES) * LONGS_PER_REFERENCE];
+	}
+
+	public void add(long referencedOid, long referencingOid, int referenceIndex) throws IOException {
+		if (reading) {
+			throw new IllegalStateException("Cannot add references after reading has started");
+		}
+		if (referenceIndex < 0 || referenceIndex > MAX_REFERENCE_INDEX) {
+			throw new IllegalArgumentException("Reference index out of range: " + referenceIndex);
+		}
+		if (nrBuffered == maxReferencesInMemory) {
+			writeRun();
+		} else if (nrBuffered * LONGS_PER_REFERENCE == buffer.length) {
+			int newSize = (int) Math.min((long) maxReferencesInMemory, nrBuffered * 2L);
+			buffer = java.util.Arrays.copyOf(buffer, newSize * LONGS_PER_REFERENCE);
+		}
+		int offset = nrBuffered * LONGS_PER_REFERENCE;
+		buffer[offset] = referencedOid;
+		buffer[offset + 1] = referencingOid;
+		buffer[offset + 2] = (nrReferences << 16) | referenceIndex;
+		nrBuffered++;
+		nrReferences++;
+	}
+
+	public long size() {
+		return nrReferences;
+	}
+
+	/**
+	 * Can only be called once, no references can be added after this
+	 */
+	public Reader read() throws IOException {
+		if (reading) {
+			throw new IllegalStateException("Already reading");
+		}
+		reading = true;
+		if (runs.isEmpty()) {
+			sortBuffer();
+			return new BufferReader();
+		}
+		if (nrBuffered > 0) {
+			writeRun();
+		}
+		LOGGER.debug("Merging " + runs.size() + " sorted runs of " + nrReferences + " references");
+		PriorityQueue<RunReader> queue = new PriorityQueue<>(runs.size());
+		for (Path run : runs) {
+			DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), FILE_BUFFER_SIZE));
+			openRuns.add(inputStream);
+			RunReader runReader = new RunReader(inputStream);
+			if (runReader.next()) {
+				queue.add(runReader);
+			}
+		}
+		return new MergingReader(queue);
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (DataInputStream inputStream : openRuns) {
+			inputStream.close();
+		}
+		openRuns.clear();
+		for (Path run : runs) {
+			Files.deleteIfExists(run);
+		}
+		runs.clear();
+	}
+
+	public static abstract class Reader {
+		protected long referencedOid;
+		protected long referencingOid;
+		protected long sequenceAndIndex;
+
+		/**
+		 * @return Whether there was another reference, of which the values are available through the getters
+		 */
+		public abstract boolean next() throws IOException;
+
+		public long getReferencedOid() {
+			return referencedOid;
+		}
+
+		public long getReferencingOid() {
+			return referencingOid;
+		}
+
+		public int getReferenceIndex() {
+			return (int) (sequenceAndIndex & MAX_REFERENCE_INDEX);
+		}
+	}
+
+	private class BufferReader extends Reader {
+		private int position;
+
+		@Override
+		public boolean next() {
+			if (position == nrBuffered) {
+				return false;
+			}
+			int offset = position * LONGS_PER_REFERENCE;
+			referencedOid = buffer[offset];
+			referencingOid = buffer[offset + 1];
+			sequenceAndIndex = buffer[offset + 2];
+			position++;
+			return true;
+		}
+	}
+
+	private static class RunReader extends Reader implements Comparable<RunReader> {
+		private final DataInputStream inputStream;
+
+		public RunReader(DataInputStream inputStream) {
+			this.inputStream = inputStream;
+		}
+
+		@Override
+		public boolean next() throws IOException {
+			try {
+				referencedOid = inputStream.readLong();
+			} catch (EOFException e) {
+				return false;
+			}
+			referencingOid = inputStream.readLong();
+			sequenceAndIndex = inputStream.readLong();
+			return true;
+		}
+
+		@Override
+		public int compareTo(RunReader o) {
+			int compare = Long.compare(referencedOid, o.referencedOid);
+			if (compare != 0) {
+				return compare;
+			}
+			return Long.compare(sequenceAndIndex, o.sequenceAndIndex);
+		}
+	}
+
+	private static class MergingReader extends Reader {
+		private final PriorityQueue<RunReader> queue;
+
+		public MergingReader(PriorityQueue<RunReader> queue) {
+			this.queue = queue;
+		}
+
+		@Override
+		public boolean next() throws IOException {
+			RunReader runReader = queue.poll();
+			if (runReader == null) {
+				return false;
+			}
+			referencedOid = runReader.referencedOid;
+			referencingOid = runReader.referencingOid;
+			sequenceAndIndex = runReader.sequenceAndIndex;
+			if (runReader.next()) {
+				queue.add(runReader);
+			}
+			return true;
+		}
+	}
+
+	private void writeRun() throws IOException {
+		sortBuffer();
+		Path run = tmpDir == null ? Files.createTempFile("references", ".run") : Files.createTempFile(tmpDir, "references", ".run");
+		runs.add(run);
+		try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), FILE_BUFFER_SIZE))) {
+			for (int i = 0; i < nrBuffered * LONGS_PER_REFERENCE; i++) {
+				outputStream.writeLong(buffer[i]);
+			}
+		}
+		nrBuffered = 0;
+	}
+
+	private void sortBuffer() {
+		// The sequence numbers make the order total, so the unstable quicksort keeps references to the same oid in the order in which they were added
+		Arrays.quickSort(0, nrBuffered, new IntComparator() {
+			@Override
+			public int compare(int k1, int k2) {
+				int compare = Long.compare(buffer[k1 * LONGS_PER_REFERENCE], buffer[k2 * LONGS_PER_REFERENCE]);
+				if (compare != 0) {
+					return compare;
+				}
+				return Long.compare(buffer[k1 * LONGS_PER_REFERENCE + 2], buffer[k2 * LONGS_PER_REFERENCE + 2]);
+			}
+		}, new Swapper() {
+			@Override
+			public void swap(int a, int b) {
+				for (int i = 0; i < LONGS_PER_REFERENCE; i++) {
+					long tmp = buffer[a * LONGS_PER_REFERENCE + i];
+					buffer[a * LONGS_PER_REFERENCE + i] = buffer[b * LONGS_PER_REFERENCE + i];
+					buffer[b * LONGS_PER_REFERENCE + i] = tmp;
+				}
+			}
+		});
+	}
+}
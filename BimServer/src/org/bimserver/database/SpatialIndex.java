@@ -0,0 +1,168 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+
+import org.bimserver.BimserverDatabaseException;
+
+/**
+ * Read side of the persisted, per concrete revision, R-tree of object bounding boxes (in mm). The tree is written by {@link SpatialIndexBuilder}.
+ *
+ * Every block of at most {@link #NODE_SIZE} sibling nodes is stored as one record keyed by (croid, position of the first node), so a query only
+ * reads the blocks of which the parent intersects with the query box.
+ */
+public class SpatialIndex {
+	public static final String SPATIAL_INDEX_TABLE = "INT-SpatialIndex";
+	public static final int NODE_SIZE = 16;
+	static final int HEADER_BLOCK = -1;
+
+	// 6 floats and a long (the oid for leaf nodes, the position of the first child for other nodes)
+	static final int ENTRY_SIZE = 6 * 4 + 8;
+
+	private final DatabaseSession databaseSession;
+	private final long croid;
+	private final int nrItems;
+	private final int[] levelBounds;
+
+	private SpatialIndex(DatabaseSession databaseSession, long croid, int nrItems, int[] levelBounds) {
+		this.databaseSession = databaseSession;
+		this.croid = croid;
+		this.nrItems = nrItems;
+		this.levelBounds = levelBounds;
+	}
+
+	/**
+	 * @return The spatial index of the given concrete revision, or null when none has been stored (for example for revisions of which the geometry was generated before spatial indexing was introduced)
+	 */
+	public static SpatialIndex open(DatabaseSession databaseSession, long croid) throws BimserverLockConflictException, BimserverDatabaseException {
+		byte[] headerBytes = databaseSession.getKeyValueStore().get(SPATIAL_INDEX_TABLE, createKey(croid, HEADER_BLOCK), databaseSession);
+		if (headerBytes == null) {
+			return null;
+		}
+		ByteBuffer header = ByteBuffer.wrap(headerBytes);
+		int nrItems = header.getInt();
+		int[] levelBounds = new int[header.getInt()];
+		for (int i = 0; i < levelBounds.length; i++) {
+			levelBounds[i] = header.getInt();
+		}
+		return new SpatialIndex(databaseSession, croid, nrItems, levelBounds);
+	}
+
+	/**
+	 * Removes the spatial index of the given concrete revision, if there is one
+	 * 
+	 * @return The amount of removed records
+	 */
+	public static int delete(DatabaseSession databaseSession, long croid) throws BimserverLockConflictException, BimserverDatabaseException {
+		ByteBuffer prefix = ByteBuffer.allocate(8);
+		prefix.putLong(croid);
+		List<byte[]> keys = new ArrayList<>();
+		try (RecordIterator recordIterator = databaseSession.getKeyValueStore().getRecordIterator(SPATIAL_INDEX_TABLE, prefix.array(), createKey(croid, HEADER_BLOCK), databaseSession)) {
+			Record record = recordIterator.next();
+			while (record != null) {
+				keys.add(record.getKey());
+				record = recordIterator.next();
+			}
+		}
+		for (byte[] key : keys) {
+			databaseSession.getKeyValueStore().delete(SPATIAL_INDEX_TABLE, key, databaseSession);
+		}
+		return keys.size();
+	}
+
+	static byte[] createKey(long croid, int blockStart) {
+		ByteBuffer key = ByteBuffer.allocate(12);
+		key.putLong(croid);
+		key.putInt(blockStart);
+		return key.array();
+	}
+
+	public int getNrItems() {
+		return nrItems;
+	}
+
+	/**
+	 * Adds all objects of this index, except the given ones, to the given builder
+	 */
+	public void copyTo(SpatialIndexBuilder spatialIndexBuilder, Set<Long> excludedOids) throws BimserverLockConflictException, BimserverDatabaseException {
+		// The leaf level (the objects themselves) consists of the first nrItems nodes
+		for (int blockStart = 0; blockStart < nrItems; blockStart += NODE_SIZE) {
+			byte[] blockBytes = databaseSession.getKeyValueStore().get(SPATIAL_INDEX_TABLE, createKey(croid, blockStart), databaseSession);
+			if (blockBytes == null) {
+				throw new BimserverDatabaseException("Spatial index of croid " + croid + " is missing block " + blockStart);
+			}
+			ByteBuffer block = ByteBuffer.wrap(blockBytes);
+			int nrEntries = block.getInt();
+			for (int i = 0; i < nrEntries; i++) {
+				float minX = block.getFloat();
+				float minY = block.getFloat();
+				float minZ = block.getFloat();
+				float maxX = block.getFloat();
+				float maxY = block.getFloat();
+				float maxZ = block.getFloat();
+				long oid = block.getLong();
+				if (excludedOids == null || !excludedOids.contains(oid)) {
+					spatialIndexBuilder.add(oid, minX, minY, minZ, maxX, maxY, maxZ);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The oids of all objects of which the bounding box intersects (or touches) the given box, in no particular order
+	 */
+	public List<Long> queryIntersecting(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) throws BimserverLockConflictException, BimserverDatabaseException {
+		List<Long> result = new ArrayList<>();
+		Deque<Integer> todo = new ArrayDeque<>();
+		todo.push(levelBounds[levelBounds.length - 1] - 1);
+		while (!todo.isEmpty()) {
+			int blockStart = todo.pop();
+			byte[] blockBytes = databaseSession.getKeyValueStore().get(SPATIAL_INDEX_TABLE, createKey(croid, blockStart), databaseSession);
+			if (blockBytes == null) {
+				throw new BimserverDatabaseException("Spatial index of croid " + croid + " is missing block " + blockStart);
+			}
+			ByteBuffer block = ByteBuffer.wrap(blockBytes);
+			int nrEntries = block.getInt();
+			boolean leaf = blockStart < nrItems;
+			for (int i = 0; i < nrEntries; i++) {
+				float entryMinX = block.getFloat();
+				float entryMinY = block.getFloat();
+				float entryMinZ = block.getFloat();
+				float entryMaxX = block.getFloat();
+				float entryMaxY = block.getFloat();
+				float entryMaxZ = block.getFloat();
+				long index = block.getLong();
+				if (entryMaxX < minX || entryMinX > maxX || entryMaxY < minY || entryMinY > maxY || entryMaxZ < minZ || entryMinZ > maxZ) {
+					continue;
+				}
+				if (leaf) {
+					result.add(index);
+				} else {
+					todo.push((int) index);
+				}
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,204 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.bimserver.BimserverDatabaseException;
+
+/**
+ * Collects the bounding boxes of all objects of one concrete revision and writes them as a packed R-tree (see {@link SpatialIndex}).
+ *
+ * Objects are sorted along a 3D Z-order curve of their centers, after which the tree is built bottom-up by grouping
+ * {@link SpatialIndex#NODE_SIZE} consecutive nodes into one parent. Entries can be added from multiple threads.
+ */
+public class SpatialIndexBuilder {
+	private double[] boxes = new double[6 * 1024];
+	private long[] oids = new long[1024];
+	private int size;
+
+	public synchronized void add(long oid, double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+		if (size == oids.length) {
+			oids = Arrays.copyOf(oids, oids.length * 2);
+			boxes = Arrays.copyOf(boxes, boxes.length * 2);
+		}
+		int offset = size * 6;
+		boxes[offset] = minX;
+		boxes[offset + 1] = minY;
+		boxes[offset + 2] = minZ;
+		boxes[offset + 3] = maxX;
+		boxes[offset + 4] = maxY;
+		boxes[offset + 5] = maxZ;
+		oids[size] = oid;
+		size++;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized void write(DatabaseSession databaseSession, long croid) throws BimserverLockConflictException, BimserverDatabaseException {
+		KeyValueStore keyValueStore = databaseSession.getKeyValueStore();
+		// When the geometry is generated again, the new tree can have fewer blocks than the previous one
+		SpatialIndex.delete(databaseSession, croid);
+		if (size == 0) {
+			return;
+		}
+
+		// Count the nodes per level, the leaf level contains the objects themselves
+		int nrLevels = 1;
+		int levelSize = size;
+		int totalNodes = size;
+		while (levelSize > 1) {
+			levelSize = (levelSize + SpatialIndex.NODE_SIZE - 1) / SpatialIndex.NODE_SIZE;
+			totalNodes += levelSize;
+			nrLevels++;
+		}
+		int[] levelBounds = new int[nrLevels];
+		float[] nodeBoxes = new float[totalNodes * 6];
+		long[] nodeIndices = new long[totalNodes];
+
+		Integer[] order = sortByZOrder();
+		for (int i = 0; i < size; i++) {
+			int source = order[i];
+			int target = i * 6;
+			for (int j = 0; j < 3; j++) {
+				nodeBoxes[target + j] = roundDown(boxes[source * 6 + j]);
+				nodeBoxes[target + 3 + j] = roundUp(boxes[source * 6 + 3 + j]);
+			}
+			nodeIndices[i] = oids[source];
+		}
+		levelBounds[0] = size;
+
+		int levelStart = 0;
+		int levelEnd = size;
+		int position = size;
+		for (int level = 1; level < nrLevels; level++) {
+			for (int childStart = levelStart; childStart < levelEnd; childStart += SpatialIndex.NODE_SIZE) {
+				int childEnd = Math.min(childStart + SpatialIndex.NODE_SIZE, levelEnd);
+				int target = position * 6;
+				for (int j = 0; j < 3; j++) {
+					nodeBoxes[target + j] = Float.POSITIVE_INFINITY;
+					nodeBoxes[target + 3 + j] = Float.NEGATIVE_INFINITY;
+				}
+				for (int child = childStart; child < childEnd; child++) {
+					for (int j = 0; j < 3; j++) {
+						nodeBoxes[target + j] = Math.min(nodeBoxes[target + j], nodeBoxes[child * 6 + j]);
+						nodeBoxes[target + 3 + j] = Math.max(nodeBoxes[target + 3 + j], nodeBoxes[child * 6 + 3 + j]);
+					}
+				}
+				nodeIndices[position] = childStart;
+				position++;
+			}
+			levelStart = levelEnd;
+			levelEnd = position;
+			levelBounds[level] = levelEnd;
+		}
+
+		// Every block of NODE_SIZE consecutive nodes (the children of one parent) becomes one record, so a query only reads the blocks it descends into
+		levelStart = 0;
+		for (int level = 0; level < nrLevels; level++) {
+			for (int blockStart = levelStart; blockStart < levelBounds[level]; blockStart += SpatialIndex.NODE_SIZE) {
+				int blockEnd = Math.min(blockStart + SpatialIndex.NODE_SIZE, levelBounds[level]);
+				ByteBuffer block = ByteBuffer.allocate(4 + (blockEnd - blockStart) * SpatialIndex.ENTRY_SIZE);
+				block.putInt(blockEnd - blockStart);
+				for (int node = blockStart; node < blockEnd; node++) {
+					for (int j = 0; j < 6; j++) {
+						block.putFloat(nodeBoxes[node * 6 + j]);
+					}
+					block.putLong(nodeIndices[node]);
+				}
+				keyValueStore.store(SpatialIndex.SPATIAL_INDEX_TABLE, SpatialIndex.createKey(croid, blockStart), block.array(), databaseSession);
+			}
+			levelStart = levelBounds[level];
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(8 + nrLevels * 4);
+		header.putInt(size);
+		header.putInt(nrLevels);
+		for (int levelBound : levelBounds) {
+			header.putInt(levelBound);
+		}
+		keyValueStore.store(SpatialIndex.SPATIAL_INDEX_TABLE, SpatialIndex.createKey(croid, SpatialIndex.HEADER_BLOCK), header.array(), databaseSession);
+	}
+
+	private Integer[] sortByZOrder() {
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < size; i++) {
+			double centerX = (boxes[i * 6] + boxes[i * 6 + 3]) / 2;
+			double centerY = (boxes[i * 6 + 1] + boxes[i * 6 + 4]) / 2;
+			double centerZ = (boxes[i * 6 + 2] + boxes[i * 6 + 5]) / 2;
+			minX = Math.min(minX, centerX);
+			minY = Math.min(minY, centerY);
+			minZ = Math.min(minZ, centerZ);
+			maxX = Math.max(maxX, centerX);
+			maxY = Math.max(maxY, centerY);
+			maxZ = Math.max(maxZ, centerZ);
+		}
+		final long[] codes = new long[size];
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			long x = quantize((boxes[i * 6] + boxes[i * 6 + 3]) / 2, minX, maxX);
+			long y = quantize((boxes[i * 6 + 1] + boxes[i * 6 + 4]) / 2, minY, maxY);
+			long z = quantize((boxes[i * 6 + 2] + boxes[i * 6 + 5]) / 2, minZ, maxZ);
+			codes[i] = spread(x) | (spread(y) << 1) | (spread(z) << 2);
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(codes[a], codes[b]));
+		return order;
+	}
+
+	private long quantize(double value, double min, double max) {
+		if (max <= min || Double.isNaN(value)) {
+			return 0;
+		}
+		long max21Bits = (1 << 21) - 1;
+		return Math.max(0, Math.min(max21Bits, (long) ((value - min) / (max - min) * max21Bits)));
+	}
+
+	/**
+	 * Spreads the lowest 21 bits of the given value so there are two zero bits between every bit
+	 */
+	private long spread(long value) {
+		value &= 0x1fffffL;
+		value = (value | value << 32) & 0x1f00000000ffffL;
+		value = (value | value << 16) & 0x1f0000ff0000ffL;
+		value = (value | value << 8) & 0x100f00f00f00f00fL;
+		value = (value | value << 4) & 0x10c30c30c30c30c3L;
+		value = (value | value << 2) & 0x1249249249249249L;
+		return value;
+	}
+
+	private float roundDown(double value) {
+		float result = (float) value;
+		if (result > value) {
+			result = Math.nextDown(result);
+		}
+		return result;
+	}
+
+	private float roundUp(double value) {
+		float result = (float) value;
+		if (result < value) {
+			result = Math.nextUp(result);
+		}
+		return result;
+	}
+}
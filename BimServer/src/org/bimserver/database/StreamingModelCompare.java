@@ -0,0 +1,325 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.bimserver.BimServer;
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.database.queries.QueryObjectProvider;
+import org.bimserver.database.queries.om.Query;
+import org.bimserver.database.queries.om.QueryException;
+import org.bimserver.database.queries.om.QueryPart;
+import org.bimserver.emf.IdEObjectImpl;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.models.store.CompareContainer;
+import org.bimserver.models.store.CompareItem;
+import org.bimserver.models.store.CompareResult;
+import org.bimserver.models.store.CompareType;
+import org.bimserver.models.store.DataObject;
+import org.bimserver.models.store.ObjectModified;
+import org.bimserver.models.store.StoreFactory;
+import org.bimserver.shared.HashMapVirtualObject;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EClass;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import it.unimi.dsi.fastutil.Arrays;
+import it.unimi.dsi.fastutil.Swapper;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+/**
+ * Compares the IfcRoot objects of two revisions by GlobalId, on the stored records instead of on two IfcModels.
+ *
+ * Both revisions are read once, for every object only the hash of its GlobalId, its oid and a hash of its attributes is kept, in a primitive array
+ * that is sorted by GlobalId hash. The two arrays are then merged. Only the objects that were added, removed or modified are read again (in batches)
+ * to fill in the result, so the memory used is 32 bytes per object plus the result itself.
+ *
+ * Like the GUID based model compare plugins only attributes are compared, references are not, as the oids of referenced objects are different
+ * between revisions that have been checked in separately.
+ */
+public class StreamingModelCompare {
+	private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+	private static final int BATCH_SIZE = 10000;
+	// Per object: GlobalId hash (2 longs), oid, attributes hash
+	private static final int LONGS_PER_OBJECT = 4;
+
+	private final BimServer bimServer;
+	private final DatabaseSession databaseSession;
+	private final PackageMetaData packageMetaData;
+	private final EClass ifcRootClass;
+	private final EAttribute globalIdAttribute;
+	private final Map<EClass, List<EAttribute>> attributes = new HashMap<>();
+
+	public StreamingModelCompare(BimServer bimServer, DatabaseSession databaseSession, PackageMetaData packageMetaData) {
+		this.bimServer = bimServer;
+		this.databaseSession = databaseSession;
+		this.packageMetaData = packageMetaData;
+		this.ifcRootClass = packageMetaData.getEClass("IfcRoot");
+		this.globalIdAttribute = (EAttribute) ifcRootClass.getEStructuralFeature("GlobalId");
+	}
+
+	public CompareResult compare(long roid1, long roid2, CompareType compareType) throws QueryException, IOException, BimserverDatabaseException {
+		long[] objects1 = readSorted(roid1);
+		long[] objects2 = readSorted(roid2);
+
+		LongArrayList removed = new LongArrayList();
+		LongArrayList added = new LongArrayList();
+		// Pairs of the oid in the first and the oid in the second revision
+		LongArrayList modified = new LongArrayList();
+		int index1 = 0;
+		int index2 = 0;
+		while (index1 < objects1.length || index2 < objects2.length) {
+			int compare;
+			if (index1 == objects1.length) {
+				compare = 1;
+			} else if (index2 == objects2.length) {
+				compare = -1;
+			} else {
+				compare = compareGuids(objects1, index1, objects2, index2);
+			}
+			if (compare < 0) {
+				removed.add(objects1[index1 + 2]);
+				index1 += LONGS_PER_OBJECT;
+			} else if (compare > 0) {
+				added.add(objects2[index2 + 2]);
+				index2 += LONGS_PER_OBJECT;
+			} else {
+				if (objects1[index1 + 3] != objects2[index2 + 3]) {
+					modified.add(objects1[index1 + 2]);
+					modified.add(objects2[index2 + 2]);
+				}
+				index1 += LONGS_PER_OBJECT;
+				index2 += LONGS_PER_OBJECT;
+			}
+		}
+
+		// Containers per type, sorted by type name
+		Map<String, CompareContainer> containers = new TreeMap<>();
+		if (compareType == CompareType.ALL || compareType == CompareType.DELETE) {
+			for (int i = 0; i < removed.size(); i += BATCH_SIZE) {
+				for (HashMapVirtualObject object : getObjects(roid1, removed.subList(i, Math.min(removed.size(), i + BATCH_SIZE))).values()) {
+					CompareItem compareItem = StoreFactory.eINSTANCE.createObjectRemoved();
+					compareItem.setDataObject(createDataObject(object));
+					getContainer(containers, object.eClass()).getItems().add(compareItem);
+				}
+			}
+		}
+		if (compareType == CompareType.ALL || compareType == CompareType.ADD) {
+			for (int i = 0; i < added.size(); i += BATCH_SIZE) {
+				for (HashMapVirtualObject object : getObjects(roid2, added.subList(i, Math.min(added.size(), i + BATCH_SIZE))).values()) {
+					CompareItem compareItem = StoreFactory.eINSTANCE.createObjectAdded();
+					compareItem.setDataObject(createDataObject(object));
+					getContainer(containers, object.eClass()).getItems().add(compareItem);
+				}
+			}
+		}
+		if (compareType == CompareType.ALL || compareType == CompareType.MODIFY) {
+			for (int i = 0; i < modified.size(); i += BATCH_SIZE * 2) {
+				int end = Math.min(modified.size(), i + BATCH_SIZE * 2);
+				List<Long> oids1 = new ArrayList<>();
+				List<Long> oids2 = new ArrayList<>();
+				for (int j = i; j < end; j += 2) {
+					oids1.add(modified.getLong(j));
+					oids2.add(modified.getLong(j + 1));
+				}
+				Long2ObjectOpenHashMap<HashMapVirtualObject> oldObjects = getObjects(roid1, oids1);
+				Long2ObjectOpenHashMap<HashMapVirtualObject> newObjects = getObjects(roid2, oids2);
+				for (int j = i; j < end; j += 2) {
+					HashMapVirtualObject oldObject = oldObjects.get(modified.getLong(j));
+					HashMapVirtualObject newObject = newObjects.get(modified.getLong(j + 1));
+					if (oldObject != null && newObject != null) {
+						addModifications(getContainer(containers, newObject.eClass()), oldObject, newObject);
+					}
+				}
+			}
+		}
+
+		CompareResult compareResult = StoreFactory.eINSTANCE.createCompareResult();
+		compareResult.getItems().addAll(containers.values());
+		return compareResult;
+	}
+
+	private void addModifications(CompareContainer container, HashMapVirtualObject oldObject, HashMapVirtualObject newObject) {
+		if (oldObject.eClass() != newObject.eClass()) {
+			ObjectModified objectModified = StoreFactory.eINSTANCE.createObjectModified();
+			objectModified.setDataObject(createDataObject(newObject));
+			objectModified.setFieldName("type");
+			objectModified.setOldValue(oldObject.eClass().getName());
+			objectModified.setNewValue(newObject.eClass().getName());
+			container.getItems().add(objectModified);
+			return;
+		}
+		DataObject dataObject = null;
+		for (EAttribute eAttribute : getAttributes(newObject.eClass())) {
+			String oldValue = toString(oldObject.eGet(eAttribute));
+			String newValue = toString(newObject.eGet(eAttribute));
+			if (!oldValue.equals(newValue)) {
+				if (dataObject == null) {
+					dataObject = createDataObject(newObject);
+				}
+				ObjectModified objectModified = StoreFactory.eINSTANCE.createObjectModified();
+				objectModified.setDataObject(dataObject);
+				objectModified.setFieldName(eAttribute.getName());
+				objectModified.setOldValue(oldValue);
+				objectModified.setNewValue(newValue);
+				container.getItems().add(objectModified);
+			}
+		}
+	}
+
+	/**
+	 * @return The objects of the given revision, sorted by the hash of their GlobalId
+	 */
+	private long[] readSorted(long roid) throws QueryException, IOException, BimserverDatabaseException {
+		Query query = new Query("Compare", packageMetaData);
+		QueryPart queryPart = query.createQueryPart();
+		queryPart.addType(ifcRootClass, true);
+		LongArrayList list = new LongArrayList();
+		QueryObjectProvider queryObjectProvider = new QueryObjectProvider(databaseSession, bimServer, query, Collections.singleton(roid), packageMetaData);
+		HashMapVirtualObject next = queryObjectProvider.next();
+		while (next != null) {
+			Object guid = next.eGet(globalIdAttribute);
+			if (guid instanceof String) {
+				HashCode guidHash = HASH_FUNCTION.hashString((String) guid, Charsets.UTF_8);
+				byte[] guidBytes = guidHash.asBytes();
+				list.add(toLong(guidBytes, 0));
+				list.add(toLong(guidBytes, 8));
+				list.add(next.getOid());
+				list.add(hashAttributes(next));
+			}
+			next = queryObjectProvider.next();
+		}
+		final long[] objects = list.toLongArray();
+		Arrays.quickSort(0, objects.length / LONGS_PER_OBJECT, new IntComparator() {
+			@Override
+			public int compare(int k1, int k2) {
+				return compareGuids(objects, k1 * LONGS_PER_OBJECT, objects, k2 * LONGS_PER_OBJECT);
+			}
+		}, new Swapper() {
+			@Override
+			public void swap(int a, int b) {
+				for (int i = 0; i < LONGS_PER_OBJECT; i++) {
+					long tmp = objects[a * LONGS_PER_OBJECT + i];
+					objects[a * LONGS_PER_OBJECT + i] = objects[b * LONGS_PER_OBJECT + i];
+					objects[b * LONGS_PER_OBJECT + i] = tmp;
+				}
+			}
+		});
+		return objects;
+	}
+
+	private Long2ObjectOpenHashMap<HashMapVirtualObject> getObjects(long roid, List<Long> oids) throws QueryException, IOException, BimserverDatabaseException {
+		Long2ObjectOpenHashMap<HashMapVirtualObject> result = new Long2ObjectOpenHashMap<>(oids.size());
+		if (oids.isEmpty()) {
+			return result;
+		}
+		// The objects of one type are read with a single cursor, which expects the oids in order
+		List<Long> sortedOids = new ArrayList<>(oids);
+		Collections.sort(sortedOids);
+		Query query = new Query("Compare", packageMetaData);
+		QueryPart queryPart = query.createQueryPart();
+		queryPart.addOids(sortedOids);
+		QueryObjectProvider queryObjectProvider = new QueryObjectProvider(databaseSession, bimServer, query, Collections.singleton(roid), packageMetaData);
+		HashMapVirtualObject next = queryObjectProvider.next();
+		while (next != null) {
+			result.put(next.getOid(), next);
+			next = queryObjectProvider.next();
+		}
+		return result;
+	}
+
+	private long hashAttributes(HashMapVirtualObject object) {
+		Hasher hasher = HASH_FUNCTION.newHasher();
+		hasher.putString(object.eClass().getName(), Charsets.UTF_8);
+		for (EAttribute eAttribute : getAttributes(object.eClass())) {
+			hasher.putString(toString(object.eGet(eAttribute)), Charsets.UTF_8);
+			// Separator, so moving a character from one attribute to the next changes the hash
+			hasher.putByte((byte) 0);
+		}
+		return hasher.hash().asLong();
+	}
+
+	private List<EAttribute> getAttributes(EClass eClass) {
+		List<EAttribute> list = attributes.get(eClass);
+		if (list == null) {
+			list = new ArrayList<>();
+			for (EAttribute eAttribute : eClass.getEAllAttributes()) {
+				if (eAttribute.getEAnnotation("hidden") == null && !eAttribute.isDerived()) {
+					list.add(eAttribute);
+				}
+			}
+			attributes.put(eClass, list);
+		}
+		return list;
+	}
+
+	private CompareContainer getContainer(Map<String, CompareContainer> containers, EClass eClass) {
+		CompareContainer container = containers.get(eClass.getName());
+		if (container == null) {
+			container = StoreFactory.eINSTANCE.createCompareContainer();
+			container.setType(eClass.getName());
+			containers.put(eClass.getName(), container);
+		}
+		return container;
+	}
+
+	private DataObject createDataObject(HashMapVirtualObject object) {
+		DataObject dataObject = StoreFactory.eINSTANCE.createDataObject();
+		dataObject.setType(object.eClass().getName());
+		((IdEObjectImpl) dataObject).setOid(object.getOid());
+		Object guid = object.eGet(globalIdAttribute);
+		dataObject.setGuid(guid == null ? "" : guid.toString());
+		Object name = object.eClass().getEStructuralFeature("Name") == null ? null : object.get("Name");
+		dataObject.setName(name == null ? "" : name.toString());
+		return dataObject;
+	}
+
+	private static String toString(Object value) {
+		return value == null ? "" : value.toString();
+	}
+
+	private static int compareGuids(long[] objects1, int offset1, long[] objects2, int offset2) {
+		int compare = Long.compare(objects1[offset1], objects2[offset2]);
+		if (compare != 0) {
+			return compare;
+		}
+		return Long.compare(objects1[offset1 + 1], objects2[offset2 + 1]);
+	}
+
+	private static long toLong(byte[] bytes, int offset) {
+		long result = 0;
+		for (int i = offset; i < offset + 8; i++) {
+			result = (result << 8) | (bytes[i] & 0xFF);
+		}
+		return result;
+	}
+}
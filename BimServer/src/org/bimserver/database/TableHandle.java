@@ -0,0 +1,26 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+/**
+ * A table of a {@link KeyValueStore}, resolved once so reads and writes do not have to look up the table by name.
+ * Obtain one with {@link KeyValueStore#getTableHandle(String)}, or for the table of an EClass with {@link Database#getTableHandle(org.eclipse.emf.ecore.EClass)}.
+ */
+public interface TableHandle {
+	String getTableName();
+}
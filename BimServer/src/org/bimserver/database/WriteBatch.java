@@ -0,0 +1,178 @@
+package org.bimserver.database;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects writes so they can be written with {@link KeyValueStore#write(WriteBatch, DatabaseSession)}, which writes them per table in key order.
+ *
+ * Keys and values are copied when added, so the caller can reuse its buffers, except with {@link #storeNoCopy(TableHandle, byte[], byte[])}. Writes to the same key keep the order in which they were added.
+ */
+public class WriteBatch {
+	public static final int DEFAULT_MAX_WRITES = 100000;
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+	private static final Comparator<Write> WRITE_ORDER = new Comparator<Write>() {
+		@Override
+		public int compare(Write o1, Write o2) {
+			if (o1.tableHandle != o2.tableHandle) {
+				return o1.tableHandle.getTableName().compareTo(o2.tableHandle.getTableName());
+			}
+			return compareUnsigned(o1.key, o2.key);
+		}
+	};
+
+	private final List<Write> writes = new ArrayList<>();
+	// The keys of the pending writes per table, ByteBuffer compares its contents
+	private final Map<TableHandle, Set<ByteBuffer>> keys = new HashMap<>();
+	private final int maxWrites;
+	private final long maxBytes;
+	private long bytes;
+
+	public static class Write {
+		private final TableHandle tableHandle;
+		private final byte[] key;
+		private final byte[] value;
+		private final boolean noOverwrite;
+
+		private Write(TableHandle tableHandle, byte[] key, byte[] value, boolean noOverwrite) {
+			this.tableHandle = tableHandle;
+			this.key = key;
+			this.value = value;
+			this.noOverwrite = noOverwrite;
+		}
+
+		public TableHandle getTableHandle() {
+			return tableHandle;
+		}
+
+		public byte[] getKey() {
+			return key;
+		}
+
+		public byte[] getValue() {
+			return value;
+		}
+
+		public boolean isNoOverwrite() {
+			return noOverwrite;
+		}
+	}
+
+	public WriteBatch() {
+		this(DEFAULT_MAX_WRITES, DEFAULT_MAX_BYTES);
+	}
+
+	public WriteBatch(int maxWrites, long maxBytes) {
+		this.maxWrites = maxWrites;
+		this.maxBytes = maxBytes;
+	}
+
+	public void store(TableHandle tableHandle, byte[] key, byte[] value, int offset, int length) {
+		add(tableHandle, key, value, offset, length, false);
+	}
+
+	/**
+	 * Same as {@link #store(TableHandle, byte[], byte[], int, int)}, but writing fails when the key already exists, like {@link KeyValueStore#storeNoOverwrite(TableHandle, byte[], byte[], int, int, DatabaseSession)}
+	 */
+	public void storeNoOverwrite(TableHandle tableHandle, byte[] key, byte[] value, int offset, int length) {
+		add(tableHandle, key, value, offset, length, true);
+	}
+
+	/**
+	 * Same as {@link #store(TableHandle, byte[], byte[], int, int)}, but the batch keeps the given arrays instead of copies, the caller must not change them afterwards
+	 */
+	public void storeNoCopy(TableHandle tableHandle, byte[] key, byte[] value) {
+		add(new Write(tableHandle, key, value, false));
+	}
+
+	private void add(TableHandle tableHandle, byte[] key, byte[] value, int offset, int length, boolean noOverwrite) {
+		add(new Write(tableHandle, Arrays.copyOf(key, key.length), Arrays.copyOfRange(value, offset, offset + length), noOverwrite));
+	}
+
+	private void add(Write write) {
+		writes.add(write);
+		Set<ByteBuffer> tableKeys = keys.get(write.tableHandle);
+		if (tableKeys == null) {
+			tableKeys = new HashSet<>();
+			keys.put(write.tableHandle, tableKeys);
+		}
+		tableKeys.add(ByteBuffer.wrap(write.key));
+		bytes += write.key.length + write.value.length;
+	}
+
+	/**
+	 * @return Whether a write to the given key is pending in this batch, reading the key from the store gives an outdated result until this batch has been written
+	 */
+	public boolean contains(TableHandle tableHandle, byte[] key) {
+		Set<ByteBuffer> tableKeys = keys.get(tableHandle);
+		return tableKeys != null && tableKeys.contains(ByteBuffer.wrap(key));
+	}
+
+	/**
+	 * @return Whether this batch has reached the number of writes or the amount of bytes it should be written at
+	 */
+	public boolean isFull() {
+		return writes.size() >= maxWrites || bytes >= maxBytes;
+	}
+
+	public boolean isEmpty() {
+		return writes.isEmpty();
+	}
+
+	public int size() {
+		return writes.size();
+	}
+
+	public void clear() {
+		writes.clear();
+		keys.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * @return The writes grouped per table and sorted by (unsigned) key, in which writes to the same key keep their original order
+	 */
+	public List<Write> getSortedWrites() {
+		List<Write> sorted = new ArrayList<>(writes);
+		// Collections.sort is stable
+		Collections.sort(sorted, WRITE_ORDER);
+		return sorted;
+	}
+
+	private static int compareUnsigned(byte[] a, byte[] b) {
+		int length = Math.min(a.length, b.length);
+		for (int i = 0; i < length; i++) {
+			int compare = (a[i] & 0xFF) - (b[i] & 0xFF);
+			if (compare != 0) {
+				return compare;
+			}
+		}
+		return a.length - b.length;
+	}
+}
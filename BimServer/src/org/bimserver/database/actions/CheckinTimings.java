@@ -0,0 +1,141 @@
+package org.bimserver.database.actions;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bimserver.database.DatabaseSession;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Wall time, CPU time, number of objects and number of bytes written per phase of a checkin. Stored as JSON extended data on the new revision, see
+ * {@link #SCHEMA_NAME}.
+ *
+ * The thread CPU time only covers the thread running the checkin, the process CPU time also covers the threads a phase starts (like geometry
+ * generation), but also everything else the server does at the same time.
+ */
+public class CheckinTimings {
+	public static final String SCHEMA_NAME = "CHECKIN_TIMINGS_JSON_1_0";
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+	private final DatabaseSession databaseSession;
+	private final List<Phase> phases = new ArrayList<>();
+	private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+	private final OperatingSystemMXBean operatingSystemMXBean = ManagementFactory.getOperatingSystemMXBean();
+
+	public CheckinTimings(DatabaseSession databaseSession) {
+		this.databaseSession = databaseSession;
+	}
+
+	public class Phase {
+		private final String name;
+		private final long startNanos;
+		private final long startThreadCpuNanos;
+		private final long startProcessCpuNanos;
+		private final long startBytesWritten;
+		private long wallNanos = -1;
+		private long threadCpuNanos = -1;
+		private long processCpuNanos = -1;
+		private long bytesWritten;
+		private long objects;
+
+		private Phase(String name) {
+			this.name = name;
+			this.startNanos = System.nanoTime();
+			this.startThreadCpuNanos = getThreadCpuNanos();
+			this.startProcessCpuNanos = getProcessCpuNanos();
+			this.startBytesWritten = databaseSession.getBytesWritten();
+		}
+
+		/**
+		 * @param objects The number of objects the phase has processed
+		 */
+		public void finish(long objects) {
+			this.objects = objects;
+			this.wallNanos = System.nanoTime() - startNanos;
+			long threadCpu = getThreadCpuNanos();
+			if (threadCpu != -1 && startThreadCpuNanos != -1) {
+				this.threadCpuNanos = threadCpu - startThreadCpuNanos;
+			}
+			long processCpu = getProcessCpuNanos();
+			if (processCpu != -1 && startProcessCpuNanos != -1) {
+				this.processCpuNanos = processCpu - startProcessCpuNanos;
+			}
+			this.bytesWritten = databaseSession.getBytesWritten() - startBytesWritten;
+		}
+	}
+
+	public Phase start(String name) {
+		Phase phase = new Phase(name);
+		phases.add(phase);
+		return phase;
+	}
+
+	public ObjectNode toJson() {
+		ObjectNode result = OBJECT_MAPPER.createObjectNode();
+		ArrayNode phasesNode = OBJECT_MAPPER.createArrayNode();
+		result.set("phases", phasesNode);
+		for (Phase phase : phases) {
+			if (phase.wallNanos == -1) {
+				// Not finished, for example when geometry generation is disabled
+				continue;
+			}
+			ObjectNode phaseNode = OBJECT_MAPPER.createObjectNode();
+			phaseNode.put("name", phase.name);
+			phaseNode.put("wallMs", phase.wallNanos / 1000000);
+			phaseNode.put("threadCpuMs", phase.threadCpuNanos == -1 ? -1 : phase.threadCpuNanos / 1000000);
+			phaseNode.put("processCpuMs", phase.processCpuNanos == -1 ? -1 : phase.processCpuNanos / 1000000);
+			phaseNode.put("objects", phase.objects);
+			phaseNode.put("bytesWritten", phase.bytesWritten);
+			phasesNode.add(phaseNode);
+		}
+		result.put("totalWallMs", getTotalWallMs());
+		return result;
+	}
+
+	public long getTotalWallMs() {
+		long totalWallNanos = 0;
+		for (Phase phase : phases) {
+			if (phase.wallNanos != -1) {
+				totalWallNanos += phase.wallNanos;
+			}
+		}
+		return totalWallNanos / 1000000;
+	}
+
+	private long getThreadCpuNanos() {
+		if (threadMXBean.isCurrentThreadCpuTimeSupported()) {
+			return threadMXBean.getCurrentThreadCpuTime();
+		}
+		return -1;
+	}
+
+	private long getProcessCpuNanos() {
+		if (operatingSystemMXBean instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) operatingSystemMXBean).getProcessCpuTime();
+		}
+		return -1;
+	}
+}
@@ -19,7 +19,9 @@ package org.bimserver.database.actions;
 
 import java.io.IOException;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.bimserver.BimServer;
 import org.bimserver.BimserverDatabaseException;
@@ -36,6 +38,8 @@ import org.bimserver.database.OperationType;
 import org.bimserver.database.PostCommitAction;
 import org.bimserver.database.queries.om.QueryException;
 import org.bimserver.emf.PackageMetaData;
+import org.bimserver.geometry.Density;
+import org.bimserver.geometry.GeometryDependencies;
 import org.bimserver.geometry.GeometryGenerationReport;
 import org.bimserver.geometry.StreamingGeometryGenerator;
 import org.bimserver.interfaces.SConverter;
@@ -215,34 +219,34 @@ public class CommitTransactionDatabaseAction extends GenericCheckinDatabaseActio
 
 		if (getBimServer().getServerSettingsCache().getServerSettings().isGenerateGeometryOnCheckin()) {
 			if (regenerateAllGeometry) {
-				setProgress("Generating Geometry...", -1);
-				try {
-					GeometryGenerationReport report = new GeometryGenerationReport();
-	
-					report.setOriginalDeserializer("No deserializer, low level call");
-					report.setOriginalIfcFileName("No file, low level call");
-					report.setOriginalIfcFileSize(-1);
-					
-					StreamingGeometryGenerator streamingGeometryGenerator = new StreamingGeometryGenerator(getBimServer(), null, -1L, report);
-	
-					GenerateGeometryResult generateGeometry = streamingGeometryGenerator.generateGeometry(authorization.getUoid(), getDatabaseSession(), queryContext, summaryMap.count());
-					
-					concreteRevision.setMultiplierToMm(generateGeometry.getMultiplierToMm());
-					concreteRevision.setBounds(generateGeometry.getBounds());
-					concreteRevision.setBoundsUntransformed(generateGeometry.getBoundsUntransformed());
-					
-					generateDensityAndBounds(result, generateGeometry, concreteRevision);
-	
-					final GeometryGenerationReport finalReport = report;
-					
-					getDatabaseSession().addPostCommitAction(new PostCommitAction() {
-						@Override
-						public void execute() throws UserException {
-							if (finalReport != null) {
-								byte[] htmlBytes = finalReport.toHtml().getBytes(Charsets.UTF_8);
-								byte[] jsonBytes = finalReport.toJson().toString().getBytes(Charsets.UTF_8);
+				generateGeometry(result, concreteRevision, queryContext, summaryMap, project, null);
+			} else {
+				if (previousRevision != null) {
+					IncrementalGeometry incrementalGeometry = null;
+					if (previousRevision.isHasGeometry()) {
+						incrementalGeometry = findIncrementalGeometry(transaction, packageMetaData, queryContext, previousConcreteRevision);
+					}
+					if (incrementalGeometry != null) {
+						generateGeometry(result, concreteRevision, queryContext, summaryMap, project, incrementalGeometry);
+					} else {
+						byte[] htmlBytes = null;
+						byte[] jsonBytes = null;
+						long timeToGenerate = -1;
+						for (ExtendedData previousExtendedData : previousRevision.getExtendedData()) {
+							ExtendedDataSchema previousSchema = previousExtendedData.getSchema();
+							if (previousSchema.getName().contentEquals("GEOMETRY_GENERATION_REPORT_HTML_1_1")) {
+								htmlBytes = previousExtendedData.getFile().getData();
+							} else if (previousSchema.getName().contentEquals("GEOMETRY_GENERATION_REPORT_JSON_1_1")) {
+								jsonBytes = previousExtendedData.getFile().getData();
+							}
+						}
+						byte[] finalHtmlBytes = htmlBytes;
+						byte[] finalJsonBytes = jsonBytes;
+						
+						getDatabaseSession().addPostCommitAction(new PostCommitAction() {
+							public void execute() throws UserException {
 								try (DatabaseSession tmpSession = getBimServer().getDatabase().createSession(OperationType.POSSIBLY_WRITE)) {
-									AddGeometryReports addGeometryReports = new AddGeometryReports(tmpSession, AccessMethod.INTERNAL, htmlBytes, jsonBytes, finalReport.getTimeToGenerateMs(), authorization.getUoid(), revision.getOid());
+									AddGeometryReports addGeometryReports = new AddGeometryReports(tmpSession, AccessMethod.INTERNAL, finalHtmlBytes, finalJsonBytes, timeToGenerate, authorization.getUoid(), revision.getOid());
 									try {
 										tmpSession.executeAndCommitAction(addGeometryReports);
 									} catch (ServerException e1) {
@@ -252,55 +256,20 @@ public class CommitTransactionDatabaseAction extends GenericCheckinDatabaseActio
 									LOGGER.error("", e1);
 								}
 							}
-							getBimServer().getNotificationsManager().notify(new NewRevisionNotification(getBimServer(), project.getOid(), revision.getOid(), authorization));
-						}
-					});
-				} catch (GeometryGeneratingException e) {
-					throw new UserException(e);
-				}
-				revision.setHasGeometry(true);
-			} else {
-				if (previousRevision != null) {
-					byte[] htmlBytes = null;
-					byte[] jsonBytes = null;
-					long timeToGenerate = -1;
-					for (ExtendedData previousExtendedData : previousRevision.getExtendedData()) {
-						ExtendedDataSchema previousSchema = previousExtendedData.getSchema();
-						if (previousSchema.getName().contentEquals("GEOMETRY_GENERATION_REPORT_HTML_1_1")) {
-							htmlBytes = previousExtendedData.getFile().getData();
-						} else if (previousSchema.getName().contentEquals("GEOMETRY_GENERATION_REPORT_JSON_1_1")) {
-							jsonBytes = previousExtendedData.getFile().getData();
-						}
+						});
+						concreteRevision.setMultiplierToMm(previousConcreteRevision.getMultiplierToMm());
+						concreteRevision.setBounds(previousConcreteRevision.getBounds());
+						concreteRevision.setBoundsUntransformed(previousConcreteRevision.getBoundsUntransformed());
+						
+						newRevision.setBounds(previousRevision.getBounds());
+						newRevision.setBoundsUntransformed(previousRevision.getBoundsUntransformed());
+						newRevision.setBoundsMm(previousRevision.getBoundsMm());
+						newRevision.setBoundsUntransformedMm(previousRevision.getBoundsUntransformedMm());
+						
+						// TODO validate this, contains ids?
+						newRevision.setDensityCollection(previousRevision.getDensityCollection());
+						revision.setHasGeometry(true);
 					}
-					byte[] finalHtmlBytes = htmlBytes;
-					byte[] finalJsonBytes = jsonBytes;
-					
-					getDatabaseSession().addPostCommitAction(new PostCommitAction() {
-						public void execute() throws UserException {
-							try (DatabaseSession tmpSession = getBimServer().getDatabase().createSession(OperationType.POSSIBLY_WRITE)) {
-								AddGeometryReports addGeometryReports = new AddGeometryReports(tmpSession, AccessMethod.INTERNAL, finalHtmlBytes, finalJsonBytes, timeToGenerate, authorization.getUoid(), revision.getOid());
-								try {
-									tmpSession.executeAndCommitAction(addGeometryReports);
-								} catch (ServerException e1) {
-									LOGGER.error("", e1);
-								}
-							} catch (BimserverDatabaseException e1) {
-								LOGGER.error("", e1);
-							}
-						}
-					});
-					concreteRevision.setMultiplierToMm(previousConcreteRevision.getMultiplierToMm());
-					concreteRevision.setBounds(previousConcreteRevision.getBounds());
-					concreteRevision.setBoundsUntransformed(previousConcreteRevision.getBoundsUntransformed());
-					
-					newRevision.setBounds(previousRevision.getBounds());
-					newRevision.setBoundsUntransformed(previousRevision.getBoundsUntransformed());
-					newRevision.setBoundsMm(previousRevision.getBoundsMm());
-					newRevision.setBoundsUntransformedMm(previousRevision.getBoundsUntransformedMm());
-					
-					// TODO validate this, contains ids?
-					newRevision.setDensityCollection(previousRevision.getDensityCollection());
-					revision.setHasGeometry(true);
 				}
 			}
 		}
@@ -315,4 +284,151 @@ public class CommitTransactionDatabaseAction extends GenericCheckinDatabaseActio
 	public Revision getRevision() {
 		return revision;
 	}
+
+	/**
+	 * The products of which the geometry has to be generated again after a commit, and what is needed to carry over the geometry of the other products
+	 */
+	private static class IncrementalGeometry {
+		private final Set<Long> productsToGenerate;
+		private final ConcreteRevision previousConcreteRevision;
+		// Products of which the spatial index entry of the previous revision should not be carried over
+		private final Set<Long> notCarriedOver;
+		// GeometryInfo objects of the previous revision that are not used anymore
+		private final Set<Long> replacedGeometryInfos;
+
+		private IncrementalGeometry(Set<Long> productsToGenerate, ConcreteRevision previousConcreteRevision, Set<Long> notCarriedOver, Set<Long> replacedGeometryInfos) {
+			this.productsToGenerate = productsToGenerate;
+			this.previousConcreteRevision = previousConcreteRevision;
+			this.notCarriedOver = notCarriedOver;
+			this.replacedGeometryInfos = replacedGeometryInfos;
+		}
+	}
+
+	/**
+	 * @return The products affected by the changes of the given transaction, or null when the geometry of the previous revision can be used as is
+	 */
+	private IncrementalGeometry findIncrementalGeometry(Transaction transaction, PackageMetaData packageMetaData, QueryContext queryContext, ConcreteRevision previousConcreteRevision) throws UserException, BimserverDatabaseException {
+		EClass productClass = packageMetaData.getEClass("IfcProduct");
+		Set<Long> changedOids = new HashSet<>();
+		Set<Long> notCarriedOver = new HashSet<>();
+		Set<Long> replacedGeometryInfos = new HashSet<>();
+		for (HashMapVirtualObject object : transaction.getCreated()) {
+			changedOids.add(object.getOid());
+		}
+		for (HashMapVirtualObject object : transaction.getUpdated()) {
+			changedOids.add(object.getOid());
+		}
+		for (HashMapVirtualObject object : transaction.getDeleted()) {
+			changedOids.add(object.getOid());
+			if (productClass.isSuperTypeOf(object.eClass())) {
+				notCarriedOver.add(object.getOid());
+				Object geometryInfo = object.get("geometry");
+				if (geometryInfo instanceof Long) {
+					replacedGeometryInfos.add((Long) geometryInfo);
+				}
+			}
+		}
+
+		GeometryDependencies geometryDependencies = new GeometryDependencies(packageMetaData);
+		try {
+			geometryDependencies.read(getDatabaseSession(), getBimServer(), queryContext.getRoid());
+		} catch (QueryException | IOException e) {
+			throw new UserException(e);
+		}
+		Set<Long> affectedProducts = geometryDependencies.getAffectedProducts(changedOids);
+		if (affectedProducts.isEmpty() && notCarriedOver.isEmpty()) {
+			return null;
+		}
+		LOGGER.debug(affectedProducts.size() + " products affected by " + changedOids.size() + " changed objects");
+		for (long oid : affectedProducts) {
+			notCarriedOver.add(oid);
+			long geometryInfoOid = geometryDependencies.getGeometryInfoOid(oid);
+			if (geometryInfoOid != -1) {
+				replacedGeometryInfos.add(geometryInfoOid);
+			}
+		}
+		return new IncrementalGeometry(affectedProducts, previousConcreteRevision, notCarriedOver, replacedGeometryInfos);
+	}
+
+	/**
+	 * Adds the bounds and densities of the geometry of the previous revision that has not been generated again
+	 */
+	private void carryOverGeometry(IncrementalGeometry incrementalGeometry, GenerateGeometryResult generateGeometry) {
+		ConcreteRevision previousConcreteRevision = incrementalGeometry.previousConcreteRevision;
+		generateGeometry.extendBounds(previousConcreteRevision.getBounds(), previousConcreteRevision.getBoundsUntransformed());
+		if (previousConcreteRevision.getDensityCollection() != null) {
+			for (org.bimserver.models.store.Density density : previousConcreteRevision.getDensityCollection().getDensities()) {
+				if (!incrementalGeometry.replacedGeometryInfos.contains(density.getGeometryInfoId())) {
+					generateGeometry.addDensity(Density.fromStored(density.getType(), density.getDensity(), density.getVolume(), density.getTrianglesBelow(), density.getGeometryInfoId()));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param incrementalGeometry When not null, only the geometry of the affected products is generated and the rest is carried over from the previous revision
+	 */
+	private void generateGeometry(CreateRevisionResult result, ConcreteRevision concreteRevision, QueryContext queryContext, SummaryMap summaryMap, Project project, IncrementalGeometry incrementalGeometry) throws UserException, BimserverDatabaseException {
+		setProgress(incrementalGeometry == null ? "Generating Geometry..." : "Generating Geometry of " + incrementalGeometry.productsToGenerate.size() + " changed objects...", -1);
+		try {
+			GeometryGenerationReport report = new GeometryGenerationReport();
+
+			report.setOriginalDeserializer("No deserializer, low level call");
+			report.setOriginalIfcFileName("No file, low level call");
+			report.setOriginalIfcFileSize(-1);
+			
+			StreamingGeometryGenerator streamingGeometryGenerator = new StreamingGeometryGenerator(getBimServer(), null, -1L, report);
+			if (incrementalGeometry != null) {
+				streamingGeometryGenerator.setProductsToGenerate(incrementalGeometry.productsToGenerate);
+				streamingGeometryGenerator.carryOverSpatialIndex(incrementalGeometry.previousConcreteRevision.getOid(), incrementalGeometry.notCarriedOver);
+				// The carried over geometry has been quantized with the bounds of the previous revision
+				streamingGeometryGenerator.setQuantizationBounds(incrementalGeometry.previousConcreteRevision.getBoundsUntransformed());
+			}
+
+			GenerateGeometryResult generateGeometry = streamingGeometryGenerator.generateGeometry(authorization.getUoid(), getDatabaseSession(), queryContext, summaryMap.count());
+			if (incrementalGeometry != null) {
+				if (streamingGeometryGenerator.isQuantizationBoundsExceeded()) {
+					// Nothing of the incremental run has been written, the full run uses the same report so it ends up with the revision
+					LOGGER.info("Changed geometry does not fit in the bounds of the previous revision, generating the geometry of all products");
+					setProgress("Generating Geometry...", -1);
+					streamingGeometryGenerator = new StreamingGeometryGenerator(getBimServer(), null, -1L, report);
+					generateGeometry = streamingGeometryGenerator.generateGeometry(authorization.getUoid(), getDatabaseSession(), queryContext, summaryMap.count());
+				} else {
+					carryOverGeometry(incrementalGeometry, generateGeometry);
+				}
+			}
+			
+			concreteRevision.setMultiplierToMm(generateGeometry.getMultiplierToMm());
+			concreteRevision.setBounds(generateGeometry.getBounds());
+			concreteRevision.setBoundsUntransformed(generateGeometry.getBoundsUntransformed());
+			
+			generateDensityAndBounds(result, generateGeometry, concreteRevision);
+
+			final GeometryGenerationReport finalReport = report;
+			
+			getDatabaseSession().addPostCommitAction(new PostCommitAction() {
+				@Override
+				public void execute() throws UserException {
+					if (finalReport != null) {
+						byte[] htmlBytes = finalReport.toHtml().getBytes(Charsets.UTF_8);
+						byte[] jsonBytes = finalReport.toJson().toString().getBytes(Charsets.UTF_8);
+						try (DatabaseSession tmpSession = getBimServer().getDatabase().createSession(OperationType.POSSIBLY_WRITE)) {
+							AddGeometryReports addGeometryReports = new AddGeometryReports(tmpSession, AccessMethod.INTERNAL, htmlBytes, jsonBytes, finalReport.getTimeToGenerateMs(), authorization.getUoid(), revision.getOid());
+							try {
+								tmpSession.executeAndCommitAction(addGeometryReports);
+							} catch (ServerException e1) {
+								LOGGER.error("", e1);
+							}
+						} catch (BimserverDatabaseException e1) {
+							LOGGER.error("", e1);
+						}
+					}
+					getBimServer().getNotificationsManager().notify(new NewRevisionNotification(getBimServer(), project.getOid(), revision.getOid(), authorization));
+				}
+			});
+		} catch (GeometryGeneratingException e) {
+			throw new UserException(e);
+		}
+		revision.setHasGeometry(true);
+	}
 }
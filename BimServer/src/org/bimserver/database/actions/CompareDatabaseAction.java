@@ -17,12 +17,16 @@ package org.bimserver.database.actions;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
+import java.io.IOException;
+
 import org.bimserver.BimServer;
 import org.bimserver.BimserverDatabaseException;
 import org.bimserver.database.BimserverLockConflictException;
 import org.bimserver.database.DatabaseSession;
 import org.bimserver.database.OldQuery;
 import org.bimserver.database.OperationType;
+import org.bimserver.database.StreamingModelCompare;
+import org.bimserver.database.queries.om.QueryException;
 import org.bimserver.emf.IfcModelInterface;
 import org.bimserver.emf.PackageMetaData;
 import org.bimserver.models.log.AccessMethod;
@@ -38,18 +42,28 @@ import org.bimserver.shared.exceptions.UserException;
 import org.bimserver.webservices.authorization.Authorization;
 import org.slf4j.LoggerFactory;
 
-
+/**
+ * Compares two revisions with {@link StreamingModelCompare}, which works on the stored records instead of on two downloaded models. Results are cached
+ * in memory and stored in the database, so comparing the same revisions again does not read the revisions at all.
+ *
+ * When another Model Compare than the GUID based one is selected, that plugin is used on the two downloaded models, as before.
+ */
 public class CompareDatabaseAction extends BimDatabaseAction<CompareResult> {
 
 	private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(CompareDatabaseAction.class);
 	private final long roid1;
 	private final long roid2;
+	// The Model Compare of which StreamingModelCompare gives the same results
+	public static final String GUID_BASED_MODEL_COMPARE = "org.bimserver.ifc.compare.GuidBasedModelComparePlugin";
 	private final CompareType sCompareType;
 	private final BimServer bimServer;
 	private final long mcid;
 	private Authorization authorization;
 	private long serializerOid;
 
+	/**
+	 * @param mcid The Model Compare to use, -1 for the GUID based comparison
+	 */
 	public CompareDatabaseAction(BimServer bimServer, DatabaseSession databaseSession, AccessMethod accessMethod, Authorization authorization, long serializerOid, long roid1, long roid2,
 			CompareType sCompareType, long mcid) {
 		super(databaseSession, accessMethod);
@@ -62,45 +76,86 @@ public class CompareDatabaseAction extends BimDatabaseAction<CompareResult> {
 		this.mcid = mcid;
 	}
 
-	public org.bimserver.plugins.modelcompare.ModelCompare getModelCompare() throws ModelCompareException, BimserverDatabaseException {
+	@Override
+	public CompareResult execute() throws UserException, BimserverLockConflictException, BimserverDatabaseException, ServerException {
+		authorization.canDownload(roid1);
+		authorization.canDownload(roid2);
 		Revision revision1 = getDatabaseSession().get(roid1, OldQuery.getDefault());
 		Revision revision2 = getDatabaseSession().get(roid2, OldQuery.getDefault());
+		if (revision1 == null || revision2 == null) {
+			throw new UserException("Revision not found");
+		}
+		if (!revision1.getProject().getSchema().equals(revision2.getProject().getSchema())) {
+			throw new UserException("Not the same schema");
+		}
 		PackageMetaData packageMetaData = bimServer.getMetaDataManager().getPackageMetaData(revision1.getProject().getSchema());
-		if (revision1.getProject().getSchema().equals(revision2.getProject().getSchema())) {
-			ModelComparePluginConfiguration modelCompareObject = getDatabaseSession().get(StorePackage.eINSTANCE.getModelComparePluginConfiguration(), mcid, OldQuery.getDefault());
-			if (modelCompareObject != null) {
-				ModelComparePlugin modelComparePlugin = bimServer.getPluginManager().getModelComparePlugin(modelCompareObject.getPluginDescriptor().getPluginClassName(), true);
-				if (modelComparePlugin != null) {
-					org.bimserver.plugins.modelcompare.ModelCompare modelCompare = modelComparePlugin.createModelCompare(bimServer.getPluginSettingsCache().getPluginSettings(modelCompareObject.getOid()), packageMetaData);
-					return modelCompare;
-				} else {
-					throw new ModelCompareException("No Model Compare found " + modelCompareObject.getPluginDescriptor().getPluginClassName());
-				}
-			} else {
-				throw new ModelCompareException("No configured Model Compare found");
-			}
-		} else {
-			throw new ModelCompareException("Not the same schema");
+		org.bimserver.plugins.modelcompare.ModelCompare modelCompare = getModelCompare(bimServer, getDatabaseSession(), mcid, packageMetaData);
+		if (modelCompare == null) {
+			return compare(bimServer, getDatabaseSession(), authorization, roid1, roid2, sCompareType);
+		}
+		IfcModelInterface model1 = new DownloadDatabaseAction(bimServer, getDatabaseSession(), getAccessMethod(), roid1, -1, serializerOid, authorization).execute();
+		try (DatabaseSession secondSession = bimServer.getDatabase().createSession(OperationType.READ_ONLY)) {
+			IfcModelInterface model2 = new DownloadDatabaseAction(bimServer, secondSession, getAccessMethod(), roid2, -1, serializerOid, authorization).execute();
+			// The cache is keyed by revisions and compare type only, so results of other Model Compares are not cached
+			return modelCompare.compare(model1, model2, sCompareType);
+		} catch (ModelCompareException e) {
+			LOGGER.error("", e);
+			throw new UserException(e);
 		}
 	}
 
-	@Override
-	public CompareResult execute() throws UserException, BimserverLockConflictException, BimserverDatabaseException, ServerException {
-		CompareResult compareResults = null;// bimServer.getCompareCache().getCompareResults(roid1,
-											// roid2, sCompareType,
-											// sCompareIdentifier);
+	/**
+	 * @return The Model Compare configured as mcid, or null when the GUID based comparison, which is done by {@link #compare}, should be used
+	 */
+	public static org.bimserver.plugins.modelcompare.ModelCompare getModelCompare(BimServer bimServer, DatabaseSession databaseSession, long mcid, PackageMetaData packageMetaData) throws UserException, BimserverDatabaseException {
+		if (mcid == -1) {
+			return null;
+		}
+		ModelComparePluginConfiguration modelCompareObject = databaseSession.get(StorePackage.eINSTANCE.getModelComparePluginConfiguration(), mcid, OldQuery.getDefault());
+		if (modelCompareObject == null) {
+			throw new UserException("No configured Model Compare found");
+		}
+		String pluginClassName = modelCompareObject.getPluginDescriptor().getPluginClassName();
+		if (GUID_BASED_MODEL_COMPARE.equals(pluginClassName)) {
+			return null;
+		}
+		ModelComparePlugin modelComparePlugin = bimServer.getPluginManager().getModelComparePlugin(pluginClassName, true);
+		if (modelComparePlugin == null) {
+			throw new UserException("No Model Compare found " + pluginClassName);
+		}
+		try {
+			return modelComparePlugin.createModelCompare(bimServer.getPluginSettingsCache().getPluginSettings(modelCompareObject.getOid()), packageMetaData);
+		} catch (ModelCompareException e) {
+			throw new UserException(e);
+		}
+	}
+
+	/**
+	 * @return The cached or stored compare results, or the results of a new comparison, which are then cached and stored
+	 * @throws UserException When the given authorization does not allow downloading both revisions
+	 */
+	public static CompareResult compare(BimServer bimServer, DatabaseSession databaseSession, Authorization authorization, long roid1, long roid2, CompareType compareType) throws UserException, BimserverDatabaseException {
+		// The results come from the cache or the stored records, so the download check of DownloadDatabaseAction is not done otherwise
+		authorization.canDownload(roid1);
+		authorization.canDownload(roid2);
+		CompareResult compareResults = bimServer.getCompareCache().getCompareResults(databaseSession, roid1, roid2, compareType);
 		if (compareResults == null) {
-			IfcModelInterface model1 = new DownloadDatabaseAction(bimServer, getDatabaseSession(), getAccessMethod(), roid1, -1, serializerOid, authorization).execute();
-			try(DatabaseSession secondSession = bimServer.getDatabase().createSession(OperationType.READ_ONLY)){
-				IfcModelInterface model2 = new DownloadDatabaseAction(bimServer, secondSession, getAccessMethod(), roid2, -1, serializerOid, authorization).execute();
-				try {
-					compareResults = getModelCompare().compare(model1, model2, sCompareType);
-				} catch (ModelCompareException e) {
-					LOGGER.error("", e);
-					throw new UserException(e);
-				}
-				// bimServer.getCompareCache().storeResults(roid1, roid2, sCompareType, sCompareIdentifier, compareResults);
+			Revision revision1 = databaseSession.get(roid1, OldQuery.getDefault());
+			Revision revision2 = databaseSession.get(roid2, OldQuery.getDefault());
+			if (revision1 == null || revision2 == null) {
+				throw new UserException("Revision not found");
+			}
+			if (!revision1.getProject().getSchema().equals(revision2.getProject().getSchema())) {
+				throw new UserException("Not the same schema");
+			}
+			PackageMetaData packageMetaData = bimServer.getMetaDataManager().getPackageMetaData(revision1.getProject().getSchema());
+			try {
+				compareResults = new StreamingModelCompare(bimServer, databaseSession, packageMetaData).compare(roid1, roid2, compareType);
+			} catch (QueryException | IOException e) {
+				LOGGER.error("", e);
+				throw new UserException(e);
 			}
+			bimServer.getCompareCache().storeResults(bimServer.getDatabase(), roid1, roid2, compareType, compareResults);
 		}
 		return compareResults;
 	}
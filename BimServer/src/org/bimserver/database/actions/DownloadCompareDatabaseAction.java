@@ -26,7 +26,6 @@ import org.bimserver.BimServer;
 import org.bimserver.BimserverDatabaseException;
 import org.bimserver.database.BimserverLockConflictException;
 import org.bimserver.database.DatabaseSession;
-import org.bimserver.database.OldQuery;
 import org.bimserver.database.OperationType;
 import org.bimserver.emf.IdEObject;
 import org.bimserver.emf.IfcModelInterface;
@@ -38,17 +37,14 @@ import org.bimserver.models.store.CompareItem;
 import org.bimserver.models.store.CompareResult;
 import org.bimserver.models.store.CompareType;
 import org.bimserver.models.store.DataObject;
-import org.bimserver.models.store.ModelComparePluginConfiguration;
 import org.bimserver.models.store.ObjectAdded;
 import org.bimserver.models.store.ObjectModified;
 import org.bimserver.models.store.ObjectRemoved;
 import org.bimserver.models.store.Project;
 import org.bimserver.models.store.Revision;
-import org.bimserver.models.store.StorePackage;
 import org.bimserver.plugins.IfcModelSet;
 import org.bimserver.plugins.ModelHelper;
 import org.bimserver.plugins.modelcompare.ModelCompareException;
-import org.bimserver.plugins.modelcompare.ModelComparePlugin;
 import org.bimserver.plugins.modelmerger.MergeException;
 import org.bimserver.plugins.modelmerger.ModelMerger;
 import org.bimserver.shared.exceptions.ServerException;
@@ -76,51 +72,36 @@ public class DownloadCompareDatabaseAction extends AbstractDownloadDatabaseActio
 		this.compareType = compareType;
 	}
 
-	public org.bimserver.plugins.modelcompare.ModelCompare getModelCompare() throws ModelCompareException, BimserverDatabaseException {
-		Revision revision1 = getDatabaseSession().get(roid1, OldQuery.getDefault());
-		Revision revision2 = getDatabaseSession().get(roid2, OldQuery.getDefault());
-		PackageMetaData packageMetaData = getBimServer().getMetaDataManager().getPackageMetaData(revision1.getProject().getSchema());
-		if (revision1.getProject().getSchema().equals(revision2.getProject().getSchema())) {
-			ModelComparePluginConfiguration modelCompareObject = getDatabaseSession().get(StorePackage.eINSTANCE.getModelComparePluginConfiguration(), mcid, OldQuery.getDefault());
-			if (modelCompareObject != null) {
-				ModelComparePlugin modelComparePlugin = getBimServer().getPluginManager().getModelComparePlugin(modelCompareObject.getPluginDescriptor().getPluginClassName(), true);
-				if (modelComparePlugin != null) {
-					org.bimserver.plugins.modelcompare.ModelCompare modelCompare = modelComparePlugin.createModelCompare(getBimServer().getPluginSettingsCache().getPluginSettings(modelCompareObject.getOid()), packageMetaData);
-					return modelCompare;
-				} else {
-					throw new ModelCompareException("No Model Compare found " + modelCompareObject.getPluginDescriptor().getPluginClassName());
-				}
-			} else {
-				throw new ModelCompareException("No configured Model Compare found");
-			}
-		} else {
-			throw new ModelCompareException("Schemas not the same");
-		}
-	}
-
 	@Override
 	public IfcModelInterface execute() throws UserException, BimserverLockConflictException, BimserverDatabaseException, ServerException {
 		try {
+			getAuthorization().canDownload(roid1);
+			getAuthorization().canDownload(roid2);
 			Revision revision1 = getRevisionByRoid(roid1);
 			Revision revision2 = getRevisionByRoid(roid2);
 			Project project = revision1.getProject();
-			CompareResult compareResults = null;// bimServer.getCompareCache().getCompareResults(roid1,
-												// roid2, compareType,
-												// compareIdentifier);
+			if (!project.getSchema().equals(revision2.getProject().getSchema())) {
+				throw new UserException("Schemas not the same");
+			}
+			org.bimserver.plugins.modelcompare.ModelCompare modelCompare = CompareDatabaseAction.getModelCompare(getBimServer(), getDatabaseSession(), mcid, getBimServer().getMetaDataManager().getPackageMetaData(project.getSchema()));
+			CompareResult compareResults = null;
+			if (modelCompare == null) {
+				// The results are computed (or taken from the cache) before the models are read, so the compare never needs both models in memory
+				compareResults = CompareDatabaseAction.compare(getBimServer(), getDatabaseSession(), getAuthorization(), roid1, roid2, compareType);
+			}
 			IfcModelInterface model1 = new DownloadDatabaseAction(getBimServer(), getDatabaseSession(), getAccessMethod(), roid1, -1, -1, getAuthorization()).execute();
 			ModelMerger merger = getBimServer().getMergerFactory().createMerger(getDatabaseSession(), getAuthorization().getUoid());
 			PackageMetaData packageMetaData = model1.getPackageMetaData();
 			IfcModelInterface mergedModel = getDatabaseSession().createServerModel(packageMetaData, null);
 			try(DatabaseSession secondSession = getBimServer().getDatabase().createSession(OperationType.READ_ONLY)){
 				IfcModelInterface model2 = new DownloadDatabaseAction(getBimServer(), secondSession, getAccessMethod(), roid2, -1, -1, getAuthorization()).execute();
-				try {
-					compareResults = getModelCompare().compare(model1, model2, compareType);
-				} catch (ModelCompareException e) {
-					throw new UserException(e);
+				if (modelCompare != null) {
+					try {
+						compareResults = modelCompare.compare(model1, model2, compareType);
+					} catch (ModelCompareException e) {
+						throw new UserException(e);
+					}
 				}
-				// bimServer.getCompareCache().storeResults(roid1, roid2,
-				// compareType, compareIdentifier, compareResults);
-
 				mergedModel = merger.merge(project, new IfcModelSet(model1, model2), new ModelHelper(getBimServer().getMetaDataManager(), mergedModel));
 			}
 			mergedModel.getModelMetaData().setName(project.getName() + "." + revision1.getId() + "." + revision2.getId());
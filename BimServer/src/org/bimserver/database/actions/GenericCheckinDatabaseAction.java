@@ -18,6 +18,7 @@ package org.bimserver.database.actions;
  *****************************************************************************/
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 
 /******************************************************************************
@@ -52,6 +53,7 @@ import org.bimserver.BimserverDatabaseException;
 import org.bimserver.GenerateGeometryResult;
 import org.bimserver.database.BimserverLockConflictException;
 import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.ReferenceSorter;
 import org.bimserver.database.queries.QueryObjectProvider;
 import org.bimserver.database.queries.QueryTypeStackFrame;
 import org.bimserver.database.queries.om.Include;
@@ -80,9 +82,16 @@ import org.eclipse.emf.ecore.EReference;
 
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 
 public abstract class GenericCheckinDatabaseAction extends BimDatabaseAction<ConcreteRevision>{
 
+	// Maximum number of referenced objects and references that fixInverses processes at a time
+	private static final int INVERSES_BATCH_OIDS = 10000;
+	private static final int INVERSES_BATCH_REFERENCES = 100000;
+
 	private BimServer bimServer;
 
 	public GenericCheckinDatabaseAction(BimServer bimServer, DatabaseSession databaseSession, AccessMethod accessMethod) {
@@ -367,10 +376,17 @@ public abstract class GenericCheckinDatabaseAction extends BimDatabaseAction<Con
 		}
 	}
 	
+	/**
+	 * Sets the inverse/opposite references of all objects referenced by the objects of the new revision.
+	 * 
+	 * The references are first collected by a {@link ReferenceSorter}, which spills to disk, and then processed in the order of the referenced oids. The
+	 * referenced objects are read in batches with one query per batch, which reads every type table with a single forward cursor, and each batch is
+	 * written before the next one is read, so only one batch of referenced objects is in memory at a time.
+	 * 
+	 * @return The number of objects of which inverses have been set
+	 */
 	@SuppressWarnings("unchecked")
-	protected void fixInverses(PackageMetaData packageMetaData, long newRoid, Map<EClass, Integer> summaryMap) throws QueryException, JsonParseException, JsonMappingException, IOException, BimserverDatabaseException {
-		// TODO remove cache, this is essentially a big part of the model in memory again
-		Map<Long, HashMapVirtualObject> cache = new HashMap<Long, HashMapVirtualObject>();
+	protected long fixInverses(PackageMetaData packageMetaData, long newRoid, Map<EClass, Integer> summaryMap) throws QueryException, JsonParseException, JsonMappingException, IOException, BimserverDatabaseException {
 		Query query = new Query("Inverses fixer", packageMetaData);
 		
 		int nrTypes = 0;
@@ -389,51 +405,114 @@ public abstract class GenericCheckinDatabaseAction extends BimDatabaseAction<Con
 			}
 		}
 		
-		QueryObjectProvider queryObjectProvider = new QueryObjectProvider(getDatabaseSession(), bimServer, query, Collections.singleton(newRoid), packageMetaData);
-		HashMapVirtualObject next = queryObjectProvider.next();
-		EClass lastEClass = null;
-		int currentType = 0;
-		while (next != null) {
-			if (next.eClass() != lastEClass && uniqueTypes.contains(next.eClass()) && queryObjectProvider.getStackFrame() instanceof QueryTypeStackFrame) {
-				lastEClass = next.eClass();
-				currentType++;
-				setProgress("Generating inverses", (100 * currentType / nrTypes));
-			}
-			if (packageMetaData.hasInverses(next.eClass())) {
-				for (EReference eReference : packageMetaData.getAllHasInverseReferences(next.eClass())) {
-					Object reference = next.eGet(eReference);
-					if (reference != null) {
-						if (eReference.isMany()) {
-							List<Long> references = (List<Long>)reference;
-							for (Long refOid : references) {
-								fixInverses(packageMetaData, newRoid, cache, next, eReference, refOid);
+		// The references are stored in the sorter as an index in this list
+		List<EReference> references = new ArrayList<>();
+		Map<EReference, Integer> referenceIndices = new HashMap<>();
+		
+		try (ReferenceSorter referenceSorter = new ReferenceSorter(getTmpDir(), ReferenceSorter.DEFAULT_MAX_REFERENCES_IN_MEMORY)) {
+			QueryObjectProvider queryObjectProvider = new QueryObjectProvider(getDatabaseSession(), bimServer, query, Collections.singleton(newRoid), packageMetaData);
+			HashMapVirtualObject next = queryObjectProvider.next();
+			EClass lastEClass = null;
+			int currentType = 0;
+			while (next != null) {
+				if (next.eClass() != lastEClass && uniqueTypes.contains(next.eClass()) && queryObjectProvider.getStackFrame() instanceof QueryTypeStackFrame) {
+					lastEClass = next.eClass();
+					currentType++;
+					setProgress("Generating inverses", (100 * currentType / nrTypes));
+				}
+				if (packageMetaData.hasInverses(next.eClass())) {
+					for (EReference eReference : packageMetaData.getAllHasInverseReferences(next.eClass())) {
+						Object reference = next.eGet(eReference);
+						if (reference != null) {
+							Integer referenceIndex = referenceIndices.get(eReference);
+							if (referenceIndex == null) {
+								referenceIndex = references.size();
+								references.add(eReference);
+								referenceIndices.put(eReference, referenceIndex);
+							}
+							if (eReference.isMany()) {
+								List<Long> referencedOids = (List<Long>)reference;
+								for (Long refOid : referencedOids) {
+									referenceSorter.add(refOid, next.getOid(), referenceIndex);
+								}
+							} else {
+								referenceSorter.add((Long)reference, next.getOid(), referenceIndex);
 							}
-						} else {
-							fixInverses(packageMetaData, newRoid, cache, next, eReference, (Long)reference);
 						}
 					}
 				}
+				next = queryObjectProvider.next();
 			}
-			next = queryObjectProvider.next();
-		}
-		
-		setProgress("Storing data", -1);
-		
-		for (HashMapVirtualObject referencedObject : cache.values()) {
-			referencedObject.saveOverwrite();
+			
+			setProgress("Storing inverses", 0);
+			
+			long nrReferences = referenceSorter.size();
+			long nrProcessed = 0;
+			long nrObjects = 0;
+			ReferenceSorter.Reader reader = referenceSorter.read();
+			// Per batch: the distinct referenced oids (in order) and for every reference: the referenced oid, the referencing oid and the reference index
+			List<Long> batchOids = new ArrayList<>();
+			LongArrayList batchReferences = new LongArrayList();
+			long lastReferencedOid = -1;
+			while (reader.next()) {
+				if (reader.getReferencedOid() != lastReferencedOid) {
+					if (batchOids.size() >= INVERSES_BATCH_OIDS || batchReferences.size() >= INVERSES_BATCH_REFERENCES * 3) {
+						nrProcessed += batchReferences.size() / 3;
+						nrObjects += batchOids.size();
+						fixInverses(packageMetaData, newRoid, references, batchOids, batchReferences);
+						setProgress("Storing inverses", (int) (100 * nrProcessed / nrReferences));
+					}
+					lastReferencedOid = reader.getReferencedOid();
+					batchOids.add(lastReferencedOid);
+				}
+				batchReferences.add(reader.getReferencedOid());
+				batchReferences.add(reader.getReferencingOid());
+				batchReferences.add(reader.getReferenceIndex());
+			}
+			if (!batchOids.isEmpty()) {
+				nrObjects += batchOids.size();
+				fixInverses(packageMetaData, newRoid, references, batchOids, batchReferences);
+			}
+			return nrObjects;
 		}
 	}
 	
-	private void fixInverses(PackageMetaData packageMetaData, long newRoid, Map<Long, HashMapVirtualObject> cache, HashMapVirtualObject next, EReference eReference, long refOid)
+	/**
+	 * Reads the referenced objects of one batch, adds the inverses and stores the objects, after which the batch is cleared
+	 */
+	private void fixInverses(PackageMetaData packageMetaData, long newRoid, List<EReference> references, List<Long> batchOids, LongArrayList batchReferences)
 			throws JsonParseException, JsonMappingException, IOException, QueryException, BimserverDatabaseException {
-		HashMapVirtualObject referencedObject = cache.get(refOid);
-		if (referencedObject == null) {
-			referencedObject = getByOid(packageMetaData, getDatabaseSession(), newRoid, refOid);
+		Query query = new Query("Inverses fixer batch", packageMetaData);
+		QueryPart queryPart = query.createQueryPart();
+		queryPart.addOids(batchOids);
+		Long2ObjectOpenHashMap<HashMapVirtualObject> referencedObjects = new Long2ObjectOpenHashMap<>(batchOids.size());
+		QueryObjectProvider queryObjectProvider = new QueryObjectProvider(getDatabaseSession(), bimServer, query, Collections.singleton(newRoid), packageMetaData);
+		HashMapVirtualObject next = queryObjectProvider.next();
+		while (next != null) {
+			referencedObjects.put(next.getOid(), next);
+			next = queryObjectProvider.next();
+		}
+		
+		for (int i = 0; i < batchReferences.size(); i += 3) {
+			long refOid = batchReferences.getLong(i);
+			long referencingOid = batchReferences.getLong(i + 1);
+			EReference eReference = references.get((int) batchReferences.getLong(i + 2));
+			EClass referencingEClass = getDatabaseSession().getEClassForOid(referencingOid);
+			HashMapVirtualObject referencedObject = referencedObjects.get(refOid);
 			if (referencedObject == null) {
-				throw new BimserverDatabaseException("Referenced object with oid " + refOid + " (" + getDatabaseSession().getEClassForOid(refOid).getName() + ")" + ", referenced from " + next.eClass().getName() + " not found");
+				throw new BimserverDatabaseException("Referenced object with oid " + refOid + " (" + getDatabaseSession().getEClassForOid(refOid).getName() + ")" + ", referenced from " + referencingEClass.getName() + " not found");
 			}
-			cache.put(refOid, referencedObject);
+			fixInverse(packageMetaData, referencedObject, eReference, referencingEClass, referencingOid);
+		}
+		
+		for (long oid : batchOids) {
+			referencedObjects.get(oid).saveOverwrite();
 		}
+		batchOids.clear();
+		batchReferences.clear();
+	}
+	
+	private void fixInverse(PackageMetaData packageMetaData, HashMapVirtualObject referencedObject, EReference eReference, EClass referencingEClass, long referencingOid) throws BimserverDatabaseException {
 		EReference oppositeReference = packageMetaData.getInverseOrOpposite(referencedObject.eClass(), eReference);
 		if (oppositeReference == null) {
 			if (eReference.getName().equals("RelatedElements") && referencedObject.eClass().getName().equals("IfcSpace")) {
@@ -446,16 +525,21 @@ public abstract class GenericCheckinDatabaseAction extends BimDatabaseAction<Con
 				Object existingList = referencedObject.eGet(oppositeReference);
 				if (existingList != null) {
 					int currentSize = ((List<?>)existingList).size();
-					referencedObject.setListItemReference(oppositeReference, currentSize, next.eClass(), next.getOid(), 0);
+					referencedObject.setListItemReference(oppositeReference, currentSize, referencingEClass, referencingOid, 0);
 				} else {
-					referencedObject.setListItemReference(oppositeReference, 0, next.eClass(), next.getOid(), 0);
+					referencedObject.setListItemReference(oppositeReference, 0, referencingEClass, referencingOid, 0);
 				}
 			} else {
-				referencedObject.setReference(oppositeReference, next.getOid(), 0);
+				referencedObject.setReference(oppositeReference, referencingOid, 0);
 			}
 		}
 	}
 	
+	private Path getTmpDir() {
+		Path homeDir = bimServer.getConfig().getHomeDir();
+		return homeDir == null ? null : homeDir.resolve("tmp");
+	}
+	
 	public HashMapVirtualObject getByOid(PackageMetaData packageMetaData, DatabaseSession databaseSession, long roid, long oid) throws JsonParseException, JsonMappingException, IOException, QueryException, BimserverDatabaseException {
 		Query query = new Query("test", packageMetaData);
 		QueryPart queryPart = query.createQueryPart();
@@ -34,12 +34,14 @@ import org.bimserver.GenerateGeometryResult;
 import org.bimserver.SummaryMap;
 import org.bimserver.database.BimserverLockConflictException;
 import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.GeometryDataIndex;
 import org.bimserver.database.OidCounters;
 import org.bimserver.database.OldQuery;
 import org.bimserver.database.OperationType;
 import org.bimserver.database.PostCommitAction;
 import org.bimserver.database.Record;
 import org.bimserver.database.RecordIterator;
+import org.bimserver.database.SpatialIndex;
 import org.bimserver.database.queries.ConcreteRevisionStackFrame;
 import org.bimserver.database.queries.QueryObjectProvider;
 import org.bimserver.database.queries.om.Include;
@@ -57,11 +59,15 @@ import org.bimserver.models.geometry.Vector3f;
 import org.bimserver.models.log.AccessMethod;
 import org.bimserver.models.log.NewRevisionAdded;
 import org.bimserver.models.store.ConcreteRevision;
+import org.bimserver.models.store.ExtendedData;
+import org.bimserver.models.store.ExtendedDataSchema;
+import org.bimserver.models.store.File;
 import org.bimserver.models.store.IfcHeader;
 import org.bimserver.models.store.NewService;
 import org.bimserver.models.store.Project;
 import org.bimserver.models.store.Revision;
 import org.bimserver.models.store.Service;
+import org.bimserver.models.store.StorePackage;
 import org.bimserver.models.store.User;
 import org.bimserver.notifications.NewRevisionNotification;
 import org.bimserver.plugins.deserializers.ByteProgressReporter;
@@ -172,6 +178,7 @@ public class StreamingCheckinDatabaseAction extends GenericCheckinDatabaseAction
 //				}
 //			}
 			
+			CheckinTimings checkinTimings = new CheckinTimings(getDatabaseSession());
 			CreateRevisionResult result = createNewConcreteRevision(getDatabaseSession(), -1, project, user, comment.trim());
 
 			newRevision = result.getRevisions().get(0);
@@ -191,8 +198,16 @@ public class StreamingCheckinDatabaseAction extends GenericCheckinDatabaseAction
 				}
 			});
 			
-			// This will read the full stream of objects and write to the database directly
-			long size = deserializer.read(inputStream, fileName, fileSize, queryContext);
+			// This will read the full stream of objects and write to the database directly, sorted per table in batches
+			CheckinTimings.Phase deserializePhase = checkinTimings.start("deserialize");
+			getDatabaseSession().startBatchedWrites();
+			long size;
+			try {
+				size = deserializer.read(inputStream, fileName, fileSize, queryContext);
+			} finally {
+				getDatabaseSession().endBatchedWrites();
+			}
+			deserializePhase.finish(size);
 			
 			Set<EClass> eClasses = deserializer.getSummaryMap().keySet();
 			Map<String, Long> startOids = getDatabaseSession().getStartOids();
@@ -213,7 +228,9 @@ public class StreamingCheckinDatabaseAction extends GenericCheckinDatabaseAction
 
 			setProgress("Generating inverses/opposites...", -1);
 			
-			fixInverses(packageMetaData, newRoid, deserializer.getSummaryMap());
+			CheckinTimings.Phase inversesPhase = checkinTimings.start("inverses");
+			long nrInverseObjects = fixInverses(packageMetaData, newRoid, deserializer.getSummaryMap());
+			inversesPhase.finish(nrInverseObjects);
 
 			ProgressListener progressListener = new ProgressListener() {
 				@Override
@@ -232,7 +249,9 @@ public class StreamingCheckinDatabaseAction extends GenericCheckinDatabaseAction
 				StreamingGeometryGenerator geometryGenerator = new StreamingGeometryGenerator(getBimServer(), progressListener, -1L, report);
 				setProgress("Generating geometry...", 0);
 
+				CheckinTimings.Phase geometryPhase = checkinTimings.start("geometry");
 				GenerateGeometryResult generateGeometry = geometryGenerator.generateGeometry(getActingUid(), getDatabaseSession(), queryContext, size);
+				geometryPhase.finish(generateGeometry.getDensities().size());
 				for (Revision other : concreteRevision.getRevisions()) {
 					other.setHasGeometry(true);
 				}
@@ -253,6 +272,8 @@ public class StreamingCheckinDatabaseAction extends GenericCheckinDatabaseAction
 
 			setProgress("Doing other stuff...", -1);
 			
+			// OidCounters, IfcHeader and SummaryMap
+			CheckinTimings.Phase finalizePhase = checkinTimings.start("finalize");
 			eClasses = deserializer.getSummaryMap().keySet();
 			oidCounters = new OidCounters();
 			for (EClass eClass : eClasses) {
@@ -317,6 +338,8 @@ public class StreamingCheckinDatabaseAction extends GenericCheckinDatabaseAction
 			}
 
 			concreteRevision.setSummary(new SummaryMap(packageMetaData, deserializer.getSummaryMap()).toRevisionSummary(getDatabaseSession()));
+			finalizePhase.finish(size);
+			storeCheckinTimings(checkinTimings, revision, user);
 
 			// If this revision is being created by an external service, store a link to the service in the revision
 			if (authorization instanceof ExplicitRightsAuthorization) {
@@ -412,6 +435,33 @@ public class StreamingCheckinDatabaseAction extends GenericCheckinDatabaseAction
 		return concreteRevision;
 	}
 
+	private void storeCheckinTimings(CheckinTimings checkinTimings, Revision revision, User user) throws BimserverDatabaseException {
+		byte[] bytes = checkinTimings.toJson().toString().getBytes(Charsets.UTF_8);
+		ExtendedDataSchema schema = (ExtendedDataSchema) getDatabaseSession().querySingle(StorePackage.eINSTANCE.getExtendedDataSchema_Name(), CheckinTimings.SCHEMA_NAME);
+		ExtendedData extendedData = getDatabaseSession().create(ExtendedData.class);
+		File file = getDatabaseSession().create(File.class);
+		file.setData(bytes);
+		file.setFilename("checkintimings.json");
+		file.setMime("application/json");
+		file.setSize(bytes.length);
+		extendedData.setUser(user);
+		extendedData.setSchema(schema);
+		extendedData.setTitle("Checkin timings");
+		extendedData.setTimeToGenerate(checkinTimings.getTotalWallMs());
+		extendedData.setAdded(new Date());
+		extendedData.setSize(bytes.length);
+		extendedData.setFile(file);
+		revision.getExtendedData().add(extendedData);
+		extendedData.setProject(project);
+		extendedData.setRevision(revision);
+		getDatabaseSession().store(file);
+		getDatabaseSession().store(extendedData);
+		getDatabaseSession().store(revision);
+		if (schema != null) {
+			getDatabaseSession().store(schema);
+		}
+	}
+
 	private String fullname(EClass eClass) {
 		return eClass.getEPackage().getName() + "." + eClass.getName();
 	}
@@ -578,6 +628,11 @@ public class StreamingCheckinDatabaseAction extends GenericCheckinDatabaseAction
 			}
 		}
 		LOGGER.info("Deleted " + deleted + " objects in rollback");
+		if (concreteRevision != null) {
+			// The spatial index and the geometry data index are written by the geometry generator, also when the checkin fails afterwards
+			SpatialIndex.delete(getDatabaseSession(), concreteRevision.getOid());
+			GeometryDataIndex.delete(getDatabaseSession(), pid, concreteRevision.getOid());
+		}
 //		getDatabaseSession().getKeyValueStore().sync();
 	}
 }
\ No newline at end of file
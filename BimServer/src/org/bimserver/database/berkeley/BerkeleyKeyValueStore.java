@@ -41,6 +41,8 @@ import org.bimserver.database.KeyValueStore;
 import org.bimserver.database.Record;
 import org.bimserver.database.RecordIterator;
 import org.bimserver.database.SearchingRecordIterator;
+import org.bimserver.database.TableHandle;
+import org.bimserver.database.WriteBatch;
 import org.bimserver.utils.PathUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -76,6 +78,11 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 	private static final boolean MONITOR_CURSOR_STACK_TRACES = false;
 	private final AtomicLong cursorCounter = new AtomicLong();
 	private final Map<Long, StackTraceElement[]> openCursors = new ConcurrentHashMap<>();
+	
+	// Group sync, only one sync runs at a time, and a sync covers all sync requests that were made before it started
+	private final Object syncLock = new Object();
+	private final AtomicLong syncRequests = new AtomicLong();
+	private long syncedRequests;
 	private final boolean useTransactions = true;
 	private final boolean keyPrefixing = true;
 	private CursorConfig unsafeCursorConfig;
@@ -170,7 +177,7 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 		if (database == null) {
 			return false;
 		}
-		tables.put(tableName, new TableWrapper(database, finalTransactional));
+		tables.put(tableName, new TableWrapper(tableName, database, finalTransactional));
 		
 		return true;
 	}
@@ -193,7 +200,7 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 		if (database == null) {
 			return false;
 		}
-		tables.put(tableName, new TableWrapper(database, finalTransactional));
+		tables.put(tableName, new TableWrapper(tableName, database, finalTransactional));
 		
 		return true;
 	}
@@ -216,7 +223,7 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 		if (database == null) {
 			throw new BimserverDatabaseException("Table " + tableName + " not found in database");
 		}
-		tables.put(tableName, new TableWrapper(database, finalTransactional));
+		tables.put(tableName, new TableWrapper(tableName, database, finalTransactional));
 		return true;
 	}
 
@@ -238,7 +245,7 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 		if (database == null) {
 			throw new BimserverDatabaseException("Table " + tableName + " not found in database");
 		}
-		tables.put(tableName, new TableWrapper(database, finalTransactional));
+		tables.put(tableName, new TableWrapper(tableName, database, finalTransactional));
 	}
 	
 	private Database getDatabase(String tableName) throws BimserverDatabaseException {
@@ -253,6 +260,15 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 		return tableWrapper;
 	}
 
+	private TableWrapper getTableWrapper(TableHandle tableHandle) {
+		return (TableWrapper) tableHandle;
+	}
+
+	@Override
+	public TableHandle getTableHandle(String tableName) throws BimserverDatabaseException {
+		return getTableWrapper(tableName);
+	}
+
 	private Transaction getTransaction(DatabaseSession databaseSession) {
 		if (databaseSession != null) {
 			BerkeleyTransaction berkeleyTransaction = (BerkeleyTransaction) databaseSession.getBimTransaction();
@@ -306,10 +322,15 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 	
 	@Override
 	public byte[] get(String tableName, byte[] keyBytes, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		return get(getTableWrapper(tableName), keyBytes, databaseSession);
+	}
+
+	@Override
+	public byte[] get(TableHandle tableHandle, byte[] keyBytes, DatabaseSession databaseSession) {
 		DatabaseEntry key = new DatabaseEntry(keyBytes);
 		DatabaseEntry value = new DatabaseEntry();
 		try {
-			TableWrapper tableWrapper = getTableWrapper(tableName);
+			TableWrapper tableWrapper = getTableWrapper(tableHandle);
 			OperationStatus operationStatus = tableWrapper.getDatabase().get(getTransaction(databaseSession, tableWrapper), key, value, getLockMode(tableWrapper));
 			if (operationStatus == OperationStatus.SUCCESS) {
 				return value.getData();
@@ -322,10 +343,15 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 
 	@Override
 	public List<byte[]> getDuplicates(String tableName, byte[] keyBytes, DatabaseSession databaseSession) throws BimserverDatabaseException {
+		return getDuplicates(getTableWrapper(tableName), keyBytes, databaseSession);
+	}
+
+	@Override
+	public List<byte[]> getDuplicates(TableHandle tableHandle, byte[] keyBytes, DatabaseSession databaseSession) {
 		DatabaseEntry key = new DatabaseEntry(keyBytes);
 		DatabaseEntry value = new DatabaseEntry();
 		try {
-			TableWrapper tableWrapper = getTableWrapper(tableName);
+			TableWrapper tableWrapper = getTableWrapper(tableHandle);
 			Cursor cursor = tableWrapper.getDatabase().openCursor(getTransaction(databaseSession, tableWrapper), getCursorConfig(tableWrapper));
 			try {
 				OperationStatus operationStatus = cursor.getSearchKey(key, value, LockMode.DEFAULT);
@@ -349,12 +375,21 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 	}
 
 	public void sync() {
-		try {
-			environment.sync();
-//			environment.flushLog(true);
-//			environment.evictMemory();
-		} catch (DatabaseException e) {
-			LOGGER.error("", e);
+		long request = syncRequests.incrementAndGet();
+		synchronized (syncLock) {
+			if (syncedRequests >= request) {
+				// Another thread has synced after this request was made, so everything written before this call is on disk already
+				return;
+			}
+			long coveredRequests = syncRequests.get();
+			try {
+				environment.sync();
+//				environment.flushLog(true);
+//				environment.evictMemory();
+			} catch (DatabaseException e) {
+				LOGGER.error("", e);
+			}
+			syncedRequests = coveredRequests;
 		}
 	}
 
@@ -387,11 +422,29 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 
 	@Override
 	public SearchingRecordIterator getRecordIterator(String tableName, byte[] mustStartWith, byte[] startSearchingAt, DatabaseSession databaseSession, boolean keysOnly) throws BimserverLockConflictException, BimserverDatabaseException {
+		return getSearchingRecordIterator(getTableWrapper(tableName), mustStartWith, startSearchingAt, databaseSession, keysOnly, false);
+	}
+
+	@Override
+	public SearchingRecordIterator getReusableRecordIterator(String tableName, byte[] mustStartWith, byte[] startSearchingAt, DatabaseSession databaseSession) throws BimserverLockConflictException, BimserverDatabaseException {
+		return getSearchingRecordIterator(getTableWrapper(tableName), mustStartWith, startSearchingAt, databaseSession, false, true);
+	}
+
+	@Override
+	public SearchingRecordIterator getRecordIterator(TableHandle tableHandle, byte[] mustStartWith, byte[] startSearchingAt, DatabaseSession databaseSession) throws BimserverLockConflictException {
+		return getSearchingRecordIterator(getTableWrapper(tableHandle), mustStartWith, startSearchingAt, databaseSession, false, false);
+	}
+
+	@Override
+	public SearchingRecordIterator getReusableRecordIterator(TableHandle tableHandle, byte[] mustStartWith, byte[] startSearchingAt, DatabaseSession databaseSession) throws BimserverLockConflictException {
+		return getSearchingRecordIterator(getTableWrapper(tableHandle), mustStartWith, startSearchingAt, databaseSession, false, true);
+	}
+
+	private SearchingRecordIterator getSearchingRecordIterator(TableWrapper tableWrapper, byte[] mustStartWith, byte[] startSearchingAt, DatabaseSession databaseSession, boolean keysOnly, boolean reuseRecords) throws BimserverLockConflictException {
 		Cursor cursor = null;
 		try {
-			TableWrapper tableWrapper = getTableWrapper(tableName);
 			cursor = tableWrapper.getDatabase().openCursor(getTransaction(databaseSession, tableWrapper), getCursorConfig(tableWrapper));
-			BerkeleySearchingRecordIterator berkeleySearchingRecordIterator = new BerkeleySearchingRecordIterator(cursor, this, cursorCounter.incrementAndGet(), mustStartWith, startSearchingAt, keysOnly);
+			BerkeleySearchingRecordIterator berkeleySearchingRecordIterator = new BerkeleySearchingRecordIterator(cursor, this, cursorCounter.incrementAndGet(), mustStartWith, startSearchingAt, keysOnly, reuseRecords);
 			if (MONITOR_CURSOR_STACK_TRACES) {
 				openCursors.put(berkeleySearchingRecordIterator.getCursorId(), new Exception().getStackTrace());
 			}
@@ -443,9 +496,18 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 	}
 
 	public void delete(String tableName, byte[] key, DatabaseSession databaseSession) throws BimserverLockConflictException {
+		try {
+			delete(getTableWrapper(tableName), key, databaseSession);
+		} catch (BimserverDatabaseException e) {
+			LOGGER.error("", e);
+		}
+	}
+
+	@Override
+	public void delete(TableHandle tableHandle, byte[] key, DatabaseSession databaseSession) throws BimserverLockConflictException {
 		DatabaseEntry entry = new DatabaseEntry(key);
 		try {
-			TableWrapper tableWrapper = getTableWrapper(tableName);
+			TableWrapper tableWrapper = getTableWrapper(tableHandle);
 			tableWrapper.getDatabase().delete(getTransaction(databaseSession, tableWrapper), entry);
 		} catch (LockConflictException e) {
 			throw new BimserverLockConflictException(e);
@@ -455,15 +517,22 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 			LOGGER.error("", e);
 		} catch (IllegalArgumentException e) {
 			LOGGER.error("", e);
-		} catch (BimserverDatabaseException e) {
-			LOGGER.error("", e);
 		}
 	}
 	
 	@Override
 	public void delete(String indexTableName, byte[] featureBytesOldIndex, byte[] array, DatabaseSession databaseSession) throws BimserverLockConflictException {
 		try {
-			TableWrapper tableWrapper = getTableWrapper(indexTableName);
+			delete(getTableWrapper(indexTableName), featureBytesOldIndex, array, databaseSession);
+		} catch (BimserverDatabaseException e) {
+			LOGGER.error("", e);
+		}
+	}
+
+	@Override
+	public void delete(TableHandle indexTableHandle, byte[] featureBytesOldIndex, byte[] array, DatabaseSession databaseSession) throws BimserverLockConflictException {
+		try {
+			TableWrapper tableWrapper = getTableWrapper(indexTableHandle);
 			Cursor cursor = tableWrapper.getDatabase().openCursor(getTransaction(databaseSession, tableWrapper), getCursorConfig(tableWrapper));
 			try {
 				if (cursor.getSearchBoth(new DatabaseEntry(featureBytesOldIndex), new DatabaseEntry(array), LockMode.DEFAULT) == OperationStatus.SUCCESS) {
@@ -480,8 +549,6 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 			LOGGER.error("", e);
 		} catch (IllegalArgumentException e) {
 			LOGGER.error("", e);
-		} catch (BimserverDatabaseException e) {
-			LOGGER.error("", e);
 		}
 	}
 
@@ -524,10 +591,15 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 	
 	@Override
 	public void store(String tableName, byte[] key, byte[] value, int offset, int length, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException {
+		store(getTableWrapper(tableName), key, value, offset, length, databaseSession);
+	}
+
+	@Override
+	public void store(TableHandle tableHandle, byte[] key, byte[] value, int offset, int length, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException {
 		DatabaseEntry dbKey = new DatabaseEntry(key);
 		DatabaseEntry dbValue = new DatabaseEntry(value, offset, length);
 		try {
-			TableWrapper tableWrapper = getTableWrapper(tableName);
+			TableWrapper tableWrapper = getTableWrapper(tableHandle);
 			tableWrapper.getDatabase().put(getTransaction(databaseSession, tableWrapper), dbKey, dbValue);
 		} catch (LockConflictException e) {
 			throw new BimserverLockConflictException(e);
@@ -543,30 +615,78 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 	
 	@Override
 	public void storeNoOverwrite(String tableName, byte[] key, byte[] value, int index, int length, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException, BimserverConcurrentModificationDatabaseException {
+		storeNoOverwrite(getTableWrapper(tableName), key, value, index, length, databaseSession);
+	}
+
+	@Override
+	public void storeNoOverwrite(TableHandle tableHandle, byte[] key, byte[] value, int index, int length, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException, BimserverConcurrentModificationDatabaseException {
 		DatabaseEntry dbKey = new DatabaseEntry(key);
 		DatabaseEntry dbValue = new DatabaseEntry(value, index, length);
 		try {
-			TableWrapper tableWrapper = getTableWrapper(tableName);
+			TableWrapper tableWrapper = getTableWrapper(tableHandle);
 			OperationStatus putNoOverwrite = tableWrapper.getDatabase().putNoOverwrite(getTransaction(databaseSession, tableWrapper), dbKey, dbValue);
 			if (putNoOverwrite == OperationStatus.KEYEXIST) {
 				// TODO temporary test
 				tableWrapper.getDatabase().put(getTransaction(databaseSession, tableWrapper), dbKey, dbValue);
-				ByteBuffer keyBuffer = ByteBuffer.wrap(key);
-				if (key.length == 16) {
-					int pid = keyBuffer.getInt();
-					long oid = keyBuffer.getLong();
-					int rid = -keyBuffer.getInt();
-//					LOGGER.warn("Key exists: pid: " + pid + ", oid: " + oid + ", rid: " + rid + ", " + databaseSession.getEClassForOid(oid).getName());
-					throw new BimserverConcurrentModificationDatabaseException("Key exists: pid: " + pid + ", oid: " + oid + ", rid: " + rid);
+				keyExists(key);
+			}
+		} catch (LockConflictException e) {
+			throw new BimserverLockConflictException(e);
+		} catch (DatabaseException e) {
+			throw new BimserverDatabaseException("", e);
+		}
+	}
+
+	private void keyExists(byte[] key) throws BimserverConcurrentModificationDatabaseException {
+		ByteBuffer keyBuffer = ByteBuffer.wrap(key);
+		if (key.length == 16) {
+			int pid = keyBuffer.getInt();
+			long oid = keyBuffer.getLong();
+			int rid = -keyBuffer.getInt();
+//			LOGGER.warn("Key exists: pid: " + pid + ", oid: " + oid + ", rid: " + rid + ", " + databaseSession.getEClassForOid(oid).getName());
+			throw new BimserverConcurrentModificationDatabaseException("Key exists: pid: " + pid + ", oid: " + oid + ", rid: " + rid);
+		} else {
+			LOGGER.warn("Key exists");
+//			throw new BimserverConcurrentModificationDatabaseException("Key exists: " );
+		}
+	}
+
+	@Override
+	public void write(WriteBatch writeBatch, DatabaseSession databaseSession) throws BimserverDatabaseException, BimserverLockConflictException {
+		// JE has no multi-record put, writing in key order with one cursor per table keeps the accessed part of each tree small
+		TableWrapper tableWrapper = null;
+		Cursor cursor = null;
+		DatabaseEntry dbKey = new DatabaseEntry();
+		DatabaseEntry dbValue = new DatabaseEntry();
+		try {
+			for (WriteBatch.Write write : writeBatch.getSortedWrites()) {
+				if (write.getTableHandle() != tableWrapper) {
+					if (cursor != null) {
+						cursor.close();
+						cursor = null;
+					}
+					tableWrapper = getTableWrapper(write.getTableHandle());
+					cursor = tableWrapper.getDatabase().openCursor(getTransaction(databaseSession, tableWrapper), getCursorConfig(tableWrapper));
+				}
+				dbKey.setData(write.getKey());
+				dbValue.setData(write.getValue());
+				if (write.isNoOverwrite()) {
+					if (cursor.putNoOverwrite(dbKey, dbValue) == OperationStatus.KEYEXIST) {
+						cursor.put(dbKey, dbValue);
+						keyExists(write.getKey());
+					}
 				} else {
-					LOGGER.warn("Key exists");
-//					throw new BimserverConcurrentModificationDatabaseException("Key exists: " );
+					cursor.put(dbKey, dbValue);
 				}
 			}
 		} catch (LockConflictException e) {
 			throw new BimserverLockConflictException(e);
 		} catch (DatabaseException e) {
 			throw new BimserverDatabaseException("", e);
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
 		}
 	}
 	
@@ -602,18 +722,24 @@ public class BerkeleyKeyValueStore implements KeyValueStore {
 	}
 	
 	@Override
-	public synchronized void incrementCommittedWrites(long committedWrites) {
-		this.committedWrites += committedWrites;
+	public void incrementCommittedWrites(long committedWrites) {
+		long totalCommittedWrites;
 		int printThreshold = 1000000;
-		if (this.committedWrites / printThreshold != lastPrintedCommittedWrites) {
+		synchronized (this) {
+			this.committedWrites += committedWrites;
+			if (this.committedWrites / printThreshold == lastPrintedCommittedWrites) {
+				return;
+			}
 			lastPrintedCommittedWrites = this.committedWrites / printThreshold;
-			long start = System.nanoTime();
-			
-			// This is a test, when writing large amount of data (IFC data), this should keep memory usage limited because it'll write the data to disk
-			sync();
-			long end = System.nanoTime();
-			LOGGER.info("writes: " + this.committedWrites + ", " + (((end - start) / printThreshold) + " ms sync"));
+			totalCommittedWrites = this.committedWrites;
 		}
+		long start = System.nanoTime();
+		
+		// This is a test, when writing large amount of data (IFC data), this should keep memory usage limited because it'll write the data to disk
+		// Synced outside of the lock, so other sessions can keep counting (and join this sync) in the meantime
+		sync();
+		long end = System.nanoTime();
+		LOGGER.info("writes: " + totalCommittedWrites + ", " + (((end - start) / printThreshold) + " ms sync"));
 	}
 
 	public void removeOpenCursor(long cursorId) {
@@ -17,6 +17,8 @@ package org.bimserver.database.berkeley;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
+import java.nio.ByteBuffer;
+
 import org.bimserver.database.Record;
 
 import com.sleepycat.je.DatabaseEntry;
@@ -39,4 +41,14 @@ public class BerkeleyRecord implements Record {
 	public byte[] getValue() {
 		return value;
 	}
+
+	@Override
+	public ByteBuffer getKeyBuffer() {
+		return ByteBuffer.wrap(key);
+	}
+
+	@Override
+	public ByteBuffer getValueBuffer() {
+		return ByteBuffer.wrap(value);
+	}
 }
\ No newline at end of file
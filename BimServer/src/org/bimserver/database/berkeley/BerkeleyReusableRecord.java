@@ -0,0 +1,78 @@
+package org.bimserver.database.berkeley;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.bimserver.database.Record;
+
+import com.sleepycat.je.DatabaseEntry;
+
+/**
+ * A record that is a view on the (reused) entries of a cursor, it is only valid until the cursor is moved
+ */
+public class BerkeleyReusableRecord implements Record {
+	private final DatabaseEntry key;
+	private final DatabaseEntry value;
+
+	public BerkeleyReusableRecord(DatabaseEntry key, DatabaseEntry value) {
+		this.key = key;
+		this.value = value;
+	}
+
+	@Override
+	public byte[] getKey() {
+		return toArray(key);
+	}
+
+	@Override
+	public byte[] getValue() {
+		return toArray(value);
+	}
+
+	@Override
+	public ByteBuffer getKeyBuffer() {
+		return toBuffer(key);
+	}
+
+	@Override
+	public ByteBuffer getValueBuffer() {
+		return toBuffer(value);
+	}
+
+	private static byte[] toArray(DatabaseEntry entry) {
+		byte[] data = entry.getData();
+		if (data == null || (entry.getOffset() == 0 && entry.getSize() == data.length)) {
+			return data;
+		}
+		return Arrays.copyOfRange(data, entry.getOffset(), entry.getOffset() + entry.getSize());
+	}
+
+	private static ByteBuffer toBuffer(DatabaseEntry entry) {
+		byte[] data = entry.getData();
+		if (data == null) {
+			return null;
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(data, entry.getOffset(), entry.getSize());
+		if (entry.getOffset() == 0 && entry.getSize() == data.length) {
+			return buffer;
+		}
+		return buffer.slice();
+	}
+}
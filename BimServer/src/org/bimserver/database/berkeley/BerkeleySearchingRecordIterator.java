@@ -17,8 +17,6 @@ package org.bimserver.database.berkeley;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
-import java.util.Arrays;
-
 import org.bimserver.database.BimserverLockConflictException;
 import org.bimserver.database.Record;
 import org.bimserver.database.SearchingRecordIterator;
@@ -41,36 +39,82 @@ public class BerkeleySearchingRecordIterator implements SearchingRecordIterator
 	private long cursorId;
 	private BerkeleyKeyValueStore berkeleyKeyValueStore;
 	private boolean onlyKeys;
+	
+	// Only used when records are reused, in which case every returned record is only valid until the next call on this iterator
+	private final DatabaseEntry reusableKey;
+	private final DatabaseEntry reusableValue;
+	private final BerkeleyReusableRecord reusableRecord;
 
 	public BerkeleySearchingRecordIterator(Cursor cursor, BerkeleyKeyValueStore berkeleyKeyValueStore, long cursorId, byte[] mustStartWith, byte[] startSearchingAt, boolean onlyKeys) throws BimserverLockConflictException {
+		this(cursor, berkeleyKeyValueStore, cursorId, mustStartWith, startSearchingAt, onlyKeys, false);
+	}
+
+	public BerkeleySearchingRecordIterator(Cursor cursor, BerkeleyKeyValueStore berkeleyKeyValueStore, long cursorId, byte[] mustStartWith, byte[] startSearchingAt, boolean onlyKeys, boolean reuseRecords) throws BimserverLockConflictException {
 		this.cursor = cursor;
 		this.berkeleyKeyValueStore = berkeleyKeyValueStore;
 		this.cursorId = cursorId;
 		this.mustStartWith = mustStartWith;
 		this.nextStartSearchingAt = startSearchingAt;
 		this.onlyKeys = onlyKeys;
+		if (reuseRecords) {
+			reusableKey = new DatabaseEntry();
+			reusableValue = createValueEntry();
+			reusableRecord = new BerkeleyReusableRecord(reusableKey, reusableValue);
+		} else {
+			reusableKey = null;
+			reusableValue = null;
+			reusableRecord = null;
+		}
 	}
 
 	public long getCursorId() {
 		return cursorId;
 	}
 	
-	private Record getFirstNext(byte[] startSearchingAt) throws BimserverLockConflictException {
-		this.nextStartSearchingAt = null;
-		DatabaseEntry key = new DatabaseEntry(startSearchingAt);
+	private DatabaseEntry createValueEntry() {
 		DatabaseEntry value = new DatabaseEntry();
 		if (onlyKeys) {
 			value.setPartial(0, 0, true);
 		}
-		try {
-			OperationStatus next = cursor.getSearchKeyRange(key, value, LockMode.DEFAULT);
-			if (next == OperationStatus.SUCCESS) {
-				byte[] firstBytes = new byte[mustStartWith.length];
-				System.arraycopy(key.getData(), 0, firstBytes, 0, mustStartWith.length);
-				if (Arrays.equals(firstBytes, mustStartWith)) {
-					return new BerkeleyRecord(key, value);
-				}
+		return value;
+	}
+	
+	private DatabaseEntry getKeyEntry() {
+		return reusableKey == null ? new DatabaseEntry() : reusableKey;
+	}
+
+	private DatabaseEntry getValueEntry() {
+		return reusableValue == null ? createValueEntry() : reusableValue;
+	}
+	
+	private boolean startsWith(DatabaseEntry key) {
+		if (key.getSize() < mustStartWith.length) {
+			return false;
+		}
+		byte[] data = key.getData();
+		int offset = key.getOffset();
+		for (int i = 0; i < mustStartWith.length; i++) {
+			if (data[offset + i] != mustStartWith[i]) {
+				return false;
 			}
+		}
+		return true;
+	}
+	
+	private Record createRecord(OperationStatus operationStatus, DatabaseEntry key, DatabaseEntry value) {
+		if (operationStatus == OperationStatus.SUCCESS && startsWith(key)) {
+			return reusableRecord == null ? new BerkeleyRecord(key, value) : reusableRecord;
+		}
+		return null;
+	}
+	
+	private Record getFirstNext(byte[] startSearchingAt) throws BimserverLockConflictException {
+		this.nextStartSearchingAt = null;
+		DatabaseEntry key = getKeyEntry();
+		key.setData(startSearchingAt);
+		DatabaseEntry value = getValueEntry();
+		try {
+			return createRecord(cursor.getSearchKeyRange(key, value, LockMode.DEFAULT), key, value);
 		} catch (LockConflictException e) {
 			throw new BimserverLockConflictException(e);
 		} catch (DatabaseException e) {
@@ -84,20 +128,10 @@ public class BerkeleySearchingRecordIterator implements SearchingRecordIterator
 		if (nextStartSearchingAt != null) {
 			return getFirstNext(nextStartSearchingAt);
 		}
-		DatabaseEntry key = new DatabaseEntry();
-		DatabaseEntry value = new DatabaseEntry();
-		if (onlyKeys) {
-			value.setPartial(0, 0, true);
-		}
+		DatabaseEntry key = getKeyEntry();
+		DatabaseEntry value = getValueEntry();
 		try {
-			OperationStatus next = cursor.getNext(key, value, LockMode.DEFAULT);
-			if (next == OperationStatus.SUCCESS) {
-				byte[] firstBytes = new byte[mustStartWith.length];
-				System.arraycopy(key.getData(), 0, firstBytes, 0, mustStartWith.length);
-				if (Arrays.equals(firstBytes, mustStartWith)) {
-					return new BerkeleyRecord(key, value);
-				}
-			}
+			return createRecord(cursor.getNext(key, value, LockMode.DEFAULT), key, value);
 		} catch (LockConflictException e) {
 			throw new BimserverLockConflictException(e);
 		} catch (DatabaseException e) {
@@ -126,20 +160,10 @@ public class BerkeleySearchingRecordIterator implements SearchingRecordIterator
 		if (nextStartSearchingAt != null) {
 			return getFirstNext(nextStartSearchingAt);
 		}
-		DatabaseEntry key = new DatabaseEntry();
-		DatabaseEntry value = new DatabaseEntry();
-		if (onlyKeys) {
-			value.setPartial(0, 0, true);
-		}
+		DatabaseEntry key = getKeyEntry();
+		DatabaseEntry value = getValueEntry();
 		try {
-			OperationStatus next = cursor.getLast(key, value, LockMode.DEFAULT);
-			if (next == OperationStatus.SUCCESS) {
-				byte[] firstBytes = new byte[mustStartWith.length];
-				System.arraycopy(key.getData(), 0, firstBytes, 0, mustStartWith.length);
-				if (Arrays.equals(firstBytes, mustStartWith)) {
-					return new BerkeleyRecord(key, value);
-				}
-			}
+			return createRecord(cursor.getLast(key, value, LockMode.DEFAULT), key, value);
 		} catch (LockConflictException e) {
 			throw new BimserverLockConflictException(e);
 		} catch (DatabaseException e) {
@@ -24,6 +24,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.sleepycat.je.DatabaseException;
+import com.sleepycat.je.Durability;
 import com.sleepycat.je.LockConflictException;
 import com.sleepycat.je.Transaction;
 
@@ -80,6 +81,18 @@ public class BerkeleyTransaction implements BimTransaction {
 		}
 	}
 
+	@Override
+	public void commitNoSync() throws BimserverLockConflictException, BimserverDatabaseException {
+		try {
+			transaction.commit(Durability.COMMIT_NO_SYNC);
+			transactionAlive = false;
+		} catch (LockConflictException e) {
+			throw new BimserverLockConflictException(e);
+		} catch (DatabaseException e) {
+			throw new BimserverDatabaseException(e);
+		}
+	}
+
 	@Override
 	public long getId() {
 		return transaction.getId();
@@ -17,17 +17,26 @@ package org.bimserver.database.berkeley;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
+import org.bimserver.database.TableHandle;
+
 import com.sleepycat.je.Database;
 
-public class TableWrapper {
+public class TableWrapper implements TableHandle {
+	private final String tableName;
 	private Database database;
 	private boolean transactional;
 
-	public TableWrapper(Database database, boolean transactional) {
+	public TableWrapper(String tableName, Database database, boolean transactional) {
+		this.tableName = tableName;
 		this.database = database;
 		this.transactional = transactional;
 	}
 	
+	@Override
+	public String getTableName() {
+		return tableName;
+	}
+	
 	public boolean isTransactional() {
 		return transactional;
 	}
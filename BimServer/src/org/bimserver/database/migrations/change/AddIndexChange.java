@@ -28,6 +28,7 @@ import org.bimserver.database.Record;
 import org.bimserver.database.RecordIterator;
 import org.bimserver.database.migrations.NotImplementedException;
 import org.bimserver.database.migrations.Schema;
+import org.bimserver.models.geometry.GeometryPackage;
 import org.bimserver.models.ifc2x3tc1.Ifc2x3tc1Package;
 import org.bimserver.models.ifc4.Ifc4Package;
 import org.eclipse.emf.ecore.EClass;
@@ -58,14 +59,34 @@ public class AddIndexChange implements Change {
 					boolean transactional = !(subClass.getEPackage() == Ifc4Package.eINSTANCE || subClass.getEPackage() == Ifc2x3tc1Package.eINSTANCE);
 					keyValueStore.createIndexTable(indexTableName, databaseSession, transactional);
 
+					boolean perRecordVersioning = perRecordVersioning(subClass);
+
 					RecordIterator recordIterator = keyValueStore.getRecordIterator(subClass.getEPackage().getName() + "_" + subClass.getName(), databaseSession);
 					try {
 						Record record = recordIterator.next();
 						while (record != null) {
-							ByteBuffer buffer = ByteBuffer.wrap(record.getValue());
+							byte[] value = record.getValue();
+							if (value.length == 1 && value[0] == -1) {
+								// Deleted object
+								record = recordIterator.next();
+								continue;
+							}
+							ByteBuffer buffer = ByteBuffer.wrap(value);
 
 							byte[] featureBytes = databaseSession.extractFeatureBytes(databaseSession, buffer, subClass, eStructuralFeature);
 							if (featureBytes != null) {
+								if (!perRecordVersioning) {
+									// Same layout as DatabaseSession.processPossibleIndices: (pid, -rid, value)
+									ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
+									int pid = keyBuffer.getInt();
+									keyBuffer.getLong(); // oid
+									int negativeRid = keyBuffer.getInt();
+									ByteBuffer featureBuffer = ByteBuffer.allocate(featureBytes.length + 8);
+									featureBuffer.putInt(pid);
+									featureBuffer.putInt(negativeRid);
+									featureBuffer.put(featureBytes);
+									featureBytes = featureBuffer.array();
+								}
 								keyValueStore.store(indexTableName, featureBytes, record.getKey(), databaseSession);
 							}
 							
@@ -83,6 +104,14 @@ public class AddIndexChange implements Change {
 		}
 	}
 	
+	/**
+	 * The classes of a migration schema are not the runtime classes, so this compares package names instead of using {@link DatabaseSession#perRecordVersioning(EClass)}
+	 */
+	private boolean perRecordVersioning(EClass eClass) {
+		String packageName = eClass.getEPackage().getName();
+		return !(packageName.equals(Ifc2x3tc1Package.eNAME) || packageName.equals(Ifc4Package.eNAME) || packageName.equals(GeometryPackage.eNAME));
+	}
+	
 	public void doSchemaChanges(Schema schema) {
 		
 	}
@@ -501,7 +501,7 @@ public abstract class DatabaseReadingStackFrame extends StackFrame implements Ob
 		startSearchWith.putLong(oid);
 		startSearchWith.putInt(-reusable.getRid());
 	
-		SearchingRecordIterator recordIterator = getQueryObjectProvider().getDatabaseSession().getKeyValueStore().getRecordIterator(eClass.getEPackage().getName() + "_" + eClass.getName(), mustStartWith.array(),
+		SearchingRecordIterator recordIterator = getQueryObjectProvider().getDatabaseSession().getKeyValueStore().getReusableRecordIterator(getQueryObjectProvider().getDatabaseSession().getTableHandle(eClass), mustStartWith.array(),
 				startSearchWith.array(), getQueryObjectProvider().getDatabaseSession());
 		try {
 			Record record = recordIterator.next();
@@ -509,8 +509,8 @@ public abstract class DatabaseReadingStackFrame extends StackFrame implements Ob
 				return null;
 			}
 			getQueryObjectProvider().incReads();
-			ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
-			ByteBuffer valueBuffer = ByteBuffer.wrap(record.getValue());
+			ByteBuffer keyBuffer = record.getKeyBuffer();
+			ByteBuffer valueBuffer = record.getValueBuffer();
 			keyBuffer.getInt(); // pid
 			long keyOid = keyBuffer.getLong();
 			int keyRid = -keyBuffer.getInt();
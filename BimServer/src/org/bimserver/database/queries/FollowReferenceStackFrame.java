@@ -69,7 +69,7 @@ public class FollowReferenceStackFrame extends DatabaseReadingStackFrame impleme
 		startSearchWith.putLong(oid);
 		startSearchWith.putInt(-getReusable().getRid());
 
-		SearchingRecordIterator recordIterator = getQueryObjectProvider().getDatabaseSession().getKeyValueStore().getRecordIterator(eClass.getEPackage().getName() + "_" + eClass.getName(), mustStartWith.array(),
+		SearchingRecordIterator recordIterator = getQueryObjectProvider().getDatabaseSession().getKeyValueStore().getRecordIterator(getQueryObjectProvider().getDatabaseSession().getTableHandle(eClass), mustStartWith.array(),
 				startSearchWith.array(), getQueryObjectProvider().getDatabaseSession());
 		try {
 			Record record = recordIterator.next();
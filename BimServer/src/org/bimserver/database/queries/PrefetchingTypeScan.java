@@ -0,0 +1,229 @@
+package org.bimserver.database.queries;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.database.BimDatabase;
+import org.bimserver.database.BimserverLockConflictException;
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.OperationType;
+import org.bimserver.database.Record;
+import org.bimserver.database.SearchingRecordIterator;
+import org.bimserver.database.TableHandle;
+import org.bimserver.shared.QueryContext;
+import org.bimserver.utils.BinUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the first records of one type table on a thread of the type scan executor, so the tables of the next types of a {@link QueryPartStackFrame} are
+ * read while the current type is processed. The worker uses its own {@link DatabaseSession} and cursor, and already selects the record of the revision
+ * of the query for every oid (skipping older versions and deleted objects). Converting the records to objects is still done by the
+ * {@link QueryTypeStackFrame} on the thread of the {@link QueryObjectProvider}, because that depends on the objects the query has read so far.
+ *
+ * A worker reads at most {@link #CHUNK_SIZE} records and never waits for the frame. The frame continues reading the table itself after the last record of
+ * the chunk. A scan that has not been started by the time its frame needs it is taken over by the frame, as is a scan of which the worker failed.
+ */
+public class PrefetchingTypeScan implements Runnable, SearchingRecordIterator {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PrefetchingTypeScan.class);
+	private static final int CHUNK_SIZE = 1024;
+
+	private static final int NEW = 0;
+	private static final int RUNNING = 1;
+	private static final int FINISHED = 2;
+	private static final int FAILED = 3;
+	private static final int TAKEN_OVER = 4;
+
+	private final AtomicInteger state = new AtomicInteger(NEW);
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final BimDatabase database;
+	private final DatabaseSession databaseSession;
+	private final TableHandle tableHandle;
+	private final QueryContext reusable;
+	private final byte[] mustStartWith;
+	private final byte[] startSearchingAt;
+
+	// Written by the worker, only read by the query thread after the worker is done
+	private List<Record> prefetched;
+	// The key at which reading continues after the chunk, or null when the chunk contains the rest of the table
+	private byte[] resumeKey;
+
+	// Only used by the thread of the query
+	private SearchingRecordIterator localIterator;
+	private List<Record> records;
+	private int index;
+	private boolean ended;
+	private volatile boolean closed;
+
+	/**
+	 * @param database Used to create the session of the worker
+	 * @param databaseSession The session of the query, used when the frame reads the table itself
+	 */
+	public PrefetchingTypeScan(BimDatabase database, DatabaseSession databaseSession, TableHandle tableHandle, QueryContext reusable, byte[] startSearchingAt) {
+		this.database = database;
+		this.databaseSession = databaseSession;
+		this.tableHandle = tableHandle;
+		this.reusable = reusable;
+		this.mustStartWith = BinUtils.intToByteArray(reusable.getPid());
+		this.startSearchingAt = startSearchingAt;
+	}
+
+	@Override
+	public void run() {
+		if (!state.compareAndSet(NEW, RUNNING)) {
+			return;
+		}
+		try (DatabaseSession workerSession = database.createSession(OperationType.READ_ONLY)) {
+			List<Record> chunk = new ArrayList<>();
+			ByteBuffer nextKeyStart = ByteBuffer.allocate(12);
+			try (SearchingRecordIterator recordIterator = workerSession.getKeyValueStore().getRecordIterator(tableHandle, mustStartWith, startSearchingAt, workerSession)) {
+				Record record = recordIterator.next();
+				while (record != null && chunk.size() < CHUNK_SIZE && !closed) {
+					ByteBuffer keyBuffer = record.getKeyBuffer();
+					keyBuffer.getInt();
+					long keyOid = keyBuffer.getLong();
+					int keyRid = -keyBuffer.getInt();
+					if (keyRid <= reusable.getRid() && keyRid >= reusable.getStopRid()) {
+						// The newest version within the revision, the older versions of this oid are skipped, like QueryTypeStackFrame does
+						ByteBuffer valueBuffer = record.getValueBuffer();
+						if (valueBuffer.capacity() != 1 || valueBuffer.get(0) != -1) {
+							chunk.add(record);
+						}
+						nextKeyStart.position(0);
+						nextKeyStart.putInt(reusable.getPid());
+						nextKeyStart.putLong(keyOid + 1);
+						record = recordIterator.next(nextKeyStart.array());
+					} else {
+						record = recordIterator.next();
+					}
+				}
+				resumeKey = record == null ? null : record.getKey();
+			}
+			prefetched = chunk;
+			state.set(FINISHED);
+		} catch (Exception e) {
+			LOGGER.error("", e);
+			state.set(FAILED);
+		} finally {
+			done.countDown();
+		}
+	}
+
+	@Override
+	public Record next() throws BimserverLockConflictException {
+		if (ended) {
+			return null;
+		}
+		if (localIterator != null) {
+			return localIterator.next();
+		}
+		if (records == null) {
+			if (state.get() == NEW && state.compareAndSet(NEW, TAKEN_OVER)) {
+				return readLocally(startSearchingAt);
+			}
+			try {
+				// The worker is already reading, at most one chunk
+				done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (state.get() != FINISHED) {
+				closed = true;
+				return readLocally(startSearchingAt);
+			}
+			records = prefetched;
+		}
+		if (index < records.size()) {
+			return records.get(index++);
+		}
+		if (resumeKey == null) {
+			ended = true;
+			return null;
+		}
+		return readLocally(resumeKey);
+	}
+
+	@Override
+	public Record next(byte[] nextKeyStart) throws BimserverLockConflictException {
+		if (localIterator != null) {
+			return localIterator.next(nextKeyStart);
+		}
+		Record record = next();
+		while (record != null && compareUnsigned(record.getKey(), nextKeyStart) < 0) {
+			record = next();
+		}
+		return record;
+	}
+
+	private Record readLocally(byte[] searchFrom) throws BimserverLockConflictException {
+		try {
+			localIterator = databaseSession.getKeyValueStore().getReusableRecordIterator(tableHandle, mustStartWith, searchFrom, databaseSession);
+		} catch (BimserverLockConflictException e) {
+			throw e;
+		} catch (BimserverDatabaseException e) {
+			LOGGER.error("", e);
+			ended = true;
+			return null;
+		}
+		return localIterator.next();
+	}
+
+	private static int compareUnsigned(byte[] a, byte[] b) {
+		int length = Math.min(a.length, b.length);
+		for (int i = 0; i < length; i++) {
+			int compare = (a[i] & 0xFF) - (b[i] & 0xFF);
+			if (compare != 0) {
+				return compare;
+			}
+		}
+		return a.length - b.length;
+	}
+
+	/**
+	 * Reads the last record of the table with a separate cursor, the position of this scan does not change
+	 */
+	@Override
+	public Record last() throws BimserverLockConflictException {
+		try (SearchingRecordIterator recordIterator = databaseSession.getKeyValueStore().getRecordIterator(tableHandle, mustStartWith, startSearchingAt, databaseSession)) {
+			return recordIterator.last();
+		} catch (BimserverLockConflictException e) {
+			throw e;
+		} catch (BimserverDatabaseException e) {
+			LOGGER.error("", e);
+			return null;
+		}
+	}
+
+	@Override
+	public void close() {
+		if (localIterator != null) {
+			localIterator.close();
+			localIterator = null;
+		}
+		ended = true;
+		// Makes sure a worker that has not started yet does not start, and a running worker stops reading
+		closed = true;
+		state.compareAndSet(NEW, TAKEN_OVER);
+	}
+}
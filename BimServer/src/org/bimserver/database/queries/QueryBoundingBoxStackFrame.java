@@ -18,11 +18,13 @@ package org.bimserver.database.queries;
  *****************************************************************************/
 
 import java.nio.ByteBuffer;
+import java.util.List;
 
 import org.bimserver.BimserverDatabaseException;
 import org.bimserver.database.DatabaseSession.GetResult;
 import org.bimserver.database.Record;
 import org.bimserver.database.SearchingRecordIterator;
+import org.bimserver.database.TableHandle;
 import org.bimserver.database.queries.om.InBoundingBox;
 import org.bimserver.database.queries.om.QueryException;
 import org.bimserver.database.queries.om.QueryPart;
@@ -37,13 +39,15 @@ public class QueryBoundingBoxStackFrame extends DatabaseReadingStackFrame implem
 	private SearchingRecordIterator typeRecordIterator;
 	private Record record;
 	private InBoundingBox inBoundingBox;
+	private List<Long> candidateOids;
+	private int candidateIndex;
 
 	public QueryBoundingBoxStackFrame(QueryObjectProvider queryObjectProvider, EClass eClass, QueryPart queryPart, QueryContext reusable, InBoundingBox inBoundingBox) throws BimserverDatabaseException {
 		super(reusable, queryObjectProvider, queryPart);
 		this.eClass = eClass;
 		this.inBoundingBox = inBoundingBox;
 
-		String tableName = eClass.getEPackage().getName() + "_" + eClass.getName();
+		TableHandle tableHandle = getQueryObjectProvider().getDatabaseSession().getTableHandle(eClass);
 		if (reusable.getOidCounters() != null) {
 			if (!reusable.getOidCounters().containsKey(eClass)) {
 				return; // will skip to next one
@@ -52,14 +56,34 @@ public class QueryBoundingBoxStackFrame extends DatabaseReadingStackFrame implem
 			ByteBuffer tmp = ByteBuffer.allocate(12);
 			tmp.putInt(reusable.getPid());
 			tmp.putLong(startOid + 1);
-			typeRecordIterator = queryObjectProvider.getDatabaseSession().getKeyValueStore().getRecordIterator(tableName, BinUtils.intToByteArray(getReusable().getPid()), tmp.array(), queryObjectProvider.getDatabaseSession());
+			typeRecordIterator = queryObjectProvider.getDatabaseSession().getKeyValueStore().getRecordIterator(tableHandle, BinUtils.intToByteArray(getReusable().getPid()), tmp.array(), queryObjectProvider.getDatabaseSession());
 			record = typeRecordIterator.next();
 		} else {
 //			LOGGER.warn("Potential too-many-reads");
-			typeRecordIterator = queryObjectProvider.getDatabaseSession().getKeyValueStore().getRecordIterator(tableName, BinUtils.intToByteArray(getReusable().getPid()), BinUtils.intToByteArray(getReusable().getPid()), queryObjectProvider.getDatabaseSession());
+			typeRecordIterator = queryObjectProvider.getDatabaseSession().getKeyValueStore().getRecordIterator(tableHandle, BinUtils.intToByteArray(getReusable().getPid()), BinUtils.intToByteArray(getReusable().getPid()), queryObjectProvider.getDatabaseSession());
 			record = typeRecordIterator.next();
 		}
 	}
+
+	/**
+	 * Only visits the given candidates (sorted, all of type eClass), as found in the spatial index of the concrete revision. The candidates are a superset of the result, the actual bounding box checks are still done per object.
+	 */
+	public QueryBoundingBoxStackFrame(QueryObjectProvider queryObjectProvider, EClass eClass, QueryPart queryPart, QueryContext reusable, InBoundingBox inBoundingBox, List<Long> candidateOids) throws BimserverDatabaseException {
+		super(reusable, queryObjectProvider, queryPart);
+		this.eClass = eClass;
+		this.inBoundingBox = inBoundingBox;
+
+		TableHandle tableHandle = getQueryObjectProvider().getDatabaseSession().getTableHandle(eClass);
+		if (reusable.getOidCounters() != null && !reusable.getOidCounters().containsKey(eClass)) {
+			return; // will skip to next one
+		}
+		this.candidateOids = candidateOids;
+		ByteBuffer tmp = ByteBuffer.allocate(12);
+		tmp.putInt(reusable.getPid());
+		tmp.putLong(candidateOids.get(0));
+		typeRecordIterator = queryObjectProvider.getDatabaseSession().getKeyValueStore().getRecordIterator(tableHandle, BinUtils.intToByteArray(getReusable().getPid()), tmp.array(), queryObjectProvider.getDatabaseSession());
+		record = typeRecordIterator.next();
+	}
 	
 	@Override
 	public boolean process() throws BimserverDatabaseException, QueryException {
@@ -80,13 +104,41 @@ public class QueryBoundingBoxStackFrame extends DatabaseReadingStackFrame implem
 		int keyPid = keyBuffer.getInt();
 		long keyOid = keyBuffer.getLong();
 		int keyRid = -keyBuffer.getInt();
+		if (candidateOids != null) {
+			while (candidateIndex < candidateOids.size() && candidateOids.get(candidateIndex) < keyOid) {
+				candidateIndex++;
+			}
+			if (candidateIndex == candidateOids.size()) {
+				record = null;
+				return false;
+			}
+			if (candidateOids.get(candidateIndex) != keyOid) {
+				// The cursor landed on an object that is not a candidate, skip to the next candidate
+				nextKeyStart.putInt(getReusable().getPid());
+				nextKeyStart.putLong(candidateOids.get(candidateIndex));
+				record = typeRecordIterator.next(nextKeyStart.array());
+				return false;
+			}
+		}
 		ByteBuffer valueBuffer = ByteBuffer.wrap(record.getValue());
 		GetResult map = getMap(eClass, eClass, valueBuffer, keyPid, keyOid, keyRid);
 		if (map == GetResult.CONTINUE_WITH_NEXT_OID) {
 			nextKeyStart.position(0);
 			nextKeyStart.putInt(getReusable().getPid());
-			nextKeyStart.putLong(keyOid + 1);
-			record = typeRecordIterator.next(nextKeyStart.array());
+			if (candidateOids != null) {
+				candidateIndex++;
+				if (candidateIndex == candidateOids.size()) {
+					record = null;
+				} else {
+					nextKeyStart.putLong(candidateOids.get(candidateIndex));
+					record = typeRecordIterator.next(nextKeyStart.array());
+				}
+			} else {
+				nextKeyStart.putLong(keyOid + 1);
+				record = typeRecordIterator.next(nextKeyStart.array());
+			}
+		} else if (map == GetResult.STOP && candidateOids != null) {
+			record = null;
 		} else {
 			record = typeRecordIterator.next();
 		}
@@ -97,7 +149,6 @@ public class QueryBoundingBoxStackFrame extends DatabaseReadingStackFrame implem
 				HashMapVirtualObject geometryInfo = getByOid(geometryInfoId);
 				
 				// TODO the querying party should be able to force the units used
-				// TODO use some spatial indexing, this is getting slow now that it's actually used
 
 				boolean hasAny = !Double.isNaN(inBoundingBox.getX()) || !Double.isNaN(inBoundingBox.getY()) || !Double.isNaN(inBoundingBox.getZ()) || !Double.isNaN(inBoundingBox.getWidth()) || !Double.isNaN(inBoundingBox.getHeight()) || !Double.isNaN(inBoundingBox.getDepth());
 				
@@ -30,6 +30,7 @@ import org.bimserver.database.DatabaseSession.GetResult;
 import org.bimserver.database.ObjectIdentifier;
 import org.bimserver.database.Record;
 import org.bimserver.database.SearchingRecordIterator;
+import org.bimserver.database.TableHandle;
 import org.bimserver.database.queries.om.QueryException;
 import org.bimserver.database.queries.om.QueryPart;
 import org.bimserver.plugins.deserializers.DatabaseInterface;
@@ -75,7 +76,7 @@ public class QueryClassificationsAndTypesStackFrame extends DatabaseReadingStack
 			}
 		}
 		
-		String tableName = eClass.getEPackage().getName() + "_" + eClass.getName();
+		TableHandle tableHandle = getQueryObjectProvider().getDatabaseSession().getTableHandle(eClass);
 		if (getReusable().getOidCounters() != null) {
 			if (!getReusable().getOidCounters().containsKey(eClass)) {
 				return; // will skip to next one
@@ -84,11 +85,11 @@ public class QueryClassificationsAndTypesStackFrame extends DatabaseReadingStack
 			ByteBuffer tmp = ByteBuffer.allocate(12);
 			tmp.putInt(getReusable().getPid());
 			tmp.putLong(startOid + 1);
-			typeRecordIterator = queryObjectProvider.getDatabaseSession().getKeyValueStore().getRecordIterator(tableName, BinUtils.intToByteArray(getReusable().getPid()), tmp.array(), queryObjectProvider.getDatabaseSession());
+			typeRecordIterator = queryObjectProvider.getDatabaseSession().getKeyValueStore().getRecordIterator(tableHandle, BinUtils.intToByteArray(getReusable().getPid()), tmp.array(), queryObjectProvider.getDatabaseSession());
 			record = typeRecordIterator.next();
 		} else {
 			// LOGGER.warn("Potential too-many-reads");
-			typeRecordIterator = queryObjectProvider.getDatabaseSession().getKeyValueStore().getRecordIterator(tableName, BinUtils.intToByteArray(getReusable().getPid()), BinUtils.intToByteArray(getReusable().getPid()),
+			typeRecordIterator = queryObjectProvider.getDatabaseSession().getKeyValueStore().getRecordIterator(tableHandle, BinUtils.intToByteArray(getReusable().getPid()), BinUtils.intToByteArray(getReusable().getPid()),
 					queryObjectProvider.getDatabaseSession());
 			record = typeRecordIterator.next();
 		}
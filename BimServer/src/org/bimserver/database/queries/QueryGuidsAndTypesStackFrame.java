@@ -17,22 +17,18 @@ package org.bimserver.database.queries;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
 
 import org.bimserver.BimserverDatabaseException;
+import org.bimserver.database.DatabaseSession;
 import org.bimserver.database.ObjectIdentifier;
 import org.bimserver.database.queries.om.QueryException;
 import org.bimserver.database.queries.om.QueryPart;
-import org.bimserver.plugins.deserializers.DatabaseInterface;
 import org.bimserver.shared.QueryContext;
-import org.bimserver.utils.BinUtils;
 import org.eclipse.emf.ecore.EAttribute;
 import org.eclipse.emf.ecore.EClass;
-
-import com.google.common.base.Charsets;
 
 public class QueryGuidsAndTypesStackFrame extends DatabaseReadingStackFrame {
 
@@ -51,13 +47,17 @@ public class QueryGuidsAndTypesStackFrame extends DatabaseReadingStackFrame {
 		this.reusable = reusable;
 		
 		oids = new HashSet<>();
-		for (String guid : guids) {
-			EAttribute globalIdFeature = (EAttribute) eClass.getEStructuralFeature("GlobalId");
-			if (globalIdFeature == null) {
-				converted = true;
-//				throw new BimserverDatabaseException(eClass.getName() + " does not have a GlobalId feature");
-			} else {
-				ObjectIdentifier oidOfGuid = getOidOfGuidAlternative(eClass, globalIdFeature, guid, reusable.getDatabaseInterface(), reusable.getPid(), reusable.getRid());
+		EAttribute globalIdFeature = (EAttribute) eClass.getEStructuralFeature("GlobalId");
+		if (globalIdFeature != null) {
+			DatabaseSession databaseSession = queryObjectProvider.getDatabaseSession();
+			boolean indexed = databaseSession.hasIndexTable(eClass, globalIdFeature);
+			for (String guid : guids) {
+				ObjectIdentifier oidOfGuid = null;
+				if (indexed) {
+					oidOfGuid = databaseSession.getOidFromIndex(eClass, globalIdFeature, guid, reusable.getPid(), reusable.getRid());
+				} else {
+					oidOfGuid = databaseSession.getOidOfGuidByScan(reusable.getPackageMetaData(), eClass, guid, reusable.getPid(), reusable.getRid());
+				}
 				if (oidOfGuid != null) {
 					oids.add(oidOfGuid.getOid());
 				}
@@ -66,35 +66,6 @@ public class QueryGuidsAndTypesStackFrame extends DatabaseReadingStackFrame {
 		if (oids.isEmpty()) {
 			converted = true;
 		}
-	}
-
-	public ObjectIdentifier getOidOfGuidAlternative(EClass eClass, EAttribute attribute, Object value, DatabaseInterface databaseInterface, int pid, int rid) throws BimserverDatabaseException {
-		if (attribute.getEAnnotation("singleindex") != null) {
-			String indexTableName = attribute.getEContainingClass().getEPackage().getName() + "_" + eClass.getName() + "_" + attribute.getName();
-			byte[] queryBytes = null;
-			if (value instanceof String) {
-				queryBytes = ((String)value).getBytes(Charsets.UTF_8);
-			} else if (value instanceof Integer) {
-				queryBytes = BinUtils.intToByteArray((Integer)value);
-			} else {
-				throw new BimserverDatabaseException("Unsupported type " + value);
-			}
-			ByteBuffer valueBuffer = ByteBuffer.allocate(queryBytes.length + 8);
-			valueBuffer.putInt(pid);
-			valueBuffer.putInt(-rid);
-			valueBuffer.put(queryBytes);
-			byte[] firstDuplicate = databaseInterface.get(indexTableName, valueBuffer.array());
-			if (firstDuplicate != null) {
-				ByteBuffer buffer = ByteBuffer.wrap(firstDuplicate);
-				buffer.getInt(); // pid
-				long oid = buffer.getLong();
-				
-				return new ObjectIdentifier(oid, (short)oid);
-			}
-		} else {
-			throw new UnsupportedOperationException("Attribute " + attribute.getName() + " does not have the \"singleindex\" annotation");
-		}
-		return null;
 	}
 	
 //	public ObjectIdentifier getOidOfGuid(String schema, String guid, int pid, int rid) throws BimserverDatabaseException {
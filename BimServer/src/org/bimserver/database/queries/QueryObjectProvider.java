@@ -157,7 +157,7 @@ public class QueryObjectProvider implements ObjectProvider {
 				}
 				stackFrame = stack.peek();
 				if (stackFrame.isDone()) {
-					stack.pop();
+					stack.pop().close();
 					continue;
 				}
 				stackFramesProcessed++;
@@ -178,6 +178,7 @@ public class QueryObjectProvider implements ObjectProvider {
 				}
 			}
 		} catch (Exception e) {
+			close();
 			if (e instanceof BimserverDatabaseException) {
 				throw (BimserverDatabaseException)e;
 			}
@@ -187,6 +188,17 @@ public class QueryObjectProvider implements ObjectProvider {
 		return null;
 	}
 	
+	/**
+	 * Stops the query, releasing the resources of the frames that have not been processed completely. Only needed when not all objects are read.
+	 */
+	public void close() {
+		StackFrame poll = stack.poll();
+		while (poll != null) {
+			poll.close();
+			poll = stack.poll();
+		}
+	}
+	
 	public StackFrame getStackFrame() {
 		return stackFrame;
 	}
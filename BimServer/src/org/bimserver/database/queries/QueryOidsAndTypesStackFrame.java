@@ -26,6 +26,7 @@ import org.bimserver.database.BimserverLockConflictException;
 import org.bimserver.database.DatabaseSession.GetResult;
 import org.bimserver.database.Record;
 import org.bimserver.database.SearchingRecordIterator;
+import org.bimserver.database.TableHandle;
 import org.bimserver.database.queries.om.QueryException;
 import org.bimserver.database.queries.om.QueryPart;
 import org.bimserver.shared.HashMapVirtualObject;
@@ -46,7 +47,7 @@ public class QueryOidsAndTypesStackFrame extends DatabaseReadingStackFrame imple
 		
 		// Assumption: oids are sorted
 		
-		String tableName = eClass.getEPackage().getName() + "_" + eClass.getName();
+		TableHandle tableHandle = getQueryObjectProvider().getDatabaseSession().getTableHandle(eClass);
 		if (getReusable().getOidCounters() != null) {
 			if (!getReusable().getOidCounters().containsKey(eClass)) {
 				return; // will skip to next one
@@ -67,7 +68,7 @@ public class QueryOidsAndTypesStackFrame extends DatabaseReadingStackFrame imple
 			ByteBuffer tmp = ByteBuffer.allocate(12);
 			tmp.putInt(getReusable().getPid());
 			tmp.putLong(startOid);
-			typeRecordIterator = queryObjectProvider.getDatabaseSession().getKeyValueStore().getRecordIterator(tableName, BinUtils.intToByteArray(getReusable().getPid()), tmp.array(), queryObjectProvider.getDatabaseSession());
+			typeRecordIterator = queryObjectProvider.getDatabaseSession().getKeyValueStore().getRecordIterator(tableHandle, BinUtils.intToByteArray(getReusable().getPid()), tmp.array(), queryObjectProvider.getDatabaseSession());
 			record = typeRecordIterator.next();
 		} else {
 //			LOGGER.warn("Potential too-many-reads");
@@ -76,7 +77,7 @@ public class QueryOidsAndTypesStackFrame extends DatabaseReadingStackFrame imple
 			ByteBuffer tmp = ByteBuffer.allocate(12);
 			tmp.putInt(getReusable().getPid());
 			tmp.putLong(firstOid);
-			typeRecordIterator = queryObjectProvider.getDatabaseSession().getKeyValueStore().getRecordIterator(tableName, BinUtils.intToByteArray(getReusable().getPid()), tmp.array(), queryObjectProvider.getDatabaseSession());
+			typeRecordIterator = queryObjectProvider.getDatabaseSession().getKeyValueStore().getRecordIterator(tableHandle, BinUtils.intToByteArray(getReusable().getPid()), tmp.array(), queryObjectProvider.getDatabaseSession());
 			record = typeRecordIterator.next();
 		}
 	}
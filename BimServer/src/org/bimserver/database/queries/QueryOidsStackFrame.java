@@ -25,6 +25,7 @@ import org.bimserver.BimserverDatabaseException;
 import org.bimserver.database.BimserverLockConflictException;
 import org.bimserver.database.Record;
 import org.bimserver.database.SearchingRecordIterator;
+import org.bimserver.database.TableHandle;
 import org.bimserver.database.queries.om.QueryException;
 import org.bimserver.database.queries.om.QueryPart;
 import org.bimserver.shared.HashMapVirtualObject;
@@ -53,12 +54,12 @@ public class QueryOidsStackFrame extends DatabaseReadingStackFrame implements Ob
 		}
 		Long oid = oidsIterator.next();
 		EClass eClass = getReusable().getDatabaseInterface().getEClassForOid(oid);
-		String tableName = eClass.getEPackage().getName() + "_" + eClass.getName();
+		TableHandle tableHandle = getQueryObjectProvider().getDatabaseSession().getTableHandle(eClass);
 		if (getReusable().getOidCounters() != null) {
 			ByteBuffer tmp = ByteBuffer.allocate(12);
 			tmp.putInt(getReusable().getPid());
 			tmp.putLong(oid);
-			typeRecordIterator = getQueryObjectProvider().getDatabaseSession().getKeyValueStore().getRecordIterator(tableName, BinUtils.intToByteArray(getReusable().getPid()), tmp.array(), getQueryObjectProvider().getDatabaseSession());
+			typeRecordIterator = getQueryObjectProvider().getDatabaseSession().getKeyValueStore().getRecordIterator(tableHandle, BinUtils.intToByteArray(getReusable().getPid()), tmp.array(), getQueryObjectProvider().getDatabaseSession());
 			record = typeRecordIterator.next();
 		}
 	}
@@ -22,11 +22,17 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.bimserver.BimserverDatabaseException;
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.SpatialIndex;
+import org.bimserver.database.TableHandle;
 import org.bimserver.database.queries.om.InBoundingBox;
 import org.bimserver.database.queries.om.Include;
 import org.bimserver.database.queries.om.Include.TypeDef;
@@ -40,6 +46,9 @@ import org.eclipse.emf.ecore.EReference;
 
 public class QueryPartStackFrame extends StackFrame {
 
+	// The number of types of which the tables are read ahead, per query part, so one query cannot occupy the type scan executor
+	private static final int PREFETCHED_TYPES = 2;
+
 	private Iterator<EClass> typeIterator;
 	private QueryObjectProvider queryObjectProvider;
 	private QueryContext reusable;
@@ -49,8 +58,12 @@ public class QueryPartStackFrame extends StackFrame {
 	private final Set<String> names;
 	private Map<String, Properties> properties;
 	private InBoundingBox inBoundingBox;
+	private Map<EClass, List<Long>> spatialCandidates;
 	private Set<String> classifications;
 	private Tiles tiles;
+	
+	// Types that have been taken from the typeIterator ahead of time, in order, with the scans that are reading their tables (or null when there is no scan)
+	private final LinkedHashMap<EClass, PrefetchingTypeScan> typeScans = new LinkedHashMap<>();
 
 	public QueryPartStackFrame(QueryObjectProvider queryObjectProvider, QueryPart partialQuery, QueryContext reusable) throws BimserverDatabaseException, QueryException {
 		this.queryObjectProvider = queryObjectProvider;
@@ -121,9 +134,40 @@ public class QueryPartStackFrame extends StackFrame {
 		this.properties = partialQuery.getProperties();
 		this.classifications = partialQuery.getClassifications();
 		this.inBoundingBox = partialQuery.getInBoundingBox();
+		if (inBoundingBox != null) {
+			this.spatialCandidates = querySpatialIndex(inBoundingBox);
+		}
 		this.tiles = partialQuery.getTiles();
 	}
 
+	/**
+	 * @return The oids (grouped per type and sorted) of all objects that intersect with the given bounding box, or null when no spatial index can be used and all objects have to be checked
+	 */
+	private Map<EClass, List<Long>> querySpatialIndex(InBoundingBox inBoundingBox) throws BimserverDatabaseException {
+		if (Double.isNaN(inBoundingBox.getX()) || Double.isNaN(inBoundingBox.getY()) || Double.isNaN(inBoundingBox.getZ()) || Double.isNaN(inBoundingBox.getWidth()) || Double.isNaN(inBoundingBox.getHeight()) || Double.isNaN(inBoundingBox.getDepth())) {
+			return null;
+		}
+		SpatialIndex spatialIndex = SpatialIndex.open(queryObjectProvider.getDatabaseSession(), reusable.getCroid());
+		if (spatialIndex == null) {
+			return null;
+		}
+		List<Long> intersecting = spatialIndex.queryIntersecting(inBoundingBox.getX(), inBoundingBox.getY(), inBoundingBox.getZ(), inBoundingBox.getX() + inBoundingBox.getWidth(), inBoundingBox.getY() + inBoundingBox.getHeight(), inBoundingBox.getZ() + inBoundingBox.getDepth());
+		Map<EClass, List<Long>> result = new HashMap<>();
+		for (long oid : intersecting) {
+			EClass eClass = queryObjectProvider.getDatabaseSession().getEClassForOid(oid);
+			List<Long> list = result.get(eClass);
+			if (list == null) {
+				list = new ArrayList<>();
+				result.put(eClass, list);
+			}
+			list.add(oid);
+		}
+		for (List<Long> list : result.values()) {
+			Collections.sort(list);
+		}
+		return result;
+	}
+
 	@Override
 	public boolean process() throws BimserverDatabaseException, QueryException {
 		if (typeIterator == null) {
@@ -144,8 +188,8 @@ public class QueryPartStackFrame extends StackFrame {
 			}
 			return true;
 		}
-		if (typeIterator.hasNext()) {
-			EClass eClass = typeIterator.next();
+		if (!typeScans.isEmpty() || typeIterator.hasNext()) {
+			EClass eClass = typeScans.isEmpty() ? typeIterator.next() : typeScans.keySet().iterator().next();
 			if (oids != null) {
 				List<Long> oids2 = oids.get(eClass);
 				if (oids2 != null) {
@@ -160,14 +204,69 @@ public class QueryPartStackFrame extends StackFrame {
 			} else if (classifications != null) {
 				queryObjectProvider.push(new QueryClassificationsAndTypesStackFrame(queryObjectProvider, eClass, partialQuery, reusable, classifications));
 			} else if (inBoundingBox != null) {
-				queryObjectProvider.push(new QueryBoundingBoxStackFrame(queryObjectProvider, eClass, partialQuery, reusable, inBoundingBox));
+				if (spatialCandidates == null) {
+					queryObjectProvider.push(new QueryBoundingBoxStackFrame(queryObjectProvider, eClass, partialQuery, reusable, inBoundingBox));
+				} else {
+					List<Long> candidateOids = spatialCandidates.get(eClass);
+					if (candidateOids != null) {
+						queryObjectProvider.push(new QueryBoundingBoxStackFrame(queryObjectProvider, eClass, partialQuery, reusable, inBoundingBox, candidateOids));
+					}
+				}
 			} else {
-				queryObjectProvider.push(new QueryTypeStackFrame(queryObjectProvider, eClass, reusable, partialQuery));
+				queryObjectProvider.push(new QueryTypeStackFrame(queryObjectProvider, eClass, reusable, partialQuery, prefetchTypeScans(eClass)));
 			}
 			return false;
 		}
 		return true;
-	}
+	}
+
+	@Override
+	void close() {
+		for (PrefetchingTypeScan typeScan : typeScans.values()) {
+			if (typeScan != null) {
+				typeScan.close();
+			}
+		}
+		typeScans.clear();
+	}
+
+	/**
+	 * Starts reading the tables of the next few types on the type scan executor, so they are read while the objects of the current type are being processed
+	 * 
+	 * @return The scan of the table of the given type, or null when it has to be read by the frame itself
+	 */
+	private PrefetchingTypeScan prefetchTypeScans(EClass eClass) throws BimserverDatabaseException {
+		ThreadPoolExecutor typeScanExecutor = queryObjectProvider.getBimServer() == null ? null : queryObjectProvider.getBimServer().getTypeScanExecutor();
+		if (typeScanExecutor == null) {
+			return null;
+		}
+		PrefetchingTypeScan typeScan = typeScans.containsKey(eClass) ? typeScans.remove(eClass) : null;
+		while (typeScans.size() < PREFETCHED_TYPES && typeIterator.hasNext()) {
+			EClass nextEClass = typeIterator.next();
+			typeScans.put(nextEClass, startTypeScan(typeScanExecutor, nextEClass));
+		}
+		return typeScan;
+	}
+
+	private PrefetchingTypeScan startTypeScan(ThreadPoolExecutor typeScanExecutor, EClass eClass) throws BimserverDatabaseException {
+		byte[] startSearchingAt = QueryTypeStackFrame.getStartSearchingAt(reusable, eClass);
+		if (startSearchingAt == null) {
+			return null;
+		}
+		DatabaseSession databaseSession = queryObjectProvider.getDatabaseSession();
+		TableHandle tableHandle = databaseSession.getTableHandle(eClass);
+		if (databaseSession.getKeyValueStore().isTransactional(databaseSession, tableHandle.getTableName())) {
+			// Cursors of transactional tables belong to the transaction of this thread
+			return null;
+		}
+		PrefetchingTypeScan typeScan = new PrefetchingTypeScan(queryObjectProvider.getBimServer().getDatabase(), databaseSession, tableHandle, reusable, startSearchingAt);
+		try {
+			typeScanExecutor.execute(typeScan);
+		} catch (RejectedExecutionException e) {
+			// The scan will be taken over by the frame
+		}
+		return typeScan;
+	}
 	
 	private QueryPart createFilteredQueryPart(QueryPart input) throws QueryException {
 		QueryPart result = new QueryPart(input.getPackageMetaData());
@@ -24,6 +24,7 @@ import org.bimserver.database.BimserverLockConflictException;
 import org.bimserver.database.DatabaseSession.GetResult;
 import org.bimserver.database.Record;
 import org.bimserver.database.SearchingRecordIterator;
+import org.bimserver.database.TableHandle;
 import org.bimserver.database.queries.om.QueryException;
 import org.bimserver.database.queries.om.QueryPart;
 import org.bimserver.models.geometry.GeometryPackage;
@@ -36,27 +37,49 @@ public class QueryTypeStackFrame extends DatabaseReadingStackFrame implements Ob
 	private EClass eClass;
 	private SearchingRecordIterator typeRecordIterator;
 	private Record record;
+	private final ByteBuffer nextKeyStart = ByteBuffer.allocate(12);
 
 	public QueryTypeStackFrame(QueryObjectProvider queryObjectProvider, EClass eClass, QueryContext reusable, QueryPart queryPart) throws BimserverLockConflictException, BimserverDatabaseException {
+		this(queryObjectProvider, eClass, reusable, queryPart, null);
+	}
+
+	/**
+	 * @param prefetchingTypeScan A scan of the table of eClass that has already been handed to the type scan executor, or null to read the table on this thread
+	 */
+	public QueryTypeStackFrame(QueryObjectProvider queryObjectProvider, EClass eClass, QueryContext reusable, QueryPart queryPart, PrefetchingTypeScan prefetchingTypeScan) throws BimserverLockConflictException, BimserverDatabaseException {
 		super(reusable, queryObjectProvider, queryPart);
 		this.eClass = eClass;
 		
-		String tableName = eClass.getEPackage().getName() + "_" + eClass.getName();
-		if (getReusable().getOidCounters() != null) {
-			if (!getReusable().getOidCounters().containsKey(eClass)) {
-				return; // will skip to next one
+		if (prefetchingTypeScan != null) {
+			typeRecordIterator = prefetchingTypeScan;
+			record = typeRecordIterator.next();
+			return;
+		}
+		byte[] startSearchingAt = getStartSearchingAt(getReusable(), eClass);
+		if (startSearchingAt == null) {
+			return; // will skip to next one
+		}
+		TableHandle tableHandle = getQueryObjectProvider().getDatabaseSession().getTableHandle(eClass);
+		typeRecordIterator = queryObjectProvider.getDatabaseSession().getKeyValueStore().getReusableRecordIterator(tableHandle, BinUtils.intToByteArray(getReusable().getPid()), startSearchingAt, queryObjectProvider.getDatabaseSession());
+		record = typeRecordIterator.next();
+	}
+
+	/**
+	 * @return The key at which reading the table of the given type starts, or null when there is nothing to read for this type
+	 */
+	static byte[] getStartSearchingAt(QueryContext reusable, EClass eClass) {
+		if (reusable.getOidCounters() != null) {
+			if (!reusable.getOidCounters().containsKey(eClass)) {
+				return null;
 			}
-			long startOid = getReusable().getOidCounters().get(eClass);
+			long startOid = reusable.getOidCounters().get(eClass);
 			ByteBuffer tmp = ByteBuffer.allocate(12);
-			tmp.putInt(getReusable().getPid());
+			tmp.putInt(reusable.getPid());
 			tmp.putLong(startOid + 1);
-			typeRecordIterator = queryObjectProvider.getDatabaseSession().getKeyValueStore().getRecordIterator(tableName, BinUtils.intToByteArray(getReusable().getPid()), tmp.array(), queryObjectProvider.getDatabaseSession());
-			record = typeRecordIterator.next();
-		} else {
-//			LOGGER.warn("Potential too-many-reads");
-			typeRecordIterator = queryObjectProvider.getDatabaseSession().getKeyValueStore().getRecordIterator(tableName, BinUtils.intToByteArray(getReusable().getPid()), BinUtils.intToByteArray(getReusable().getPid()), queryObjectProvider.getDatabaseSession());
-			record = typeRecordIterator.next();
+			return tmp.array();
 		}
+//		LOGGER.warn("Potential too-many-reads");
+		return BinUtils.intToByteArray(reusable.getPid());
 	}
 
 	@Override
@@ -66,19 +89,18 @@ public class QueryTypeStackFrame extends DatabaseReadingStackFrame implements Ob
 		}
 		if (record == null) {
 			currentObject = null;
-			typeRecordIterator.close();
+			close();
 			return true;
 		}
 
 		currentObject = null;
 		
-		ByteBuffer nextKeyStart = ByteBuffer.allocate(12);
 		getQueryObjectProvider().incReads();
-		ByteBuffer keyBuffer = ByteBuffer.wrap(record.getKey());
+		ByteBuffer keyBuffer = record.getKeyBuffer();
 		int keyPid = keyBuffer.getInt();
 		long keyOid = keyBuffer.getLong();
 		int keyRid = -keyBuffer.getInt();
-		ByteBuffer valueBuffer = ByteBuffer.wrap(record.getValue());
+		ByteBuffer valueBuffer = record.getValueBuffer();
 		GetResult map = getMap(eClass, eClass, valueBuffer, keyPid, keyOid, keyRid);
 		if (map == GetResult.CONTINUE_WITH_NEXT_OID) {
 			nextKeyStart.position(0);
@@ -105,4 +127,12 @@ public class QueryTypeStackFrame extends DatabaseReadingStackFrame implements Ob
 		
 		return false;
 	}
+
+	@Override
+	void close() {
+		if (typeRecordIterator != null) {
+			typeRecordIterator.close();
+			typeRecordIterator = null;
+		}
+	}
 }
\ No newline at end of file
@@ -45,4 +45,10 @@ public abstract class StackFrame {
 	 * @throws IOException
 	 */
 	abstract boolean process() throws BimserverDatabaseException, QueryException, JsonParseException, JsonMappingException, IOException;
+
+	/**
+	 * Releases the resources held by this frame, called when the frame is done or when the query stops before the frame is done
+	 */
+	void close() {
+	}
 }
\ No newline at end of file
@@ -0,0 +1,112 @@
+package org.bimserver.geometry;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.plugins.deserializers.DatabaseInterface;
+import org.bimserver.shared.VirtualObject;
+import org.eclipse.emf.ecore.EClass;
+
+/**
+ * Keeps the objects that are saved through it in memory until {@link #flush()} is called, so the writes of a geometry run can be dropped when its
+ * result turns out to be unusable. Objects are written in the order in which they were saved, with their state at the time of the flush.
+ */
+public class BufferedDatabaseInterface implements DatabaseInterface {
+
+	private final DatabaseInterface databaseInterface;
+	private final List<VirtualObject> objects = new ArrayList<>();
+	private final List<Boolean> overwrites = new ArrayList<>();
+
+	public BufferedDatabaseInterface(DatabaseInterface databaseInterface) {
+		this.databaseInterface = databaseInterface;
+	}
+
+	@Override
+	public EClass getEClassForOid(long oid) throws BimserverDatabaseException {
+		return databaseInterface.getEClassForOid(oid);
+	}
+
+	@Override
+	public short getCidOfEClass(EClass eClass) {
+		return databaseInterface.getCidOfEClass(eClass);
+	}
+
+	@Override
+	public long newOid(EClass eClass) {
+		return databaseInterface.newOid(eClass);
+	}
+
+	@Override
+	public synchronized int save(VirtualObject virtualObject) throws BimserverDatabaseException {
+		objects.add(virtualObject);
+		overwrites.add(false);
+		return 0;
+	}
+
+	@Override
+	public synchronized int saveOverwrite(VirtualObject virtualObject) throws BimserverDatabaseException {
+		objects.add(virtualObject);
+		overwrites.add(true);
+		return 0;
+	}
+
+	@Override
+	public byte[] get(String tableName, byte[] key) throws BimserverDatabaseException {
+		return databaseInterface.get(tableName, key);
+	}
+
+	@Override
+	public List<byte[]> getDuplicates(String tableName, byte[] key) throws BimserverDatabaseException {
+		return databaseInterface.getDuplicates(tableName, key);
+	}
+
+	@Override
+	public UUID newUuid() {
+		return databaseInterface.newUuid();
+	}
+
+	public synchronized int size() {
+		return objects.size();
+	}
+
+	/**
+	 * Writes all buffered objects to the underlying database interface
+	 */
+	public synchronized void flush() throws BimserverDatabaseException {
+		for (int i = 0; i < objects.size(); i++) {
+			if (overwrites.get(i)) {
+				databaseInterface.saveOverwrite(objects.get(i));
+			} else {
+				databaseInterface.save(objects.get(i));
+			}
+		}
+		clear();
+	}
+
+	/**
+	 * Drops all buffered objects without writing them
+	 */
+	public synchronized void clear() {
+		objects.clear();
+		overwrites.clear();
+	}
+}
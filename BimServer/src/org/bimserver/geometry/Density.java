@@ -31,6 +31,14 @@ public class Density {
 		this.nrPrimitives = nrPrimitives;
 		this.geometryInfoId = geometryInfoId;
 	}
+
+	/**
+	 * Recreates a density from the values stored for an earlier revision (which stores the density value instead of the area of the biggest face)
+	 */
+	public static Density fromStored(String type, float densityValue, float volume, long nrPrimitives, long geometryInfoId) {
+		float biggestFaceAreaMm2 = densityValue == 0f ? 0f : nrPrimitives / densityValue * 1000000f;
+		return new Density(type, volume, biggestFaceAreaMm2, nrPrimitives, geometryInfoId);
+	}
 	
 	public String getType() {
 		return type;
@@ -0,0 +1,280 @@
+package org.bimserver.geometry;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bimserver.BimServer;
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.queries.QueryObjectProvider;
+import org.bimserver.database.queries.om.Include;
+import org.bimserver.database.queries.om.JsonQueryObjectModelConverter;
+import org.bimserver.database.queries.om.Query;
+import org.bimserver.database.queries.om.QueryException;
+import org.bimserver.database.queries.om.QueryPart;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.shared.HashMapVirtualObject;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+/**
+ * Finds the products of which the geometry depends on a set of changed objects, so only the geometry of those products has to be generated again.
+ *
+ * The objects the render engine gets for a product (representation, placement, openings and materials) are read for all products of a revision,
+ * while reading, for every object the objects that depend on it are recorded. The affected products are the products that can be reached from the
+ * changed objects by following those dependencies.
+ *
+ * Only forward references are followed, with the exception of a few relationships that influence the geometry of the objects they relate (openings,
+ * materials and styles). Other relationships (for example spatial containment) are not followed, otherwise changing one object would affect all
+ * objects in the same storey.
+ */
+public class GeometryDependencies {
+	private final PackageMetaData packageMetaData;
+	private final EClass productClass;
+	private final EReference geometryFeature;
+
+	// Oid of an object -> oids of the objects of which the geometry depends on that object
+	private final Long2ObjectOpenHashMap<LongArrayList> dependents = new Long2ObjectOpenHashMap<>();
+	// Oid of a product -> oid of its GeometryInfo
+	private final Long2LongOpenHashMap products = new Long2LongOpenHashMap();
+
+	private final Map<EClass, EReference[]> dependsOnReferences = new HashMap<>();
+	private final Map<EClass, EReference[]> dependedOnByReferences = new HashMap<>();
+	private final Map<EClass, EStructuralFeature[]> inputFeatures = new HashMap<>();
+
+	public GeometryDependencies(PackageMetaData packageMetaData) {
+		this.packageMetaData = packageMetaData;
+		this.productClass = packageMetaData.getEClass("IfcProduct");
+		this.geometryFeature = (EReference) productClass.getEStructuralFeature("geometry");
+		this.products.defaultReturnValue(-1);
+	}
+
+	/**
+	 * Reads the objects the geometry of all products of the given revision depends on
+	 */
+	public void read(DatabaseSession databaseSession, BimServer bimServer, long roid) throws QueryException, IOException, BimserverDatabaseException {
+		JsonQueryObjectModelConverter jsonQueryObjectModelConverter = new JsonQueryObjectModelConverter(packageMetaData);
+		String queryNameSpace = packageMetaData.getSchema().name().toLowerCase() + "-stdlib";
+
+		Query query = new Query("Geometry dependencies", packageMetaData);
+		QueryPart queryPart = query.createQueryPart();
+		queryPart.addType(productClass, true);
+		queryPart.addInclude(jsonQueryObjectModelConverter.getDefineFromFile(queryNameSpace + ":Representation", true));
+		queryPart.addInclude(jsonQueryObjectModelConverter.getDefineFromFile(queryNameSpace + ":ObjectPlacement", true));
+		queryPart.addInclude(jsonQueryObjectModelConverter.getDefineFromFile(queryNameSpace + ":HasOpenings", true));
+		// Not every schema's Representation define includes the material associations
+		Include materials = queryPart.createInclude();
+		materials.addType(productClass, true);
+		materials.addField("HasAssociations");
+		materials.addInclude(jsonQueryObjectModelConverter.getDefineFromFile(queryNameSpace + ":IfcRelAssociatesMaterial", true));
+
+		QueryObjectProvider queryObjectProvider = new QueryObjectProvider(databaseSession, bimServer, query, Collections.singleton(roid), packageMetaData);
+		HashMapVirtualObject next = queryObjectProvider.next();
+		while (next != null) {
+			add(next);
+			next = queryObjectProvider.next();
+		}
+	}
+
+	public void add(HashMapVirtualObject object) {
+		EClass eClass = object.eClass();
+		if (productClass.isSuperTypeOf(eClass)) {
+			Object geometryInfo = object.eGet(geometryFeature);
+			products.put(object.getOid(), geometryInfo instanceof Long ? (Long) geometryInfo : -1);
+		}
+		if (!dependsOnReferences.containsKey(eClass)) {
+			classifyReferences(eClass);
+		}
+		for (EReference eReference : dependsOnReferences.get(eClass)) {
+			for (long referencedOid : getReferencedOids(object, eReference)) {
+				addDependent(referencedOid, object.getOid());
+			}
+		}
+		for (EReference eReference : dependedOnByReferences.get(eClass)) {
+			for (long referencedOid : getReferencedOids(object, eReference)) {
+				addDependent(object.getOid(), referencedOid);
+			}
+		}
+	}
+
+	/**
+	 * @return The products of which the geometry depends (directly or indirectly) on at least one of the given objects, including the given objects that are products themselves
+	 */
+	public Set<Long> getAffectedProducts(Set<Long> changedOids) {
+		LongOpenHashSet visited = new LongOpenHashSet();
+		LongArrayFIFOQueue todo = new LongArrayFIFOQueue();
+		for (long oid : changedOids) {
+			if (visited.add(oid)) {
+				todo.enqueue(oid);
+			}
+		}
+		LongOpenHashSet affected = new LongOpenHashSet();
+		while (!todo.isEmpty()) {
+			long oid = todo.dequeueLong();
+			if (products.containsKey(oid)) {
+				affected.add(oid);
+			}
+			LongArrayList list = dependents.get(oid);
+			if (list != null) {
+				for (int i = 0; i < list.size(); i++) {
+					long dependent = list.getLong(i);
+					if (visited.add(dependent)) {
+						todo.enqueue(dependent);
+					}
+				}
+			}
+		}
+		return affected;
+	}
+
+	/**
+	 * @return The oid of the GeometryInfo the given product had when it was read, or -1
+	 */
+	public long getGeometryInfoOid(long productOid) {
+		return products.get(productOid);
+	}
+
+	/**
+	 * @return The features of objects of the given class that the geometry of a product can depend on: the attributes (except those of products and
+	 *         relationships, which do not describe geometry), the references followed by {@link #read}, and the inverses of the relationships that
+	 *         change the geometry of the objects they relate
+	 */
+	public EStructuralFeature[] getInputFeatures(EClass eClass) {
+		EStructuralFeature[] features = inputFeatures.get(eClass);
+		if (features == null) {
+			List<EStructuralFeature> list = new ArrayList<>();
+			if (!productClass.isSuperTypeOf(eClass) && !isA(eClass, "IfcRelationship")) {
+				list.addAll(eClass.getEAllAttributes());
+			}
+			list.addAll(Arrays.asList(getDependsOnReferences(eClass)));
+			for (EReference eReference : eClass.getEAllReferences()) {
+				if (packageMetaData.isInverse(eReference) && eReference.getEOpposite() != null && isDependedOnBy(eReference.getEOpposite(), (EClass) eReference.getEType())) {
+					list.add(eReference);
+				}
+			}
+			features = list.toArray(new EStructuralFeature[list.size()]);
+			inputFeatures.put(eClass, features);
+		}
+		return features;
+	}
+
+	private boolean isDependedOnBy(EReference eReference, EClass eClass) {
+		for (EClass subClass : packageMetaData.getAllSubClassesIncludingSelf(eClass)) {
+			if (Arrays.asList(getDependedOnByReferences(subClass)).contains(eReference)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private EReference[] getDependsOnReferences(EClass eClass) {
+		if (!dependsOnReferences.containsKey(eClass)) {
+			classifyReferences(eClass);
+		}
+		return dependsOnReferences.get(eClass);
+	}
+
+	private EReference[] getDependedOnByReferences(EClass eClass) {
+		if (!dependedOnByReferences.containsKey(eClass)) {
+			classifyReferences(eClass);
+		}
+		return dependedOnByReferences.get(eClass);
+	}
+
+	private void addDependent(long oid, long dependentOid) {
+		LongArrayList list = dependents.get(oid);
+		if (list == null) {
+			list = new LongArrayList(2);
+			dependents.put(oid, list);
+		}
+		list.add(dependentOid);
+	}
+
+	private List<Long> getReferencedOids(HashMapVirtualObject object, EReference eReference) {
+		Object value = object.eGet(eReference);
+		if (value instanceof Long) {
+			return Collections.singletonList((Long) value);
+		} else if (value instanceof List) {
+			List<Long> result = new ArrayList<>();
+			for (Object item : (List<?>) value) {
+				if (item instanceof Long) {
+					result.add((Long) item);
+				}
+			}
+			return result;
+		}
+		// Not set, or an embedded object
+		return Collections.emptyList();
+	}
+
+	private void classifyReferences(EClass eClass) {
+		List<EReference> dependsOn = new ArrayList<>();
+		List<EReference> dependedOnBy = new ArrayList<>();
+		for (EReference eReference : eClass.getEAllReferences()) {
+			if (packageMetaData.isInverse(eReference) || eReference == geometryFeature) {
+				continue;
+			}
+			String name = eReference.getName();
+			if (productClass.isSuperTypeOf(eClass)) {
+				if (name.equals("ObjectPlacement") || name.equals("Representation")) {
+					dependsOn.add(eReference);
+				}
+			} else if (isA(eClass, "IfcRelVoidsElement")) {
+				if (name.equals("RelatedOpeningElement")) {
+					dependsOn.add(eReference);
+				} else if (name.equals("RelatingBuildingElement")) {
+					dependedOnBy.add(eReference);
+				}
+			} else if (isA(eClass, "IfcRelAssociatesMaterial")) {
+				if (name.equals("RelatingMaterial")) {
+					dependsOn.add(eReference);
+				} else if (name.equals("RelatedObjects")) {
+					dependedOnBy.add(eReference);
+				}
+			} else if (isA(eClass, "IfcRelationship")) {
+				// Other relationships do not change the geometry of the objects they relate
+			} else if (isA(eClass, "IfcStyledItem") && name.equals("Item")) {
+				dependedOnBy.add(eReference);
+			} else if (!name.equals("OwnerHistory")) {
+				dependsOn.add(eReference);
+			}
+		}
+		dependsOnReferences.put(eClass, dependsOn.toArray(new EReference[dependsOn.size()]));
+		dependedOnByReferences.put(eClass, dependedOnBy.toArray(new EReference[dependedOnBy.size()]));
+	}
+
+	private boolean isA(EClass eClass, String className) {
+		EClass superClass = packageMetaData.getEClass(className);
+		return superClass != null && superClass.isSuperTypeOf(eClass);
+	}
+}
@@ -29,10 +29,13 @@ import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
@@ -50,8 +53,13 @@ import org.bimserver.ProductDef;
 import org.bimserver.Range;
 import org.bimserver.TemporaryGeometryData;
 import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.GeometryDataIndex;
+import org.bimserver.database.GeometryDataIndex.StoredGeometryData;
+import org.bimserver.database.GeometryDataIndex.StoredProductGeometry;
 import org.bimserver.database.queries.QueryObjectProvider;
+import org.bimserver.database.queries.om.Include;
 import org.bimserver.database.queries.om.Query;
+import org.bimserver.database.queries.om.QueryException;
 import org.bimserver.database.queries.om.QueryPart;
 import org.bimserver.models.geometry.GeometryPackage;
 import org.bimserver.plugins.PluginConfiguration;
@@ -66,6 +74,7 @@ import org.bimserver.plugins.renderengine.RenderEngineModel;
 import org.bimserver.plugins.renderengine.RenderEngineSettings;
 import org.bimserver.plugins.serializers.ObjectProvider;
 import org.bimserver.plugins.serializers.OidConvertingSerializer;
+import org.bimserver.plugins.serializers.SerializerException;
 import org.bimserver.plugins.serializers.StreamingSerializer;
 import org.bimserver.plugins.serializers.StreamingSerializerPlugin;
 import org.bimserver.renderengine.RenderEnginePool;
@@ -75,6 +84,7 @@ import org.bimserver.shared.QueryContext;
 import org.bimserver.shared.WrappedVirtualObject;
 import org.bimserver.utils.UuidUtils;
 import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EStructuralFeature;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -144,20 +154,32 @@ public class GeometryRunner implements Runnable {
 		}
 		
 		try {
-			HashMapVirtualObject next = objectProvider.next();
 			Query query = new Query("Double buffer query " + eClass.getName(), this.streamingGeometryGenerator.packageMetaData);
 			QueryPart queryPart = query.createQueryPart();
-			while (next != null) {
-				long oid = next.getOid();
-				queryPart.addOid(oid);
-				if (eClass.isSuperTypeOf(next.eClass())) {
-					for (QueryPart qp : originalQuery.getQueryParts()) {
-						if (qp.getOids().contains(oid)) {
-							job.addObject(next.getOid(), next.eClass().getName());
-						}
+			boolean hasProducts = false;
+			Map<Long, byte[]> inputHashes = new HashMap<>();
+			if (reuseGeometry && !geometryReused && this.streamingGeometryGenerator.geometryDataIndex != null) {
+				// Products of which the render engine input has not changed since an earlier revision get a copy of the earlier geometry, and are not sent to the render engine.
+				// Only then the batch is kept in memory, the input of a product can only be hashed when all objects it depends on have been read.
+				Map<Long, HashMapVirtualObject> inputObjects = new LinkedHashMap<>();
+				HashMapVirtualObject next = objectProvider.next();
+				while (next != null) {
+					inputObjects.put(next.getOid(), next);
+					next = objectProvider.next();
+				}
+				Set<Long> copiedProducts = new HashSet<>();
+				copyEarlierGeometry(inputObjects, inputHashes, copiedProducts);
+				for (HashMapVirtualObject object : inputObjects.values()) {
+					if (!copiedProducts.contains(object.getOid())) {
+						hasProducts |= addToQuery(queryPart, object);
 					}
 				}
-				next = objectProvider.next();
+			} else {
+				HashMapVirtualObject next = objectProvider.next();
+				while (next != null) {
+					hasProducts |= addToQuery(queryPart, next);
+					next = objectProvider.next();
+				}
 			}
 
 			objectProvider = new QueryObjectProvider(databaseSession, this.streamingGeometryGenerator.bimServer, query, Collections.singleton(queryContext.getRoid()), this.streamingGeometryGenerator.packageMetaData);
@@ -182,19 +204,26 @@ public class GeometryRunner implements Runnable {
 					}
 				});
 				serializer.init(proxy, null, null, this.streamingGeometryGenerator.bimServer.getPluginManager(), this.streamingGeometryGenerator.packageMetaData);
-				ByteArrayOutputStream baos = new ByteArrayOutputStream();
-				IOUtils.copy(serializer.getInputStream(), baos);
-				bytes = baos.toByteArray();
-				InputStream in = new ByteArrayInputStream(bytes);
+				InputStream in;
+				if (writeOutputFiles) {
+					ByteArrayOutputStream baos = new ByteArrayOutputStream();
+					IOUtils.copy(serializer.getInputStream(), baos);
+					bytes = baos.toByteArray();
+					in = new ByteArrayInputStream(bytes);
+				} else {
+					// The render engine reads the serializer directly, so the batch is serialized while the engine reads it and never held in memory as a whole.
+					// The serializer fills "objects" while it is being read, so it is only complete once the model has been opened.
+					in = serializer.getInputStream();
+				}
 				Map<Long, HashMapVirtualObject> notFoundObjects = new HashMap<>();
 
 				Set<Range> reusableGeometryData = new HashSet<>();
 
 				Map<Long, TemporaryGeometryData> productToData = new HashMap<>();
 				try {
-					if (!objects.isEmpty()) {
+					if (bytes != null ? !objects.isEmpty() : hasProducts) {
 						renderEngine = renderEnginePool.borrowObject();
-						try (RenderEngineModel renderEngineModel = renderEngine.openModel(in, bytes.length)) {
+						try (RenderEngineModel renderEngineModel = bytes != null ? renderEngine.openModel(in, bytes.length) : renderEngine.openModel(in)) {
 							renderEngineModel.setSettings(renderEngineSettings);
 							renderEngineModel.setFilter(renderEngineFilter);
 
@@ -296,18 +325,38 @@ public class GeometryRunner implements Runnable {
 											materialIndices = colorByteBuffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
 										}
 
+										// Buffers of identical geometry (of an earlier revision of this project, or earlier in this generation) are referenced instead of stored again
+										byte[] contentHash = null;
+										StoredGeometryData storedGeometryData = null;
+										if (reuseGeometry && this.streamingGeometryGenerator.geometryDataIndex != null) {
+											contentHash = GeometryDataIndex.hash(indices, vertices, normals, colorByteBuffer, materialIndices.capacity() > 0 ? geometry.getMaterials() : null);
+											storedGeometryData = this.streamingGeometryGenerator.geometryDataIndex.get(contentHash);
+										}
+
+										long indicesOid = storedGeometryData != null ? storedGeometryData.getIndices() : createBuffer(queryContext, indices);
+										long verticesOid = storedGeometryData != null ? storedGeometryData.getVertices() : createBuffer(queryContext, vertices);
+										long normalsOid = storedGeometryData != null ? storedGeometryData.getNormals() : createBuffer(queryContext, normals);
 										geometryData.setAttribute(GeometryPackage.eINSTANCE.getGeometryData_Reused(), 1);
-										geometryData.setReference(GeometryPackage.eINSTANCE.getGeometryData_Indices(), createBuffer(queryContext, indices));
-										geometryData.setReference(GeometryPackage.eINSTANCE.getGeometryData_Vertices(), createBuffer(queryContext, vertices));
-										geometryData.setReference(GeometryPackage.eINSTANCE.getGeometryData_Normals(), createBuffer(queryContext, normals));
+										geometryData.setReference(GeometryPackage.eINSTANCE.getGeometryData_Indices(), indicesOid);
+										geometryData.setReference(GeometryPackage.eINSTANCE.getGeometryData_Vertices(), verticesOid);
+										geometryData.setReference(GeometryPackage.eINSTANCE.getGeometryData_Normals(), normalsOid);
 										
 										geometryData.set("nrIndices", indicesAsInt.capacity());
 										geometryData.set("nrVertices", verticesAsDouble.capacity());
 										geometryData.set("nrNormals", normalsAsFloat.capacity());
 										
-										ByteBuffer lineIndices = generateLineRendering(ifcProduct, indicesAsInt, verticesAsDouble, normalsAsFloat, 0.001f);
-										geometryData.set("nrLineIndices", lineIndices.capacity() / 4);
-										geometryData.setReference(GeometryPackage.eINSTANCE.getGeometryData_LineIndices(), createBuffer(queryContext, lineIndices));
+										long lineIndicesOid;
+										int nrLineIndices;
+										if (storedGeometryData != null) {
+											lineIndicesOid = storedGeometryData.getLineIndices();
+											nrLineIndices = storedGeometryData.getNrLineIndices();
+										} else {
+											ByteBuffer lineIndices = generateLineRendering(ifcProduct, indicesAsInt, verticesAsDouble, normalsAsFloat, 0.001f);
+											lineIndicesOid = createBuffer(queryContext, lineIndices);
+											nrLineIndices = lineIndices.capacity() / 4;
+										}
+										geometryData.set("nrLineIndices", nrLineIndices);
+										geometryData.setReference(GeometryPackage.eINSTANCE.getGeometryData_LineIndices(), lineIndicesOid);
 										
 										geometryInfo.setAttribute(GeometryPackage.eINSTANCE.getGeometryInfo_PrimitiveCount(), indicesAsInt.capacity() / 3);
 										
@@ -319,6 +368,8 @@ public class GeometryRunner implements Runnable {
 										ColorMap colorMap = new ColorMap();
 										
 										ByteBuffer colors = ByteBuffer.wrap(new byte[0]);
+										long colorPackOid = -1;
+										long colorsQuantizedOid = -1;
 										
 										if (materialIndices != null && materialIndices.capacity() > 0) {
 											FloatBuffer materialsAsFloat = geometry.getMaterials().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
@@ -353,17 +404,22 @@ public class GeometryRunner implements Runnable {
 												}
 											}
 											if (hasMaterial) {
-												ColorMap2 colorMap2 = new ColorMap2();
-												byte[] colorB = new byte[4];
-												for (int i=0; i<colors.capacity(); i+=4) {
-													colors.get(colorB);
-													colorMap2.addColor(colorB);
+												if (storedGeometryData != null && storedGeometryData.getColorPack() != -1) {
+													colorPackOid = storedGeometryData.getColorPack();
+												} else {
+													ColorMap2 colorMap2 = new ColorMap2();
+													byte[] colorB = new byte[4];
+													for (int i=0; i<colors.capacity(); i+=4) {
+														colors.get(colorB);
+														colorMap2.addColor(colorB);
+													}
+													
+													HashMapVirtualObject colorPack = new HashMapVirtualObject(queryContext, GeometryPackage.eINSTANCE.getColorPack());
+													colorPack.setAttribute(GeometryPackage.eINSTANCE.getColorPack_Data(), colorMap2.toByteArray());
+													colorPack.save();
+													colorPackOid = colorPack.getOid();
 												}
-												
-												HashMapVirtualObject colorPack = new HashMapVirtualObject(queryContext, GeometryPackage.eINSTANCE.getColorPack());
-												colorPack.setAttribute(GeometryPackage.eINSTANCE.getColorPack_Data(), colorMap2.toByteArray());
-												colorPack.save();
-												geometryData.setReference(GeometryPackage.eINSTANCE.getGeometryData_ColorPack(), colorPack.getOid(), 0);
+												geometryData.setReference(GeometryPackage.eINSTANCE.getGeometryData_ColorPack(), colorPackOid, 0);
 											}
 											if (colorMap.usedColors() == 0) {
 												if (eClass.getName().contentEquals("IfcWindow") || eClass.getName().contentEquals("IfcOpeningElement") || eClass.getName().contentEquals("IfcSpace")) {
@@ -396,7 +452,12 @@ public class GeometryRunner implements Runnable {
 											}
 											if (hasMaterial) {
 												geometryData.set("nrColors", colors.capacity());
-												geometryData.setReference(GeometryPackage.eINSTANCE.getGeometryData_ColorsQuantized(), createBuffer(queryContext, colors), -1);
+												if (storedGeometryData != null && storedGeometryData.getColorsQuantized() != -1) {
+													colorsQuantizedOid = storedGeometryData.getColorsQuantized();
+												} else {
+													colorsQuantizedOid = createBuffer(queryContext, colors);
+												}
+												geometryData.setReference(GeometryPackage.eINSTANCE.getGeometryData_ColorsQuantized(), colorsQuantizedOid, -1);
 											} else {
 												geometryData.set("nrColors", 0);
 											}
@@ -431,8 +492,11 @@ public class GeometryRunner implements Runnable {
 										HashMapWrappedVirtualObject boundsMm = createMmBounds(geometryInfo, bounds, generateGeometryResult.getMultiplierToMm());
 										geometryInfo.set("boundsMm", boundsMm);
 
-										ByteBuffer normalsQuantized = quantizeNormals(normalsAsFloat);
-										geometryData.setReference(GeometryPackage.eINSTANCE.getGeometryData_NormalsQuantized(), createBuffer(queryContext, normalsQuantized));
+										long normalsQuantizedOid = storedGeometryData != null ? storedGeometryData.getNormalsQuantized() : createBuffer(queryContext, quantizeNormals(normalsAsFloat));
+										geometryData.setReference(GeometryPackage.eINSTANCE.getGeometryData_NormalsQuantized(), normalsQuantizedOid);
+										if (contentHash != null && storedGeometryData == null) {
+											this.streamingGeometryGenerator.geometryDataIndex.add(contentHash, new StoredGeometryData(indicesOid, verticesOid, normalsOid, normalsQuantizedOid, lineIndicesOid, nrLineIndices, colorPackOid, colorsQuantizedOid));
+										}
 										
 										HashMapWrappedVirtualObject geometryDataBounds = new HashMapWrappedVirtualObject(GeometryPackage.eINSTANCE.getBounds());
 										WrappedVirtualObject geometryDataBoundsMin = new HashMapWrappedVirtualObject(GeometryPackage.eINSTANCE.getVector3f());
@@ -564,6 +628,9 @@ public class GeometryRunner implements Runnable {
 												
 												// By saving it before putting it in the cache/hashmap, we make sure we won't get a BimserverConcurrentModificationException
 												geometryData.save(); // TODO Why??
+												if (storedGeometryData != null) {
+													this.streamingGeometryGenerator.bytesSavedByEarlierRevisions.addAndGet(size);
+												}
 
 												databaseSession.cache((HashMapVirtualObject) geometryData);
 												this.streamingGeometryGenerator.hashes.put(hash, geometryData.getOid());
@@ -578,10 +645,16 @@ public class GeometryRunner implements Runnable {
 										debuggingInfo.put(ifcProduct.getOid(), new DebuggingInfo(productTranformationMatrix, indices.asIntBuffer(), vertices.asFloatBuffer()));
 
 										geometryInfo.save();
+										this.streamingGeometryGenerator.addToSpatialIndex(ifcProduct.getOid(), boundsMm);
 										this.streamingGeometryGenerator.totalBytes.addAndGet(size);
+										byte[] inputHash = inputHashes.get(ifcProduct.getOid());
+										if (inputHash != null) {
+											this.streamingGeometryGenerator.geometryDataIndex.addProduct(inputHash, geometryInfo.getOid());
+										}
 
 										ifcProduct.setReference(this.streamingGeometryGenerator.geometryFeature, geometryInfo.getOid(), 0);
-										ifcProduct.saveOverwrite();
+										// Through the query context instead of the session of the product, so it is buffered with the generated objects when the generator buffers its writes
+										queryContext.getDatabaseInterface().saveOverwrite(ifcProduct);
 
 										// Doing a sync here because probably
 										// writing large amounts of data, and db
@@ -799,10 +872,11 @@ public class GeometryRunner implements Runnable {
 											this.streamingGeometryGenerator.setTransformationMatrix(geometryInfo, totalTranformationMatrix);
 
 											geometryInfo.save();
+											this.streamingGeometryGenerator.addToSpatialIndex(ifcProduct.getOid(), boundsMm);
 											// totalBytes.addAndGet(size);
 
 											ifcProduct.setReference(this.streamingGeometryGenerator.geometryFeature, geometryInfo.getOid(), 0);
-											ifcProduct.saveOverwrite();
+											queryContext.getDatabaseInterface().saveOverwrite(ifcProduct);
 										}
 									}
 								}
@@ -827,9 +901,9 @@ public class GeometryRunner implements Runnable {
 							}
 							sb.delete(sb.length() - 2, sb.length());
 							job.setException(new Exception("Missing objects in model (" + sb.toString() + ")"));
-							writeDebugFile(bytes, false, notFoundObjects);
+							writeDebugFile(bytes, query, false, notFoundObjects);
 						} else if (writeOutputFiles) {
-							writeDebugFile(bytes, false, null);
+							writeDebugFile(bytes, query, false, null);
 						}
 						in.close();
 					} catch (Throwable e) {
@@ -840,8 +914,13 @@ public class GeometryRunner implements Runnable {
 				}
 			} catch (Throwable e) {
 				StreamingGeometryGenerator.LOGGER.error("", e);
-				if(bytes!=null) writeDebugFile(bytes, true, null);
 				job.setException(e);
+				try {
+					// Without the bytes (when the render engine reads the serializer directly) the batch is serialized again from the query
+					writeDebugFile(bytes, query, true, null);
+				} catch (Throwable debugException) {
+					LOGGER.error("Error during debug file creation", debugException);
+				}
 				// LOGGER.error("Original query: " + originalQuery, e);
 			}
 		} catch (Throwable e) {
@@ -919,6 +998,184 @@ public class GeometryRunner implements Runnable {
 		LOGGER.info(string + ": " + sb.toString());
 	}
 
+	/**
+	 * Adds the object to the query of the objects that are sent to the render engine
+	 * 
+	 * @return Whether the object is one of the products this runner generates geometry for
+	 */
+	private boolean addToQuery(QueryPart queryPart, HashMapVirtualObject object) {
+		long oid = object.getOid();
+		queryPart.addOid(oid);
+		boolean product = false;
+		if (eClass.isSuperTypeOf(object.eClass())) {
+			for (QueryPart qp : originalQuery.getQueryParts()) {
+				if (qp.getOids().contains(oid)) {
+					job.addObject(oid, object.eClass().getName());
+					product = true;
+				}
+			}
+		}
+		return product;
+	}
+
+	/**
+	 * Looks up the render engine input of every product in the index, products that are found get a copy of the earlier geometry
+	 * 
+	 * @param inputHashes Filled with the input hashes of the products that have to be sent to the render engine, so their geometry can be added to the index
+	 * @param copiedProducts Filled with the oids of the products that got a copy of the earlier geometry
+	 */
+	private void copyEarlierGeometry(Map<Long, HashMapVirtualObject> inputObjects, Map<Long, byte[]> inputHashes, Set<Long> copiedProducts) {
+		GeometryDataIndex geometryDataIndex = this.streamingGeometryGenerator.geometryDataIndex;
+		GeometryDependencies geometryDependencies = new GeometryDependencies(this.streamingGeometryGenerator.packageMetaData);
+		// Anything besides the objects that influences the output of the render engine
+		byte[] context = (this.streamingGeometryGenerator.getRenderEngineName() + ";" + renderEngineSettings.getPrecision() + ";" + renderEngineSettings.getIndexFormat() + ";" + renderEngineSettings.isGenerateNormals() + ";"
+				+ renderEngineSettings.isGenerateTriangles() + ";" + renderEngineSettings.isGenerateWireFrame() + ";" + this.streamingGeometryGenerator.isCalculateQuantities() + ";" + generateGeometryResult.getMultiplierToMm()).getBytes(StandardCharsets.UTF_8);
+		for (HashMapVirtualObject ifcProduct : inputObjects.values()) {
+			if (!eClass.isSuperTypeOf(ifcProduct.eClass()) || ifcProduct.eGet(this.streamingGeometryGenerator.representationFeature) == null || !isQueriedProduct(ifcProduct.getOid())) {
+				continue;
+			}
+			byte[] inputHash = GeometryDataIndex.hashInput(ifcProduct, inputObjects, geometryDependencies, context);
+			try {
+				StoredProductGeometry storedProductGeometry = geometryDataIndex.getProduct(inputHash);
+				if (storedProductGeometry != null && copyEarlierGeometry(ifcProduct, storedProductGeometry)) {
+					copiedProducts.add(ifcProduct.getOid());
+				} else {
+					inputHashes.put(ifcProduct.getOid(), inputHash);
+				}
+			} catch (BimserverDatabaseException | QueryException | GeometryGeneratingException e) {
+				// The product will be sent to the render engine
+				LOGGER.error("", e);
+			}
+		}
+	}
+
+	private boolean isQueriedProduct(long oid) {
+		for (QueryPart qp : originalQuery.getQueryParts()) {
+			if (qp.getOids().contains(oid)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Copies the GeometryInfo and GeometryData of an earlier revision to the given product. The buffers are referenced, only the quantized vertices
+	 * are generated again because they depend on the bounds of the whole revision.
+	 * 
+	 * @return False when the earlier geometry could not be read, the product then has to be sent to the render engine
+	 */
+	private boolean copyEarlierGeometry(HashMapVirtualObject ifcProduct, StoredProductGeometry storedProductGeometry) throws BimserverDatabaseException, QueryException, GeometryGeneratingException {
+		HashMapVirtualObject earlierGeometryInfo = getEarlierObject(storedProductGeometry.getRoid(), storedProductGeometry.getGeometryInfo(), GeometryPackage.eINSTANCE.getGeometryInfo(), null);
+		if (earlierGeometryInfo == null || !(earlierGeometryInfo.get("data") instanceof Long)) {
+			return false;
+		}
+		HashMapVirtualObject earlierGeometryData = getEarlierObject(storedProductGeometry.getRoid(), (Long) earlierGeometryInfo.get("data"), GeometryPackage.eINSTANCE.getGeometryData(), "vertices");
+		if (earlierGeometryData == null || !(earlierGeometryData.get("vertices") instanceof HashMapVirtualObject)) {
+			return false;
+		}
+		HashMapVirtualObject verticesBuffer = (HashMapVirtualObject) earlierGeometryData.get("vertices");
+		HashMapWrappedVirtualObject bounds = (HashMapWrappedVirtualObject) earlierGeometryInfo.get("bounds");
+		HashMapWrappedVirtualObject boundsUntransformed = (HashMapWrappedVirtualObject) earlierGeometryInfo.get("boundsUntransformed");
+		HashMapWrappedVirtualObject boundsMm = (HashMapWrappedVirtualObject) earlierGeometryInfo.get("boundsMm");
+		HashMapWrappedVirtualObject boundsUntransformedMm = (HashMapWrappedVirtualObject) earlierGeometryInfo.get("boundsUntransformedMm");
+		if (bounds == null || boundsUntransformed == null || boundsMm == null || boundsUntransformedMm == null) {
+			return false;
+		}
+
+		HashMapVirtualObject geometryData = new HashMapVirtualObject(queryContext, GeometryPackage.eINSTANCE.getGeometryData());
+		for (EStructuralFeature feature : GeometryPackage.eINSTANCE.getGeometryData().getEAllStructuralFeatures()) {
+			if (feature == GeometryPackage.eINSTANCE.getGeometryData_VerticesQuantized() || feature == GeometryPackage.eINSTANCE.getGeometryData_Reused() || feature == GeometryPackage.eINSTANCE.getGeometryData_SaveableTriangles()) {
+				continue;
+			}
+			Object value = earlierGeometryData.eGet(feature);
+			if (value instanceof HashMapVirtualObject) {
+				value = ((HashMapVirtualObject) value).getOid();
+			}
+			if (value != null) {
+				geometryData.set(feature.getName(), value);
+			}
+		}
+		geometryData.setAttribute(GeometryPackage.eINSTANCE.getGeometryData_Reused(), 1);
+		geometryData.save();
+		streamingGeometryGenerator.cacheGeometryData(geometryData, ByteBuffer.wrap((byte[]) verticesBuffer.get("data")).order(ByteOrder.LITTLE_ENDIAN));
+
+		HashMapVirtualObject geometryInfo = new HashMapVirtualObject(queryContext, GeometryPackage.eINSTANCE.getGeometryInfo());
+		for (EStructuralFeature feature : GeometryPackage.eINSTANCE.getGeometryInfo().getEAllStructuralFeatures()) {
+			if (feature == GeometryPackage.eINSTANCE.getGeometryInfo_Data() || feature.getName().startsWith("ifcProduct")) {
+				continue;
+			}
+			Object value = earlierGeometryInfo.eGet(feature);
+			if (value != null) {
+				geometryInfo.set(feature.getName(), value);
+			}
+		}
+		geometryInfo.setAttribute(GeometryPackage.eINSTANCE.getGeometryInfo_IfcProductOid(), ifcProduct.getOid());
+		geometryInfo.setAttribute(GeometryPackage.eINSTANCE.getGeometryInfo_IfcProductUuid(), UuidUtils.toByteArray(ifcProduct.getUuid()));
+		geometryInfo.setAttribute(GeometryPackage.eINSTANCE.getGeometryInfo_IfcProductRid(), ifcProduct.getRid());
+		geometryInfo.setReference(GeometryPackage.eINSTANCE.getGeometryInfo_Data(), geometryData.getOid(), 0);
+
+		extendResultBounds(bounds, boundsUntransformed);
+
+		int nrTriangles = (int) geometryData.get("nrIndices") / 3;
+		job.setTrianglesGenerated(nrTriangles);
+		job.getReport().incrementTriangles(nrTriangles);
+
+		double volume = geometryInfo.get("volume") == null ? 0 : (double) geometryInfo.get("volume");
+		if (volume == 0) {
+			volume = getVolumeFromBounds(boundsUntransformed);
+		}
+		generateGeometryResult.addDensity(new Density(eClass.getName(), (float) volume, getBiggestFaceFromBounds(boundsUntransformedMm), (long) nrTriangles, geometryInfo.getOid()));
+
+		geometryInfo.save();
+		this.streamingGeometryGenerator.addToSpatialIndex(ifcProduct.getOid(), boundsMm);
+		long size = this.streamingGeometryGenerator.getSize(geometryData);
+		this.streamingGeometryGenerator.totalBytes.addAndGet(size);
+		this.streamingGeometryGenerator.bytesSavedByEarlierRevisions.addAndGet(size);
+
+		ifcProduct.setReference(this.streamingGeometryGenerator.geometryFeature, geometryInfo.getOid(), 0);
+		queryContext.getDatabaseInterface().saveOverwrite(ifcProduct);
+		return true;
+	}
+
+	/**
+	 * @param directField A reference of which the referenced object should be read as well, or null
+	 */
+	private HashMapVirtualObject getEarlierObject(long roid, long oid, EClass eClass, String directField) throws BimserverDatabaseException, QueryException {
+		Query query = new Query("Earlier geometry", this.streamingGeometryGenerator.packageMetaData);
+		QueryPart queryPart = query.createQueryPart();
+		queryPart.addOid(oid);
+		if (directField != null) {
+			Include include = queryPart.createInclude();
+			include.addType(eClass, false);
+			include.addFieldDirect(directField);
+		}
+		QueryObjectProvider queryObjectProvider = new QueryObjectProvider(databaseSession, this.streamingGeometryGenerator.bimServer, query, Collections.singleton(roid), this.streamingGeometryGenerator.packageMetaData);
+		try {
+			return queryObjectProvider.next();
+		} finally {
+			queryObjectProvider.close();
+		}
+	}
+
+	private void extendResultBounds(HashMapWrappedVirtualObject bounds, HashMapWrappedVirtualObject boundsUntransformed) {
+		HashMapWrappedVirtualObject min = (HashMapWrappedVirtualObject) bounds.eGet("min");
+		HashMapWrappedVirtualObject max = (HashMapWrappedVirtualObject) bounds.eGet("max");
+		generateGeometryResult.setMinX(Math.min((double) min.eGet("x"), generateGeometryResult.getMinX()));
+		generateGeometryResult.setMinY(Math.min((double) min.eGet("y"), generateGeometryResult.getMinY()));
+		generateGeometryResult.setMinZ(Math.min((double) min.eGet("z"), generateGeometryResult.getMinZ()));
+		generateGeometryResult.setMaxX(Math.max((double) max.eGet("x"), generateGeometryResult.getMaxX()));
+		generateGeometryResult.setMaxY(Math.max((double) max.eGet("y"), generateGeometryResult.getMaxY()));
+		generateGeometryResult.setMaxZ(Math.max((double) max.eGet("z"), generateGeometryResult.getMaxZ()));
+		HashMapWrappedVirtualObject untransformedMin = (HashMapWrappedVirtualObject) boundsUntransformed.eGet("min");
+		HashMapWrappedVirtualObject untransformedMax = (HashMapWrappedVirtualObject) boundsUntransformed.eGet("max");
+		generateGeometryResult.setUntranslatedMinX(Math.min((double) untransformedMin.eGet("x"), generateGeometryResult.getUntranslatedMinX()));
+		generateGeometryResult.setUntranslatedMinY(Math.min((double) untransformedMin.eGet("y"), generateGeometryResult.getUntranslatedMinY()));
+		generateGeometryResult.setUntranslatedMinZ(Math.min((double) untransformedMin.eGet("z"), generateGeometryResult.getUntranslatedMinZ()));
+		generateGeometryResult.setUntranslatedMaxX(Math.max((double) untransformedMax.eGet("x"), generateGeometryResult.getUntranslatedMaxX()));
+		generateGeometryResult.setUntranslatedMaxY(Math.max((double) untransformedMax.eGet("y"), generateGeometryResult.getUntranslatedMaxY()));
+		generateGeometryResult.setUntranslatedMaxZ(Math.max((double) untransformedMax.eGet("z"), generateGeometryResult.getUntranslatedMaxZ()));
+	}
+
 	private double setCalculatedQuantities(RenderEngineInstance renderEngineInstance, HashMapVirtualObject geometryInfo, double volume) throws RenderEngineException, BimserverDatabaseException {
 		if (streamingGeometryGenerator.isCalculateQuantities()) {
 			ObjectNode additionalData = renderEngineInstance.getAdditionalData();
@@ -1234,7 +1491,10 @@ public class GeometryRunner implements Runnable {
 		return true;
 	}
 	
-	private synchronized void writeDebugFile(byte[] bytes, boolean error, Map<Long, HashMapVirtualObject> notFoundObjects) throws FileNotFoundException, IOException {
+	/**
+	 * @param bytes The serialized batch, or null when the batch was streamed to the render engine, in which case it is serialized again from the given query
+	 */
+	private synchronized void writeDebugFile(byte[] bytes, Query query, boolean error, Map<Long, HashMapVirtualObject> notFoundObjects) throws FileNotFoundException, IOException, QueryException, SerializerException {
 		boolean debug = true;
 		if (debug) {
 			Path debugPath = this.streamingGeometryGenerator.bimServer.getHomeDir().resolve("debug");
@@ -1267,7 +1527,16 @@ public class GeometryRunner implements Runnable {
 //			}
 
 //			StreamingGeometryGenerator.LOGGER.info("Writing debug file to " + file.toAbsolutePath().toString());
-			FileUtils.writeByteArrayToFile(file.toFile(), bytes);
+			if (bytes != null) {
+				FileUtils.writeByteArrayToFile(file.toFile(), bytes);
+			} else {
+				QueryObjectProvider queryObjectProvider = new QueryObjectProvider(databaseSession, this.streamingGeometryGenerator.bimServer, query, Collections.singleton(queryContext.getRoid()), this.streamingGeometryGenerator.packageMetaData);
+				StreamingSerializer serializer = ifcSerializerPlugin.createSerializer(new PluginConfiguration());
+				serializer.init(queryObjectProvider, null, null, this.streamingGeometryGenerator.bimServer.getPluginManager(), this.streamingGeometryGenerator.packageMetaData);
+				try (InputStream inputStream = serializer.getInputStream()) {
+					Files.copy(inputStream, file, StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,240 @@
+package org.bimserver.geometry;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Server-wide pool of threads on which the geometry of all checkins is generated. Every geometry generation gets its own {@link JobQueue}, the threads
+ * take jobs from the queues in turns, so concurrent checkins share the threads evenly instead of each starting their own set of threads.
+ *
+ * A job queue only holds a limited amount of jobs, submitting to a full queue blocks until a job of that queue has been started.
+ */
+public class GeometryScheduler {
+	private static final Logger LOGGER = LoggerFactory.getLogger(GeometryScheduler.class);
+
+	private final Object lock = new Object();
+	private final LinkedList<JobQueue> jobQueues = new LinkedList<>();
+	private final List<Thread> threads = new ArrayList<>();
+	private final int queueSize;
+	private boolean stopped;
+
+	public class JobQueue {
+		private final String name;
+		private final int maxThreads;
+		private final Deque<Runnable> jobs = new ArrayDeque<>();
+		private int running;
+		private long taskCount;
+		private long completedTaskCount;
+		private boolean shutdown;
+
+		private JobQueue(String name, int maxThreads) {
+			this.name = name;
+			this.maxThreads = maxThreads;
+		}
+
+		/**
+		 * Blocks while this queue is full
+		 */
+		public void submit(Runnable job) throws InterruptedException {
+			synchronized (lock) {
+				while (jobs.size() >= queueSize && !stopped && !shutdown) {
+					lock.wait();
+				}
+				if (stopped || shutdown) {
+					throw new RejectedExecutionException("Job queue " + name + " does not accept jobs anymore");
+				}
+				jobs.add(job);
+				taskCount++;
+				lock.notifyAll();
+			}
+		}
+
+		/**
+		 * No new jobs will be accepted, jobs that have already been submitted will still be executed
+		 */
+		public void shutdown() {
+			synchronized (lock) {
+				shutdown = true;
+				removeWhenDone();
+				lock.notifyAll();
+			}
+		}
+
+		/**
+		 * Same as {@link #shutdown()}, but jobs that have not been started yet are discarded
+		 */
+		public void shutdownNow() {
+			synchronized (lock) {
+				jobs.clear();
+				shutdown();
+			}
+		}
+
+		/**
+		 * @return Whether all jobs have been executed within the given time
+		 */
+		public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			synchronized (lock) {
+				while (!isDone()) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						return false;
+					}
+					TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+				}
+				return true;
+			}
+		}
+
+		public long getTaskCount() {
+			synchronized (lock) {
+				return taskCount;
+			}
+		}
+
+		public long getCompletedTaskCount() {
+			synchronized (lock) {
+				return completedTaskCount;
+			}
+		}
+
+		private boolean isDone() {
+			return shutdown && jobs.isEmpty() && running == 0;
+		}
+
+		private void removeWhenDone() {
+			if (isDone()) {
+				jobQueues.remove(this);
+			}
+		}
+	}
+
+	public GeometryScheduler(int nrThreads, int queueSize) {
+		this.queueSize = queueSize;
+		for (int i = 0; i < nrThreads; i++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			}, "Geometry-" + (i + 1));
+			thread.setDaemon(true);
+			thread.start();
+			threads.add(thread);
+		}
+	}
+
+	/**
+	 * @param maxThreads The maximum number of threads that execute jobs of the new queue at the same time
+	 */
+	public JobQueue createJobQueue(String name, int maxThreads) {
+		JobQueue jobQueue = new JobQueue(name, Math.max(1, maxThreads));
+		synchronized (lock) {
+			if (stopped) {
+				throw new RejectedExecutionException("Geometry scheduler has been stopped");
+			}
+			jobQueues.add(jobQueue);
+		}
+		return jobQueue;
+	}
+
+	public int getNrThreads() {
+		return threads.size();
+	}
+
+	public void stop() {
+		synchronized (lock) {
+			stopped = true;
+			for (JobQueue jobQueue : jobQueues) {
+				jobQueue.jobs.clear();
+				jobQueue.shutdown = true;
+			}
+			lock.notifyAll();
+		}
+		for (Thread thread : threads) {
+			thread.interrupt();
+		}
+	}
+
+	private void work() {
+		while (true) {
+			JobQueue jobQueue;
+			Runnable job;
+			synchronized (lock) {
+				jobQueue = takeNextQueue();
+				while (jobQueue == null) {
+					if (stopped) {
+						return;
+					}
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						if (stopped) {
+							return;
+						}
+					}
+					jobQueue = takeNextQueue();
+				}
+				job = jobQueue.jobs.poll();
+				jobQueue.running++;
+				// Wakes up a submitter waiting for room in this queue
+				lock.notifyAll();
+			}
+			try {
+				job.run();
+			} catch (Throwable e) {
+				LOGGER.error("", e);
+			} finally {
+				synchronized (lock) {
+					jobQueue.running--;
+					jobQueue.completedTaskCount++;
+					jobQueue.removeWhenDone();
+					lock.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The first queue that has a job that can be started, which is then moved to the end so the next job is taken from another queue
+	 */
+	private JobQueue takeNextQueue() {
+		Iterator<JobQueue> iterator = jobQueues.iterator();
+		while (iterator.hasNext()) {
+			JobQueue jobQueue = iterator.next();
+			if (!jobQueue.jobs.isEmpty() && jobQueue.running < jobQueue.maxThreads) {
+				iterator.remove();
+				jobQueues.addLast(jobQueue);
+				return jobQueue;
+			}
+		}
+		return null;
+	}
+}
@@ -35,9 +35,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -50,7 +48,11 @@ import org.bimserver.GenericGeometryGenerator;
 import org.bimserver.GeometryGeneratingException;
 import org.bimserver.ProductDef;
 import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.GeometryDataIndex;
+import org.bimserver.database.OidCounters;
 import org.bimserver.database.OldQuery;
+import org.bimserver.database.SpatialIndex;
+import org.bimserver.database.SpatialIndexBuilder;
 import org.bimserver.database.actions.ProgressListener;
 import org.bimserver.database.queries.QueryObjectProvider;
 import org.bimserver.database.queries.om.Include;
@@ -58,6 +60,7 @@ import org.bimserver.database.queries.om.JsonQueryObjectModelConverter;
 import org.bimserver.database.queries.om.Query;
 import org.bimserver.database.queries.om.QueryException;
 import org.bimserver.database.queries.om.QueryPart;
+import org.bimserver.geometry.GeometryScheduler.JobQueue;
 import org.bimserver.emf.PackageMetaData;
 import org.bimserver.emf.Schema;
 import org.bimserver.models.geometry.Bounds;
@@ -94,6 +97,7 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 	
 	final BimServer bimServer;
 	final Map<Integer, Long> hashes = new ConcurrentHashMap<>();
+	GeometryDataIndex geometryDataIndex;
 
 	private EClass productClass;
 	EReference geometryFeature;
@@ -101,6 +105,7 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 	PackageMetaData packageMetaData;
 
 	AtomicLong bytesSavedByHash = new AtomicLong();
+	AtomicLong bytesSavedByEarlierRevisions = new AtomicLong();
 	private final AtomicLong bytesSavedByTransformation = new AtomicLong();
 	AtomicLong bytesSavedByMapping = new AtomicLong();
 	AtomicLong totalBytes = new AtomicLong();
@@ -132,12 +137,20 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 	
 	private final Map<Long, Tuple<HashMapVirtualObject, ByteBuffer>> geometryDataMap = new ConcurrentHashMap<>();
 
+	private final SpatialIndexBuilder spatialIndexBuilder = new SpatialIndexBuilder();
+
 	private GeometryGenerationDebugger geometryGenerationDebugger = new GeometryGenerationDebugger();
 
 	private boolean applyLayerSets;
 
 	private boolean calculateQuantities;
 
+	private Set<Long> productsToGenerate;
+	private long previousCroid = -1;
+	private Set<Long> notCarriedOver;
+	private Bounds quantizationBounds;
+	private boolean quantizationBoundsExceeded;
+
 	public StreamingGeometryGenerator(final BimServer bimServer, ProgressListener progressListener, Long eoid, GeometryGenerationReport report) {
 		this.bimServer = bimServer;
 		this.progressListener = progressListener;
@@ -145,6 +158,40 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 		this.report = report;
 	}
 	
+	/**
+	 * Only generate geometry for the given products, the other products keep the geometry they already have. Use null to generate geometry for all products.
+	 */
+	public void setProductsToGenerate(Set<Long> productsToGenerate) {
+		this.productsToGenerate = productsToGenerate;
+	}
+
+	/**
+	 * Copies the spatial index entries of the given concrete revision into the spatial index of the new revision, except for the given oids (usually
+	 * the products of which the geometry is generated again and the products that have been removed)
+	 */
+	public void carryOverSpatialIndex(long previousCroid, Set<Long> notCarriedOver) {
+		this.previousCroid = previousCroid;
+		this.notCarriedOver = notCarriedOver;
+	}
+
+	/**
+	 * Quantize the vertices with the given untransformed bounds instead of the bounds of the generated geometry, so they match the geometry that has been
+	 * quantized with these bounds before. The generated objects are kept in memory until the bounds of all geometry are known. When the generated geometry
+	 * does not fit in these bounds, nothing is written (no geometry, spatial index or geometry data index) and {@link #isQuantizationBoundsExceeded()}
+	 * returns true.
+	 */
+	public void setQuantizationBounds(Bounds quantizationBounds) {
+		this.quantizationBounds = quantizationBounds;
+	}
+
+	public boolean isQuantizationBoundsExceeded() {
+		return quantizationBoundsExceeded;
+	}
+
+	private boolean shouldGenerate(long oid) {
+		return productsToGenerate == null || productsToGenerate.contains(oid);
+	}
+	
 	void updateProgress() {
 		if (allJobsPushed) {
 			if (progressListener != null) {
@@ -173,6 +220,14 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 		DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss");
 		debugIdentifier = dateFormat.format(now.getTime()) + " (" + report.getOriginalIfcFileName() + ")";
 
+		BufferedDatabaseInterface bufferedDatabaseInterface = null;
+		if (quantizationBounds != null) {
+			bufferedDatabaseInterface = new BufferedDatabaseInterface(queryContext.getDatabaseInterface());
+			OidCounters oidCounters = queryContext.getOidCounters();
+			queryContext = new QueryContext(bufferedDatabaseInterface, queryContext.getPackageMetaData(), queryContext.getPid(), queryContext.getRid(), queryContext.getRoid(), queryContext.getCroid(), queryContext.getStopRid());
+			queryContext.setOidCounters(oidCounters);
+		}
+
 		long start = System.nanoTime();
 		String pluginName = "";
 		if (queryContext.getPackageMetaData().getSchema() == Schema.IFC4) {
@@ -185,12 +240,16 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 		
 		reuseGeometry = bimServer.getServerSettingsCache().getServerSettings().isReuseGeometry();
 		optimizeMappedItems = bimServer.getServerSettingsCache().getServerSettings().isOptimizeMappedItems();
+		if (reuseGeometry) {
+			geometryDataIndex = new GeometryDataIndex(databaseSession, queryContext.getPid(), queryContext.getRoid(), queryContext.getCroid());
+		}
 		
 		report.setStart(new GregorianCalendar());
 		report.setIfcSchema(queryContext.getPackageMetaData().getSchema());
 		report.setUseMappingOptimization(optimizeMappedItems);
 		report.setReuseGeometry(reuseGeometry);
 
+		JobQueue executor = null;
 		try {
 			final StreamingSerializerPlugin ifcSerializerPlugin = (StreamingSerializerPlugin) bimServer.getPluginManager().getPlugin(pluginName, true);
 			if (ifcSerializerPlugin == null) {
@@ -255,9 +314,8 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 				renderEnginePool.returnObject(engine);
 			}
 			
-			// TODO reuse, pool the pools :) Or something smarter
-			// TODO reuse queue, or try to determine a realistic size, or don't use a fixed-size queue
-			ThreadPoolExecutor executor = new ThreadPoolExecutor(maxSimultanousThreads, maxSimultanousThreads, 24, TimeUnit.HOURS, new ArrayBlockingQueue<Runnable>(10000000));
+			// Threads are shared with the geometry generation of other checkins, this checkin never uses more than maxSimultanousThreads of them
+			executor = bimServer.getGeometryScheduler().createJobQueue("Geometry " + queryContext.getRoid(), maxSimultanousThreads);
 
 			JsonQueryObjectModelConverter jsonQueryObjectModelConverter = new JsonQueryObjectModelConverter(packageMetaData);
 			String queryNameSpace = packageMetaData.getSchema().name().toLowerCase() + "-stdlib";
@@ -327,7 +385,7 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 					QueryObjectProvider queryObjectProvider2 = new QueryObjectProvider(databaseSession, bimServer, query2, Collections.singleton(queryContext.getRoid()), packageMetaData);
 					HashMapVirtualObject next = queryObjectProvider2.next();
 					while (next != null) {
-						if (next.eClass() == eClass) {
+						if (next.eClass() == eClass && shouldGenerate(next.getOid())) {
 							AbstractHashMapVirtualObject representation = next.getDirectFeature(representationFeature);
 							if (representation != null) {
 								Set<HashMapVirtualObject> representations = representation.getDirectListFeature(representationsFeature);
@@ -588,7 +646,7 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 				Set<Long> representationOids = new HashSet<>();
 				while (next != null) {
 					// Not sure why the duplicate code in the next 20 lines
-					if (next.eClass() == eClass && !done.contains(next.getOid()) && !toSkip.contains(next.getOid())) {
+					if (next.eClass() == eClass && !done.contains(next.getOid()) && !toSkip.contains(next.getOid()) && shouldGenerate(next.getOid())) {
 						AbstractHashMapVirtualObject representation = next.getDirectFeature(representationFeature);
 						if (representation != null) {
 							Set<HashMapVirtualObject> list = representation.getDirectListFeature(packageMetaData.getEReference("IfcProductRepresentation", "Representations"));
@@ -629,6 +687,7 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 			executor.shutdown();
 			boolean terminated = executor.awaitTermination(24, TimeUnit.HOURS);
 			LOGGER.info(executor.getCompletedTaskCount() +"/"+executor.getTaskCount()+" jobs executed and " + (terminated ? "shutdown" : "timeout"));
+			LOGGER.info("Render engine pool, " + renderEnginePool.getStats());
 //			LOGGER.info(executor.getCompletedTaskCount() + " jobs executed");
 			
 			// Need total bounds
@@ -638,9 +697,18 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 
 			
 			// TODO, disable?
-			if (true) {
+			Bounds boundsUntransformed = generateGeometryResult.getBoundsUntransformed();
+			if (quantizationBounds != null) {
+				quantizationBoundsExceeded = !contains(quantizationBounds, boundsUntransformed);
+				boundsUntransformed = quantizationBounds;
+				if (quantizationBoundsExceeded) {
+					LOGGER.debug("Generated geometry does not fit in the quantization bounds, dropping " + bufferedDatabaseInterface.size() + " generated objects");
+					bufferedDatabaseInterface.clear();
+				}
+			}
+			if (!quantizationBoundsExceeded) {
 				LOGGER.debug("Generating quantized vertices");
-				double[] quantizationMatrix = createQuantizationMatrixFromBounds(generateGeometryResult.getBoundsUntransformed(), multiplierToMm);
+				double[] quantizationMatrix = createQuantizationMatrixFromBounds(boundsUntransformed, multiplierToMm);
 				for (Long id : geometryDataMap.keySet()) {
 					Tuple<HashMapVirtualObject, ByteBuffer> tuple = geometryDataMap.get(id);
 					
@@ -661,11 +729,31 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 //				}
 					geometryData.saveOverwrite();
 				}
+				if (bufferedDatabaseInterface != null) {
+					LOGGER.debug("Writing " + bufferedDatabaseInterface.size() + " generated objects");
+					bufferedDatabaseInterface.flush();
+				}
+			}
+
+			if (queryContext.getCroid() != -1 && !quantizationBoundsExceeded) {
+				if (previousCroid != -1) {
+					SpatialIndex previousSpatialIndex = SpatialIndex.open(databaseSession, previousCroid);
+					if (previousSpatialIndex != null) {
+						previousSpatialIndex.copyTo(spatialIndexBuilder, notCarriedOver);
+					}
+				}
+				LOGGER.debug("Writing spatial index (" + spatialIndexBuilder.size() + " objects)");
+				spatialIndexBuilder.write(databaseSession, queryContext.getCroid());
+			}
+
+			if (geometryDataIndex != null && !quantizationBoundsExceeded) {
+				LOGGER.debug("Writing geometry data index (" + geometryDataIndex.getNrAdded() + " new entries)");
+				geometryDataIndex.write();
 			}
 
 			long end = System.nanoTime();
-			long total = totalBytes.get() - (bytesSavedByHash.get() + bytesSavedByTransformation.get() + bytesSavedByMapping.get());
-			LOGGER.info("Rendertime: " + Formatters.nanosToString(end - start) + ", " + "Reused (by hash): " + Formatters.bytesToString(bytesSavedByHash.get()) + ", Reused (by transformation): " + Formatters.bytesToString(bytesSavedByTransformation.get()) + ", Reused (by mapping): " + Formatters.bytesToString(bytesSavedByMapping.get()) + ", Total: " + Formatters.bytesToString(totalBytes.get()) + ", Final: " + Formatters.bytesToString(total));
+			long total = totalBytes.get() - (bytesSavedByHash.get() + bytesSavedByEarlierRevisions.get() + bytesSavedByTransformation.get() + bytesSavedByMapping.get());
+			LOGGER.info("Rendertime: " + Formatters.nanosToString(end - start) + ", " + "Reused (by hash): " + Formatters.bytesToString(bytesSavedByHash.get()) + ", Reused (from earlier revisions): " + Formatters.bytesToString(bytesSavedByEarlierRevisions.get()) + ", Reused (by transformation): " + Formatters.bytesToString(bytesSavedByTransformation.get()) + ", Reused (by mapping): " + Formatters.bytesToString(bytesSavedByMapping.get()) + ", Total: " + Formatters.bytesToString(totalBytes.get()) + ", Final: " + Formatters.bytesToString(total));
 			if (report.getNumberOfDebugFiles() > 0) {
 				LOGGER.error("[" + report.getOriginalIfcFileName() + "] Number of erroneous files: " + report.getNumberOfDebugFiles());
 			}
@@ -682,6 +770,9 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 			}
 		} catch (Exception e) {
 			running = false;
+			if (executor != null) {
+				executor.shutdownNow();
+			}
 			LOGGER.error("", e);
 			report.setEnd(new GregorianCalendar());
 			throw new GeometryGeneratingException(e);
@@ -697,6 +788,17 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 		return generateGeometryResult;
 	}
 
+	void addToSpatialIndex(long productOid, HashMapWrappedVirtualObject boundsMm) {
+		HashMapWrappedVirtualObject min = (HashMapWrappedVirtualObject) boundsMm.get("min");
+		HashMapWrappedVirtualObject max = (HashMapWrappedVirtualObject) boundsMm.get("max");
+		spatialIndexBuilder.add(productOid, (double) min.get("x"), (double) min.get("y"), (double) min.get("z"), (double) max.get("x"), (double) max.get("y"), (double) max.get("z"));
+	}
+
+	private boolean contains(Bounds outer, Bounds inner) {
+		return inner.getMin().getX() >= outer.getMin().getX() && inner.getMin().getY() >= outer.getMin().getY() && inner.getMin().getZ() >= outer.getMin().getZ()
+				&& inner.getMax().getX() <= outer.getMax().getX() && inner.getMax().getY() <= outer.getMax().getY() && inner.getMax().getZ() <= outer.getMax().getZ();
+	}
+
 	private double[] createQuantizationMatrixFromBounds(Bounds bounds, float multiplierToMm) {
 		double[] matrix = Matrix.identity();
 		double scale = 32768;
@@ -920,7 +1022,7 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 	}
 
 	private void processQuery(final DatabaseSession databaseSession, QueryContext queryContext, GenerateGeometryResult generateGeometryResult, final StreamingSerializerPlugin ifcSerializerPlugin, final RenderEngineSettings settings,
-			final RenderEngineFilter renderEngineFilter, RenderEnginePool renderEnginePool, ThreadPoolExecutor executor, EClass eClass, Query query, QueryPart queryPart, boolean geometryReused, Map<Long, ProductDef> map, int nrObjects, Set<Long> representationOids) throws QueryException, IOException {
+			final RenderEngineFilter renderEngineFilter, RenderEnginePool renderEnginePool, JobQueue executor, EClass eClass, Query query, QueryPart queryPart, boolean geometryReused, Map<Long, ProductDef> map, int nrObjects, Set<Long> representationOids) throws QueryException, IOException, InterruptedException {
 		JsonQueryObjectModelConverter jsonQueryObjectModelConverter = new JsonQueryObjectModelConverter(packageMetaData);
 		
 		String lowerCasePackage = packageMetaData.getSchema().name().toLowerCase();
@@ -1054,7 +1156,7 @@ public class StreamingGeometryGenerator extends GenericGeometryGenerator {
 	}
 
 	private void processMappingQuery(final DatabaseSession databaseSession, QueryContext queryContext, GenerateGeometryResult generateGeometryResult, final StreamingSerializerPlugin ifcSerializerPlugin, final RenderEngineSettings settings,
-			final RenderEngineFilter renderEngineFilter, RenderEnginePool renderEnginePool, ThreadPoolExecutor executor, EClass eClass, Query query, QueryPart queryPart, boolean geometryReused, Map<Long, ProductDef> map, int nrObjects) throws QueryException, IOException {
+			final RenderEngineFilter renderEngineFilter, RenderEnginePool renderEnginePool, JobQueue executor, EClass eClass, Query query, QueryPart queryPart, boolean geometryReused, Map<Long, ProductDef> map, int nrObjects) throws QueryException, IOException, InterruptedException {
 		JsonQueryObjectModelConverter jsonQueryObjectModelConverter = new JsonQueryObjectModelConverter(packageMetaData);
 		
 		String queryNameSpace = packageMetaData.getSchema().name().toLowerCase() + "-stdlib";
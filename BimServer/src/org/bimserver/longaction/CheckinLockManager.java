@@ -0,0 +1,62 @@
+package org.bimserver.longaction;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.bimserver.BimserverDatabaseException;
+import org.bimserver.database.BimDatabase;
+import org.bimserver.database.DatabaseSession;
+import org.bimserver.database.OldQuery;
+import org.bimserver.database.OperationType;
+import org.bimserver.models.store.Project;
+
+/**
+ * Hands out one lock per top-level project. A checkin of a subproject also
+ * creates a new virtual revision on every parent project and moves their
+ * lastRevision, so two checkins that share an ancestor must not commit at the
+ * same time. Checkins in independent top-level projects still run in parallel.
+ */
+public class CheckinLockManager {
+	private final ConcurrentMap<Long, Lock> locks = new ConcurrentHashMap<>();
+
+	public Lock getLock(BimDatabase database, long poid) throws BimserverDatabaseException {
+		long rootPoid = poid;
+		try (DatabaseSession session = database.createSession(OperationType.READ_ONLY)) {
+			Project project = session.get(poid, OldQuery.getDefault());
+			if (project != null) {
+				while (project.getParent() != null) {
+					project = project.getParent();
+				}
+				rootPoid = project.getOid();
+			}
+		}
+		Lock lock = locks.get(rootPoid);
+		if (lock == null) {
+			Lock newLock = new ReentrantLock();
+			lock = locks.putIfAbsent(rootPoid, newLock);
+			if (lock == null) {
+				lock = newLock;
+			}
+		}
+		return lock;
+	}
+}
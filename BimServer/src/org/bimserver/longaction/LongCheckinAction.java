@@ -17,6 +17,8 @@ package org.bimserver.longaction;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
+import java.util.concurrent.locks.Lock;
+
 import org.bimserver.BimServer;
 import org.bimserver.BimserverDatabaseException;
 import org.bimserver.database.CleanupListener;
@@ -58,7 +60,11 @@ public class LongCheckinAction extends LongAction {
 
 	public void execute() {
 		DatabaseSession session = getBimServer().getDatabase().createSession(OperationType.POSSIBLY_WRITE);
+		Lock checkinLock = null;
 		try {
+			// Checkins that share a parent project all update the parent's virtual revision, so they commit one at a time
+			checkinLock = getBimServer().getCheckinLockManager().getLock(getBimServer().getDatabase(), checkinDatabaseAction.getPoid());
+			checkinLock.lock();
 			checkinDatabaseAction.setDatabaseSession(session);
 			session.setCleanupListener(new CleanupListener() {
 				@Override
@@ -107,6 +113,9 @@ public class LongCheckinAction extends LongAction {
 			}
 			error(e);
 		} finally {
+			if (checkinLock != null) {
+				checkinLock.unlock();
+			}
 			session.close();
 			if (getActionState() != ActionState.AS_ERROR) {
 				changeActionState(ActionState.FINISHED, "Checkin of " + fileName, 100);
@@ -18,6 +18,7 @@ package org.bimserver.longaction;
  *****************************************************************************/
 
 import java.io.IOException;
+import java.util.concurrent.locks.Lock;
 
 import org.bimserver.BimServer;
 import org.bimserver.BimserverDatabaseException;
@@ -68,7 +69,11 @@ public class LongStreamingCheckinAction extends LongAction {
 
 	public void execute() {
 		DatabaseSession session = getBimServer().getDatabase().createSession(OperationType.POSSIBLY_WRITE);
+		Lock checkinLock = null;
 		try {
+			// Checkins that share a parent project all update the parent's virtual revision, so they commit one at a time
+			checkinLock = getBimServer().getCheckinLockManager().getLock(getBimServer().getDatabase(), checkinDatabaseAction.getPoid());
+			checkinLock.lock();
 			checkinDatabaseAction.setDatabaseSession(session);
 			session.executeAndCommitAction(checkinDatabaseAction, new ProgressHandler() {
 				private int count;
@@ -121,6 +126,9 @@ public class LongStreamingCheckinAction extends LongAction {
 			}
 			error(e);
 		} finally {
+			if (checkinLock != null) {
+				checkinLock.unlock();
+			}
 			try {
 				checkinDatabaseAction.close();
 			} catch (IOException e) {
@@ -37,6 +37,7 @@ import java.nio.file.Path;
  *****************************************************************************/
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -148,6 +149,12 @@ public class LongStreamingDownloadAction extends LongAction {
 				Query query = converter.parseJson("query", (ObjectNode) queryObject);
 				
 				downloadDescriptor = new DownloadDescriptor(packageMetaData, jsonQuery, roids, query, serializerOid, this.filename);
+				Set<Long> poids = new HashSet<>();
+				for (Long roid : roids) {
+					Revision revision = databaseSession.get(roid, OldQuery.getDefault());
+					poids.add(revision.getProject().getOid());
+				}
+				downloadDescriptor.setPoids(poids);
 				
 				if (getBimServer().getNewDiskCacheManager().contains(downloadDescriptor)) {
 					// TODO That has already been cecked in preparation?
@@ -69,6 +69,12 @@ public class NewExtendedDataOnRevisionNotification extends Notification {
 		return poid;
 	}
 
+	@Override
+	public boolean canRunConcurrently() {
+		// Triggers services and sends emails, which can take a long time
+		return true;
+	}
+
 	@Override
 	public void process() throws BimserverDatabaseException, UserException, ServerException {
 		DatabaseSession session = getBimServer().getDatabase().createSession(OperationType.READ_ONLY);
@@ -113,6 +113,10 @@ public class NewRevisionNotification extends Notification {
 				LOGGER.error("Project with oid " + poid + " not found");
 				return;
 			}
+			// The parent projects have a new revision as well
+			for (Project current = project; current != null; current = current.getParent()) {
+				getBimServer().getNewDiskCacheManager().invalidateProject(current.getOid());
+			}
 			Revision revision = session.get(StorePackage.eINSTANCE.getRevision(), roid, OldQuery.getDefault());
 			if (revision == null) {
 				LOGGER.error("Revision with roid " + roid + " not found");
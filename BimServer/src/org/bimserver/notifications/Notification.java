@@ -39,6 +39,13 @@ public abstract class Notification implements Runnable {
 	
 	public abstract void process() throws BimserverDatabaseException, UserException, ServerException;
 	
+	/**
+	 * @return Whether this notification can be processed concurrently with other notifications, instead of in the order in which they were queued
+	 */
+	public boolean canRunConcurrently() {
+		return false;
+	}
+	
 	@Override
 	public void run() {
 		try {
@@ -0,0 +1,274 @@
+package org.bimserver.notifications;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bimserver.endpoints.EndPoint;
+import org.bimserver.shared.StreamingSocketInterface;
+import org.bimserver.shared.interfaces.NotificationInterface;
+import org.bimserver.shared.interfaces.RemoteServiceInterface;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends the calls on the {@link NotificationInterface} of endpoints from a pool of threads, with a bounded queue per endpoint, so a slow endpoint only
+ * delays its own notifications. The calls to one endpoint are sent in order, by one thread at a time.
+ *
+ * A progress call replaces a queued progress call for the same topic, only the latest state is sent. When the queue of an endpoint is full, the oldest
+ * queued progress call is dropped, or when there is none, the new call is dropped.
+ */
+public class NotificationDispatcher {
+	private static final Logger LOGGER = LoggerFactory.getLogger(NotificationDispatcher.class);
+	public static final int DEFAULT_MAX_QUEUED_PER_END_POINT = 10000;
+	// After this many calls a queue gives its thread to the queues of other endpoints
+	private static final int MAX_CALLS_PER_RUN = 100;
+	private static final String PROGRESS_METHOD = "progress";
+
+	private final ThreadPoolExecutor executor;
+	private final ConcurrentHashMap<Long, EndPointQueue> queues = new ConcurrentHashMap<>();
+	private final int maxQueuedPerEndPoint;
+	private final AtomicLong droppedCalls = new AtomicLong();
+
+	public NotificationDispatcher(int nrThreads, int maxQueuedPerEndPoint) {
+		this.maxQueuedPerEndPoint = maxQueuedPerEndPoint;
+		this.executor = new ThreadPoolExecutor(nrThreads, nrThreads, 1L, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger counter = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Notification dispatcher " + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * @return An endpoint of which the calls on the notification interface are queued, all other methods are passed on to the given endpoint directly
+	 */
+	public EndPoint wrap(EndPoint endPoint) {
+		return new DispatchingEndPoint(endPoint);
+	}
+
+	public long getDroppedCalls() {
+		return droppedCalls.get();
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private void dispatch(EndPoint endPoint, Method method, Object[] args) {
+		Call call = new Call(method, args, PROGRESS_METHOD.equals(method.getName()) && args != null && args.length > 0 ? args[0] : null);
+		while (true) {
+			EndPointQueue queue = queues.get(endPoint.getEndPointId());
+			if (queue == null) {
+				queue = new EndPointQueue(endPoint);
+				EndPointQueue existing = queues.putIfAbsent(endPoint.getEndPointId(), queue);
+				if (existing != null) {
+					queue = existing;
+				}
+			}
+			if (queue.add(call)) {
+				return;
+			}
+			// The queue was removed because it became empty, try again with a new one
+		}
+	}
+
+	private static class Call {
+		private final Method method;
+		private final Object coalesceKey;
+		private volatile Object[] args;
+
+		public Call(Method method, Object[] args, Object coalesceKey) {
+			this.method = method;
+			this.args = args;
+			this.coalesceKey = coalesceKey;
+		}
+	}
+
+	private class EndPointQueue implements Runnable {
+		private final EndPoint endPoint;
+		private final ArrayDeque<Call> calls = new ArrayDeque<>();
+		// Queued progress calls per topic id
+		private final Map<Object, Call> queuedProgress = new HashMap<>();
+		private boolean scheduled;
+		private boolean removed;
+		private long dropped;
+
+		public EndPointQueue(EndPoint endPoint) {
+			this.endPoint = endPoint;
+		}
+
+		/**
+		 * @return False when this queue has been removed and a new queue has to be used
+		 */
+		public synchronized boolean add(Call call) {
+			if (removed) {
+				return false;
+			}
+			if (call.coalesceKey != null) {
+				Call queued = queuedProgress.get(call.coalesceKey);
+				if (queued != null) {
+					queued.args = call.args;
+					return true;
+				}
+			}
+			if (calls.size() >= maxQueuedPerEndPoint && !dropOldestProgress()) {
+				drop();
+				return true;
+			}
+			calls.add(call);
+			if (call.coalesceKey != null) {
+				queuedProgress.put(call.coalesceKey, call);
+			}
+			if (!scheduled) {
+				scheduled = true;
+				executor.execute(this);
+			}
+			return true;
+		}
+
+		private boolean dropOldestProgress() {
+			Iterator<Call> iterator = calls.iterator();
+			while (iterator.hasNext()) {
+				Call call = iterator.next();
+				if (call.coalesceKey != null) {
+					iterator.remove();
+					queuedProgress.remove(call.coalesceKey);
+					drop();
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private void drop() {
+			droppedCalls.incrementAndGet();
+			if (dropped++ % 1000 == 0) {
+				LOGGER.warn("Notification queue of endpoint " + endPoint.getEndPointId() + " is full, " + dropped + " notifications dropped");
+			}
+		}
+
+		private synchronized Call poll() {
+			Call call = calls.poll();
+			if (call != null && call.coalesceKey != null) {
+				queuedProgress.remove(call.coalesceKey);
+			}
+			return call;
+		}
+
+		@Override
+		public void run() {
+			for (int i = 0; i < MAX_CALLS_PER_RUN; i++) {
+				Call call = poll();
+				if (call == null) {
+					break;
+				}
+				try {
+					call.method.invoke(endPoint.getNotificationInterface(), call.args);
+				} catch (InvocationTargetException e) {
+					LOGGER.error("Error sending " + call.method.getName() + " to endpoint " + endPoint.getEndPointId(), e.getCause());
+				} catch (Exception e) {
+					LOGGER.error("", e);
+				}
+			}
+			synchronized (this) {
+				if (calls.isEmpty()) {
+					// Idle endpoints do not keep a queue, so queues of closed endpoints do not stay around
+					scheduled = false;
+					removed = true;
+					queues.remove(endPoint.getEndPointId(), this);
+				} else {
+					executor.execute(this);
+				}
+			}
+		}
+	}
+
+	private class DispatchingEndPoint implements EndPoint {
+		private final EndPoint endPoint;
+		private final NotificationInterface notificationInterface;
+
+		public DispatchingEndPoint(final EndPoint endPoint) {
+			this.endPoint = endPoint;
+			this.notificationInterface = (NotificationInterface) Proxy.newProxyInstance(NotificationInterface.class.getClassLoader(), new Class<?>[] { NotificationInterface.class }, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if (method.getDeclaringClass() == Object.class) {
+						return method.invoke(endPoint, args);
+					}
+					dispatch(endPoint, method, args);
+					return null;
+				}
+			});
+		}
+
+		@Override
+		public long getEndPointId() {
+			return endPoint.getEndPointId();
+		}
+
+		@Override
+		public NotificationInterface getNotificationInterface() {
+			return notificationInterface;
+		}
+
+		@Override
+		public RemoteServiceInterface getRemoteServiceInterface() {
+			return endPoint.getRemoteServiceInterface();
+		}
+
+		@Override
+		public void cleanup() {
+			endPoint.cleanup();
+		}
+
+		@Override
+		public long getUoid() {
+			return endPoint.getUoid();
+		}
+
+		@Override
+		public String getToken() {
+			return endPoint.getToken();
+		}
+
+		@Override
+		public StreamingSocketInterface getStreamingSocketInterface() {
+			return endPoint.getStreamingSocketInterface();
+		}
+	}
+}
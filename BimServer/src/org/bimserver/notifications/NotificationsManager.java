@@ -18,12 +18,11 @@ package org.bimserver.notifications;
  *****************************************************************************/
 
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.bimserver.BimServer;
 import org.bimserver.client.Channel;
@@ -46,31 +45,33 @@ public class NotificationsManager {
 	private final NewRevisionTopic newRevisionTopic = new NewRevisionTopic(this);
 	private final NewProjectTopic newProjectTopic = new NewProjectTopic(this);
 	private final NewUserTopic newUserTopic = new NewUserTopic(this);
-	private final Map<NewExtendedDataOnRevisionTopicKey, NewExtendedDataOnRevisionTopic> newExtendedDataOnRevisionTopics = Collections.synchronizedMap(new HashMap<NewExtendedDataOnRevisionTopicKey, NewExtendedDataOnRevisionTopic>());
-	private final Map<NewRevisionOnSpecificProjectTopicKey, NewRevisionOnSpecificProjectTopic> newRevisionOnSpecificProjectTopics = Collections.synchronizedMap(new HashMap<NewRevisionOnSpecificProjectTopicKey, NewRevisionOnSpecificProjectTopic>());
+	private final Map<NewExtendedDataOnRevisionTopicKey, NewExtendedDataOnRevisionTopic> newExtendedDataOnRevisionTopics = new ConcurrentHashMap<>();
+	private final Map<NewRevisionOnSpecificProjectTopicKey, NewRevisionOnSpecificProjectTopic> newRevisionOnSpecificProjectTopics = new ConcurrentHashMap<>();
 
 	// These are for keeping track of new/removed progress topics
-	private final Map<ChangeProgressTopicOnProjectTopicKey, ChangeProgressTopicOnProjectTopic> changeProgressTopicOnProjectTopics = Collections.synchronizedMap(new HashMap<ChangeProgressTopicOnProjectTopicKey, ChangeProgressTopicOnProjectTopic>());
-	private final Map<ChangeProgressTopicOnRevisionTopicKey, ChangeProgressTopicOnRevisionTopic> changeProgressTopicOnRevisionTopics = Collections.synchronizedMap(new HashMap<ChangeProgressTopicOnRevisionTopicKey, ChangeProgressTopicOnRevisionTopic>());
+	private final Map<ChangeProgressTopicOnProjectTopicKey, ChangeProgressTopicOnProjectTopic> changeProgressTopicOnProjectTopics = new ConcurrentHashMap<>();
+	private final Map<ChangeProgressTopicOnRevisionTopicKey, ChangeProgressTopicOnRevisionTopic> changeProgressTopicOnRevisionTopics = new ConcurrentHashMap<>();
 	private final ChangeProgressTopicOnServerTopic changeProgressTopicOnServerTopic = new ChangeProgressTopicOnServerTopic(this);
 
 	// All progress topics have an id for easy referencing
-	private final Map<Long, ProgressTopic> progressTopicsById = Collections.synchronizedMap(new HashMap<Long, ProgressTopic>());
+	private final Map<Long, ProgressTopic> progressTopicsById = new ConcurrentHashMap<>();
 	
 	// These are for keeping track of actual progress on projects/revisions
-	private final Map<ProgressOnRevisionTopicKey, Set<ProgressOnRevisionTopic>> progressOnRevisionTopics = Collections.synchronizedMap(new HashMap<ProgressOnRevisionTopicKey, Set<ProgressOnRevisionTopic>>());
-	private final Map<ProgressOnProjectTopicKey, Set<ProgressOnProjectTopic>> progressOnProjectTopics = Collections.synchronizedMap(new HashMap<ProgressOnProjectTopicKey, Set<ProgressOnProjectTopic>>());
+	private final Map<ProgressOnRevisionTopicKey, Set<ProgressOnRevisionTopic>> progressOnRevisionTopics = new ConcurrentHashMap<>();
+	private final Map<ProgressOnProjectTopicKey, Set<ProgressOnProjectTopic>> progressOnProjectTopics = new ConcurrentHashMap<>();
 
 	private final JsonSocketReflectorFactory jsonSocketReflectorFactory;
 	private final BimServer bimServer;
 	private String url;
 	private final NotificationsProcessor notificationsProcessor;
+	private final NotificationDispatcher dispatcher;
 
 	public NotificationsManager(BimServer bimServer, JsonSocketReflectorFactory jsonSocketReflectorFactory) {
 		this.jsonSocketReflectorFactory = jsonSocketReflectorFactory;
 		this.bimServer = bimServer;
 		notificationsProcessor = new NotificationsProcessor(bimServer);
 		notificationsProcessor.start();
+		dispatcher = new NotificationDispatcher(Math.max(4, Runtime.getRuntime().availableProcessors() * 2), NotificationDispatcher.DEFAULT_MAX_QUEUED_PER_END_POINT);
 	}
 	
 	public BimServer getBimServer() {
@@ -86,7 +87,14 @@ public class NotificationsManager {
 	}
 
 	public void addToQueue(Notification notification) {
-		notificationsProcessor.queue(notification);
+		if (notification instanceof ProgressNotification && !((ProgressNotification) notification).stage()) {
+			// An already queued notification will send the latest progress of this topic
+			return;
+		}
+		if (!notificationsProcessor.queue(notification) && notification instanceof ProgressNotification) {
+			// Otherwise no progress notification would be queued for this topic anymore
+			((ProgressNotification) notification).unstage();
+		}
 	}
 	
 	public void init() {
@@ -114,8 +122,13 @@ public class NotificationsManager {
 		}
 	}
 	
+	public NotificationDispatcher getDispatcher() {
+		return dispatcher;
+	}
+
 	public void shutdown() {
 		notificationsProcessor.termintate();
+		dispatcher.shutdown();
 	}
 
 	public NewRevisionTopic getNewRevisionTopic() {
@@ -131,17 +144,27 @@ public class NotificationsManager {
 	}
 	
 	public NewExtendedDataOnRevisionTopic getOrCreateNewExtendedDataOnRevisionTopic(NewExtendedDataOnRevisionTopicKey key) {
-		if (!newExtendedDataOnRevisionTopics.containsKey(key)) {
-			newExtendedDataOnRevisionTopics.put(key, new NewExtendedDataOnRevisionTopic(this, key));
+		NewExtendedDataOnRevisionTopic topic = newExtendedDataOnRevisionTopics.get(key);
+		if (topic == null) {
+			topic = new NewExtendedDataOnRevisionTopic(this, key);
+			NewExtendedDataOnRevisionTopic existing = newExtendedDataOnRevisionTopics.putIfAbsent(key, topic);
+			if (existing != null) {
+				topic = existing;
+			}
 		}
-		return newExtendedDataOnRevisionTopics.get(key);
+		return topic;
 	}
 	
 	public NewRevisionOnSpecificProjectTopic getOrCreateNewRevisionOnSpecificProjectTopic(NewRevisionOnSpecificProjectTopicKey key) {
-		if (!newRevisionOnSpecificProjectTopics.containsKey(key)) {
-			newRevisionOnSpecificProjectTopics.put(key, new NewRevisionOnSpecificProjectTopic(this, key));
+		NewRevisionOnSpecificProjectTopic topic = newRevisionOnSpecificProjectTopics.get(key);
+		if (topic == null) {
+			topic = new NewRevisionOnSpecificProjectTopic(this, key);
+			NewRevisionOnSpecificProjectTopic existing = newRevisionOnSpecificProjectTopics.putIfAbsent(key, topic);
+			if (existing != null) {
+				topic = existing;
+			}
 		}
-		return newRevisionOnSpecificProjectTopics.get(key);
+		return topic;
 	}
 
 	public ProgressTopic getProgressTopic(long topicId) {
@@ -186,12 +209,10 @@ public class NotificationsManager {
 
 	public ProgressOnProjectTopic createProgressOnProjectTopic(long uoid, long poid, SProgressTopicType type, String description) {
 		ProgressOnProjectTopicKey key = new ProgressOnProjectTopicKey(poid);
-		Set<ProgressOnProjectTopic> topics = null;
-		if (progressOnProjectTopics.containsKey(key)) {
-			topics = progressOnProjectTopics.get(key);
-		} else {
-			topics = new HashSet<ProgressOnProjectTopic>();
-			progressOnProjectTopics.put(key, topics);
+		Set<ProgressOnProjectTopic> topics = ConcurrentHashMap.newKeySet();
+		Set<ProgressOnProjectTopic> existing = progressOnProjectTopics.putIfAbsent(key, topics);
+		if (existing != null) {
+			topics = existing;
 		}
 		ProgressOnProjectTopic topic = new ProgressOnProjectTopic(this, key, poid, type, description);
 		progressTopicsById.put(key.getId(), topic);
@@ -202,12 +223,10 @@ public class NotificationsManager {
 
 	public ProgressOnRevisionTopic createProgressOnRevisionTopic(long poid, long roid, SProgressTopicType type, String description) {
 		ProgressOnRevisionTopicKey key = new ProgressOnRevisionTopicKey(poid, roid);
-		Set<ProgressOnRevisionTopic> topics = null;
-		if (progressOnRevisionTopics.containsKey(key)) {
-			topics = progressOnRevisionTopics.get(key);
-		} else {
-			topics = new HashSet<ProgressOnRevisionTopic>();
-			progressOnRevisionTopics.put(key, topics);
+		Set<ProgressOnRevisionTopic> topics = ConcurrentHashMap.newKeySet();
+		Set<ProgressOnRevisionTopic> existing = progressOnRevisionTopics.putIfAbsent(key, topics);
+		if (existing != null) {
+			topics = existing;
 		}
 		ProgressOnRevisionTopic topic = new ProgressOnRevisionTopic(this, key, poid, roid, type, description);
 		progressTopicsById.put(key.getId(), topic);
@@ -247,7 +266,10 @@ public class NotificationsManager {
 		ChangeProgressTopicOnProjectTopic topic = changeProgressTopicOnProjectTopics.get(key);
 		if (topic == null) {
 			topic = new ChangeProgressTopicOnProjectTopic(this, key);
-			changeProgressTopicOnProjectTopics.put(key, topic);
+			ChangeProgressTopicOnProjectTopic existing = changeProgressTopicOnProjectTopics.putIfAbsent(key, topic);
+			if (existing != null) {
+				topic = existing;
+			}
 		}
 		return topic;
 	}
@@ -261,7 +283,10 @@ public class NotificationsManager {
 		ChangeProgressTopicOnRevisionTopic topic = changeProgressTopicOnRevisionTopics.get(key);
 		if (topic == null) {
 			topic = new ChangeProgressTopicOnRevisionTopic(this, key);
-			changeProgressTopicOnRevisionTopics.put(key, topic);
+			ChangeProgressTopicOnRevisionTopic existing = changeProgressTopicOnRevisionTopics.putIfAbsent(key, topic);
+			if (existing != null) {
+				topic = existing;
+			}
 		}
 		return topic;
 	}
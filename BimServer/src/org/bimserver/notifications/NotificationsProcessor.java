@@ -17,42 +17,105 @@ package org.bimserver.notifications;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
-import java.util.concurrent.LinkedBlockingQueue;
-
-import org.bimserver.BimServer;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bimserver.BimServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-public class NotificationsProcessor extends Thread {
+/**
+ * Processes queued notifications. Notifications are processed in order by one thread, except for the notifications that can run concurrently (see
+ * {@link Notification#canRunConcurrently()}), those are processed by a pool of threads.
+ * 
+ * Both queues are bounded, when a queue is full, queue() waits for at most a second before the notification is dropped.
+ */
+public class NotificationsProcessor {
 	private static final Logger LOGGER = LoggerFactory.getLogger(NotificationsProcessor.class);
-	private final LinkedBlockingQueue<Notification> queue = new LinkedBlockingQueue<>(1000000);
+	private static final int MAX_QUEUED = 100000;
+	private static final long OFFER_TIMEOUT_MILLIS = 1000;
+	private final LinkedBlockingQueue<Notification> queue = new LinkedBlockingQueue<>(MAX_QUEUED);
+	private final ThreadPoolExecutor concurrentExecutor;
+	private final Thread thread;
 	private volatile boolean running = true;
 
-	public NotificationsProcessor(BimServer bimServer) {
-		setName("Notifications processor");
-	}
+	public NotificationsProcessor(BimServer bimServer) {
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (running) {
+						queue.take().run();
+					}
+				} catch (InterruptedException e) {
+					if (running) {
+						LOGGER.error("Unexpected interruption");
+					}
+				}
+			}
+		}, "Notifications processor");
+		int nrThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+		concurrentExecutor = new ThreadPoolExecutor(nrThreads, nrThreads, 1L, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(MAX_QUEUED), new ThreadFactory() {
+			private final AtomicInteger counter = new AtomicInteger();
 
-	@Override
-	public void run() {
-		try {
-			while (running) {
-				queue.take().run();
+			@Override
+			public Thread newThread(Runnable runnable) {
+				return new Thread(runnable, "Notifications processor " + counter.incrementAndGet());
 			}
-		} catch (InterruptedException e) {
-			if (running) {
-				LOGGER.error("Unexpected interruption");
+		}, new RejectedExecutionHandler() {
+			@Override
+			public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+				// The queue is full (or the executor has been shut down), wait for space like the ordered queue does
+				try {
+					if (!executor.isShutdown() && executor.getQueue().offer(runnable, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+						return;
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				throw new RejectedExecutionException();
 			}
-		}
+		});
+		concurrentExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	public void start() {
+		thread.start();
 	}
 
 	public void termintate() {
 		running = false;
-		interrupt();
+		thread.interrupt();
+		concurrentExecutor.shutdownNow();
 	}
 
-	public void queue(Notification notification) {
-		if (!queue.offer(notification)) {
-			LOGGER.error("Notification queue is full!");
+	/**
+	 * @return Whether the notification has been queued, false when it has been dropped
+	 */
+	public boolean queue(Notification notification) {
+		if (notification.canRunConcurrently()) {
+			try {
+				concurrentExecutor.execute(notification);
+				return true;
+			} catch (RejectedExecutionException e) {
+				LOGGER.error("Notification queue is full, dropping " + notification.getClass().getSimpleName());
+				return false;
+			}
+		}
+		try {
+			if (queue.offer(notification, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+				return true;
+			}
+			LOGGER.error("Notification queue is full, dropping " + notification.getClass().getSimpleName());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOGGER.error("Interrupted while queueing " + notification.getClass().getSimpleName());
 		}
+		return false;
 	}
 }
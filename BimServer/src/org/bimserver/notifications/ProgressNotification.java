@@ -31,8 +31,22 @@ public class ProgressNotification extends Notification {
 		this.state = state;
 	}
 
+	/**
+	 * @return False when a notification for the same topic is already queued, that notification will send this state
+	 */
+	public boolean stage() {
+		return topic.setPendingProgress(state);
+	}
+
+	/**
+	 * Called when this notification could not be queued
+	 */
+	public void unstage() {
+		topic.clearPendingProgress();
+	}
+
 	@Override
 	public void process() {
-		topic.updateProgress(state);
+		topic.processPendingProgress();
 	}
 }
\ No newline at end of file
@@ -17,6 +17,8 @@ package org.bimserver.notifications;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.bimserver.BimserverDatabaseException;
 import org.bimserver.endpoints.EndPoint;
 import org.bimserver.interfaces.SConverter;
@@ -37,6 +39,8 @@ public class ProgressTopic extends Topic {
 	private ProgressTopicKey key;
 	private volatile LongActionState lastProgress;
 	private long lastSent = -1;
+	// The latest state that has not been processed yet, only one notification per topic is queued at a time
+	private final AtomicReference<LongActionState> pendingProgress = new AtomicReference<>();
 
 	public ProgressTopic(NotificationsManager notificationsManager, ProgressTopicKey key, SProgressTopicType type, String description) {
 		super(notificationsManager);
@@ -86,6 +90,24 @@ public class ProgressTopic extends Topic {
 		}
 	}
 
+	/**
+	 * @return Whether a notification has to be queued for the given state
+	 */
+	boolean setPendingProgress(LongActionState state) {
+		return pendingProgress.getAndSet(state) == null;
+	}
+
+	void clearPendingProgress() {
+		pendingProgress.set(null);
+	}
+
+	void processPendingProgress() {
+		LongActionState state = pendingProgress.getAndSet(null);
+		if (state != null) {
+			updateProgress(state);
+		}
+	}
+
 	public LongActionState getLastProgress() {
 		return lastProgress;
 	}
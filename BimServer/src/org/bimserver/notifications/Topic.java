@@ -38,8 +38,10 @@ public abstract class Topic {
 	}
 
 	public synchronized void map(Mapper mapper) throws UserException, ServerException, BimserverDatabaseException {
+		NotificationDispatcher dispatcher = notificationsManager.getDispatcher();
 		for (EndPoint endPoint : endPoints) {
-			mapper.map(endPoint);
+			// Calls on the notification interface are queued per endpoint, so a slow endpoint does not delay the others
+			mapper.map(dispatcher.wrap(endPoint));
 		}
 	}
 	
@@ -17,12 +17,14 @@ package org.bimserver.pb.server;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
-import java.io.EOFException;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.Socket;
-import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
 
 import org.bimserver.models.log.AccessMethod;
 import org.bimserver.shared.exceptions.UserException;
@@ -41,82 +43,210 @@ import com.google.protobuf.DynamicMessage;
 import com.google.protobuf.DynamicMessage.Builder;
 import com.google.protobuf.Message;
 
-public class ProtocolBuffersConnectionHandler extends Thread {
+/**
+ * One connection of the {@link ProtocolBuffersServer}. Reading and writing is done by the selector thread of the server, a request is a service name,
+ * a method name and a token (all written with DataOutput.writeUTF) followed by a delimited message. Complete requests are queued and executed in order
+ * by at most one worker thread at a time.
+ */
+public class ProtocolBuffersConnectionHandler implements Runnable {
 	private static final Logger LOGGER = LoggerFactory.getLogger(ProtocolBuffersConnectionHandler.class);
-	private OutputStream outputStream;
-	private DataInputStream dataInputStream;
+	// When this many requests are waiting, no more data is read from the connection until some have been executed
+	private static final int MAX_PIPELINED_REQUESTS = 32;
+	private static final int INITIAL_BUFFER_SIZE = 8192;
+	private static final int MAX_REQUEST_SIZE = 64 * 1024 * 1024;
 	private final ProtocolBuffersServer protocolBuffersServer;
 	private final SServicesMap servicesMap;
-	private PublicInterfaceFactory serviceFactory;
-	private volatile boolean running;
-	private Socket socket;
+	private final PublicInterfaceFactory serviceFactory;
+	private final SocketChannel socketChannel;
+	private final SelectionKey key;
+	private final ArrayDeque<byte[]> requests = new ArrayDeque<>();
+	private final ArrayDeque<ByteBuffer> responses = new ArrayDeque<>();
+	private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+	private boolean processing;
+	private volatile boolean running = true;
 
-	public ProtocolBuffersConnectionHandler(Socket socket, ProtocolBuffersServer protocolBuffersServer, PublicInterfaceFactory serviceFactory, SServicesMap servicesMap) {
-		this.socket = socket;
+	public ProtocolBuffersConnectionHandler(SocketChannel socketChannel, SelectionKey key, ProtocolBuffersServer protocolBuffersServer, PublicInterfaceFactory serviceFactory, SServicesMap servicesMap) {
+		this.socketChannel = socketChannel;
+		this.key = key;
 		this.protocolBuffersServer = protocolBuffersServer;
 		this.serviceFactory = serviceFactory;
 		this.servicesMap = servicesMap;
-		setName("ProtocolBuffersConnectionHandler");
-		try {
-			dataInputStream = new DataInputStream(socket.getInputStream());
-			outputStream = socket.getOutputStream();
-		} catch (IOException e) {
-			LOGGER.error("", e);
+	}
+
+	/**
+	 * Called by the selector thread when data is available
+	 */
+	void read() throws IOException {
+		if (socketChannel.read(readBuffer) == -1) {
+			close();
+			return;
+		}
+		readBuffer.flip();
+		int requestLength = getRequestLength(readBuffer);
+		while (requestLength != -1) {
+			byte[] request = new byte[requestLength];
+			readBuffer.get(request);
+			queue(request);
+			requestLength = getRequestLength(readBuffer);
+		}
+		readBuffer.compact();
+		if (!readBuffer.hasRemaining()) {
+			// The buffer is full and does not contain a complete request
+			if (readBuffer.capacity() >= MAX_REQUEST_SIZE) {
+				throw new IOException("Request larger than " + MAX_REQUEST_SIZE + " bytes");
+			}
+			ByteBuffer newBuffer = ByteBuffer.allocate(Math.min(MAX_REQUEST_SIZE, readBuffer.capacity() * 2));
+			readBuffer.flip();
+			newBuffer.put(readBuffer);
+			readBuffer = newBuffer;
+		}
+		updateInterestOps();
+	}
+
+	/**
+	 * Called by the selector thread, writes as much of the queued responses as the socket accepts
+	 */
+	void write() throws IOException {
+		synchronized (this) {
+			while (!responses.isEmpty()) {
+				ByteBuffer response = responses.peek();
+				socketChannel.write(response);
+				if (response.hasRemaining()) {
+					break;
+				}
+				responses.poll();
+			}
+		}
+		updateInterestOps();
+	}
+
+	private void updateInterestOps() {
+		int interestOps = 0;
+		synchronized (this) {
+			if (requests.size() < MAX_PIPELINED_REQUESTS) {
+				interestOps |= SelectionKey.OP_READ;
+			}
+			if (!responses.isEmpty()) {
+				interestOps |= SelectionKey.OP_WRITE;
+			}
+		}
+		if (key.isValid()) {
+			key.interestOps(interestOps);
+		}
+	}
+
+	/**
+	 * @return The length of the first request in the buffer (starting at its position), or -1 when the request has not been read completely
+	 */
+	private int getRequestLength(ByteBuffer buffer) throws IOException {
+		int offset = buffer.position();
+		// Service name, method name and token
+		for (int i = 0; i < 3; i++) {
+			if (buffer.limit() - offset < 2) {
+				return -1;
+			}
+			offset += 2 + (((buffer.get(offset) & 0xFF) << 8) | (buffer.get(offset + 1) & 0xFF));
+		}
+		// The varint length of the delimited message
+		int messageLength = 0;
+		for (int shift = 0;; shift += 7) {
+			if (offset >= buffer.limit()) {
+				return -1;
+			}
+			if (shift > 28) {
+				throw new IOException("Malformed message length");
+			}
+			byte b = buffer.get(offset++);
+			messageLength |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				break;
+			}
+		}
+		long requestLength = (long) offset + messageLength - buffer.position();
+		if (messageLength < 0 || requestLength > MAX_REQUEST_SIZE) {
+			throw new IOException("Request larger than " + MAX_REQUEST_SIZE + " bytes");
+		}
+		if (offset + messageLength > buffer.limit()) {
+			return -1;
+		}
+		return (int) requestLength;
+	}
+
+	private synchronized void queue(byte[] request) {
+		requests.add(request);
+		if (!processing) {
+			processing = true;
+			protocolBuffersServer.execute(this);
 		}
 	}
 
 	@Override
 	public void run() {
-		try {
-			running = true;
-			while (running) {
-				String serviceName = dataInputStream.readUTF();
-				String methodName = dataInputStream.readUTF();
-				String token = dataInputStream.readUTF();
-				ProtocolBuffersMetaData protocolBuffersMetaData = protocolBuffersServer.getProtocolBuffersMetaData();
-				
-				SService sService = servicesMap.getBySimpleName(serviceName);
-				if (sService == null) {
-					throw new UserException("No service found with name " + serviceName);
+		while (running) {
+			byte[] request;
+			synchronized (this) {
+				request = requests.poll();
+				if (request == null) {
+					processing = false;
+					return;
 				}
-				SMethod method = sService.getSMethod(methodName);
-				if (method == null) {
-					throw new UserException("Method " + methodName + " not found on " + serviceName);
+			}
+			try {
+				byte[] response = handle(request);
+				synchronized (this) {
+					responses.add(ByteBuffer.wrap(response));
 				}
-				
-				Class<? extends PublicInterface> clazz = sService.getInterfaceClass();
-				PublicInterface service = null;
-				if (token.equals("")) {
-					service = serviceFactory.get(AccessMethod.PROTOCOL_BUFFERS).get(clazz);
-				} else {
-					service = serviceFactory.get(token, AccessMethod.PROTOCOL_BUFFERS).get(clazz);
+				protocolBuffersServer.interestChanged(this);
+			} catch (Exception e) {
+				if (running) {
+					LOGGER.error("", e);
 				}
-
-				ReflectiveRpcChannel reflectiveRpcChannel = new ReflectiveRpcChannel(clazz, service, protocolBuffersMetaData, servicesMap);
-				MethodDescriptorContainer pbMethod = protocolBuffersMetaData.getMethod(serviceName, methodName);
-				Builder requestBuilder = DynamicMessage.getDefaultInstance(pbMethod.getInputDescriptor()).newBuilderForType();
-				requestBuilder.mergeDelimitedFrom(dataInputStream);
-				Message response = reflectiveRpcChannel.callBlockingMethod(pbMethod, requestBuilder.build());
-				response.writeDelimitedTo(outputStream);
-				outputStream.flush();
-			}
-		} catch (SocketException e) {
-		} catch (EOFException e) {
-		} catch (Exception e) {
-			if (running) {
-				LOGGER.error("", e);
+				close();
 			}
 		}
-		protocolBuffersServer.unregister(this);
+	}
+
+	private byte[] handle(byte[] request) throws Exception {
+		DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(request));
+		String serviceName = dataInputStream.readUTF();
+		String methodName = dataInputStream.readUTF();
+		String token = dataInputStream.readUTF();
+		ProtocolBuffersMetaData protocolBuffersMetaData = protocolBuffersServer.getProtocolBuffersMetaData();
+		
+		SService sService = servicesMap.getBySimpleName(serviceName);
+		if (sService == null) {
+			throw new UserException("No service found with name " + serviceName);
+		}
+		SMethod method = sService.getSMethod(methodName);
+		if (method == null) {
+			throw new UserException("Method " + methodName + " not found on " + serviceName);
+		}
+		
+		Class<? extends PublicInterface> clazz = sService.getInterfaceClass();
+		PublicInterface service = null;
+		if (token.equals("")) {
+			service = serviceFactory.get(AccessMethod.PROTOCOL_BUFFERS).get(clazz);
+		} else {
+			service = serviceFactory.get(token, AccessMethod.PROTOCOL_BUFFERS).get(clazz);
+		}
+
+		ReflectiveRpcChannel reflectiveRpcChannel = new ReflectiveRpcChannel(clazz, service, protocolBuffersMetaData, servicesMap);
+		MethodDescriptorContainer pbMethod = protocolBuffersMetaData.getMethod(serviceName, methodName);
+		Builder requestBuilder = DynamicMessage.getDefaultInstance(pbMethod.getInputDescriptor()).newBuilderForType();
+		requestBuilder.mergeDelimitedFrom(dataInputStream);
+		Message response = reflectiveRpcChannel.callBlockingMethod(pbMethod, requestBuilder.build());
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		response.writeDelimitedTo(outputStream);
+		return outputStream.toByteArray();
 	}
 
 	public void close() {
 		running = false;
 		try {
-			socket.close();
+			socketChannel.close();
 		} catch (IOException e) {
 			LOGGER.error("", e);
 		}
-		interrupt();
+		protocolBuffersServer.unregister(this);
 	}
 }
\ No newline at end of file
@@ -18,10 +18,21 @@ package org.bimserver.pb.server;
  *****************************************************************************/
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.HashSet;
+import java.net.InetSocketAddress;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bimserver.shared.meta.SServicesMap;
 import org.bimserver.shared.pb.ProtocolBuffersMetaData;
@@ -30,42 +41,144 @@ import org.bimserver.webservices.PublicInterfaceFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Non-blocking protocol buffers server. This thread only accepts connections and reads and writes bytes, complete requests are executed by a bounded
+ * pool of worker threads, so the number of threads does not grow with the number of connections.
+ * 
+ * Clients can send new requests before the responses of earlier requests have been received. The requests of one connection are executed in order
+ * and the responses are sent in the same order.
+ */
 public class ProtocolBuffersServer extends Thread {
 	private static final Logger LOGGER = LoggerFactory.getLogger(ProtocolBuffersServer.class);
 	private volatile boolean running;
-	private final Set<ProtocolBuffersConnectionHandler> activeHandlers = new HashSet<ProtocolBuffersConnectionHandler>();
+	private final Set<ProtocolBuffersConnectionHandler> activeHandlers = ConcurrentHashMap.newKeySet();
 	private final ProtocolBuffersMetaData protocolBuffersMetaData;
 	private final int port;
-	private ServerSocket serverSocket;
 	private final SServicesMap servicesMap;
 	private final PublicInterfaceFactory publicInterfaceFactory;
+	private final ThreadPoolExecutor executor;
+	// Connections of which the interest ops have to be updated by the selector thread
+	private final ConcurrentLinkedQueue<ProtocolBuffersConnectionHandler> interestChanges = new ConcurrentLinkedQueue<>();
+	private volatile Selector selector;
+	private ServerSocketChannel serverSocketChannel;
 
 	public ProtocolBuffersServer(ProtocolBuffersMetaData protocolBuffersMetaData, PublicInterfaceFactory publicInterfaceFactory, SServicesMap servicesMap, int port) {
+		this(protocolBuffersMetaData, publicInterfaceFactory, servicesMap, port, Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+	}
+
+	public ProtocolBuffersServer(ProtocolBuffersMetaData protocolBuffersMetaData, PublicInterfaceFactory publicInterfaceFactory, SServicesMap servicesMap, int port, int nrWorkerThreads) {
 		this.publicInterfaceFactory = publicInterfaceFactory;
 		setName("ProtocolBuffersServer");
 		this.servicesMap = servicesMap;
 		this.protocolBuffersMetaData = protocolBuffersMetaData;
 		this.port = port;
+		this.executor = new ThreadPoolExecutor(nrWorkerThreads, nrWorkerThreads, 1L, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger counter = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				return new Thread(runnable, "ProtocolBuffersWorker " + counter.incrementAndGet());
+			}
+		});
+		this.executor.allowCoreThreadTimeOut(true);
 	}
 
 	@Override
 	public void run() {
 		running = true;
 		try {
-			serverSocket = new ServerSocket(port);
+			selector = Selector.open();
+			serverSocketChannel = ServerSocketChannel.open();
+			serverSocketChannel.bind(new InetSocketAddress(port));
+			serverSocketChannel.configureBlocking(false);
+			serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
 			while (running) {
-				Socket socket = serverSocket.accept();
-				ProtocolBuffersConnectionHandler protocolBuffersConnectionHandler = new ProtocolBuffersConnectionHandler(socket, this, publicInterfaceFactory, servicesMap);
-				activeHandlers.add(protocolBuffersConnectionHandler);
-				protocolBuffersConnectionHandler.start();
+				selector.select();
+				processInterestChanges();
+				Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+				while (iterator.hasNext()) {
+					SelectionKey key = iterator.next();
+					iterator.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+					} else {
+						ProtocolBuffersConnectionHandler protocolBuffersConnectionHandler = (ProtocolBuffersConnectionHandler) key.attachment();
+						try {
+							if (key.isReadable()) {
+								protocolBuffersConnectionHandler.read();
+							}
+							if (key.isValid() && key.isWritable()) {
+								protocolBuffersConnectionHandler.write();
+							}
+						} catch (IOException e) {
+							protocolBuffersConnectionHandler.close();
+						} catch (CancelledKeyException e) {
+							// Closed by a worker thread
+						}
+					}
+				}
 			}
 		} catch (IOException e) {
 			if (running) {
 				LOGGER.error("", e);
 			}
+		} finally {
+			try {
+				if (selector != null) {
+					selector.close();
+				}
+			} catch (IOException e) {
+				LOGGER.error("", e);
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel socketChannel = serverSocketChannel.accept();
+		if (socketChannel == null) {
+			return;
+		}
+		socketChannel.configureBlocking(false);
+		socketChannel.socket().setTcpNoDelay(true);
+		SelectionKey key = socketChannel.register(selector, SelectionKey.OP_READ);
+		ProtocolBuffersConnectionHandler protocolBuffersConnectionHandler = new ProtocolBuffersConnectionHandler(socketChannel, key, this, publicInterfaceFactory, servicesMap);
+		key.attach(protocolBuffersConnectionHandler);
+		activeHandlers.add(protocolBuffersConnectionHandler);
+	}
+
+	private void processInterestChanges() {
+		ProtocolBuffersConnectionHandler protocolBuffersConnectionHandler = interestChanges.poll();
+		while (protocolBuffersConnectionHandler != null) {
+			try {
+				// Most responses fit in the socket buffer, so try to write right away
+				protocolBuffersConnectionHandler.write();
+			} catch (IOException e) {
+				protocolBuffersConnectionHandler.close();
+			} catch (CancelledKeyException e) {
+				// Already closed
+			}
+			protocolBuffersConnectionHandler = interestChanges.poll();
+		}
+	}
+
+	/**
+	 * Called by worker threads when a connection has new responses, or can accept more requests
+	 */
+	void interestChanged(ProtocolBuffersConnectionHandler protocolBuffersConnectionHandler) {
+		interestChanges.add(protocolBuffersConnectionHandler);
+		Selector selector = this.selector;
+		if (selector != null) {
+			selector.wakeup();
 		}
 	}
 
+	void execute(Runnable runnable) {
+		executor.execute(runnable);
+	}
+
 	public ProtocolBuffersMetaData getProtocolBuffersMetaData() {
 		return protocolBuffersMetaData;
 	}
@@ -77,14 +190,20 @@ public class ProtocolBuffersServer extends Thread {
 	public void shutdown() {
 		running = false;
 		try {
-			serverSocket.close();
+			if (serverSocketChannel != null) {
+				serverSocketChannel.close();
+			}
 		} catch (IOException e) {
 			LOGGER.error("", e);
 		}
 		for (ProtocolBuffersConnectionHandler protocolBuffersConnectionHandler : activeHandlers) {
 			protocolBuffersConnectionHandler.close();
 		}
-		this.interrupt();
+		executor.shutdownNow();
+		Selector selector = this.selector;
+		if (selector != null) {
+			selector.wakeup();
+		}
 	}
 
 	public void unregister(ProtocolBuffersConnectionHandler protocolBuffersConnectionHandler) {
@@ -17,12 +17,19 @@ package org.bimserver.renderengine;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.bimserver.plugins.renderengine.RenderEngine;
 import org.bimserver.plugins.renderengine.RenderEngineException;
 
 public class NoPoolingRenderEnginePool implements RenderEnginePool {
 
 	private RenderEngineFactory renderEngineFactory;
+	private final AtomicLong nrBorrows = new AtomicLong();
+	private final AtomicLong totalBorrowWaitNanos = new AtomicLong();
+	private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+	private final AtomicInteger nrActive = new AtomicInteger();
 
 	public NoPoolingRenderEnginePool(RenderEngineFactory renderEngineFactory) {
 		this.renderEngineFactory = renderEngineFactory;
@@ -30,18 +37,34 @@ public class NoPoolingRenderEnginePool implements RenderEnginePool {
 	
 	@Override
 	public RenderEngine borrowObject() throws RenderEngineException {
+		long start = System.nanoTime();
 		RenderEngine createRenderEngine = renderEngineFactory.createRenderEngine();
 		createRenderEngine.init();
+		long waited = System.nanoTime() - start;
+		nrBorrows.incrementAndGet();
+		totalBorrowWaitNanos.addAndGet(waited);
+		maxBorrowWaitNanos.accumulateAndGet(waited, Math::max);
+		nrActive.incrementAndGet();
 		return createRenderEngine;
 	}
 
 	@Override
 	public void returnObject(RenderEngine renderEngine) throws RenderEngineException {
+		nrActive.decrementAndGet();
 		renderEngine.close();
 	}
 
 	@Override
 	public RenderEngineFactory getRenderEngineFactory() {
 		return renderEngineFactory;
+	}
+
+	@Override
+	public RenderEnginePoolStats getStats() {
+		return new RenderEnginePoolStats(nrBorrows.get(), totalBorrowWaitNanos.get(), maxBorrowWaitNanos.get(), nrActive.get(), 0, nrBorrows.get(), nrBorrows.get() - nrActive.get());
+	}
+
+	@Override
+	public void close() {
 	}
 }
\ No newline at end of file
@@ -27,4 +27,11 @@ public interface RenderEnginePool  {
 	RenderEngine borrowObject() throws RenderEngineException;
 
 	void returnObject(RenderEngine renderEngine) throws RenderEngineException;
+
+	RenderEnginePoolStats getStats();
+
+	/**
+	 * Closes all idle render engines, engines that are in use are closed when they are returned
+	 */
+	void close();
 }
\ No newline at end of file
@@ -0,0 +1,78 @@
+package org.bimserver.renderengine;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+public class RenderEnginePoolStats {
+	private final long nrBorrows;
+	private final long totalBorrowWaitNanos;
+	private final long maxBorrowWaitNanos;
+	private final int nrActive;
+	private final int nrIdle;
+	private final long nrCreated;
+	private final long nrDestroyed;
+
+	public RenderEnginePoolStats(long nrBorrows, long totalBorrowWaitNanos, long maxBorrowWaitNanos, int nrActive, int nrIdle, long nrCreated, long nrDestroyed) {
+		this.nrBorrows = nrBorrows;
+		this.totalBorrowWaitNanos = totalBorrowWaitNanos;
+		this.maxBorrowWaitNanos = maxBorrowWaitNanos;
+		this.nrActive = nrActive;
+		this.nrIdle = nrIdle;
+		this.nrCreated = nrCreated;
+		this.nrDestroyed = nrDestroyed;
+	}
+
+	public long getNrBorrows() {
+		return nrBorrows;
+	}
+
+	/**
+	 * @return The total time callers of borrowObject have waited, including the time it took to start render engines when none was available
+	 */
+	public long getTotalBorrowWaitNanos() {
+		return totalBorrowWaitNanos;
+	}
+
+	public long getAverageBorrowWaitNanos() {
+		return nrBorrows == 0 ? 0 : totalBorrowWaitNanos / nrBorrows;
+	}
+
+	public long getMaxBorrowWaitNanos() {
+		return maxBorrowWaitNanos;
+	}
+
+	public int getNrActive() {
+		return nrActive;
+	}
+
+	public int getNrIdle() {
+		return nrIdle;
+	}
+
+	public long getNrCreated() {
+		return nrCreated;
+	}
+
+	public long getNrDestroyed() {
+		return nrDestroyed;
+	}
+
+	@Override
+	public String toString() {
+		return "borrows: " + nrBorrows + ", average wait: " + (getAverageBorrowWaitNanos() / 1000000) + "ms, max wait: " + (maxBorrowWaitNanos / 1000000) + "ms, active: " + nrActive + ", idle: " + nrIdle + ", created: " + nrCreated + ", destroyed: " + nrDestroyed;
+	}
+}
@@ -83,4 +83,12 @@ public class RenderEnginePools {
 			throw new PluginException("No render engine found for schema " + schema);
 		}
 	}
+
+	public synchronized void close() {
+		for (Map<String, RenderEnginePool> map : pools.values()) {
+			for (RenderEnginePool renderEnginePool : map.values()) {
+				renderEnginePool.close();
+			}
+		}
+	}
 }
\ No newline at end of file
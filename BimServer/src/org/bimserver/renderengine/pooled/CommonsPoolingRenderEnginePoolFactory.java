@@ -25,13 +25,19 @@ import org.bimserver.renderengine.RenderEnginePoolFactory;
 public class CommonsPoolingRenderEnginePoolFactory implements RenderEnginePoolFactory {
 
 	private int nrRenderEngineProcesses;
+	private int warmEngines;
+	private int maxUses;
+	private long maxMemoryBytes;
 
-	public CommonsPoolingRenderEnginePoolFactory(int nrRenderEngineProcesses) {
+	public CommonsPoolingRenderEnginePoolFactory(int nrRenderEngineProcesses, int warmEngines, int maxUses, long maxMemoryBytes) {
 		this.nrRenderEngineProcesses = nrRenderEngineProcesses;
+		this.warmEngines = warmEngines;
+		this.maxUses = maxUses;
+		this.maxMemoryBytes = maxMemoryBytes;
 	}
 	
 	@Override
 	public RenderEnginePool newRenderEnginePool(RenderEngineFactory renderEngineFactory) throws RenderEngineException {
-		return new CommonsRenderEnginePool(nrRenderEngineProcesses, renderEngineFactory);
+		return new CommonsRenderEnginePool(nrRenderEngineProcesses, warmEngines, maxUses, maxMemoryBytes, renderEngineFactory);
 	}
 }
@@ -17,14 +17,19 @@ package org.bimserver.renderengine.pooled;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.commons.pool2.PooledObject;
 import org.apache.commons.pool2.PooledObjectFactory;
 import org.apache.commons.pool2.impl.DefaultPooledObject;
 import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.bimserver.plugins.renderengine.Metrics;
 import org.bimserver.plugins.renderengine.RenderEngine;
 import org.bimserver.plugins.renderengine.RenderEngineException;
 import org.bimserver.renderengine.RenderEngineFactory;
 import org.bimserver.renderengine.RenderEnginePool;
+import org.bimserver.renderengine.RenderEnginePoolStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,51 +37,98 @@ public class CommonsRenderEnginePool implements RenderEnginePool {
 	private static final Logger LOGGER = LoggerFactory.getLogger(CommonsRenderEnginePool.class);
 	private GenericObjectPool<RenderEngine> genericObjectPool;
 	private RenderEngineFactory renderEngineFactory;
+	private final int maxUses;
+	private final long maxMemoryBytes;
+	private final AtomicLong nrBorrows = new AtomicLong();
+	private final AtomicLong totalBorrowWaitNanos = new AtomicLong();
+	private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
 	
-	public CommonsRenderEnginePool(int poolSize, RenderEngineFactory renderEngineFactory) throws RenderEngineException {
-		LOGGER.info("Pool size: " + poolSize);
+	/**
+	 * @param poolSize The maximum number of render engines running simultaneously
+	 * @param warmEngines The number of initialized render engines the pool tries to keep available
+	 * @param maxUses The number of models a render engine opens before it is replaced, 0 or less for no limit
+	 * @param maxMemoryBytes Render engines that report to have used more memory than this are replaced, -1 for no limit
+	 */
+	public CommonsRenderEnginePool(int poolSize, int warmEngines, int maxUses, long maxMemoryBytes, RenderEngineFactory renderEngineFactory) throws RenderEngineException {
+		LOGGER.info("Pool size: " + poolSize + ", warm engines: " + warmEngines + ", max uses: " + maxUses);
 		this.renderEngineFactory = renderEngineFactory;
+		this.maxUses = maxUses;
+		this.maxMemoryBytes = maxMemoryBytes;
 		
-		// This pool is currently only used for making sure there is a max amount of engines running simultaneously.
-		// It is not actually pooling the render engines because the render engines used are not stable enough to reuse at the moment.
+		// Render engines are initialized once and reused until they fail, have opened maxUses models or have used too much memory
 		
 		PooledObjectFactory<RenderEngine> pooledObjectFactory = new PooledObjectFactory<RenderEngine>() {
 			@Override
 			public void activateObject(PooledObject<RenderEngine> arg0) throws Exception {
-				arg0.getObject().init();
 			}
 
 			@Override
 			public void destroyObject(PooledObject<RenderEngine> arg0) throws Exception {
+				arg0.getObject().close();
 			}
 
 			@Override
 			public PooledObject<RenderEngine> makeObject() throws Exception {
-				AlwaysClosingRenderEngineWrapper alwaysClosingRenderEngineWrapper = new AlwaysClosingRenderEngineWrapper(renderEngineFactory);
-				return new DefaultPooledObject<RenderEngine>(alwaysClosingRenderEngineWrapper);
+				RenderEngine renderEngine = renderEngineFactory.createRenderEngine();
+				renderEngine.init();
+				return new DefaultPooledObject<RenderEngine>(new PooledRenderEngine(renderEngine));
 			}
 
 			@Override
 			public void passivateObject(PooledObject<RenderEngine> arg0) throws Exception {
-				arg0.getObject().close();
 			}
 
 			@Override
 			public boolean validateObject(PooledObject<RenderEngine> arg0) {
-				return false;
+				return isReusable((PooledRenderEngine) arg0.getObject());
 			}
 		};
 		
-		genericObjectPool = new GenericObjectPool<RenderEngine>(pooledObjectFactory);
+		GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+		config.setMaxTotal(poolSize);
+		config.setMaxIdle(poolSize);
+		config.setMinIdle(Math.min(warmEngines, poolSize));
+		config.setMaxWaitMillis(1000 * 60 * 60);
+		// Health check after every use, and once more before an idle engine is handed out
+		config.setTestOnReturn(true);
+		config.setTestOnBorrow(true);
+		// The evictor also brings the number of idle engines back to minIdle after engines have been replaced
+		config.setTimeBetweenEvictionRunsMillis(60 * 1000);
+		genericObjectPool = new GenericObjectPool<RenderEngine>(pooledObjectFactory, config);
 		
-		genericObjectPool.setMaxWaitMillis(1000 * 60 * 60);
-		genericObjectPool.setMaxTotal(poolSize);
+		try {
+			genericObjectPool.preparePool();
+		} catch (Exception e) {
+			LOGGER.error("", e);
+		}
+	}
+
+	private boolean isReusable(PooledRenderEngine renderEngine) {
+		if (renderEngine.isFailed() || renderEngine.isClosed()) {
+			return false;
+		}
+		if (maxUses > 0 && renderEngine.getNrUses() >= maxUses) {
+			return false;
+		}
+		if (maxMemoryBytes != -1) {
+			Metrics metrics = renderEngine.getMetrics();
+			if (metrics != null && metrics.getMaxMemoryBytes() > maxMemoryBytes) {
+				LOGGER.info("Replacing render engine that has used " + metrics.getMaxMemoryBytes() + " bytes");
+				return false;
+			}
+		}
+		return true;
 	}
 
 	@Override
 	public RenderEngine borrowObject() throws RenderEngineException {
 		try {
+			long start = System.nanoTime();
 			RenderEngine borrowObject = genericObjectPool.borrowObject();
+			long waited = System.nanoTime() - start;
+			nrBorrows.incrementAndGet();
+			totalBorrowWaitNanos.addAndGet(waited);
+			maxBorrowWaitNanos.accumulateAndGet(waited, Math::max);
 			return borrowObject;
 		} catch (Exception e) {
 			throw new RenderEngineException(e);
@@ -92,4 +144,14 @@ public class CommonsRenderEnginePool implements RenderEnginePool {
 	public RenderEngineFactory getRenderEngineFactory() {
 		return renderEngineFactory;
 	}
+
+	@Override
+	public RenderEnginePoolStats getStats() {
+		return new RenderEnginePoolStats(nrBorrows.get(), totalBorrowWaitNanos.get(), maxBorrowWaitNanos.get(), genericObjectPool.getNumActive(), genericObjectPool.getNumIdle(), genericObjectPool.getCreatedCount(), genericObjectPool.getDestroyedCount());
+	}
+
+	@Override
+	public void close() {
+		genericObjectPool.close();
+	}
 }
\ No newline at end of file
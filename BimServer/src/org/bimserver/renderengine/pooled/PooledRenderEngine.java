@@ -0,0 +1,240 @@
+package org.bimserver.renderengine.pooled;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.bimserver.plugins.renderengine.Metrics;
+import org.bimserver.plugins.renderengine.RenderEngine;
+import org.bimserver.plugins.renderengine.RenderEngineException;
+import org.bimserver.plugins.renderengine.RenderEngineFilter;
+import org.bimserver.plugins.renderengine.RenderEngineGeometry;
+import org.bimserver.plugins.renderengine.RenderEngineInstance;
+import org.bimserver.plugins.renderengine.RenderEngineModel;
+import org.bimserver.plugins.renderengine.RenderEngineSettings;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/*
+ * A render engine that stays initialized while it is in the pool. It keeps track of how often it has been used and whether it has failed, so the pool
+ * knows when to replace it. Closing it (instead of returning it to the pool) closes the wrapped engine, the pool will then replace it.
+ */
+public class PooledRenderEngine implements RenderEngine {
+
+	private final RenderEngine wrapped;
+	private volatile int nrUses;
+	private volatile boolean failed;
+	private volatile boolean closed;
+
+	public PooledRenderEngine(RenderEngine wrapped) {
+		this.wrapped = wrapped;
+	}
+
+	@Override
+	public void init() throws RenderEngineException {
+		// Initialized once when created by the pool
+	}
+
+	@Override
+	public RenderEngineModel openModel(InputStream inputStream, long size) throws RenderEngineException {
+		nrUses++;
+		try {
+			return new FailureTrackingModel(wrapped.openModel(inputStream, size));
+		} catch (RenderEngineException | RuntimeException e) {
+			failed = true;
+			throw e;
+		}
+	}
+
+	@Override
+	public RenderEngineModel openModel(InputStream inputStream) throws RenderEngineException {
+		nrUses++;
+		try {
+			return new FailureTrackingModel(wrapped.openModel(inputStream));
+		} catch (RenderEngineException | RuntimeException e) {
+			failed = true;
+			throw e;
+		}
+	}
+
+	@Override
+	public void close() throws RenderEngineException {
+		if (!closed) {
+			closed = true;
+			wrapped.close();
+		}
+	}
+
+	@Override
+	public boolean isCalculateQuantities() {
+		return wrapped.isCalculateQuantities();
+	}
+
+	@Override
+	public boolean isApplyLayerSets() {
+		return wrapped.isApplyLayerSets();
+	}
+
+	@Override
+	public Metrics getMetrics() {
+		return wrapped.getMetrics();
+	}
+
+	public int getNrUses() {
+		return nrUses;
+	}
+
+	public boolean isFailed() {
+		return failed;
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/*
+	 * An engine that fails while generating geometry for a model is just as unusable as one that fails to open a model
+	 */
+	private class FailureTrackingModel implements RenderEngineModel {
+		private final RenderEngineModel model;
+
+		public FailureTrackingModel(RenderEngineModel model) {
+			this.model = model;
+		}
+
+		@Override
+		public void setFormat(int format, int mask) throws RenderEngineException {
+			try {
+				model.setFormat(format, mask);
+			} catch (RenderEngineException | RuntimeException e) {
+				failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public void setSettings(RenderEngineSettings settings) throws RenderEngineException {
+			try {
+				model.setSettings(settings);
+			} catch (RenderEngineException | RuntimeException e) {
+				failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public RenderEngineInstance getInstanceFromExpressId(long expressId) throws RenderEngineException {
+			try {
+				RenderEngineInstance instance = model.getInstanceFromExpressId(expressId);
+				return instance == null ? null : new FailureTrackingInstance(instance);
+			} catch (RenderEngineException | RuntimeException e) {
+				failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public Collection<RenderEngineInstance> listInstances() throws RenderEngineException {
+			try {
+				Collection<RenderEngineInstance> instances = model.listInstances();
+				if (instances == null) {
+					return null;
+				}
+				List<RenderEngineInstance> result = new ArrayList<>(instances.size());
+				for (RenderEngineInstance instance : instances) {
+					result.add(new FailureTrackingInstance(instance));
+				}
+				return result;
+			} catch (RenderEngineException | RuntimeException e) {
+				failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public void generateGeneralGeometry() throws RenderEngineException {
+			try {
+				model.generateGeneralGeometry();
+			} catch (RenderEngineException | RuntimeException e) {
+				failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public void close() throws RenderEngineException {
+			try {
+				model.close();
+			} catch (RenderEngineException | RuntimeException e) {
+				failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public void setFilter(RenderEngineFilter renderEngineFilter) throws RenderEngineException {
+			try {
+				model.setFilter(renderEngineFilter);
+			} catch (RenderEngineException | RuntimeException e) {
+				failed = true;
+				throw e;
+			}
+		}
+	}
+
+	private class FailureTrackingInstance implements RenderEngineInstance {
+		private final RenderEngineInstance instance;
+
+		public FailureTrackingInstance(RenderEngineInstance instance) {
+			this.instance = instance;
+		}
+
+		@Override
+		public double[] getTransformationMatrix() throws RenderEngineException {
+			try {
+				return instance.getTransformationMatrix();
+			} catch (RenderEngineException | RuntimeException e) {
+				failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public RenderEngineGeometry generateGeometry() throws RenderEngineException {
+			try {
+				return instance.generateGeometry();
+			} catch (RenderEngineException | RuntimeException e) {
+				failed = true;
+				throw e;
+			}
+		}
+
+		@Override
+		public ObjectNode getAdditionalData() throws RenderEngineException {
+			try {
+				return instance.getAdditionalData();
+			} catch (RenderEngineException | RuntimeException e) {
+				failed = true;
+				throw e;
+			}
+		}
+	}
+}
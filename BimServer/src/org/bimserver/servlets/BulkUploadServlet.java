@@ -38,6 +38,17 @@ import java.io.BufferedInputStream;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -68,9 +79,15 @@ import org.slf4j.LoggerFactory;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+/**
+ * Checks in all IFC files in a ZIP file, every directory becomes a subproject. Files for different projects are checked in concurrently (at most
+ * "concurrency" at a time), files for the same project are checked in one after the other, in the order in which they are in the ZIP file.
+ */
 public class BulkUploadServlet extends SubServlet {
 	private static final Logger LOGGER = LoggerFactory.getLogger(BulkUploadServlet.class);
 	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+	private static final int DEFAULT_CONCURRENCY = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	private static final int MAX_CONCURRENCY = 16;
 
 	public BulkUploadServlet(BimServer bimServer, ServletContext servletContext) {
 		super(bimServer, servletContext);
@@ -98,6 +115,7 @@ public class BulkUploadServlet extends SubServlet {
 				FileItemInputIterator iter = upload.getItemIterator(request);
 				InputStream in = null;
 				String name = "";
+				int concurrency = DEFAULT_CONCURRENCY;
 				while (iter.hasNext()) {
 					FileItemInput item = iter.next();
 					if (item.isFormField()) {
@@ -107,6 +125,8 @@ public class BulkUploadServlet extends SubServlet {
 							poid = Long.parseLong(IOUtils.toString(item.getInputStream(), "UTF-8"));
 						} else if ("comment".equals(item.getFieldName())) {
 							comment = IOUtils.toString(item.getInputStream(), "UTF-8");
+						} else if ("concurrency".equals(item.getFieldName())) {
+							concurrency = Math.max(1, Math.min(MAX_CONCURRENCY, Integer.parseInt(IOUtils.toString(item.getInputStream(), "UTF-8"))));
 						}
 					} else {
 						name = item.getName();
@@ -117,38 +137,80 @@ public class BulkUploadServlet extends SubServlet {
 
 							SProject mainProject = service.getProjectByPoid(poid);
 
-							ZipInputStream zipInputStream = new ZipInputStream(in);
-							ZipEntry nextEntry = zipInputStream.getNextEntry();
-							while (nextEntry != null) {
-								String fullfilename = nextEntry.getName();
-								if (fullfilename.toLowerCase().endsWith(".ifc") || fullfilename.toLowerCase().endsWith("ifcxml") || fullfilename.toLowerCase().endsWith(".ifczip")) {
-									BufferedInputStream bufferedInputStream = new BufferedInputStream(zipInputStream);
-									byte[] initialBytes = ByteUtils.extractHead(bufferedInputStream, 4096);
-									InputStreamDataSource inputStreamDataSource = new InputStreamDataSource(new FakeClosingInputStream(bufferedInputStream));
-									inputStreamDataSource.setName(name);
-									DataHandler ifcFile = new DataHandler(inputStreamDataSource);
-									if (fullfilename.contains("/")) {
-										String path = fullfilename.substring(0, fullfilename.lastIndexOf("/"));
-										String filename = fullfilename.substring(fullfilename.lastIndexOf("/") + 1);
-										String extension = filename.substring(filename.lastIndexOf(".") + 1);
-
-										try {
-											String schema = service.determineIfcVersion(initialBytes, fullfilename.toLowerCase().endsWith(".ifczip"));
-											SProject project = getOrCreatePath(service, mainProject, mainProject, path, schema);
-											SDeserializerPluginConfiguration deserializer = service.getSuggestedDeserializerForExtension(extension, project.getOid());
-
-											service.checkinSync(project.getOid(), comment, deserializer.getOid(), -1L, filename, ifcFile, false);
-										} catch (Exception e) {
-											LOGGER.error(e.getMessage() + " (" + fullfilename + ")");
+							// The ZIP file can only be read sequentially, entries are copied to temporary files so the next entries can be read while checking in.
+							// The number of copied entries that have not been checked in yet is limited, so the ZIP file is not copied completely when the checkins are slow
+							// All subprojects share the main project as parent, and a checkin also updates the parent's virtual revision. The server serializes checkins
+							// per top-level project (see CheckinLockManager), so these checkins still commit one at a time. Only checkins into independent top-level
+							// projects run fully in parallel, here the concurrency mostly overlaps copying the next entries with the running checkin
+							ThreadPoolExecutor executor = new ThreadPoolExecutor(concurrency, concurrency, 1L, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>());
+							int maxPending = concurrency * 2;
+							Semaphore pending = new Semaphore(maxPending);
+							Map<Long, ProjectQueue> projectQueues = new HashMap<>();
+							AtomicInteger succeeded = new AtomicInteger();
+							AtomicInteger failed = new AtomicInteger();
+							Path tmpDir = getBimServer().getHomeDir().resolve("tmp");
+							try {
+								ZipInputStream zipInputStream = new ZipInputStream(in);
+								ZipEntry nextEntry = zipInputStream.getNextEntry();
+								while (nextEntry != null) {
+									String fullfilename = nextEntry.getName();
+									if (fullfilename.toLowerCase().endsWith(".ifc") || fullfilename.toLowerCase().endsWith("ifcxml") || fullfilename.toLowerCase().endsWith(".ifczip")) {
+										BufferedInputStream bufferedInputStream = new BufferedInputStream(zipInputStream);
+										byte[] initialBytes = ByteUtils.extractHead(bufferedInputStream, 4096);
+										if (fullfilename.contains("/")) {
+											String path = fullfilename.substring(0, fullfilename.lastIndexOf("/"));
+											String filename = fullfilename.substring(fullfilename.lastIndexOf("/") + 1);
+											String extension = filename.substring(filename.lastIndexOf(".") + 1);
+
+											try {
+												// Projects are created here, by one thread, so concurrent checkins cannot create the same subproject twice
+												String schema = service.determineIfcVersion(initialBytes, fullfilename.toLowerCase().endsWith(".ifczip"));
+												SProject project = getOrCreatePath(service, mainProject, mainProject, path, schema);
+												SDeserializerPluginConfiguration deserializer = service.getSuggestedDeserializerForExtension(extension, project.getOid());
+
+												pending.acquire();
+												// Until the checkin has been queued, the permit and the file are not owned by the checkin
+												Path file = null;
+												boolean queued = false;
+												try {
+													file = Files.createTempFile(tmpDir, "bulk", "." + extension);
+													Files.copy(bufferedInputStream, file, StandardCopyOption.REPLACE_EXISTING);
+													ProjectQueue projectQueue = projectQueues.get(project.getOid());
+													if (projectQueue == null) {
+														projectQueue = new ProjectQueue(executor);
+														projectQueues.put(project.getOid(), projectQueue);
+													}
+													projectQueue.add(new EntryCheckin(token, project.getOid(), comment, deserializer.getOid(), name, filename, fullfilename, file, pending, succeeded, failed));
+													queued = true;
+												} finally {
+													if (!queued) {
+														pending.release();
+														if (file != null) {
+															Files.deleteIfExists(file);
+														}
+													}
+												}
+											} catch (InterruptedException e) {
+												throw e;
+											} catch (Exception e) {
+												LOGGER.error(e.getMessage() + " (" + fullfilename + ")");
+												failed.incrementAndGet();
+											}
+										}
+									} else {
+										if (!nextEntry.isDirectory()) {
+											LOGGER.info("Unknown fileextenstion " + fullfilename);
 										}
 									}
-								} else {
-									if (!nextEntry.isDirectory()) {
-										LOGGER.info("Unknown fileextenstion " + fullfilename);
-									}
+									nextEntry = zipInputStream.getNextEntry();
 								}
-								nextEntry = zipInputStream.getNextEntry();
+							} finally {
+								// All permits are back when all queued checkins have finished
+								pending.acquireUninterruptibly(maxPending);
+								executor.shutdown();
 							}
+							result.put("checkins", succeeded.get());
+							result.put("failed", failed.get());
 
 //							DataHandler ifcFile = new DataHandler(inputStreamDataSource);
 //							
@@ -176,6 +238,101 @@ public class BulkUploadServlet extends SubServlet {
 		response.getWriter().write(result.toString());
 	}
 
+	/**
+	 * Runs the tasks for one project in order, by one thread of the executor at a time
+	 */
+	private static class ProjectQueue implements Runnable {
+		private final ThreadPoolExecutor executor;
+		private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+		private boolean running;
+
+		public ProjectQueue(ThreadPoolExecutor executor) {
+			this.executor = executor;
+		}
+
+		public synchronized void add(Runnable task) {
+			tasks.add(task);
+			if (!running) {
+				running = true;
+				try {
+					executor.execute(this);
+				} catch (RuntimeException e) {
+					// The caller still owns the task
+					tasks.remove(task);
+					running = false;
+					throw e;
+				}
+			}
+		}
+
+		private synchronized Runnable next() {
+			Runnable task = tasks.poll();
+			if (task == null) {
+				running = false;
+			}
+			return task;
+		}
+
+		@Override
+		public void run() {
+			Runnable task = next();
+			while (task != null) {
+				task.run();
+				task = next();
+			}
+		}
+	}
+
+	private class EntryCheckin implements Runnable {
+		private final String token;
+		private final long poid;
+		private final String comment;
+		private final long deserializerOid;
+		private final String name;
+		private final String filename;
+		private final String fullfilename;
+		private final Path file;
+		private final Semaphore pending;
+		private final AtomicInteger succeeded;
+		private final AtomicInteger failed;
+
+		public EntryCheckin(String token, long poid, String comment, long deserializerOid, String name, String filename, String fullfilename, Path file, Semaphore pending, AtomicInteger succeeded, AtomicInteger failed) {
+			this.token = token;
+			this.poid = poid;
+			this.comment = comment;
+			this.deserializerOid = deserializerOid;
+			this.name = name;
+			this.filename = filename;
+			this.fullfilename = fullfilename;
+			this.file = file;
+			this.pending = pending;
+			this.succeeded = succeeded;
+			this.failed = failed;
+		}
+
+		@Override
+		public void run() {
+			try (InputStream inputStream = Files.newInputStream(file)) {
+				ServiceInterface service = getBimServer().getServiceFactory().get(token, AccessMethod.INTERNAL).get(ServiceInterface.class);
+				InputStreamDataSource inputStreamDataSource = new InputStreamDataSource(new FakeClosingInputStream(inputStream));
+				inputStreamDataSource.setName(name);
+				DataHandler ifcFile = new DataHandler(inputStreamDataSource);
+				service.checkinSync(poid, comment, deserializerOid, -1L, filename, ifcFile, false);
+				succeeded.incrementAndGet();
+			} catch (Exception e) {
+				LOGGER.error(e.getMessage() + " (" + fullfilename + ")");
+				failed.incrementAndGet();
+			} finally {
+				try {
+					Files.deleteIfExists(file);
+				} catch (IOException e) {
+					LOGGER.error("", e);
+				}
+				pending.release();
+			}
+		}
+	}
+
 	private SProject getOrCreatePath(ServiceInterface service, SProject mainProject, SProject currentProject, String path, String schema) throws UserException, ServerException {
 		String name = path;
 		if (path.contains("/")) {
@@ -0,0 +1,258 @@
+package org.bimserver.servlets;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.codec.binary.Hex;
+import org.bimserver.shared.exceptions.UserException;
+
+/**
+ * A file that is uploaded in chunks. Chunks have to be uploaded in order, every chunk is validated with its SHA-256 checksum before it is accepted, an
+ * invalid or interrupted chunk can be uploaded again from the last accepted offset.
+ * 
+ * The chunks are only written to disk, the file can be read with {@link #openInputStream()} once the upload has been finished.
+ */
+public class ChunkedUpload {
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+	// Uploads that have not received a chunk for this long are removed
+	static final long MAX_IDLE_MILLIS = 6 * 60 * 60 * 1000L;
+	private final String uploadId;
+	private final long ownerUoid;
+	private final Path file;
+	private final FileChannel channel;
+	// Only one chunk is written at a time, status requests only synchronize on this object
+	private final Object writeLock = new Object();
+	private MessageDigest fileDigest;
+	private long received;
+	private boolean complete;
+	private String error;
+	private volatile long lastAccess = System.currentTimeMillis();
+	private volatile long topicId = -1;
+
+	// The checkin that is started when the upload has been finished
+	private long poid = -1;
+	private String comment;
+	private long deserializerOid = -1;
+	private String fileName;
+	private boolean merge;
+	private String compression;
+
+	public ChunkedUpload(String uploadId, long ownerUoid, Path file) throws IOException {
+		this.uploadId = uploadId;
+		this.ownerUoid = ownerUoid;
+		this.file = file;
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		this.fileDigest = createDigest();
+	}
+
+	/**
+	 * Appends a chunk, when offset is not the amount of bytes accepted so far (for example because the previous response got lost) nothing is written
+	 * 
+	 * @return The amount of bytes accepted so far, the client continues with this offset
+	 */
+	public long write(long offset, InputStream inputStream, String checksum) throws IOException, UserException {
+		synchronized (writeLock) {
+			long position;
+			synchronized (this) {
+				checkWritable();
+				if (offset != received) {
+					return received;
+				}
+				position = received;
+			}
+			MessageDigest chunkDigest = createDigest();
+			MessageDigest newFileDigest;
+			try {
+				newFileDigest = (MessageDigest) fileDigest.clone();
+			} catch (CloneNotSupportedException e) {
+				throw new IOException(e);
+			}
+			byte[] buffer = new byte[COPY_BUFFER_SIZE];
+			long length = 0;
+			int read = inputStream.read(buffer);
+			while (read != -1) {
+				ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+				while (byteBuffer.hasRemaining()) {
+					channel.write(byteBuffer, position + length + byteBuffer.position());
+				}
+				chunkDigest.update(buffer, 0, read);
+				newFileDigest.update(buffer, 0, read);
+				length += read;
+				lastAccess = System.currentTimeMillis();
+				read = inputStream.read(buffer);
+			}
+			if (checksum == null || !Hex.encodeHexString(chunkDigest.digest()).equalsIgnoreCase(checksum)) {
+				// Bytes after the accepted part are overwritten by the next attempt
+				throw new UserException("Checksum mismatch for chunk at offset " + offset + " of upload " + uploadId);
+			}
+			channel.force(false);
+			fileDigest = newFileDigest;
+			synchronized (this) {
+				received = position + length;
+				return received;
+			}
+		}
+	}
+
+	/**
+	 * Marks the upload as complete, after this the file can be read
+	 * 
+	 * @param fileChecksum SHA-256 of the whole file, or null to not check the whole file
+	 */
+	public void finish(String fileChecksum) throws IOException, UserException {
+		synchronized (writeLock) {
+			synchronized (this) {
+				checkWritable();
+				if (fileChecksum != null && !Hex.encodeHexString(fileDigest.digest()).equalsIgnoreCase(fileChecksum)) {
+					fail("Checksum mismatch for upload " + uploadId);
+					throw new UserException(error);
+				}
+				channel.truncate(received);
+				channel.close();
+				complete = true;
+				lastAccess = System.currentTimeMillis();
+			}
+		}
+	}
+
+	public synchronized void fail(String error) {
+		if (this.error == null) {
+			this.error = error;
+		}
+	}
+
+	private void checkWritable() throws UserException {
+		if (error != null) {
+			throw new UserException(error);
+		}
+		if (complete) {
+			throw new UserException("Upload " + uploadId + " has already been finished");
+		}
+	}
+
+	/**
+	 * @return A stream of the uploaded file, only available when the upload has been finished
+	 */
+	public InputStream openInputStream() throws IOException {
+		synchronized (this) {
+			if (!complete) {
+				throw new IOException("Upload " + uploadId + " has not been finished");
+			}
+		}
+		return Files.newInputStream(file);
+	}
+
+	public String getUploadId() {
+		return uploadId;
+	}
+
+	public long getOwnerUoid() {
+		return ownerUoid;
+	}
+
+	public synchronized long getReceived() {
+		return received;
+	}
+
+	public synchronized boolean isComplete() {
+		return complete;
+	}
+
+	public synchronized String getError() {
+		return error;
+	}
+
+	public long getLastAccess() {
+		return lastAccess;
+	}
+
+	public long getTopicId() {
+		return topicId;
+	}
+
+	public void setTopicId(long topicId) {
+		this.topicId = topicId;
+	}
+
+	public void setCheckin(long poid, String comment, long deserializerOid, String fileName, boolean merge, String compression) {
+		this.poid = poid;
+		this.comment = comment;
+		this.deserializerOid = deserializerOid;
+		this.fileName = fileName;
+		this.merge = merge;
+		this.compression = compression;
+	}
+
+	public long getPoid() {
+		return poid;
+	}
+
+	public String getComment() {
+		return comment;
+	}
+
+	public long getDeserializerOid() {
+		return deserializerOid;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public boolean isMerge() {
+		return merge;
+	}
+
+	public String getCompression() {
+		return compression;
+	}
+
+	/**
+	 * Removes the file
+	 */
+	void delete() {
+		synchronized (this) {
+			if (!complete) {
+				fail("Upload " + uploadId + " has been removed");
+			}
+		}
+		try {
+			channel.close();
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			// Removed by the next cleanup of the temporary directory
+		}
+	}
+
+	private static MessageDigest createDigest() throws IOException {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package org.bimserver.servlets;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bimserver.shared.exceptions.UserException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps track of the chunked uploads, the chunks are assembled in files in the given directory. Uploads can only be accessed by the user that started
+ * them. Finished uploads are removed right away, uploads that have not received data for {@link ChunkedUpload#MAX_IDLE_MILLIS} are removed as well.
+ */
+public class ChunkedUploadManager {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ChunkedUploadManager.class);
+	private final ConcurrentHashMap<String, ChunkedUpload> uploads = new ConcurrentHashMap<>();
+	private final Path directory;
+
+	public ChunkedUploadManager(Path directory) {
+		this.directory = directory;
+	}
+
+	public ChunkedUpload create(long ownerUoid) throws IOException {
+		removeIdle();
+		if (!Files.exists(directory)) {
+			Files.createDirectories(directory);
+		}
+		String uploadId = UUID.randomUUID().toString();
+		ChunkedUpload chunkedUpload = new ChunkedUpload(uploadId, ownerUoid, directory.resolve(uploadId));
+		uploads.put(uploadId, chunkedUpload);
+		return chunkedUpload;
+	}
+
+	/**
+	 * @param uoid The user doing the request, uploads of other users are not found
+	 */
+	public ChunkedUpload get(String uploadId, long uoid) throws UserException {
+		ChunkedUpload chunkedUpload = uploadId == null ? null : uploads.get(uploadId);
+		if (chunkedUpload == null || chunkedUpload.getOwnerUoid() != uoid) {
+			throw new UserException("No upload found with id " + uploadId);
+		}
+		return chunkedUpload;
+	}
+
+	/**
+	 * Finishes the upload and stops tracking it, the file is removed when the stream from {@link #openInputStream(ChunkedUpload)} is closed
+	 */
+	public void finish(ChunkedUpload chunkedUpload, String fileChecksum) throws IOException, UserException {
+		try {
+			chunkedUpload.finish(fileChecksum);
+		} catch (UserException e) {
+			if (chunkedUpload.getError() != null) {
+				// The upload has failed, it cannot be resumed
+				remove(chunkedUpload);
+			}
+			throw e;
+		}
+		uploads.remove(chunkedUpload.getUploadId(), chunkedUpload);
+	}
+
+	public void remove(ChunkedUpload chunkedUpload) {
+		if (uploads.remove(chunkedUpload.getUploadId(), chunkedUpload)) {
+			chunkedUpload.delete();
+		}
+	}
+
+	/**
+	 * @return A stream of the upload, the file is removed when the stream is closed
+	 */
+	public InputStream openInputStream(final ChunkedUpload chunkedUpload) throws IOException {
+		return new FilterInputStream(chunkedUpload.openInputStream()) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					chunkedUpload.delete();
+				}
+			}
+		};
+	}
+
+	private void removeIdle() {
+		long now = System.currentTimeMillis();
+		for (ChunkedUpload chunkedUpload : uploads.values()) {
+			if (now - chunkedUpload.getLastAccess() > ChunkedUpload.MAX_IDLE_MILLIS && uploads.remove(chunkedUpload.getUploadId(), chunkedUpload)) {
+				LOGGER.info("Removing idle upload " + chunkedUpload.getUploadId());
+				chunkedUpload.delete();
+			}
+		}
+	}
+}
@@ -20,8 +20,14 @@ package org.bimserver.servlets;
 import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Date;
 import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
@@ -34,7 +40,11 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.bimserver.BimServer;
+import org.bimserver.cache.FileInputStreamDataSource;
+import org.bimserver.cache.NewDiskCacheManager;
+import org.bimserver.cache.NewDiskCacheVariantOutputStream;
 import org.bimserver.interfaces.objects.SDownloadResult;
 import org.bimserver.interfaces.objects.SExtendedData;
 import org.bimserver.interfaces.objects.SFile;
@@ -77,12 +87,7 @@ public class DownloadServlet extends SubServlet {
 			if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
 				useGzip = true;
 			}
-			OutputStream outputStream = response.getOutputStream();
 			boolean zip = request.getParameter("zip") != null && request.getParameter("zip").equals("on");
-			if (useGzip && !zip) {
-				response.setHeader("Content-Encoding", "gzip");
-				outputStream = new GZIPOutputStream(response.getOutputStream());
-			}
 			String token = (String) request.getSession().getAttribute("token");
 
 			if (token == null) {
@@ -95,6 +100,21 @@ public class DownloadServlet extends SubServlet {
 			ServiceMap serviceMap = getBimServer().getServiceFactory().get(token, AccessMethod.INTERNAL);
 
 			String action = request.getParameter("action");
+			SDownloadResult downloadResult = null;
+			if (action == null && topicId != -1) {
+				downloadResult = serviceMap.getServiceInterface().getDownloadData(topicId);
+				if (downloadResult != null && downloadResult.getFile().getDataSource() instanceof FileInputStreamDataSource) {
+					PluginConfiguration pluginConfiguration = getBimServer().getPluginSettingsCache().getPluginSettings(downloadResult.getSerializerOid());
+					serveCachedFile(request, response, (FileInputStreamDataSource) downloadResult.getFile().getDataSource(), pluginConfiguration, useGzip, zip, getBimServer().getNotificationsManager().getProgressTopic(topicId));
+					return;
+				}
+			}
+
+			OutputStream outputStream = response.getOutputStream();
+			if (useGzip && !zip) {
+				response.setHeader("Content-Encoding", "gzip");
+				outputStream = new GZIPOutputStream(response.getOutputStream());
+			}
 			if (action != null) {
 				if (action.equals("extendeddata")) {
 					SExtendedData sExtendedData = serviceMap.getServiceInterface().getExtendedData(Long.parseLong(request.getParameter("edid")));
@@ -171,7 +191,7 @@ public class DownloadServlet extends SubServlet {
 					response.getWriter().println("No valid topicId");
 					return;
 				}
-				SDownloadResult checkoutResult = serviceMap.getServiceInterface().getDownloadData(topicId);
+				SDownloadResult checkoutResult = downloadResult;
 				if (checkoutResult == null) {
 					LOGGER.error("Invalid topicId: " + topicId);
 				} else {
@@ -180,46 +200,7 @@ public class DownloadServlet extends SubServlet {
 
 					final ProgressTopic progressTopic = getBimServer().getNotificationsManager().getProgressTopic(topicId);
 
-					ProgressReporter progressReporter = new ProgressReporter() {
-						private long lastMax;
-						private long lastProgress;
-						private int stage = 3;
-						private Date start = new Date();
-						private String title = "Downloading...";
-						
-						@Override
-						public void update(long progress, long max) {
-							if (progressTopic != null) {
-								LongActionState ds = StoreFactory.eINSTANCE.createLongActionState();
-								ds.setStart(start);
-								ds.setState(progress == max ? ActionState.FINISHED : ActionState.STARTED);
-								ds.setTitle(title);
-								ds.setStage(stage);
-								ds.setProgress((int) Math.round(100.0 * progress / max));
-
-								progressTopic.stageProgressUpdate(ds);
-								
-								this.lastMax = max;
-								this.lastProgress = progress;
-							}
-						}
-
-						@Override
-						public void setTitle(String title) {
-							if (progressTopic != null) {
-								stage++;
-								this.title = title;
-								LongActionState ds = StoreFactory.eINSTANCE.createLongActionState();
-								ds.setStart(new Date());
-								ds.setState(lastProgress == lastMax ? ActionState.FINISHED : ActionState.STARTED);
-								ds.setTitle(title);
-								ds.setStage(stage);
-								ds.setProgress((int) Math.round(100.0 * lastProgress / lastMax));
-
-								progressTopic.stageProgressUpdate(ds);
-							}
-						}
-					};
+					ProgressReporter progressReporter = createProgressReporter(progressTopic);
 
 					try {
 						if (zip) {
@@ -255,16 +236,7 @@ public class DownloadServlet extends SubServlet {
 						} else {
 							LOGGER.error("", s);
 						}
-
-						LongActionState ds = StoreFactory.eINSTANCE.createLongActionState();
-						ds.setStart(new Date());
-						ds.setState(ActionState.AS_ERROR);
-						ds.setTitle(s.getMessage());
-						ds.setProgress(-1);
-						ds.setStage(3);
-						ds.getErrors().add(s.getMessage());
-
-						progressTopic.stageProgressUpdate(ds);
+						reportError(progressTopic, s);
 					}
 				}
 			}
@@ -284,6 +256,198 @@ public class DownloadServlet extends SubServlet {
 		}
 	}
 
+	/**
+	 * @return A ProgressReporter that publishes the progress of the download on the given topic, which can be null
+	 */
+	private ProgressReporter createProgressReporter(final ProgressTopic progressTopic) {
+		return new ProgressReporter() {
+			private long lastMax;
+			private long lastProgress;
+			private int stage = 3;
+			private Date start = new Date();
+			private String title = "Downloading...";
+			
+			@Override
+			public void update(long progress, long max) {
+				if (progressTopic != null) {
+					LongActionState ds = StoreFactory.eINSTANCE.createLongActionState();
+					ds.setStart(start);
+					ds.setState(progress == max ? ActionState.FINISHED : ActionState.STARTED);
+					ds.setTitle(title);
+					ds.setStage(stage);
+					ds.setProgress((int) Math.round(100.0 * progress / max));
+
+					progressTopic.stageProgressUpdate(ds);
+					
+					this.lastMax = max;
+					this.lastProgress = progress;
+				}
+			}
+
+			@Override
+			public void setTitle(String title) {
+				if (progressTopic != null) {
+					stage++;
+					this.title = title;
+					LongActionState ds = StoreFactory.eINSTANCE.createLongActionState();
+					ds.setStart(new Date());
+					ds.setState(lastProgress == lastMax ? ActionState.FINISHED : ActionState.STARTED);
+					ds.setTitle(title);
+					ds.setStage(stage);
+					ds.setProgress((int) Math.round(100.0 * lastProgress / lastMax));
+
+					progressTopic.stageProgressUpdate(ds);
+				}
+			}
+		};
+	}
+
+	private void reportError(ProgressTopic progressTopic, Exception e) {
+		if (progressTopic == null) {
+			return;
+		}
+		LongActionState ds = StoreFactory.eINSTANCE.createLongActionState();
+		ds.setStart(new Date());
+		ds.setState(ActionState.AS_ERROR);
+		ds.setTitle(e.getMessage());
+		ds.setProgress(-1);
+		ds.setStage(3);
+		ds.getErrors().add(e.getMessage());
+
+		progressTopic.stageProgressUpdate(ds);
+	}
+
+	/**
+	 * Serves a serialization from the disk cache, with support for conditional (If-None-Match) and range requests. The ETag is the cache key, which
+	 * is derived from the revisions, the serializer and the query, so it is the same for every download of the same data.
+	 *
+	 * Gzipped and zipped downloads are served from a compressed variant that is stored next to the cached file, so the file is only compressed once.
+	 */
+	private void serveCachedFile(HttpServletRequest request, HttpServletResponse response, FileInputStreamDataSource dataSource, PluginConfiguration pluginConfiguration, boolean useGzip, boolean zip, ProgressTopic progressTopic) throws IOException {
+		long length = dataSource.size();
+		String rangeHeader = request.getHeader("Range");
+		String variant = null;
+		if (zip) {
+			variant = NewDiskCacheManager.ZIP_VARIANT;
+		} else if (useGzip && rangeHeader == null) {
+			// Ranges are always served uncompressed, otherwise the offsets would depend on the compression
+			variant = NewDiskCacheManager.GZIP_VARIANT;
+		}
+		String cacheKey = dataSource.getFile().getFileName().toString();
+		String etag = variant == null ? "\"" + cacheKey + "\"" : "\"" + cacheKey + "-" + variant + "\"";
+
+		if (zip) {
+			if (pluginConfiguration.getString("ZipExtension") != null) {
+				response.setHeader("Content-Disposition", "inline; filename=\"" + dataSource.getName() + "." + pluginConfiguration.getString(SerializerPlugin.ZIP_EXTENSION) + "\"");
+			} else {
+				response.setHeader("Content-Disposition", "inline; filename=\"" + dataSource.getName() + ".zip" + "\"");
+			}
+			response.setContentType("application/zip");
+		} else if (request.getParameter("mime") == null) {
+			response.setContentType(pluginConfiguration.getString(SerializerPlugin.CONTENT_TYPE));
+			response.setHeader("Content-Disposition", "inline; filename=\"" + dataSource.getName() + "." + pluginConfiguration.getString(SerializerPlugin.EXTENSION) + "\"");
+		} else {
+			response.setContentType(request.getParameter("mime"));
+		}
+		response.setHeader("ETag", etag);
+		if (!zip) {
+			response.setHeader("Accept-Ranges", "bytes");
+			response.setHeader("Vary", "Accept-Encoding");
+		}
+
+		if (RangeRequests.matchesEtag(request.getHeader("If-None-Match"), etag)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			dataSource.done();
+			return;
+		}
+
+		long[] range = null;
+		String ifRange = request.getHeader("If-Range");
+		if (rangeHeader != null && !zip && (ifRange == null || ifRange.equals(etag))) {
+			range = RangeRequests.parseRange(rangeHeader, length);
+			if (range == RangeRequests.UNSATISFIABLE_RANGE) {
+				response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				response.setHeader("Content-Range", "bytes */" + length);
+				dataSource.done();
+				return;
+			}
+		}
+
+		ProgressReporter progressReporter = createProgressReporter(progressTopic);
+		OutputStream outputStream = response.getOutputStream();
+		try {
+			if (range != null) {
+				long rangeLength = range[1] - range[0] + 1;
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+				response.setHeader("Content-Length", Long.toString(rangeLength));
+				dataSource.writeRangeToOutputStream(outputStream, range[0], rangeLength, progressReporter);
+			} else if (variant != null) {
+				if (variant.equals(NewDiskCacheManager.GZIP_VARIANT)) {
+					response.setHeader("Content-Encoding", "gzip");
+				}
+				writeVariant(response, outputStream, dataSource, variant, pluginConfiguration, progressReporter);
+			} else {
+				response.setHeader("Content-Length", Long.toString(length));
+				dataSource.writeRangeToOutputStream(outputStream, 0, length, progressReporter);
+			}
+			outputStream.flush();
+		} catch (IOException e) {
+			// Like a failing serializer on the uncached path, usually the client went away
+			reportError(progressTopic, e);
+		}
+	}
+
+	/**
+	 * Sends the stored compressed variant of a cached file. When there is none yet, the file is compressed while it is sent and the result is stored as
+	 * well, unless another download is already doing that.
+	 */
+	private void writeVariant(HttpServletResponse response, OutputStream outputStream, FileInputStreamDataSource dataSource, String variant, PluginConfiguration pluginConfiguration, ProgressReporter progressReporter) throws IOException {
+		NewDiskCacheManager diskCacheManager = getBimServer().getNewDiskCacheManager();
+		Path variantFile = diskCacheManager.getVariant(dataSource.getFile(), variant);
+		if (variantFile != null) {
+			FileChannel channel = null;
+			try {
+				channel = FileChannel.open(variantFile, StandardOpenOption.READ);
+			} catch (NoSuchFileException e) {
+				// Evicted in the meantime, an open file can still be read when it is removed
+			}
+			if (channel != null) {
+				try (InputStream inputStream = Channels.newInputStream(channel)) {
+					long size = channel.size();
+					response.setHeader("Content-Length", Long.toString(size));
+					IOUtils.copyLarge(inputStream, outputStream);
+					progressReporter.update(size, size);
+				} finally {
+					dataSource.done();
+				}
+				return;
+			}
+		}
+		NewDiskCacheVariantOutputStream variantOutputStream = diskCacheManager.startVariant(dataSource.getFile(), variant);
+		try {
+			// The variant stream does not throw, failing to store the variant does not break the download
+			OutputStream target = variantOutputStream == null ? outputStream : new TeeOutputStream(outputStream, variantOutputStream);
+			if (variant.equals(NewDiskCacheManager.ZIP_VARIANT)) {
+				ZipOutputStream zipOutputStream = new ZipOutputStream(target);
+				zipOutputStream.putNextEntry(new ZipEntry(dataSource.getName() + "." + pluginConfiguration.getString(SerializerPlugin.EXTENSION)));
+				dataSource.writeRangeToOutputStream(zipOutputStream, 0, dataSource.size(), progressReporter);
+				zipOutputStream.finish();
+			} else {
+				GZIPOutputStream gzipOutputStream = new GZIPOutputStream(target);
+				dataSource.writeRangeToOutputStream(gzipOutputStream, 0, dataSource.size(), progressReporter);
+				gzipOutputStream.finish();
+			}
+			if (variantOutputStream != null) {
+				variantOutputStream.commit();
+			}
+		} finally {
+			if (variantOutputStream != null) {
+				variantOutputStream.abort();
+			}
+		}
+	}
+
 	private void processDataSource(OutputStream outputStream, DataSource dataSource, ProgressReporter progressReporter) throws Exception {
 		if (dataSource instanceof ExtendedDataSource) {
 			((ExtendedDataSource) dataSource).writeToOutputStream(outputStream, progressReporter);
@@ -0,0 +1,94 @@
+package org.bimserver.servlets;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+/**
+ * Parsing of the conditional and range request headers the DownloadServlet supports
+ */
+public class RangeRequests {
+	public static final long[] UNSATISFIABLE_RANGE = new long[0];
+
+	private RangeRequests() {
+	}
+
+	public static boolean matchesEtag(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/")) {
+				// If-None-Match uses the weak comparison
+				candidate = candidate.substring(2);
+			}
+			if (candidate.equals("*") || candidate.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return The first and last byte of the requested range, null when the header is not a single valid byte range (the whole file is sent then), or
+	 *         UNSATISFIABLE_RANGE
+	 */
+	public static long[] parseRange(String rangeHeader, long length) {
+		if (!rangeHeader.startsWith("bytes=") || rangeHeader.contains(",")) {
+			return null;
+		}
+		String spec = rangeHeader.substring("bytes=".length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash == -1) {
+			return null;
+		}
+		try {
+			long first;
+			long last;
+			if (dash == 0) {
+				// Suffix range, the last n bytes
+				long suffixLength = Long.parseLong(spec.substring(1));
+				if (suffixLength < 0) {
+					return null;
+				}
+				if (suffixLength == 0) {
+					return UNSATISFIABLE_RANGE;
+				}
+				first = Math.max(0, length - suffixLength);
+				last = length - 1;
+			} else {
+				first = Long.parseLong(spec.substring(0, dash));
+				if (dash == spec.length() - 1) {
+					last = length - 1;
+				} else {
+					last = Long.parseLong(spec.substring(dash + 1));
+					if (last < first) {
+						// Syntactically invalid, the header is ignored
+						return null;
+					}
+					last = Math.min(length - 1, last);
+				}
+			}
+			if (first >= length) {
+				return UNSATISFIABLE_RANGE;
+			}
+			return new long[] { first, last };
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+}
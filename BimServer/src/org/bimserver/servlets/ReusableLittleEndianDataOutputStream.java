@@ -20,60 +20,90 @@ package org.bimserver.servlets;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import org.bimserver.plugins.LittleEndianSerializerDataOutputStream;
-import org.bimserver.utils.GrowingByteBuffer;
+import org.bimserver.utils.ByteBufferPool;
 
 import com.google.common.base.Charsets;
 import com.google.common.primitives.Longs;
 
+/**
+ * Writes into a buffer taken from a {@link ByteBufferPool}, which grows by taking a larger buffer from the pool. {@link #release()} gives the buffer
+ * back, the next write takes a new one.
+ */
 public class ReusableLittleEndianDataOutputStream extends LittleEndianSerializerDataOutputStream {
 
-	private final GrowingByteBuffer growingByteBuffer = new GrowingByteBuffer(1024 * 1024);
+	private static final int INITIAL_CAPACITY = 1024 * 1024;
+	private final ByteBufferPool byteBufferPool;
 	private final DataOutputStream dataOutputStream;
+	private ByteBuffer buffer;
 
-	public ReusableLittleEndianDataOutputStream() {
+	public ReusableLittleEndianDataOutputStream(ByteBufferPool byteBufferPool) {
+		this.byteBufferPool = byteBufferPool;
 		dataOutputStream = new DataOutputStream(new OutputStream() {
 			@Override
 			public void write(int b) throws IOException {
-				growingByteBuffer.putNoCheck((byte) b);
+				buffer.put((byte) b);
 			}
 
 			@Override
 			public void write(byte[] b, int off, int len) throws IOException {
-				growingByteBuffer.putNoCheck(b, off, len);
+				buffer.put(b, off, len);
 			}
 		});
 	}
 	
-	public GrowingByteBuffer getGrowingByteBuffer() {
-		return growingByteBuffer;
+	/**
+	 * @return The current buffer, its position is the amount of bytes written. Changes when the capacity is extended
+	 */
+	public ByteBuffer getByteBuffer() {
+		ensureExtraCapacity(0);
+		return buffer;
+	}
+
+	/**
+	 * @return A view of the bytes written since the last reset or release
+	 */
+	public ByteBuffer getWrittenBytes() {
+		ByteBuffer writtenBytes = getByteBuffer().duplicate();
+		writtenBytes.flip();
+		return writtenBytes;
+	}
+
+	/**
+	 * Gives the buffer back to the pool, the written bytes are discarded
+	 */
+	public void release() {
+		byteBufferPool.release(buffer);
+		buffer = null;
 	}
 
 	@Override
 	public void write(byte[] b, int off, int len) throws IOException {
-		growingByteBuffer.ensureExtraCapacity(len);
+		ensureExtraCapacity(len);
 		dataOutputStream.write(b, off, len);
 	}
 
 	public int pos() {
-		return growingByteBuffer.position();
+		return buffer == null ? 0 : buffer.position();
 	}
 	
 	@Override
 	public void align4() throws IOException {
-		int extra = 4 - (growingByteBuffer.position() % 4);
+		int extra = 4 - (pos() % 4);
 		if (extra > 0 && extra != 4) {
-			growingByteBuffer.ensureExtraCapacity(extra);
+			ensureExtraCapacity(extra);
 			dataOutputStream.write(new byte[extra]);
 		}
 	}
 	
 	@Override
 	public void align8() throws IOException {
-		int extra = 8 - (growingByteBuffer.position() % 8);
+		int extra = 8 - (pos() % 8);
 		if (extra > 0 && extra != 8) {
-			growingByteBuffer.ensureExtraCapacity(extra);
+			ensureExtraCapacity(extra);
 			dataOutputStream.write(new byte[extra]);
 		}
 	}
@@ -119,7 +149,7 @@ public class ReusableLittleEndianDataOutputStream extends LittleEndianSerializer
 	 */
 	@Override
 	public void writeInt(int v) throws IOException {
-		growingByteBuffer.ensureExtraCapacity(4);
+		ensureExtraCapacity(4);
 		dataOutputStream.write(0xFF & v);
 		dataOutputStream.write(0xFF & (v >> 8));
 		dataOutputStream.write(0xFF & (v >> 16));
@@ -150,54 +180,66 @@ public class ReusableLittleEndianDataOutputStream extends LittleEndianSerializer
 	 */
 	@Override
 	public void writeShort(short v) throws IOException {
-		growingByteBuffer.ensureExtraCapacity(2);
+		ensureExtraCapacity(2);
 		dataOutputStream.write(0xFF & v);
 		dataOutputStream.write(0xFF & (v >> 8));
 	}
 
 	@Override
 	public void writeUTF(String str) throws IOException {
-		growingByteBuffer.ensureExtraCapacity(2 + str.getBytes(Charsets.UTF_8).length);
+		ensureExtraCapacity(2 + str.getBytes(Charsets.UTF_8).length);
 		dataOutputStream.writeUTF(str);
 	}
 
 	@Override
 	public void write(int b) throws IOException {
-		growingByteBuffer.ensureExtraCapacity(1);
+		ensureExtraCapacity(1);
 		dataOutputStream.write(b);
 	}
 
 	@Override
 	public void write(byte[] b) throws IOException {
-		growingByteBuffer.ensureExtraCapacity(b.length);
+		ensureExtraCapacity(b.length);
 		dataOutputStream.write(b);
 	}
 
 	public void reset() {
-		growingByteBuffer.position(0);
+		if (buffer != null) {
+			buffer.clear();
+		}
 	}
 
 	@Override
 	public void writeByte(byte val) throws IOException {
-		growingByteBuffer.ensureExtraCapacity(1);
+		ensureExtraCapacity(1);
 		dataOutputStream.write((byte)val);
 	}
 
 	@Override
 	public void writeByte(int val) throws IOException {
-		growingByteBuffer.ensureExtraCapacity(1);
+		ensureExtraCapacity(1);
 		dataOutputStream.writeByte(val);
 	}
 
 	@Override
 	public void writeByteUnchecked(int val) throws IOException {
-		growingByteBuffer.ensureExtraCapacity(1);
+		ensureExtraCapacity(1);
 		dataOutputStream.writeByte(val);
 	}
 	
 	@Override
 	public void ensureExtraCapacity(int length) {
-		growingByteBuffer.ensureExtraCapacity(length);
+		if (buffer == null) {
+			buffer = byteBufferPool.acquire(Math.max(INITIAL_CAPACITY, length));
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+		} else if (buffer.remaining() < length) {
+			ByteBuffer newBuffer = byteBufferPool.acquire(Math.max(buffer.capacity() * 2, buffer.position() + length));
+			newBuffer.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.flip();
+			newBuffer.put(buffer);
+			byteBufferPool.release(buffer);
+			buffer = newBuffer;
+		}
 	}
 	
 	@Override
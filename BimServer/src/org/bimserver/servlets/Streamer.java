@@ -57,7 +57,6 @@ import org.bimserver.shared.exceptions.ServerException;
 import org.bimserver.shared.exceptions.UserException;
 import org.bimserver.shared.interfaces.NotificationInterface;
 import org.bimserver.shared.interfaces.RemoteServiceInterface;
-import org.bimserver.utils.GrowingByteBuffer;
 import org.bimserver.webservices.InvalidTokenException;
 import org.bimserver.webservices.ServiceMap;
 import org.slf4j.Logger;
@@ -104,6 +103,7 @@ public class Streamer implements EndPoint {
 					bimServer.getExecutorService().execute(new Runnable() {
 						public void run() {
 							Writer writer = null;
+							ReusableLittleEndianDataOutputStream byteArrayOutputStream = null;
 							try {
 								LongAction longAction = bimServer.getLongActionManager().getLongAction(topicId);
 								if (longAction instanceof LongStreamingDownloadAction) {
@@ -121,13 +121,8 @@ public class Streamer implements EndPoint {
 								}
 								boolean writeMessage = true;
 								
-								// TODO pool the buffers
-
-								// TODO whenever a large object has been sent,
-								// the large buffer stays in memory until
-								// websocket closes...
-								ReusableLittleEndianDataOutputStream byteArrayOutputStream = new ReusableLittleEndianDataOutputStream();
-								GrowingByteBuffer growingByteBuffer = byteArrayOutputStream.getGrowingByteBuffer();
+								// The buffer is given back to the server-wide pool after every flush, so large buffers are not kept per stream
+								byteArrayOutputStream = new ReusableLittleEndianDataOutputStream(bimServer.getByteBufferPool());
 								ProgressReporter progressReporter = new ProgressReporter() {
 									@Override
 									public void update(long progress, long max) {
@@ -160,18 +155,19 @@ public class Streamer implements EndPoint {
 								// messagesSent++;
 								// }
 
-								byteArrayOutputStream.writeLongUnchecked(topicId);
-								byteArrayOutputStream.writeLongUnchecked(0);
+								byteArrayOutputStream.writeLong(topicId);
+								byteArrayOutputStream.writeLong(0);
 								do {
 									writeMessage = writer.writeMessage(byteArrayOutputStream, progressReporter);
 									messagesSent++;
 									// TODO we can just keep track of time, and for example always flush when nothing was sent in a second. Need to keep in mind that there could 63 other threads writing...
-									if (growingByteBuffer.usedSize() >= ONE_MB || !writeMessage) {
-										ByteBuffer newBuffer = ByteBuffer.wrap(growingByteBuffer.array(), 0, growingByteBuffer.usedSize());
-										streamingSocketInterface.sendBlocking(newBuffer);
-										byteArrayOutputStream.reset();
-										byteArrayOutputStream.writeLongUnchecked(topicId);
-										byteArrayOutputStream.writeLongUnchecked(0);
+									if (byteArrayOutputStream.pos() >= ONE_MB || !writeMessage) {
+										streamingSocketInterface.sendBlocking(byteArrayOutputStream.getWrittenBytes());
+										byteArrayOutputStream.release();
+										if (writeMessage) {
+											byteArrayOutputStream.writeLong(topicId);
+											byteArrayOutputStream.writeLong(0);
+										}
 									}
 								} while (writeMessage);
 								
@@ -192,6 +188,9 @@ public class Streamer implements EndPoint {
 							} catch (SerializerException e) {
 								LOGGER.error("", e);
 							} finally {
+								if (byteArrayOutputStream != null) {
+									byteArrayOutputStream.release();
+								}
 								try {
 									if (writer != null) {
 										writer.close();
@@ -38,8 +38,10 @@ import org.bimserver.BimServer;
 import org.bimserver.interfaces.objects.SFile;
 import org.bimserver.interfaces.objects.SLongCheckinActionState;
 import org.bimserver.models.log.AccessMethod;
+import org.bimserver.shared.exceptions.UserException;
 import org.bimserver.shared.interfaces.ServiceInterface;
 import org.bimserver.utils.InputStreamDataSource;
+import org.bimserver.webservices.ServiceMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,9 +52,11 @@ public class UploadServlet extends SubServlet {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(UploadServlet.class);
 	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+	private final ChunkedUploadManager chunkedUploadManager;
 
 	public UploadServlet(BimServer bimServer, ServletContext servletContext) {
 		super(bimServer, servletContext);
+		chunkedUploadManager = new ChunkedUploadManager(bimServer.getHomeDir().resolve("tmp").resolve("uploads"));
 	}
 
 	@Override
@@ -83,6 +87,11 @@ public class UploadServlet extends SubServlet {
 				String compression = null;
 				String action = null;
 				long topicId = -1;
+				// Chunked uploads
+				String uploadId = null;
+				long offset = -1;
+				String checksum = null;
+				String fileChecksum = null;
 				try {
 					while (iter.hasNext()) {
 						FileItemInput item = iter.next();
@@ -105,7 +114,20 @@ public class UploadServlet extends SubServlet {
 								compression = IOUtils.toString(item.getInputStream(), "UTF-8");
 							} else if ("deserializerOid".equals(item.getFieldName())) {
 								deserializerOid = Long.parseLong(IOUtils.toString(item.getInputStream(), "UTF-8"));
+							} else if ("fileName".equals(item.getFieldName())) {
+								name = IOUtils.toString(item.getInputStream(), "UTF-8");
+							} else if ("uploadId".equals(item.getFieldName())) {
+								uploadId = IOUtils.toString(item.getInputStream(), "UTF-8");
+							} else if ("offset".equals(item.getFieldName())) {
+								offset = Long.parseLong(IOUtils.toString(item.getInputStream(), "UTF-8"));
+							} else if ("checksum".equals(item.getFieldName())) {
+								checksum = IOUtils.toString(item.getInputStream(), "UTF-8");
+							} else if ("fileChecksum".equals(item.getFieldName())) {
+								fileChecksum = IOUtils.toString(item.getInputStream(), "UTF-8");
 							}
+						} else if ("chunk".equals(action)) {
+							ChunkedUpload chunkedUpload = chunkedUploadManager.get(uploadId, getUoid(token));
+							result.put("received", chunkedUpload.write(offset, item.getInputStream(), checksum));
 						} else {
 							name = item.getName();
 							in = item.getInputStream();
@@ -120,14 +142,7 @@ public class UploadServlet extends SubServlet {
 								file.setMime(item.getContentType());
 								result.put("fileId", serviceInterface.uploadFile(file));
 							} else if (poid != -1) {
-								InputStream realStream = null;
-								if ("gzip".equals(compression)) {
-									realStream = new GZIPInputStream(in);
-								} else if ("deflate".equals(compression)) {
-									realStream = new InflaterInputStream(in);
-								} else {
-									realStream = in;
-								}
+								InputStream realStream = decompress(in, compression);
 
 								// When uploading in async mode, we want to return as soon as the whole stream has been read (that's not when the checkin process has finished!)
 								TriggerOnCloseInputStream triggerOnCloseInputStream = new TriggerOnCloseInputStream(realStream);
@@ -165,6 +180,32 @@ public class UploadServlet extends SubServlet {
 							}
 						}
 					}
+					if ("startChunkedUpload".equals(action)) {
+						ServiceMap serviceMap = getBimServer().getServiceFactory().get(token, AccessMethod.INTERNAL);
+						ServiceInterface service = serviceMap.get(ServiceInterface.class);
+						if (topicId == -1) {
+							topicId = service.initiateCheckin(poid, deserializerOid);
+						}
+						ChunkedUpload chunkedUpload = chunkedUploadManager.create(serviceMap.getAuthorization().getUoid());
+						chunkedUpload.setTopicId(topicId);
+						chunkedUpload.setCheckin(poid, comment, deserializerOid, name, merge, compression);
+						result.put("uploadId", chunkedUpload.getUploadId());
+						result.put("topicId", topicId);
+					} else if ("chunkedUploadStatus".equals(action) || "finishChunkedUpload".equals(action)) {
+						ServiceMap serviceMap = getBimServer().getServiceFactory().get(token, AccessMethod.INTERNAL);
+						ChunkedUpload chunkedUpload = chunkedUploadManager.get(uploadId, serviceMap.getAuthorization().getUoid());
+						if ("finishChunkedUpload".equals(action)) {
+							chunkedUploadManager.finish(chunkedUpload, fileChecksum);
+							startChunkedCheckin(serviceMap.get(ServiceInterface.class), chunkedUpload);
+						}
+						result.put("uploadId", chunkedUpload.getUploadId());
+						result.put("topicId", chunkedUpload.getTopicId());
+						result.put("received", chunkedUpload.getReceived());
+						result.put("complete", chunkedUpload.isComplete());
+						if (chunkedUpload.getError() != null) {
+							result.put("error", chunkedUpload.getError());
+						}
+					}
 				} catch (MalformedStreamException e) {
 					LOGGER.error(comment);
 					LOGGER.error("", e);
@@ -178,6 +219,45 @@ public class UploadServlet extends SubServlet {
 		response.getWriter().write(result.toString());
 	}
 
+	private InputStream decompress(InputStream in, String compression) throws IOException {
+		if ("gzip".equals(compression)) {
+			return new GZIPInputStream(in);
+		} else if ("deflate".equals(compression)) {
+			return new InflaterInputStream(in);
+		} else {
+			return in;
+		}
+	}
+
+	private long getUoid(String token) throws UserException {
+		return getBimServer().getServiceFactory().get(token, AccessMethod.INTERNAL).getAuthorization().getUoid();
+	}
+
+	/**
+	 * Starts the checkin of a finished chunked upload, the progress is reported on the topic of the upload
+	 */
+	private void startChunkedCheckin(final ServiceInterface service, final ChunkedUpload chunkedUpload) throws IOException {
+		final InputStream inputStream = chunkedUploadManager.openInputStream(chunkedUpload);
+		getBimServer().getExecutorService().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					InputStreamDataSource inputStreamDataSource = new InputStreamDataSource(decompress(inputStream, chunkedUpload.getCompression()));
+					inputStreamDataSource.setName(chunkedUpload.getFileName());
+					service.checkinInitiatedAsync(chunkedUpload.getTopicId(), chunkedUpload.getPoid(), chunkedUpload.getComment(), chunkedUpload.getDeserializerOid(), -1L, chunkedUpload.getFileName(), new DataHandler(inputStreamDataSource), chunkedUpload.isMerge());
+				} catch (Exception e) {
+					LOGGER.error("", e);
+					chunkedUpload.fail(e.getMessage() == null ? "Checkin of upload " + chunkedUpload.getUploadId() + " failed" : e.getMessage());
+					try {
+						inputStream.close();
+					} catch (IOException e1) {
+						LOGGER.error("", e1);
+					}
+				}
+			}
+		});
+	}
+
 	private void sendException(HttpServletResponse response, Exception exception) {
 		try {
 			ObjectNode responseObject = OBJECT_MAPPER.createObjectNode();
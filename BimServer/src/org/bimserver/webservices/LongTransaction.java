@@ -17,7 +17,9 @@ package org.bimserver.webservices;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
+import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.bimserver.changes.Change;
@@ -27,6 +29,7 @@ public class LongTransaction {
 
 	private long tid;
 	private Set<Change> changes = new LinkedHashSet<Change>();
+	private final Set<String> batchIds = new HashSet<String>();
 	private int pid;
 	private int rid;
 	private long poid;
@@ -58,6 +61,19 @@ public class LongTransaction {
 		changes.add(change);
 	}
 
+	/**
+	 * Adds all changes of a batch, unless a batch with the same id has already been added (a client retrying after a lost response)
+	 * 
+	 * @return false when the batch was a duplicate and nothing has been added
+	 */
+	public synchronized boolean addBatch(String batchId, List<Change> batchChanges) {
+		if (batchId != null && !batchIds.add(batchId)) {
+			return false;
+		}
+		changes.addAll(batchChanges);
+		return true;
+	}
+
 	public void close() {
 	}
 
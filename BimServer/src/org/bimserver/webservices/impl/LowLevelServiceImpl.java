@@ -19,11 +19,14 @@ package org.bimserver.webservices.impl;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 import org.bimserver.BimserverDatabaseException;
 import org.bimserver.changes.AddAttributeChange;
 import org.bimserver.changes.AddReferenceChange;
+import org.bimserver.changes.ChangeBatch;
 import org.bimserver.changes.CreateObjectChange;
+import org.bimserver.changes.JsonChangeReader;
 import org.bimserver.changes.RemoveAllReferencesChange;
 import org.bimserver.changes.RemoveAttributeChange;
 import org.bimserver.changes.RemoveObjectChange;
@@ -107,12 +110,19 @@ public class LowLevelServiceImpl extends GenericServiceImpl implements LowLevelI
 				throw new UserException("No transaction with tid " + tid + " was found");
 			}
 			CommitTransactionDatabaseAction action = new CommitTransactionDatabaseAction(getBimServer(), session, getInternalAccessMethod(), getAuthorization(), longTransaction, comment, regenerateAllGeometry);
+			Lock checkinLock = null;
 			try {
+				// Same as a checkin, this updates the virtual revisions of all parent projects
+				checkinLock = getBimServer().getCheckinLockManager().getLock(getBimServer().getDatabase(), longTransaction.getPoid());
+				checkinLock.lock();
 				session.executeAndCommitAction(action);
 				return action.getRevision().getOid();
 			} catch (BimserverDatabaseException e) {
 				LOGGER.error("", e);
 			} finally {
+				if (checkinLock != null) {
+					checkinLock.unlock();
+				}
 				session.close();
 			}
 		} catch (NoTransactionException e) {
@@ -131,6 +141,21 @@ public class LowLevelServiceImpl extends GenericServiceImpl implements LowLevelI
 		}
 	}
 
+	@Override
+	public void applyChanges(Long tid, String changes) throws UserException, ServerException {
+		requireAuthenticationAndRunningServer();
+		try {
+			LongTransaction longTransaction = getBimServer().getLongTransactionManager().get(tid);
+			// All changes are read before any is added, so an invalid change does not leave the transaction half updated
+			ChangeBatch changeBatch = new JsonChangeReader().readBatch(changes);
+			if (!longTransaction.addBatch(changeBatch.getBatchId(), changeBatch.getChanges())) {
+				LOGGER.debug("Ignoring batch " + changeBatch.getBatchId() + ", it has already been applied to transaction " + tid);
+			}
+		} catch (Exception e) {
+			handleException(e);
+		}
+	}
+
 	@Override
 	public void addStringAttribute(Long tid, Long oid, String attributeName, String value) throws UserException, ServerException {
 		requireAuthenticationAndRunningServer();
@@ -45,7 +45,6 @@ import org.bimserver.shared.exceptions.PublicInterfaceNotFoundException;
 import org.bimserver.shared.exceptions.ServerException;
 import org.bimserver.shared.exceptions.ServiceException;
 import org.bimserver.shared.exceptions.UserException;
-import org.bimserver.shared.interfaces.LowLevelInterface;
 import org.eclipse.emf.common.notify.Notification;
 import org.eclipse.emf.ecore.EClass;
 import org.eclipse.emf.ecore.EClassifier;
@@ -66,6 +65,7 @@ public class ClientIfcModel extends IfcModel implements GeometryTarget {
 	}
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(ClientIfcModel.class);
+	private static final int DEFAULT_CHANGE_BUFFER_SIZE = 10000;
 	private BimServerClient bimServerClient;
 	private ModelState modelState = ModelState.NONE;
 	private long tid = -1;
@@ -75,6 +75,9 @@ public class ClientIfcModel extends IfcModel implements GeometryTarget {
 	private boolean recordChanges;
 	private boolean includeGeometry;
 	private Set<Long> geometryTried = new HashSet<>();
+	private final LowLevelChangeBuffer changeBuffer = new LowLevelChangeBuffer();
+	private int changeBufferSize = DEFAULT_CHANGE_BUFFER_SIZE;
+	private boolean automaticFlushFailed;
 
 	private ClientDebugInfo clientDebugInfo = new ClientDebugInfo();
 	private boolean deep;
@@ -169,15 +172,15 @@ public class ClientIfcModel extends IfcModel implements GeometryTarget {
 				if (getModelState() != ModelState.LOADING) {
 					try {
 						if (eFeature.getEType() == EcorePackage.eINSTANCE.getEString()) {
-							bimServerClient.getLowLevelInterface().addStringAttribute(getTransactionId(), idEObject.getOid(), eFeature.getName(), notification.getNewStringValue());
+							changeBuffer.addAttribute(idEObject.getOid(), eFeature.getName(), notification.getNewStringValue());
 						} else if (eFeature.getEType() == EcorePackage.eINSTANCE.getELong() || eFeature.getEType() == EcorePackage.eINSTANCE.getELongObject()) {
 							throw new UnsupportedOperationException();
 						} else if (eFeature.getEType() == EcorePackage.eINSTANCE.getEDouble() || eFeature.getEType() == EcorePackage.eINSTANCE.getEDoubleObject()) {
-							bimServerClient.getLowLevelInterface().addDoubleAttribute(getTransactionId(), idEObject.getOid(), eFeature.getName(), (Double) notification.getNewValue());
+							changeBuffer.addAttribute(idEObject.getOid(), eFeature.getName(), (Double) notification.getNewValue());
 						} else if (eFeature.getEType() == EcorePackage.eINSTANCE.getEBoolean() || eFeature.getEType() == EcorePackage.eINSTANCE.getEBooleanObject()) {
-							bimServerClient.getLowLevelInterface().addBooleanAttribute(getTransactionId(), idEObject.getOid(), eFeature.getName(), notification.getNewBooleanValue());
+							changeBuffer.addAttribute(idEObject.getOid(), eFeature.getName(), notification.getNewBooleanValue());
 						} else if (eFeature.getEType() == EcorePackage.eINSTANCE.getEInt() || eFeature.getEType() == EcorePackage.eINSTANCE.getEIntegerObject()) {
-							bimServerClient.getLowLevelInterface().addIntegerAttribute(getTransactionId(), idEObject.getOid(), eFeature.getName(), notification.getNewIntValue());
+							changeBuffer.addAttribute(idEObject.getOid(), eFeature.getName(), notification.getNewIntValue());
 						} else if (eFeature.getEType() == EcorePackage.eINSTANCE.getEByteArray()) {
 							throw new UnsupportedOperationException();
 						} else if (eFeature.getEType() instanceof EEnum) {
@@ -185,11 +188,12 @@ public class ClientIfcModel extends IfcModel implements GeometryTarget {
 						} else if (eFeature instanceof EReference) {
 							if (notification.getNewValue() == null) {
 							} else {
-								bimServerClient.getLowLevelInterface().addReference(getTransactionId(), idEObject.getOid(), eFeature.getName(), ((IdEObject) notification.getNewValue()).getOid());
+								changeBuffer.addReference(idEObject.getOid(), eFeature.getName(), ((IdEObject) notification.getNewValue()).getOid());
 							}
 						} else {
 							throw new RuntimeException("Unimplemented " + eFeature.getEType().getName() + " " + notification.getNewValue());
 						}
+						flushChangesIfNeeded();
 					} catch (ServiceException e) {
 						LOGGER.error("", e);
 					} catch (PublicInterfaceNotFoundException e) {
@@ -201,10 +205,11 @@ public class ClientIfcModel extends IfcModel implements GeometryTarget {
 					try {
 						if (eFeature instanceof EReference) {
 							IdEObject oldValue = (IdEObject) notification.getOldValue();
-							bimServerClient.getLowLevelInterface().removeReferenceByOid(getTransactionId(), idEObject.getOid(), eFeature.getName(), oldValue.getOid());
+							changeBuffer.removeReferenceByOid(idEObject.getOid(), eFeature.getName(), oldValue.getOid());
 						} else {
 							throw new RuntimeException("Unimplemented " + eFeature.getEType().getName() + " " + notification.getNewValue());
 						}
+						flushChangesIfNeeded();
 					} catch (ServiceException e) {
 						LOGGER.error("", e);
 					} catch (PublicInterfaceNotFoundException e) {
@@ -288,9 +293,33 @@ public class ClientIfcModel extends IfcModel implements GeometryTarget {
 		if (tid == -1) {
 			throw new UserException("No transaction was started");
 		}
+		flushChanges();
 		return bimServerClient.getLowLevelInterface().commitTransaction(tid, comment, true);
 	}
 
+	/**
+	 * Sends the changes that have not been sent yet to the server, this is done automatically by commit and every time changeBufferSize changes have been collected
+	 */
+	public void flushChanges() throws ServerException, UserException, PublicInterfaceNotFoundException {
+		changeBuffer.flush(bimServerClient.getLowLevelInterface(), tid);
+		automaticFlushFailed = false;
+	}
+
+	/**
+	 * @param changeBufferSize The amount of changes to collect before sending them to the server in one call, 1 sends every change right away
+	 */
+	public void setChangeBufferSize(int changeBufferSize) {
+		this.changeBufferSize = changeBufferSize;
+	}
+
+	private void flushChangesIfNeeded() throws ServerException, UserException, PublicInterfaceNotFoundException {
+		// After a failed flush the changes stay buffered, they are sent again by flushChanges or commit instead of with every following change
+		if (changeBuffer.size() >= changeBufferSize && !automaticFlushFailed) {
+			automaticFlushFailed = true;
+			flushChanges();
+		}
+	}
+
 	private void loadDeep() throws ServerException, UserException, PublicInterfaceNotFoundException, QueryException {
 		long start = System.nanoTime();
 		if (modelState != ModelState.FULLY_LOADED && modelState != ModelState.LOADING) {
@@ -715,7 +744,6 @@ public class ClientIfcModel extends IfcModel implements GeometryTarget {
 			if (getModelState() != ModelState.LOADING && ((IdEObjectImpl) idEObject).getLoadingState() != State.LOADING) {
 				try {
 					if (newValue != EStructuralFeature.Internal.DynamicValueHolder.NIL) {
-						LowLevelInterface lowLevelInterface = getBimServerClient().getLowLevelInterface();
 						if (eFeature.getName().equals("wrappedValue")) {
 							// Wrapped objects get the same oid as their
 							// "parent" object, so we know which object the
@@ -749,38 +777,38 @@ public class ClientIfcModel extends IfcModel implements GeometryTarget {
 									}
 								}
 								if (eFeature.getEType() == EcorePackage.eINSTANCE.getEString()) {
-									lowLevelInterface.setWrappedStringAttribute(getTransactionId(), idEObject.getOid(), foundReference.getName(), idEObject.eClass().getName(), (String) newValue);
+									changeBuffer.setWrappedAttribute(idEObject.getOid(), foundReference.getName(), idEObject.eClass().getName(), (String) newValue);
 								} else if (eFeature.getEType() == EcorePackage.eINSTANCE.getELong() || eFeature.getEType() == EcorePackage.eINSTANCE.getELongObject()) {
-									lowLevelInterface.setWrappedLongAttribute(getTransactionId(), idEObject.getOid(), foundReference.getName(), idEObject.eClass().getName(), (Long) newValue);
+									changeBuffer.setWrappedAttribute(idEObject.getOid(), foundReference.getName(), idEObject.eClass().getName(), (Long) newValue);
 								} else if (eFeature.getEType() == EcorePackage.eINSTANCE.getEDouble() || eFeature.getEType() == EcorePackage.eINSTANCE.getEDoubleObject()) {
-									lowLevelInterface.setWrappedDoubleAttribute(getTransactionId(), idEObject.getOid(), foundReference.getName(), idEObject.eClass().getName(), (Double) newValue);
+									changeBuffer.setWrappedAttribute(idEObject.getOid(), foundReference.getName(), idEObject.eClass().getName(), (Double) newValue);
 								} else if (eFeature.getEType() == EcorePackage.eINSTANCE.getEBoolean() || eFeature.getEType() == EcorePackage.eINSTANCE.getEBooleanObject()) {
-									lowLevelInterface.setWrappedBooleanAttribute(getTransactionId(), idEObject.getOid(), foundReference.getName(), idEObject.eClass().getName(), (Boolean) newValue);
+									changeBuffer.setWrappedAttribute(idEObject.getOid(), foundReference.getName(), idEObject.eClass().getName(), (Boolean) newValue);
 								} else if (eFeature.getEType() == EcorePackage.eINSTANCE.getEInt() || eFeature.getEType() == EcorePackage.eINSTANCE.getEIntegerObject()) {
-									lowLevelInterface.setWrappedIntegerAttribute(getTransactionId(), idEObject.getOid(), foundReference.getName(), idEObject.eClass().getName(), (Integer) newValue);
+									changeBuffer.setWrappedAttribute(idEObject.getOid(), foundReference.getName(), idEObject.eClass().getName(), (Integer) newValue);
 								} else if (eFeature.getEType() == EcorePackage.eINSTANCE.getEByteArray()) {
 									throw new RuntimeException("Unimplemented " + eFeature.getEType().getName() + " " + newValue);
 								}
 							} else {
 								if (eFeature.getEType() == EcorePackage.eINSTANCE.getEString()) {
-									lowLevelInterface.setStringAttribute(getTransactionId(), idEObject.getOid(), eFeature.getName(), (String) newValue);
+									changeBuffer.setAttribute(idEObject.getOid(), eFeature.getName(), (String) newValue);
 								} else if (eFeature.getEType() == EcorePackage.eINSTANCE.getELong() || eFeature.getEType() == EcorePackage.eINSTANCE.getELongObject()) {
-									lowLevelInterface.setLongAttribute(getTransactionId(), idEObject.getOid(), eFeature.getName(), (Long) newValue);
+									changeBuffer.setAttribute(idEObject.getOid(), eFeature.getName(), (Long) newValue);
 								} else if (eFeature.getEType() == EcorePackage.eINSTANCE.getEDouble() || eFeature.getEType() == EcorePackage.eINSTANCE.getEDoubleObject()) {
-									lowLevelInterface.setDoubleAttribute(getTransactionId(), idEObject.getOid(), eFeature.getName(), (Double) newValue);
+									changeBuffer.setAttribute(idEObject.getOid(), eFeature.getName(), (Double) newValue);
 								} else if (eFeature.getEType() == EcorePackage.eINSTANCE.getEBoolean() || eFeature.getEType() == EcorePackage.eINSTANCE.getEBooleanObject()) {
-									lowLevelInterface.setBooleanAttribute(getTransactionId(), idEObject.getOid(), eFeature.getName(), (Boolean) newValue);
+									changeBuffer.setAttribute(idEObject.getOid(), eFeature.getName(), (Boolean) newValue);
 								} else if (eFeature.getEType() == EcorePackage.eINSTANCE.getEInt() || eFeature.getEType() == EcorePackage.eINSTANCE.getEIntegerObject()) {
-									lowLevelInterface.setIntegerAttribute(getTransactionId(), idEObject.getOid(), eFeature.getName(), (Integer) newValue);
+									changeBuffer.setAttribute(idEObject.getOid(), eFeature.getName(), (Integer) newValue);
 								} else if (eFeature.getEType() == EcorePackage.eINSTANCE.getEByteArray()) {
-									lowLevelInterface.setByteArrayAttribute(getTransactionId(), idEObject.getOid(), eFeature.getName(), (Byte[]) newValue);
+									changeBuffer.setAttribute(idEObject.getOid(), eFeature.getName(), (Byte[]) newValue);
 								} else if (eFeature.getEType() instanceof EEnum) {
-									lowLevelInterface.setEnumAttribute(getTransactionId(), idEObject.getOid(), eFeature.getName(), ((Enum<?>) newValue).toString());
+									changeBuffer.setAttribute(idEObject.getOid(), eFeature.getName(), ((Enum<?>) newValue).toString());
 								} else if (eFeature instanceof EReference) {
 									if (newValue == null) {
-										lowLevelInterface.setReference(getTransactionId(), idEObject.getOid(), eFeature.getName(), -1L);
+										changeBuffer.setReference(idEObject.getOid(), eFeature.getName(), -1L);
 									} else {
-										lowLevelInterface.setReference(getTransactionId(), idEObject.getOid(), eFeature.getName(), ((IdEObject) newValue).getOid());
+										changeBuffer.setReference(idEObject.getOid(), eFeature.getName(), ((IdEObject) newValue).getOid());
 									}
 								} else {
 									throw new RuntimeException("Unimplemented " + eFeature.getEType().getName() + " " + newValue);
@@ -788,15 +816,15 @@ public class ClientIfcModel extends IfcModel implements GeometryTarget {
 							}
 						} else {
 							if (eFeature.getEType() == EcorePackage.eINSTANCE.getEString()) {
-								lowLevelInterface.setStringAttribute(getTransactionId(), idEObject.getOid(), eFeature.getName(), (String) newValue);
+								changeBuffer.setAttribute(idEObject.getOid(), eFeature.getName(), (String) newValue);
 							} else if (eFeature.getEType() == EcorePackage.eINSTANCE.getELong() || eFeature.getEType() == EcorePackage.eINSTANCE.getELongObject()) {
-								lowLevelInterface.setLongAttribute(getTransactionId(), idEObject.getOid(), eFeature.getName(), (Long) newValue);
+								changeBuffer.setAttribute(idEObject.getOid(), eFeature.getName(), (Long) newValue);
 							} else if (eFeature.getEType() == EcorePackage.eINSTANCE.getEDouble() || eFeature.getEType() == EcorePackage.eINSTANCE.getEDoubleObject()) {
-								lowLevelInterface.setDoubleAttribute(getTransactionId(), idEObject.getOid(), eFeature.getName(), (Double) newValue);
+								changeBuffer.setAttribute(idEObject.getOid(), eFeature.getName(), (Double) newValue);
 							} else if (eFeature.getEType() == EcorePackage.eINSTANCE.getEBoolean() || eFeature.getEType() == EcorePackage.eINSTANCE.getEBooleanObject()) {
-								lowLevelInterface.setBooleanAttribute(getTransactionId(), idEObject.getOid(), eFeature.getName(), (Boolean) newValue);
+								changeBuffer.setAttribute(idEObject.getOid(), eFeature.getName(), (Boolean) newValue);
 							} else if (eFeature.getEType() == EcorePackage.eINSTANCE.getEInt() || eFeature.getEType() == EcorePackage.eINSTANCE.getEIntegerObject()) {
-								lowLevelInterface.setIntegerAttribute(getTransactionId(), idEObject.getOid(), eFeature.getName(), (Integer) newValue);
+								changeBuffer.setAttribute(idEObject.getOid(), eFeature.getName(), (Integer) newValue);
 							} else if (eFeature.getEType() == EcorePackage.eINSTANCE.getEByteArray()) {
 								if (newValue instanceof byte[]) {
 									Byte[] n = new Byte[((byte[]) newValue).length];
@@ -805,19 +833,20 @@ public class ClientIfcModel extends IfcModel implements GeometryTarget {
 									}
 									newValue = n;
 								}
-								lowLevelInterface.setByteArrayAttribute(getTransactionId(), idEObject.getOid(), eFeature.getName(), (Byte[]) newValue);
+								changeBuffer.setAttribute(idEObject.getOid(), eFeature.getName(), (Byte[]) newValue);
 							} else if (eFeature.getEType() instanceof EEnum) {
-								lowLevelInterface.setEnumAttribute(getTransactionId(), idEObject.getOid(), eFeature.getName(), ((Enum<?>) newValue).toString());
+								changeBuffer.setAttribute(idEObject.getOid(), eFeature.getName(), ((Enum<?>) newValue).toString());
 							} else if (eFeature instanceof EReference) {
 								if (newValue == null) {
-									lowLevelInterface.setReference(getTransactionId(), idEObject.getOid(), eFeature.getName(), -1L);
+									changeBuffer.setReference(idEObject.getOid(), eFeature.getName(), -1L);
 								} else {
-									lowLevelInterface.setReference(getTransactionId(), idEObject.getOid(), eFeature.getName(), ((IdEObject) newValue).getOid());
+									changeBuffer.setReference(idEObject.getOid(), eFeature.getName(), ((IdEObject) newValue).getOid());
 								}
 							} else {
 								throw new RuntimeException("Unimplemented " + eFeature.getEType().getName() + " " + newValue);
 							}
 						}
+						flushChangesIfNeeded();
 					}
 				} catch (ServiceException e) {
 					LOGGER.error("", e);
@@ -880,7 +909,8 @@ public class ClientIfcModel extends IfcModel implements GeometryTarget {
 	@Override
 	public void remove(IdEObject object) {
 		try {
-			bimServerClient.getLowLevelInterface().removeObject(getTransactionId(), object.getOid());
+			changeBuffer.removeObject(object.getOid());
+			flushChangesIfNeeded();
 		} catch (PublicInterfaceNotFoundException e) {
 			LOGGER.error("", e);
 		} catch (ServerException e) {
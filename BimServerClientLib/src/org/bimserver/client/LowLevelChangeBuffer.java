@@ -0,0 +1,148 @@
+package org.bimserver.client;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.util.Base64;
+import java.util.UUID;
+
+import org.bimserver.shared.exceptions.ServerException;
+import org.bimserver.shared.exceptions.UserException;
+import org.bimserver.shared.interfaces.LowLevelInterface;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Collects the changes of a low level transaction, so they can be sent with one call to LowLevelInterface.applyChanges instead of one call per change
+ */
+public class LowLevelChangeBuffer {
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private ArrayNode changes;
+	// A batch of which the applyChanges call failed, it is resent with the same batch id so the server can ignore it when it did apply it
+	private String failedBatch;
+	private int failedBatchSize;
+
+	public LowLevelChangeBuffer() {
+		changes = objectMapper.createArrayNode();
+	}
+
+	public void addAttribute(long oid, String attributeName, Object value) {
+		setValue(createChange("addAttribute", oid).put("name", attributeName), value);
+	}
+
+	public void setAttribute(long oid, String attributeName, Object value) {
+		setValue(createChange("setAttribute", oid).put("name", attributeName), value);
+	}
+
+	public void setWrappedAttribute(long oid, String attributeName, String wrappedType, Object value) {
+		setValue(createChange("setWrappedAttribute", oid).put("name", attributeName).put("wrappedType", wrappedType), value);
+	}
+
+	public void addReference(long oid, String referenceName, long referencedOid) {
+		createChange("addReference", oid).put("name", referenceName).put("referencedOid", referencedOid);
+	}
+
+	/**
+	 * @param referencedOid The oid of the referenced object, -1 to unset the reference
+	 */
+	public void setReference(long oid, String referenceName, long referencedOid) {
+		createChange("setReference", oid).put("name", referenceName).put("referencedOid", referencedOid);
+	}
+
+	public void removeReferenceByOid(long oid, String referenceName, long referencedOid) {
+		createChange("removeReferenceByOid", oid).put("name", referenceName).put("referencedOid", referencedOid);
+	}
+
+	public void removeObject(long oid) {
+		createChange("removeObject", oid);
+	}
+
+	public int size() {
+		return changes.size() + failedBatchSize;
+	}
+
+	/**
+	 * Sends the collected changes to the server as a batch with a unique id. When the call fails the batch is kept, and the next flush resends it with the same id
+	 * before sending any changes added since, so the server applies every batch exactly once, also when only the response of the failed call was lost.
+	 */
+	public void flush(LowLevelInterface lowLevelInterface, long tid) throws ServerException, UserException {
+		if (failedBatch != null) {
+			lowLevelInterface.applyChanges(tid, failedBatch);
+			failedBatch = null;
+			failedBatchSize = 0;
+		}
+		if (changes.size() == 0) {
+			return;
+		}
+		ObjectNode batch = objectMapper.createObjectNode();
+		batch.put("batchId", UUID.randomUUID().toString());
+		batch.set("changes", changes);
+		failedBatch = batch.toString();
+		failedBatchSize = changes.size();
+		changes = objectMapper.createArrayNode();
+		lowLevelInterface.applyChanges(tid, failedBatch);
+		failedBatch = null;
+		failedBatchSize = 0;
+	}
+
+	private ObjectNode createChange(String type, long oid) {
+		ObjectNode change = changes.addObject();
+		change.put("type", type);
+		change.put("oid", oid);
+		return change;
+	}
+
+	private void setValue(ObjectNode change, Object value) {
+		if (value == null) {
+			change.put("valueType", "string");
+			change.putNull("value");
+		} else if (value instanceof String) {
+			change.put("valueType", "string");
+			change.put("value", (String) value);
+		} else if (value instanceof Integer) {
+			change.put("valueType", "integer");
+			change.put("value", (Integer) value);
+		} else if (value instanceof Long) {
+			change.put("valueType", "long");
+			change.put("value", (Long) value);
+		} else if (value instanceof Double) {
+			change.put("valueType", "double");
+			change.put("value", (Double) value);
+		} else if (value instanceof Boolean) {
+			change.put("valueType", "boolean");
+			change.put("value", (Boolean) value);
+		} else if (value instanceof Enum) {
+			change.put("valueType", "enum");
+			change.put("value", value.toString());
+		} else if (value instanceof Byte[]) {
+			Byte[] boxed = (Byte[]) value;
+			byte[] bytes = new byte[boxed.length];
+			for (int i = 0; i < bytes.length; i++) {
+				bytes[i] = boxed[i];
+			}
+			change.put("valueType", "bytes");
+			change.put("value", Base64.getEncoder().encodeToString(bytes));
+		} else if (value instanceof byte[]) {
+			change.put("valueType", "bytes");
+			change.put("value", Base64.getEncoder().encodeToString((byte[]) value));
+		} else {
+			throw new IllegalArgumentException("Unsupported value type " + value.getClass().getName());
+		}
+	}
+}
@@ -38,6 +38,9 @@ public class SMethodMetric implements SDataBase
 	private java.lang.Long averageMs;
 	private java.lang.Long shortestMs;
 	private java.lang.Long longestMs;
+	private java.lang.Long p50Ms;
+	private java.lang.Long p99Ms;
+	private java.lang.Long p999Ms;
 
 	public long getOid() {
 		return this.oid;
@@ -91,6 +94,15 @@ public class SMethodMetric implements SDataBase
 		if (sField.getName().equals("longestMs")) {
 			return getLongestMs();
 		}
+		if (sField.getName().equals("p50Ms")) {
+			return getP50Ms();
+		}
+		if (sField.getName().equals("p99Ms")) {
+			return getP99Ms();
+		}
+		if (sField.getName().equals("p999Ms")) {
+			return getP999Ms();
+		}
 		if (sField.getName().equals("oid")) {
 			return getOid();
 		}
@@ -128,6 +140,18 @@ public class SMethodMetric implements SDataBase
 			setLongestMs((Long)val);
 			return;
 		}
+		if (sField.getName().equals("p50Ms")) {
+			setP50Ms((Long)val);
+			return;
+		}
+		if (sField.getName().equals("p99Ms")) {
+			setP99Ms((Long)val);
+			return;
+		}
+		if (sField.getName().equals("p999Ms")) {
+			setP999Ms((Long)val);
+			return;
+		}
 		if (sField.getName().equals("oid")) {
 			setOid((Long)val);
 			return;
@@ -191,6 +215,30 @@ public class SMethodMetric implements SDataBase
 		this.longestMs = longestMs;
 	}
 	
+	public java.lang.Long getP50Ms() {
+		return p50Ms;
+	}
+
+	public void setP50Ms(java.lang.Long p50Ms) {
+		this.p50Ms = p50Ms;
+	}
+	
+	public java.lang.Long getP99Ms() {
+		return p99Ms;
+	}
+
+	public void setP99Ms(java.lang.Long p99Ms) {
+		this.p99Ms = p99Ms;
+	}
+	
+	public java.lang.Long getP999Ms() {
+		return p999Ms;
+	}
+
+	public void setP999Ms(java.lang.Long p999Ms) {
+		this.p999Ms = p999Ms;
+	}
+	
 	@Override
 	public int hashCode() {
 		final int prime = 31;
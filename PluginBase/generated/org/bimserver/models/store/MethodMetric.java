@@ -52,6 +52,9 @@ import org.bimserver.emf.IdEObject;
  *   <li>{@link org.bimserver.models.store.MethodMetric#getAverageMs <em>Average Ms</em>}</li>
  *   <li>{@link org.bimserver.models.store.MethodMetric#getShortestMs <em>Shortest Ms</em>}</li>
  *   <li>{@link org.bimserver.models.store.MethodMetric#getLongestMs <em>Longest Ms</em>}</li>
+ *   <li>{@link org.bimserver.models.store.MethodMetric#getP50Ms <em>P50 Ms</em>}</li>
+ *   <li>{@link org.bimserver.models.store.MethodMetric#getP99Ms <em>P99 Ms</em>}</li>
+ *   <li>{@link org.bimserver.models.store.MethodMetric#getP999Ms <em>P999 Ms</em>}</li>
  * </ul>
  *
  * @see org.bimserver.models.store.StorePackage#getMethodMetric()
@@ -216,4 +219,82 @@ public interface MethodMetric extends IdEObject {
 	 */
 	void setLongestMs(Long value);
 
+	/**
+	 * Returns the value of the '<em><b>P50 Ms</b></em>' attribute.
+	 * <!-- begin-user-doc -->
+	 * <p>
+	 * If the meaning of the '<em>P50 Ms</em>' attribute isn't clear,
+	 * there really should be more of a description here...
+	 * </p>
+	 * <!-- end-user-doc -->
+	 * @return the value of the '<em>P50 Ms</em>' attribute.
+	 * @see #setP50Ms(Long)
+	 * @see org.bimserver.models.store.StorePackage#getMethodMetric_P50Ms()
+	 * @model
+	 * @generated
+	 */
+	Long getP50Ms();
+
+	/**
+	 * Sets the value of the '{@link org.bimserver.models.store.MethodMetric#getP50Ms <em>P50 Ms</em>}' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @param value the new value of the '<em>P50 Ms</em>' attribute.
+	 * @see #getP50Ms()
+	 * @generated
+	 */
+	void setP50Ms(Long value);
+
+	/**
+	 * Returns the value of the '<em><b>P99 Ms</b></em>' attribute.
+	 * <!-- begin-user-doc -->
+	 * <p>
+	 * If the meaning of the '<em>P99 Ms</em>' attribute isn't clear,
+	 * there really should be more of a description here...
+	 * </p>
+	 * <!-- end-user-doc -->
+	 * @return the value of the '<em>P99 Ms</em>' attribute.
+	 * @see #setP99Ms(Long)
+	 * @see org.bimserver.models.store.StorePackage#getMethodMetric_P99Ms()
+	 * @model
+	 * @generated
+	 */
+	Long getP99Ms();
+
+	/**
+	 * Sets the value of the '{@link org.bimserver.models.store.MethodMetric#getP99Ms <em>P99 Ms</em>}' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @param value the new value of the '<em>P99 Ms</em>' attribute.
+	 * @see #getP99Ms()
+	 * @generated
+	 */
+	void setP99Ms(Long value);
+
+	/**
+	 * Returns the value of the '<em><b>P999 Ms</b></em>' attribute.
+	 * <!-- begin-user-doc -->
+	 * <p>
+	 * If the meaning of the '<em>P999 Ms</em>' attribute isn't clear,
+	 * there really should be more of a description here...
+	 * </p>
+	 * <!-- end-user-doc -->
+	 * @return the value of the '<em>P999 Ms</em>' attribute.
+	 * @see #setP999Ms(Long)
+	 * @see org.bimserver.models.store.StorePackage#getMethodMetric_P999Ms()
+	 * @model
+	 * @generated
+	 */
+	Long getP999Ms();
+
+	/**
+	 * Sets the value of the '{@link org.bimserver.models.store.MethodMetric#getP999Ms <em>P999 Ms</em>}' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @param value the new value of the '<em>P999 Ms</em>' attribute.
+	 * @see #getP999Ms()
+	 * @generated
+	 */
+	void setP999Ms(Long value);
+
 } // MethodMetric
@@ -6342,6 +6342,33 @@ public interface StorePackage extends EPackage {
 	 */
 	int METHOD_METRIC__LONGEST_MS = 5;
 
+	/**
+	 * The feature id for the '<em><b>P50 Ms</b></em>' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 * @ordered
+	 */
+	int METHOD_METRIC__P50_MS = 6;
+
+	/**
+	 * The feature id for the '<em><b>P99 Ms</b></em>' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 * @ordered
+	 */
+	int METHOD_METRIC__P99_MS = 7;
+
+	/**
+	 * The feature id for the '<em><b>P999 Ms</b></em>' attribute.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 * @ordered
+	 */
+	int METHOD_METRIC__P999_MS = 8;
+
 	/**
 	 * The number of structural features of the '<em>Method Metric</em>' class.
 	 * <!-- begin-user-doc -->
@@ -6349,7 +6376,7 @@ public interface StorePackage extends EPackage {
 	 * @generated
 	 * @ordered
 	 */
-	int METHOD_METRIC_FEATURE_COUNT = 6;
+	int METHOD_METRIC_FEATURE_COUNT = 9;
 
 	/**
 	 * The meta object id for the '{@link org.bimserver.models.store.impl.PluginBundleVersionImpl <em>Plugin Bundle Version</em>}' class.
@@ -13483,6 +13510,39 @@ public interface StorePackage extends EPackage {
 	 */
 	EAttribute getMethodMetric_LongestMs();
 
+	/**
+	 * Returns the meta object for the attribute '{@link org.bimserver.models.store.MethodMetric#getP50Ms <em>P50 Ms</em>}'.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @return the meta object for the attribute '<em>P50 Ms</em>'.
+	 * @see org.bimserver.models.store.MethodMetric#getP50Ms()
+	 * @see #getMethodMetric()
+	 * @generated
+	 */
+	EAttribute getMethodMetric_P50Ms();
+
+	/**
+	 * Returns the meta object for the attribute '{@link org.bimserver.models.store.MethodMetric#getP99Ms <em>P99 Ms</em>}'.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @return the meta object for the attribute '<em>P99 Ms</em>'.
+	 * @see org.bimserver.models.store.MethodMetric#getP99Ms()
+	 * @see #getMethodMetric()
+	 * @generated
+	 */
+	EAttribute getMethodMetric_P99Ms();
+
+	/**
+	 * Returns the meta object for the attribute '{@link org.bimserver.models.store.MethodMetric#getP999Ms <em>P999 Ms</em>}'.
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @return the meta object for the attribute '<em>P999 Ms</em>'.
+	 * @see org.bimserver.models.store.MethodMetric#getP999Ms()
+	 * @see #getMethodMetric()
+	 * @generated
+	 */
+	EAttribute getMethodMetric_P999Ms();
+
 	/**
 	 * Returns the meta object for class '{@link org.bimserver.models.store.PluginBundleVersion <em>Plugin Bundle Version</em>}'.
 	 * <!-- begin-user-doc -->
@@ -19222,6 +19282,30 @@ public interface StorePackage extends EPackage {
 		 */
 		EAttribute METHOD_METRIC__LONGEST_MS = eINSTANCE.getMethodMetric_LongestMs();
 
+		/**
+		 * The meta object literal for the '<em><b>P50 Ms</b></em>' attribute feature.
+		 * <!-- begin-user-doc -->
+		 * <!-- end-user-doc -->
+		 * @generated
+		 */
+		EAttribute METHOD_METRIC__P50_MS = eINSTANCE.getMethodMetric_P50Ms();
+
+		/**
+		 * The meta object literal for the '<em><b>P99 Ms</b></em>' attribute feature.
+		 * <!-- begin-user-doc -->
+		 * <!-- end-user-doc -->
+		 * @generated
+		 */
+		EAttribute METHOD_METRIC__P99_MS = eINSTANCE.getMethodMetric_P99Ms();
+
+		/**
+		 * The meta object literal for the '<em><b>P999 Ms</b></em>' attribute feature.
+		 * <!-- begin-user-doc -->
+		 * <!-- end-user-doc -->
+		 * @generated
+		 */
+		EAttribute METHOD_METRIC__P999_MS = eINSTANCE.getMethodMetric_P999Ms();
+
 		/**
 		 * The meta object literal for the '{@link org.bimserver.models.store.impl.PluginBundleVersionImpl <em>Plugin Bundle Version</em>}' class.
 		 * <!-- begin-user-doc -->
@@ -54,6 +54,9 @@ import org.eclipse.emf.ecore.EClass;
  *   <li>{@link org.bimserver.models.store.impl.MethodMetricImpl#getAverageMs <em>Average Ms</em>}</li>
  *   <li>{@link org.bimserver.models.store.impl.MethodMetricImpl#getShortestMs <em>Shortest Ms</em>}</li>
  *   <li>{@link org.bimserver.models.store.impl.MethodMetricImpl#getLongestMs <em>Longest Ms</em>}</li>
+ *   <li>{@link org.bimserver.models.store.impl.MethodMetricImpl#getP50Ms <em>P50 Ms</em>}</li>
+ *   <li>{@link org.bimserver.models.store.impl.MethodMetricImpl#getP99Ms <em>P99 Ms</em>}</li>
+ *   <li>{@link org.bimserver.models.store.impl.MethodMetricImpl#getP999Ms <em>P999 Ms</em>}</li>
  * </ul>
  *
  * @generated
@@ -208,4 +211,64 @@ public class MethodMetricImpl extends IdEObjectImpl implements MethodMetric {
 		eSet(StorePackage.Literals.METHOD_METRIC__LONGEST_MS, newLongestMs);
 	}
 
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	@Override
+	public Long getP50Ms() {
+		return (Long) eGet(StorePackage.Literals.METHOD_METRIC__P50_MS, true);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	@Override
+	public void setP50Ms(Long newP50Ms) {
+		eSet(StorePackage.Literals.METHOD_METRIC__P50_MS, newP50Ms);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	@Override
+	public Long getP99Ms() {
+		return (Long) eGet(StorePackage.Literals.METHOD_METRIC__P99_MS, true);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	@Override
+	public void setP99Ms(Long newP99Ms) {
+		eSet(StorePackage.Literals.METHOD_METRIC__P99_MS, newP99Ms);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	@Override
+	public Long getP999Ms() {
+		return (Long) eGet(StorePackage.Literals.METHOD_METRIC__P999_MS, true);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	@Override
+	public void setP999Ms(Long newP999Ms) {
+		eSet(StorePackage.Literals.METHOD_METRIC__P999_MS, newP999Ms);
+	}
+
 } //MethodMetricImpl
@@ -6616,6 +6616,36 @@ public class StorePackageImpl extends EPackageImpl implements StorePackage {
 		return (EAttribute) getMethodMetric().getEStructuralFeatures().get(5);
 	}
 
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	@Override
+	public EAttribute getMethodMetric_P50Ms() {
+		return (EAttribute) getMethodMetric().getEStructuralFeatures().get(6);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	@Override
+	public EAttribute getMethodMetric_P99Ms() {
+		return (EAttribute) getMethodMetric().getEStructuralFeatures().get(7);
+	}
+
+	/**
+	 * <!-- begin-user-doc -->
+	 * <!-- end-user-doc -->
+	 * @generated
+	 */
+	@Override
+	public EAttribute getMethodMetric_P999Ms() {
+		return (EAttribute) getMethodMetric().getEStructuralFeatures().get(8);
+	}
+
 	/**
 	 * <!-- begin-user-doc -->
 	 * <!-- end-user-doc -->
@@ -59,6 +59,11 @@ public class AsyncLowLevelInterface {
 		void error(Throwable e);
 	}
 	
+	public interface ApplyChangesCallback {
+		void success();
+		void error(Throwable e);
+	}
+	
 	public interface CommitTransactionCallback {
 		void success(java.lang.Long result);
 		void error(Throwable e);
@@ -414,6 +419,19 @@ public class AsyncLowLevelInterface {
 		});
 	}
 	
+	public void applyChanges(final java.lang.Long tid, final java.lang.String changes, final ApplyChangesCallback callback) {
+		executorService.submit(new Runnable(){
+			public void run(){
+				try {
+					syncService.applyChanges(tid, changes);
+					callback.success();
+				} catch (Throwable e) {
+					callback.error(e);
+				}
+			}
+		});
+	}
+	
 	public void commitTransaction(final java.lang.Long tid, final java.lang.String comment, final java.lang.Boolean regenerateAllGeometry, final CommitTransactionCallback callback) {
 		executorService.submit(new Runnable(){
 			public void run(){
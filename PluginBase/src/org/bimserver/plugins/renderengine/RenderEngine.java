@@ -40,6 +40,8 @@ public interface RenderEngine extends AutoCloseable {
 	/**
 	 * Open a model. The other openModel method is recommended when the size is known in advance.
 	 * 
+	 * BIMserver uses this method to stream batches to the render engine while they are being serialized, the stream should be read incrementally, and completely before this method returns.
+	 * 
 	 * @param inputStream
 	 * @return
 	 * @throws RenderEngineException
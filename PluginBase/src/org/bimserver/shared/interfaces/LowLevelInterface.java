@@ -68,6 +68,26 @@ public interface LowLevelInterface extends PublicInterface {
 	@WebMethod(action = "abortTransaction")
 	void abortTransaction(
 		@WebParam(name = "tid", partName = "abortTransaction.tid") Long tid) throws ServerException, UserException;
+
+	/**
+	 * Add a list of changes to a transaction with one call, instead of calling the separate methods for every change. The changes are applied in the given order when the transaction is committed.
+	 * 
+	 * The changes are a JSON array of objects, every object has a "type" (addAttribute, setAttribute, setAttributeAtIndex, setWrappedAttribute, removeAttribute, addReference,
+	 * setReference, removeReference, removeReferenceByOid or removeObject), the "oid" of the object to change and, depending on the type, "name", "index", "referencedOid",
+	 * "wrappedType", "value" and "valueType" (string, integer, long, double, boolean, enum or bytes, the latter Base64 encoded). The value of setAttribute can be an array.
+	 * None of the changes are added when one of them is invalid.
+	 * 
+	 * Instead of the array, an object with a "batchId" and the array as "changes" can be given. A batch with an id that has already been applied to the transaction is ignored,
+	 * so a client can safely resend a batch of which it did not get the response.
+	 * 
+	 * @param tid The TransactionID
+	 * @param changes The changes, as a JSON array or as an object with a "batchId" and "changes"
+	 * @throws ServerException, UserException
+	 */
+	@WebMethod(action = "applyChanges")
+	void applyChanges(
+		@WebParam(name = "tid", partName = "applyChanges.tid") Long tid,
+		@WebParam(name = "changes", partName = "applyChanges.changes") String changes) throws ServerException, UserException;
 	
 	/**
 	 * Create a new Object
@@ -17,16 +17,126 @@ package org.bimserver.shared.json;
  * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
  *****************************************************************************/
 
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Date;
+import java.util.UUID;
 
+import javax.activation.DataHandler;
+
+import org.bimserver.shared.meta.SBase;
+import org.bimserver.shared.meta.SField;
+
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.google.gson.stream.JsonReader;
 
+/**
+ * Writes the same JSON as {@link JsonConverter#toJson(Object)}, but directly to a {@link JsonGenerator}, so no tree of the complete result has to be
+ * built in memory first
+ */
 public class StreamingJsonConverter {
 
+	public void toJson(Object object, JsonGenerator out) throws IOException {
+		if (object instanceof SBase) {
+			SBase base = (SBase) object;
+			out.writeStartObject();
+			out.writeStringField("__type", base.getSClass().getSimpleName());
+			for (SField field : base.getSClass().getAllFields()) {
+				out.writeFieldName(field.getName());
+				toJson(base.sGet(field), out);
+			}
+			out.writeEndObject();
+		} else if (object instanceof Collection) {
+			Collection<?> collection = (Collection<?>) object;
+			out.writeStartArray();
+			for (Object value : collection) {
+				toJson(value, out);
+			}
+			out.writeEndArray();
+		} else if (object instanceof Date) {
+			out.writeNumber(((Date) object).getTime());
+		} else if (object instanceof DataHandler) {
+			DataHandler dataHandler = (DataHandler) object;
+			// Encoded in pieces by the generator, so the whole file is never in memory
+			try (ReadFailureCapturingInputStream inputStream = new ReadFailureCapturingInputStream(dataHandler.getInputStream())) {
+				out.writeBinary(inputStream, -1);
+				inputStream.throwReadFailure();
+			}
+		} else if (object instanceof Boolean) {
+			out.writeBoolean((Boolean) object);
+		} else if (object instanceof String) {
+			out.writeString((String) object);
+		} else if (object instanceof Long) {
+			out.writeNumber((Long) object);
+		} else if (object instanceof UUID) {
+			out.writeString(((UUID) object).toString());
+		} else if (object instanceof Integer) {
+			out.writeNumber((Integer) object);
+		} else if (object instanceof Double) {
+			out.writeNumber((Double) object);
+		} else if (object instanceof Float) {
+			out.writeNumber((Float) object);
+		} else if (object instanceof Enum) {
+			out.writeString(object.toString());
+		} else if (object == null) {
+			out.writeNull();
+		} else if (object instanceof byte[]) {
+			out.writeBinary((byte[]) object);
+		} else {
+			throw new UnsupportedOperationException(object.getClass().getName());
+		}
+	}
+
 	public <T> T fromJson(JsonReader jsonReader, Class<T> cl) throws IOException {
 		jsonReader.beginObject();
 		
 		jsonReader.endObject();
 		return null;
 	}
+
+	/**
+	 * Ends the stream when reading fails, so the generator still closes the string value, the failure is thrown afterwards by
+	 * {@link #throwReadFailure()}
+	 */
+	private static class ReadFailureCapturingInputStream extends FilterInputStream {
+		private IOException readFailure;
+
+		public ReadFailureCapturingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (readFailure != null) {
+				return -1;
+			}
+			try {
+				return super.read();
+			} catch (IOException e) {
+				readFailure = e;
+				return -1;
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (readFailure != null) {
+				return -1;
+			}
+			try {
+				return super.read(b, off, len);
+			} catch (IOException e) {
+				readFailure = e;
+				return -1;
+			}
+		}
+
+		public void throwReadFailure() throws IOException {
+			if (readFailure != null) {
+				throw readFailure;
+			}
+		}
+	}
 }
@@ -0,0 +1,106 @@
+package org.bimserver.utils;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct byte buffers in size classes (powers of two between the minimum and maximum size). Buffers are reused instead of allocated per
+ * message, so concurrent streams do not each keep large buffers on the heap.
+ * 
+ * At most maxRetainedBytes are kept in the pool, released buffers above that are left to the garbage collector. Requests for more than the maximum
+ * size are not pooled and get a heap buffer.
+ */
+public class ByteBufferPool {
+	private final int minShift;
+	private final int maxShift;
+	private final long maxRetainedBytes;
+	private final ConcurrentLinkedQueue<ByteBuffer>[] sizeClasses;
+	private final AtomicLong retainedBytes = new AtomicLong();
+	private final AtomicLong allocations = new AtomicLong();
+	private final AtomicLong reuses = new AtomicLong();
+
+	@SuppressWarnings("unchecked")
+	public ByteBufferPool(int minSize, int maxSize, long maxRetainedBytes) {
+		this.minShift = shiftFor(minSize);
+		this.maxShift = shiftFor(maxSize);
+		this.maxRetainedBytes = maxRetainedBytes;
+		this.sizeClasses = new ConcurrentLinkedQueue[maxShift - minShift + 1];
+		for (int i = 0; i < sizeClasses.length; i++) {
+			sizeClasses[i] = new ConcurrentLinkedQueue<>();
+		}
+	}
+
+	/**
+	 * @return A cleared buffer with at least the given capacity, in big endian byte order. Has to be given back with {@link #release(ByteBuffer)}
+	 */
+	public ByteBuffer acquire(int minCapacity) {
+		int shift = Math.max(minShift, shiftFor(minCapacity));
+		if (shift > maxShift) {
+			return ByteBuffer.allocate(minCapacity);
+		}
+		ByteBuffer buffer = sizeClasses[shift - minShift].poll();
+		if (buffer == null) {
+			allocations.incrementAndGet();
+			return ByteBuffer.allocateDirect(1 << shift);
+		}
+		retainedBytes.addAndGet(-buffer.capacity());
+		reuses.incrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * The buffer cannot be used anymore after this
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect() || Integer.bitCount(buffer.capacity()) != 1) {
+			return;
+		}
+		int shift = shiftFor(buffer.capacity());
+		if (shift < minShift || shift > maxShift) {
+			return;
+		}
+		if (retainedBytes.addAndGet(buffer.capacity()) > maxRetainedBytes) {
+			retainedBytes.addAndGet(-buffer.capacity());
+			return;
+		}
+		buffer.clear();
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		sizeClasses[shift - minShift].offer(buffer);
+	}
+
+	public long getRetainedBytes() {
+		return retainedBytes.get();
+	}
+
+	public long getAllocations() {
+		return allocations.get();
+	}
+
+	public long getReuses() {
+		return reuses.get();
+	}
+
+	private static int shiftFor(int size) {
+		return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+	}
+}
@@ -0,0 +1,164 @@
+package org.bimserver.tests;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.bimserver.database.ReferenceSorter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestReferenceSorter {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testInMemory() throws IOException {
+		checkSorted(100, 1000, 20);
+		assertEquals(0, countRunFiles());
+	}
+
+	@Test
+	public void testSpilledRunsAreMerged() throws IOException {
+		// 1000 references with at most 16 in memory spills 63 runs
+		checkSorted(16, 1000, 20);
+		assertEquals(0, countRunFiles());
+	}
+
+	@Test
+	public void testBufferSizeIsExactMultiple() throws IOException {
+		checkSorted(10, 100, 5);
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		try (ReferenceSorter referenceSorter = new ReferenceSorter(temporaryFolder.getRoot().toPath(), 4)) {
+			assertFalse(referenceSorter.read().next());
+		}
+	}
+
+	@Test
+	public void testRunFilesExistUntilClosed() throws IOException {
+		ReferenceSorter referenceSorter = new ReferenceSorter(temporaryFolder.getRoot().toPath(), 4);
+		for (int i = 0; i < 10; i++) {
+			referenceSorter.add(10 - i, i, 0);
+		}
+		assertEquals(2, countRunFiles());
+		ReferenceSorter.Reader reader = referenceSorter.read();
+		assertTrue(reader.next());
+		assertEquals(1, reader.getReferencedOid());
+		referenceSorter.close();
+		assertEquals(0, countRunFiles());
+	}
+
+	@Test
+	public void testReferenceIndexRange() throws IOException {
+		try (ReferenceSorter referenceSorter = new ReferenceSorter(temporaryFolder.getRoot().toPath(), 4)) {
+			referenceSorter.add(1, 2, 0);
+			referenceSorter.add(1, 3, 0xFFFF);
+			try {
+				referenceSorter.add(1, 4, -1);
+				fail("A negative reference index should not be accepted");
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+			try {
+				referenceSorter.add(1, 5, 0x10000);
+				fail("A reference index that does not fit in 16 bits should not be accepted");
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+			assertEquals(2, referenceSorter.size());
+			ReferenceSorter.Reader reader = referenceSorter.read();
+			assertTrue(reader.next());
+			assertEquals(0, reader.getReferenceIndex());
+			assertTrue(reader.next());
+			assertEquals(3, reader.getReferencingOid());
+			assertEquals(0xFFFF, reader.getReferenceIndex());
+			assertFalse(reader.next());
+		}
+	}
+
+	@Test
+	public void testAddAfterRead() throws IOException {
+		try (ReferenceSorter referenceSorter = new ReferenceSorter(temporaryFolder.getRoot().toPath(), 4)) {
+			referenceSorter.add(1, 2, 0);
+			referenceSorter.read();
+			try {
+				referenceSorter.add(1, 3, 0);
+				fail("Adding after reading has started should not be possible");
+			} catch (IllegalStateException e) {
+				// Expected
+			}
+		}
+	}
+
+	/**
+	 * Adds references to a few distinct oids, so many references share a referenced oid, and checks that they come out sorted by referenced oid
+	 * and in the order in which they were added
+	 */
+	private void checkSorted(int maxReferencesInMemory, int nrReferences, int nrReferencedOids) throws IOException {
+		Random random = new Random(nrReferences);
+		List<long[]> expected = new ArrayList<>();
+		try (ReferenceSorter referenceSorter = new ReferenceSorter(temporaryFolder.getRoot().toPath(), maxReferencesInMemory)) {
+			for (int i = 0; i < nrReferences; i++) {
+				long referencedOid = 1000 + random.nextInt(nrReferencedOids);
+				int referenceIndex = random.nextInt(0x10000);
+				referenceSorter.add(referencedOid, i, referenceIndex);
+				expected.add(new long[] { referencedOid, i, referenceIndex });
+			}
+			assertEquals(nrReferences, referenceSorter.size());
+			// Collections.sort is stable
+			Collections.sort(expected, new Comparator<long[]>() {
+				@Override
+				public int compare(long[] o1, long[] o2) {
+					return Long.compare(o1[0], o2[0]);
+				}
+			});
+			ReferenceSorter.Reader reader = referenceSorter.read();
+			for (long[] reference : expected) {
+				assertTrue(reader.next());
+				assertEquals(reference[0], reader.getReferencedOid());
+				assertEquals(reference[1], reader.getReferencingOid());
+				assertEquals(reference[2], reader.getReferenceIndex());
+			}
+			assertFalse(reader.next());
+		}
+	}
+
+	private long countRunFiles() throws IOException {
+		try (Stream<Path> files = Files.list(temporaryFolder.getRoot().toPath())) {
+			return files.count();
+		}
+	}
+}
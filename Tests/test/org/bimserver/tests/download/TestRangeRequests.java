@@ -0,0 +1,84 @@
+package org.bimserver.tests.download;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.bimserver.servlets.RangeRequests;
+import org.junit.Test;
+
+public class TestRangeRequests {
+	private static final long LENGTH = 1000;
+
+	@Test
+	public void testClosedRange() {
+		assertArrayEquals(new long[] { 0, 499 }, RangeRequests.parseRange("bytes=0-499", LENGTH));
+		assertArrayEquals(new long[] { 500, 500 }, RangeRequests.parseRange("bytes=500-500", LENGTH));
+	}
+
+	@Test
+	public void testOpenEndedRange() {
+		assertArrayEquals(new long[] { 900, 999 }, RangeRequests.parseRange("bytes=900-", LENGTH));
+	}
+
+	@Test
+	public void testLastIsClampedToLength() {
+		assertArrayEquals(new long[] { 900, 999 }, RangeRequests.parseRange("bytes=900-5000", LENGTH));
+	}
+
+	@Test
+	public void testSuffixRange() {
+		assertArrayEquals(new long[] { 900, 999 }, RangeRequests.parseRange("bytes=-100", LENGTH));
+		assertArrayEquals(new long[] { 0, 999 }, RangeRequests.parseRange("bytes=-5000", LENGTH));
+	}
+
+	@Test
+	public void testUnsatisfiable() {
+		assertSame(RangeRequests.UNSATISFIABLE_RANGE, RangeRequests.parseRange("bytes=1000-", LENGTH));
+		assertSame(RangeRequests.UNSATISFIABLE_RANGE, RangeRequests.parseRange("bytes=2000-3000", LENGTH));
+		assertSame(RangeRequests.UNSATISFIABLE_RANGE, RangeRequests.parseRange("bytes=-0", LENGTH));
+		assertSame(RangeRequests.UNSATISFIABLE_RANGE, RangeRequests.parseRange("bytes=-10", 0));
+	}
+
+	@Test
+	public void testIgnoredHeaders() {
+		assertNull(RangeRequests.parseRange("items=0-10", LENGTH));
+		assertNull(RangeRequests.parseRange("bytes=0-10,20-30", LENGTH));
+		assertNull(RangeRequests.parseRange("bytes=10", LENGTH));
+		assertNull(RangeRequests.parseRange("bytes=-", LENGTH));
+		assertNull(RangeRequests.parseRange("bytes=a-b", LENGTH));
+		assertNull(RangeRequests.parseRange("bytes=500-100", LENGTH));
+		assertNull(RangeRequests.parseRange("bytes=--5", LENGTH));
+	}
+
+	@Test
+	public void testEtagMatching() {
+		String etag = "\"abc\"";
+		assertFalse(RangeRequests.matchesEtag(null, etag));
+		assertTrue(RangeRequests.matchesEtag("\"abc\"", etag));
+		assertTrue(RangeRequests.matchesEtag("W/\"abc\"", etag));
+		assertTrue(RangeRequests.matchesEtag("\"def\", \"abc\"", etag));
+		assertTrue(RangeRequests.matchesEtag("*", etag));
+		assertFalse(RangeRequests.matchesEtag("\"def\"", etag));
+		assertFalse(RangeRequests.matchesEtag("abc", etag));
+	}
+}
@@ -0,0 +1,147 @@
+package org.bimserver.tests.json;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+
+import org.bimserver.shared.json.StreamingJsonConverter;
+import org.bimserver.utils.ByteArrayDataSource;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+public class TestStreamingJsonConverter {
+
+	private final JsonFactory jsonFactory = new JsonFactory();
+
+	@Test
+	public void testDataHandlerField() throws IOException {
+		assertEquals("{\"file\":\"QUJD\"}", writeField("file", new DataHandler(new ByteArrayDataSource("test", "ABC".getBytes("ASCII")))));
+	}
+
+	@Test
+	public void testDataHandlerFollowedByOtherFields() throws IOException {
+		StringWriter stringWriter = new StringWriter();
+		try (JsonGenerator generator = jsonFactory.createGenerator(stringWriter)) {
+			generator.writeStartObject();
+			generator.writeFieldName("file");
+			new StreamingJsonConverter().toJson(new DataHandler(new ByteArrayDataSource("test", new byte[] { 1, 2, 3 })), generator);
+			generator.writeFieldName("name");
+			new StreamingJsonConverter().toJson("test", generator);
+			generator.writeEndObject();
+		}
+		assertEquals("{\"file\":\"AQID\",\"name\":\"test\"}", stringWriter.toString());
+	}
+
+	@Test
+	public void testLargeDataHandler() throws IOException {
+		// Larger than the buffers of the generator, so the value is encoded in several pieces
+		byte[] data = new byte[100000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i * 31);
+		}
+		String json = writeField("file", new DataHandler(new ByteArrayDataSource("test", data)));
+		try (JsonParser parser = jsonFactory.createParser(json)) {
+			assertEquals(JsonToken.START_OBJECT, parser.nextToken());
+			assertEquals(JsonToken.FIELD_NAME, parser.nextToken());
+			assertEquals(JsonToken.VALUE_STRING, parser.nextToken());
+			assertArrayEquals(data, parser.getBinaryValue());
+			assertEquals(JsonToken.END_OBJECT, parser.nextToken());
+		}
+	}
+
+	@Test
+	public void testDataHandlersInList() throws IOException {
+		DataHandler first = new DataHandler(new ByteArrayDataSource("test", "A".getBytes("ASCII")));
+		DataHandler second = new DataHandler(new ByteArrayDataSource("test", "BC".getBytes("ASCII")));
+		assertEquals("{\"files\":[\"QQ==\",\"QkM=\"]}", writeField("files", Arrays.asList(first, second)));
+	}
+
+	@Test
+	public void testDataHandlerReadFailure() throws IOException {
+		DataHandler failing = new DataHandler(new DataSource() {
+			@Override
+			public InputStream getInputStream() throws IOException {
+				return new SequenceInputStream(new ByteArrayInputStream("ABC".getBytes("ASCII")), new InputStream() {
+					@Override
+					public int read() throws IOException {
+						throw new IOException("Read failure");
+					}
+				});
+			}
+
+			@Override
+			public OutputStream getOutputStream() throws IOException {
+				throw new IOException("Not writable");
+			}
+
+			@Override
+			public String getContentType() {
+				return "application/octet-stream";
+			}
+
+			@Override
+			public String getName() {
+				return "failing";
+			}
+		});
+		StringWriter stringWriter = new StringWriter();
+		try (JsonGenerator generator = jsonFactory.createGenerator(stringWriter)) {
+			generator.writeStartObject();
+			generator.writeFieldName("file");
+			try {
+				new StreamingJsonConverter().toJson(failing, generator);
+				fail("Read failure not thrown");
+			} catch (IOException e) {
+				assertEquals("Read failure", e.getMessage());
+			}
+			// The string value has been closed, so the caller can still finish the JSON
+			generator.writeFieldName("exception");
+			generator.writeString("Read failure");
+			generator.writeEndObject();
+		}
+		assertEquals("{\"file\":\"QUJD\",\"exception\":\"Read failure\"}", stringWriter.toString());
+	}
+
+	private String writeField(String name, Object value) throws IOException {
+		StringWriter stringWriter = new StringWriter();
+		try (JsonGenerator generator = jsonFactory.createGenerator(stringWriter)) {
+			generator.writeStartObject();
+			generator.writeFieldName(name);
+			new StreamingJsonConverter().toJson(value, generator);
+			generator.writeEndObject();
+		}
+		return stringWriter.toString();
+	}
+}
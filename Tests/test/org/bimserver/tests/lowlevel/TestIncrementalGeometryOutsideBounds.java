@@ -0,0 +1,99 @@
+package org.bimserver.tests.lowlevel;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.interfaces.objects.SDeserializerPluginConfiguration;
+import org.bimserver.interfaces.objects.SProject;
+import org.bimserver.interfaces.objects.SVector3f;
+import org.bimserver.models.geometry.GeometryInfo;
+import org.bimserver.models.geometry.Vector3f;
+import org.bimserver.models.ifc2x3tc1.IfcAxis2Placement3D;
+import org.bimserver.models.ifc2x3tc1.IfcLocalPlacement;
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.bimserver.plugins.services.BimServerClientInterface;
+import org.bimserver.shared.ChannelConnectionException;
+import org.bimserver.shared.UsernamePasswordAuthenticationInfo;
+import org.bimserver.shared.exceptions.BimServerClientException;
+import org.bimserver.shared.exceptions.ServiceException;
+import org.bimserver.shared.interfaces.LowLevelInterface;
+import org.bimserver.test.TestWithEmbeddedServer;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Moves one product far outside the bounds of the model with a low-level commit. The incremental geometry generation cannot quantize the moved product with
+ * the bounds of the previous revision, so the commit has to fall back to generating the geometry of all products.
+ */
+public class TestIncrementalGeometryOutsideBounds extends TestWithEmbeddedServer {
+
+	@Test
+	public void test() throws ServiceException, ChannelConnectionException, IOException, BimServerClientException {
+		BimServerClientInterface bimServerClient = getFactory().create(new UsernamePasswordAuthenticationInfo("admin@bimserver.org", "admin"));
+		LowLevelInterface lowLevelInterface = bimServerClient.getLowLevelInterface();
+
+		SProject project = bimServerClient.getServiceInterface().addProject("test" + Math.random(), "ifc2x3tc1");
+		SDeserializerPluginConfiguration deserializer = bimServerClient.getServiceInterface().getSuggestedDeserializerForExtension("ifc", project.getOid());
+		bimServerClient.checkinSync(project.getOid(), "initial", deserializer.getOid(), false, new URL("https://github.com/opensourceBIM/TestFiles/raw/master/TestData/data/revit_quantities.ifc"));
+		project = bimServerClient.getServiceInterface().getProjectByPoid(project.getOid());
+
+		IfcModelInterface model = bimServerClient.getModel(project, project.getLastRevisionId(), true, false, true);
+		double oldSize = size(model.getModelMetaData().getMinBounds(), model.getModelMetaData().getMaxBounds());
+
+		IfcProduct movedProduct = null;
+		IfcAxis2Placement3D placement = null;
+		for (IfcProduct ifcProduct : model.getAllWithSubTypes(IfcProduct.class)) {
+			if (ifcProduct.getGeometry() != null && ifcProduct.getObjectPlacement() instanceof IfcLocalPlacement) {
+				IfcLocalPlacement localPlacement = (IfcLocalPlacement) ifcProduct.getObjectPlacement();
+				if (localPlacement.getRelativePlacement() instanceof IfcAxis2Placement3D) {
+					movedProduct = ifcProduct;
+					placement = (IfcAxis2Placement3D) localPlacement.getRelativePlacement();
+					break;
+				}
+			}
+		}
+		Assert.assertNotNull("No product with a local placement found", movedProduct);
+		Vector3f oldProductMin = movedProduct.getGeometry().getBounds().getMin();
+
+		// Give the product a new location, far away from the rest of the model
+		long tid = lowLevelInterface.startTransaction(project.getOid());
+		Long cartesianPointOid = lowLevelInterface.createObject(tid, "IfcCartesianPoint", false);
+		lowLevelInterface.setDoubleAttributes(tid, cartesianPointOid, "Coordinates", Arrays.asList(1.0E7, 1.0E7, 1.0E7));
+		lowLevelInterface.setReference(tid, placement.getOid(), "Location", cartesianPointOid);
+		long roid = lowLevelInterface.commitTransaction(tid, "moved", false);
+
+		IfcModelInterface newModel = bimServerClient.getModel(project, roid, true, false, true);
+		double newSize = size(newModel.getModelMetaData().getMinBounds(), newModel.getModelMetaData().getMaxBounds());
+		Assert.assertTrue("The bounds of the new revision should contain the moved product", newSize > oldSize);
+
+		IfcProduct newProduct = (IfcProduct) newModel.get(movedProduct.getOid());
+		GeometryInfo geometryInfo = newProduct.getGeometry();
+		Assert.assertNotNull("The moved product should still have geometry", geometryInfo);
+		Vector3f newProductMin = geometryInfo.getBounds().getMin();
+		double moved = Math.abs(newProductMin.getX() - oldProductMin.getX()) + Math.abs(newProductMin.getY() - oldProductMin.getY()) + Math.abs(newProductMin.getZ() - oldProductMin.getZ());
+		Assert.assertTrue("The geometry of the moved product should have been generated again", moved > 1);
+	}
+
+	private double size(SVector3f min, SVector3f max) {
+		return (max.getX() - min.getX()) + (max.getY() - min.getY()) + (max.getZ() - min.getZ());
+	}
+}
@@ -0,0 +1,232 @@
+package org.bimserver.tests.lowlevel;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bimserver.changes.AddAttributeChange;
+import org.bimserver.changes.AddReferenceChange;
+import org.bimserver.changes.Change;
+import org.bimserver.changes.ChangeBatch;
+import org.bimserver.changes.JsonChangeReader;
+import org.bimserver.changes.RemoveObjectChange;
+import org.bimserver.changes.RemoveReferenceChange;
+import org.bimserver.changes.SetAttributeChange;
+import org.bimserver.changes.SetReferenceChange;
+import org.bimserver.changes.SetWrappedAttributeChange;
+import org.bimserver.client.LowLevelChangeBuffer;
+import org.bimserver.shared.exceptions.ServerException;
+import org.bimserver.shared.interfaces.LowLevelInterface;
+import org.bimserver.webservices.LongTransaction;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestLowLevelChangeBuffer {
+
+	private static final long TID = 5;
+
+	// Every applyChanges call, also the failed ones
+	private final List<String> sent = new ArrayList<>();
+	// Calls that fail before the server receives the changes
+	private int failingCalls;
+	// Calls that fail after the server applied the changes
+	private int lostResponses;
+	private LongTransaction longTransaction;
+	private LowLevelInterface lowLevelInterface;
+
+	@Before
+	public void setUp() {
+		longTransaction = new LongTransaction(null, 1, 1, 1, 1, TID);
+		lowLevelInterface = (LowLevelInterface) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { LowLevelInterface.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (!method.getName().equals("applyChanges")) {
+					throw new UnsupportedOperationException(method.getName());
+				}
+				assertEquals(TID, args[0]);
+				sent.add((String) args[1]);
+				if (failingCalls > 0) {
+					failingCalls--;
+					throw new ServerException("Connection lost");
+				}
+				ChangeBatch changeBatch = new JsonChangeReader().readBatch((String) args[1]);
+				longTransaction.addBatch(changeBatch.getBatchId(), changeBatch.getChanges());
+				if (lostResponses > 0) {
+					lostResponses--;
+					throw new ServerException("Connection lost");
+				}
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		LowLevelChangeBuffer changeBuffer = new LowLevelChangeBuffer();
+		changeBuffer.addAttribute(1, "Names", "first");
+		changeBuffer.addAttribute(1, "Values", 1.5);
+		changeBuffer.addAttribute(1, "Flags", true);
+		changeBuffer.addAttribute(1, "Counts", 3);
+		changeBuffer.setAttribute(2, "Name", "Wall \"A\"");
+		changeBuffer.setAttribute(2, "Description", null);
+		changeBuffer.setAttribute(2, "Count", 12345678901L);
+		changeBuffer.setAttribute(2, "Data", new Byte[] { 1, -2, 3 });
+		changeBuffer.setAttribute(2, "PredefinedType", Thread.State.NEW);
+		changeBuffer.setWrappedAttribute(3, "NominalValue", "IfcLabel", "label");
+		changeBuffer.addReference(4, "RelatedObjects", 5);
+		changeBuffer.setReference(4, "RelatingObject", -1);
+		changeBuffer.removeReferenceByOid(4, "RelatedObjects", 6);
+		changeBuffer.removeObject(7);
+		changeBuffer.flush(lowLevelInterface, TID);
+
+		assertEquals(0, changeBuffer.size());
+		assertEquals(1, sent.size());
+		List<Change> changes = new JsonChangeReader().read(sent.get(0));
+		assertEquals(14, changes.size());
+
+		assertAddAttribute(changes.get(0), 1, "Names", "first");
+		assertAddAttribute(changes.get(1), 1, "Values", 1.5);
+		assertAddAttribute(changes.get(2), 1, "Flags", true);
+		assertAddAttribute(changes.get(3), 1, "Counts", 3);
+		assertSetAttribute(changes.get(4), 2, "Name", "Wall \"A\"");
+		assertSetAttribute(changes.get(5), 2, "Description", null);
+		assertSetAttribute(changes.get(6), 2, "Count", 12345678901L);
+		SetAttributeChange data = (SetAttributeChange) changes.get(7);
+		assertEquals("Data", data.getAttributeName());
+		assertArrayEquals(new Byte[] { 1, -2, 3 }, (Byte[]) data.getValue());
+		assertSetAttribute(changes.get(8), 2, "PredefinedType", "NEW");
+
+		SetWrappedAttributeChange wrapped = (SetWrappedAttributeChange) changes.get(9);
+		assertEquals(Long.valueOf(3), wrapped.getOid());
+		assertEquals("NominalValue", wrapped.getAttributeName());
+		assertEquals("IfcLabel", wrapped.getType());
+		assertEquals("label", wrapped.getValue());
+
+		AddReferenceChange addReference = (AddReferenceChange) changes.get(10);
+		assertEquals(4, addReference.getOid());
+		assertEquals("RelatedObjects", addReference.getReferenceName());
+		assertEquals(5, addReference.getReferenceOid());
+
+		SetReferenceChange setReference = (SetReferenceChange) changes.get(11);
+		assertEquals("RelatingObject", setReference.getReferenceName());
+		assertEquals(-1, setReference.getReferenceOid());
+
+		RemoveReferenceChange removeReference = (RemoveReferenceChange) changes.get(12);
+		assertEquals("RelatedObjects", removeReference.getReferenceName());
+		assertEquals(6, removeReference.getReferencedOid());
+		assertEquals(-1, removeReference.getIndex());
+
+		assertEquals(7, ((RemoveObjectChange) changes.get(13)).getOid());
+	}
+
+	@Test
+	public void testFailedFlushKeepsChanges() throws Exception {
+		LowLevelChangeBuffer changeBuffer = new LowLevelChangeBuffer();
+		changeBuffer.setAttribute(1, "Name", "first");
+		failingCalls = 1;
+		try {
+			changeBuffer.flush(lowLevelInterface, TID);
+			fail("The flush should have failed");
+		} catch (ServerException e) {
+			// Expected
+		}
+		assertEquals(1, changeBuffer.size());
+
+		changeBuffer.removeObject(2);
+		changeBuffer.flush(lowLevelInterface, TID);
+		assertEquals(0, changeBuffer.size());
+		assertEquals(3, sent.size());
+		assertEquals(sent.get(0), sent.get(1));
+
+		List<Change> changes = new ArrayList<>(longTransaction.getChanges());
+		assertEquals(2, changes.size());
+		assertSetAttribute(changes.get(0), 1, "Name", "first");
+		assertEquals(2, ((RemoveObjectChange) changes.get(1)).getOid());
+	}
+
+	@Test
+	public void testLostResponseAppliesOnce() throws Exception {
+		LowLevelChangeBuffer changeBuffer = new LowLevelChangeBuffer();
+		changeBuffer.setAttribute(1, "Name", "first");
+		lostResponses = 1;
+		try {
+			changeBuffer.flush(lowLevelInterface, TID);
+			fail("The flush should have failed");
+		} catch (ServerException e) {
+			// Expected
+		}
+		assertEquals(1, changeBuffer.size());
+
+		changeBuffer.removeObject(2);
+		changeBuffer.flush(lowLevelInterface, TID);
+		assertEquals(0, changeBuffer.size());
+		assertEquals(3, sent.size());
+		ChangeBatch first = new JsonChangeReader().readBatch(sent.get(0));
+		ChangeBatch second = new JsonChangeReader().readBatch(sent.get(2));
+		assertNotNull(first.getBatchId());
+		assertEquals(first.getBatchId(), new JsonChangeReader().readBatch(sent.get(1)).getBatchId());
+		assertNotEquals(first.getBatchId(), second.getBatchId());
+
+		List<Change> changes = new ArrayList<>(longTransaction.getChanges());
+		assertEquals(2, changes.size());
+		assertSetAttribute(changes.get(0), 1, "Name", "first");
+		assertEquals(2, ((RemoveObjectChange) changes.get(1)).getOid());
+	}
+
+	@Test
+	public void testPlainArrayHasNoBatchId() throws Exception {
+		ChangeBatch changeBatch = new JsonChangeReader().readBatch("[{\"type\":\"removeObject\",\"oid\":3}]");
+		assertNull(changeBatch.getBatchId());
+		assertEquals(1, changeBatch.getChanges().size());
+	}
+
+	@Test
+	public void testEmptyFlushDoesNotCall() throws Exception {
+		new LowLevelChangeBuffer().flush(lowLevelInterface, TID);
+		assertEquals(0, sent.size());
+	}
+
+	private void assertAddAttribute(Change change, long oid, String attributeName, Object value) {
+		AddAttributeChange addAttributeChange = (AddAttributeChange) change;
+		assertEquals(oid, addAttributeChange.getOid());
+		assertEquals(attributeName, addAttributeChange.getAttributeName());
+		assertEquals(value, addAttributeChange.getValue());
+	}
+
+	private void assertSetAttribute(Change change, long oid, String attributeName, Object value) {
+		SetAttributeChange setAttributeChange = (SetAttributeChange) change;
+		assertEquals(oid, setAttributeChange.getOid());
+		assertEquals(attributeName, setAttributeChange.getAttributeName());
+		if (value == null) {
+			assertNull(setAttributeChange.getValue());
+		} else {
+			assertEquals(value, setAttributeChange.getValue());
+		}
+	}
+}
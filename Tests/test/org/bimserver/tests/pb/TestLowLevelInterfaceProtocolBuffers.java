@@ -0,0 +1,56 @@
+package org.bimserver.tests.pb;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertNotNull;
+
+import org.bimserver.client.protocolbuffers.ProtocolBuffersBimServerClientFactory;
+import org.bimserver.shared.InterfaceList;
+import org.bimserver.shared.interfaces.LowLevelInterface;
+import org.bimserver.shared.meta.SMethod;
+import org.bimserver.shared.meta.SParameter;
+import org.bimserver.shared.meta.SService;
+import org.bimserver.shared.meta.SServicesMap;
+import org.bimserver.shared.pb.ProtocolBuffersMetaData;
+import org.bimserver.shared.pb.ProtocolBuffersMetaData.MethodDescriptorContainer;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestLowLevelInterfaceProtocolBuffers {
+
+	private SServicesMap servicesMap;
+	private ProtocolBuffersMetaData protocolBuffersMetaData;
+
+	@Before
+	public void setUp() {
+		servicesMap = InterfaceList.createSServicesMap();
+		protocolBuffersMetaData = new ProtocolBuffersMetaData();
+		protocolBuffersMetaData.load(servicesMap, ProtocolBuffersBimServerClientFactory.class);
+	}
+
+	@Test
+	public void testDescriptorHasAllMethods() throws Exception {
+		SService sService = servicesMap.getByName(LowLevelInterface.class.getName());
+		for (SMethod sMethod : sService.getMethods()) {
+			MethodDescriptorContainer methodDescriptor = protocolBuffersMetaData.getMethod(sService.getSimpleName(), sMethod.getName());
+			for (SParameter sParameter : sMethod.getParameters()) {
+				assertNotNull("No protocol buffers field for " + sMethod.getName() + "." + sParameter.getName(), methodDescriptor.getInputField(sParameter.getName()));
+			}
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package org.bimserver.tests.pb;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Date;
+
+import org.bimserver.client.protocolbuffers.ProtocolBuffersBimServerClientFactory;
+import org.bimserver.interfaces.objects.SMethodMetric;
+import org.bimserver.shared.InterfaceList;
+import org.bimserver.shared.meta.SClass;
+import org.bimserver.shared.meta.SField;
+import org.bimserver.shared.meta.SServicesMap;
+import org.bimserver.shared.pb.ProtocolBuffersConverter;
+import org.bimserver.shared.pb.ProtocolBuffersMetaData;
+import org.bimserver.shared.pb.ProtocolBuffersMetaData.MessageDescriptorContainer;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.protobuf.Message;
+
+public class TestMethodMetricProtocolBuffers {
+
+	private SServicesMap servicesMap;
+	private ProtocolBuffersMetaData protocolBuffersMetaData;
+
+	@Before
+	public void setUp() {
+		servicesMap = InterfaceList.createSServicesMap();
+		protocolBuffersMetaData = new ProtocolBuffersMetaData();
+		protocolBuffersMetaData.load(servicesMap, ProtocolBuffersBimServerClientFactory.class);
+	}
+
+	@Test
+	public void testDescriptorHasAllFields() {
+		MessageDescriptorContainer messageDescriptor = protocolBuffersMetaData.getMessageDescriptor("SMethodMetric");
+		assertNotNull(messageDescriptor);
+		for (SField field : servicesMap.getSType("SMethodMetric").getAllFields()) {
+			assertNotNull("No protocol buffers field for " + field.getName(), messageDescriptor.getField(field.getName()));
+		}
+	}
+
+	@Test
+	public void testConvertToProtocolBuffers() throws Exception {
+		SMethodMetric methodMetric = new SMethodMetric();
+		methodMetric.setName("getMetrics");
+		methodMetric.setNrCalls(1000L);
+		methodMetric.setLastCall(new Date(1234567890L));
+		methodMetric.setAverageMs(5L);
+		methodMetric.setShortestMs(1L);
+		methodMetric.setLongestMs(250L);
+		methodMetric.setP50Ms(4L);
+		methodMetric.setP99Ms(40L);
+		methodMetric.setP999Ms(200L);
+
+		SClass sClass = servicesMap.getSType("SMethodMetric");
+		Message message = new ProtocolBuffersConverter(protocolBuffersMetaData).convertSObjectToProtocolBuffersObject(methodMetric, sClass);
+		MessageDescriptorContainer messageDescriptor = protocolBuffersMetaData.getMessageDescriptor("SMethodMetric");
+		assertEquals("getMetrics", message.getField(messageDescriptor.getField("name")));
+		assertEquals(1000L, message.getField(messageDescriptor.getField("nrCalls")));
+		assertEquals(1234567890L, message.getField(messageDescriptor.getField("lastCall")));
+		assertEquals(250L, message.getField(messageDescriptor.getField("longestMs")));
+		assertEquals(4L, message.getField(messageDescriptor.getField("p50Ms")));
+		assertEquals(40L, message.getField(messageDescriptor.getField("p99Ms")));
+		assertEquals(200L, message.getField(messageDescriptor.getField("p999Ms")));
+	}
+}
@@ -0,0 +1,123 @@
+package org.bimserver.tests.upload;
+
+/******************************************************************************
+ * Copyright (C) 2009-2019  BIMserver.org
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see {@literal<http://www.gnu.org/licenses/>}.
+ *****************************************************************************/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.bimserver.servlets.ChunkedUpload;
+import org.bimserver.servlets.ChunkedUploadManager;
+import org.bimserver.shared.exceptions.UserException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestChunkedUploadManager {
+	private static final long OWNER = 10;
+	private static final long OTHER_USER = 11;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private Path directory;
+	private ChunkedUploadManager chunkedUploadManager;
+
+	@Before
+	public void setUp() {
+		directory = temporaryFolder.getRoot().toPath().resolve("uploads");
+		chunkedUploadManager = new ChunkedUploadManager(directory);
+	}
+
+	@Test
+	public void testOwnerCanAccessUpload() throws Exception {
+		ChunkedUpload chunkedUpload = chunkedUploadManager.create(OWNER);
+		assertSame(chunkedUpload, chunkedUploadManager.get(chunkedUpload.getUploadId(), OWNER));
+	}
+
+	@Test
+	public void testOtherUserCannotAccessUpload() throws Exception {
+		ChunkedUpload chunkedUpload = chunkedUploadManager.create(OWNER);
+		try {
+			chunkedUploadManager.get(chunkedUpload.getUploadId(), OTHER_USER);
+			fail("Upload of another user returned");
+		} catch (UserException e) {
+			// Same error as for an unknown upload, so the existence of the upload is not revealed
+			assertEquals("No upload found with id " + chunkedUpload.getUploadId(), e.getMessage());
+		}
+		assertEquals(0, chunkedUpload.getReceived());
+	}
+
+	@Test
+	public void testFinishedUploadIsRemoved() throws Exception {
+		byte[] data = "ISO-10303-21;".getBytes("ASCII");
+		ChunkedUpload chunkedUpload = chunkedUploadManager.create(OWNER);
+		assertEquals(data.length, write(chunkedUpload, 0, data));
+		chunkedUploadManager.finish(chunkedUpload, DigestUtils.sha256Hex(data));
+		try {
+			chunkedUploadManager.get(chunkedUpload.getUploadId(), OWNER);
+			fail("Finished upload still returned");
+		} catch (UserException e) {
+			// Expected
+		}
+		Path file = directory.resolve(chunkedUpload.getUploadId());
+		try (InputStream inputStream = chunkedUploadManager.openInputStream(chunkedUpload)) {
+			assertArrayEquals(data, IOUtils.toByteArray(inputStream));
+		}
+		assertFalse(Files.exists(file));
+	}
+
+	@Test
+	public void testChunksAreAcceptedInOrder() throws Exception {
+		ChunkedUpload chunkedUpload = chunkedUploadManager.create(OWNER);
+		byte[] first = "first".getBytes("ASCII");
+		byte[] second = "second".getBytes("ASCII");
+		assertEquals(first.length, write(chunkedUpload, 0, first));
+		// A chunk at the wrong offset is not written, the response tells where to continue
+		assertEquals(first.length, write(chunkedUpload, 100, second));
+		try {
+			chunkedUpload.write(first.length, new ByteArrayInputStream(second), DigestUtils.sha256Hex(first));
+			fail("Chunk with wrong checksum accepted");
+		} catch (UserException e) {
+			// Expected
+		}
+		assertEquals(first.length + second.length, write(chunkedUpload, first.length, second));
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnfinishedUploadCannotBeRead() throws Exception {
+		ChunkedUpload chunkedUpload = chunkedUploadManager.create(OWNER);
+		write(chunkedUpload, 0, "data".getBytes("ASCII"));
+		chunkedUpload.openInputStream();
+	}
+
+	private long write(ChunkedUpload chunkedUpload, long offset, byte[] data) throws IOException, UserException {
+		return chunkedUpload.write(offset, new ByteArrayInputStream(data), DigestUtils.sha256Hex(data));
+	}
+}